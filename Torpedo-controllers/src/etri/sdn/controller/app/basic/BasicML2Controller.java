@@ -8,7 +8,7 @@ import org.projectfloodlight.openflow.protocol.OFType;
 
 import etri.sdn.controller.MessageContext;
 import etri.sdn.controller.OFController;
-import etri.sdn.controller.OFModule;
+import etri.sdn.controller.OFPipeline;
 import etri.sdn.controller.module.devicemanager.OFMDefaultEntityClassifier;
 import etri.sdn.controller.module.devicemanager.OFMDeviceManager;
 import etri.sdn.controller.module.firewall.OFMFirewall;
@@ -38,7 +38,7 @@ public class BasicML2Controller extends OFController {
 	private OFMNetFailover m_netfailover = new OFMNetFailover();
 	private OFMOpenstackML2Connector m_ml2 = new OFMOpenstackML2Connector();
 	
-	private OFModule[] packet_in_pipeline = { 
+	private OFPipeline packet_in_pipeline = createPipeline( 
 			m_link_discovery, 
 			m_topology_manager,
 			m_entity_classifier, 
@@ -46,7 +46,7 @@ public class BasicML2Controller extends OFController {
 			m_firewall,
 			m_ml2,
 			m_forwarding
-	};
+	);
 
 	public BasicML2Controller(int num_of_queue, String role) {
 		super(num_of_queue, role);
@@ -73,19 +73,7 @@ public class BasicML2Controller extends OFController {
 
 	@Override
 	public boolean handlePacketIn(Connection conn, MessageContext context, OFMessage m) {
-		List<OFMessage> out = new LinkedList<OFMessage>();
-		for ( int i = 0; i < packet_in_pipeline.length; ++i ) {
-			boolean cont = packet_in_pipeline[i].processMessage( conn, context, m, out );
-			if ( !conn.write(out) ) {
-				return false;
-			}
-			if ( !cont ) {
-				// we process this packet no further.
-				break;
-			}
-			out.clear();
-		}
-		return true;
+		return packet_in_pipeline.process( conn, context, m );
 	}
 
 	@Override
@@ -8,7 +8,7 @@ import org.projectfloodlight.openflow.protocol.OFType;
 
 import etri.sdn.controller.MessageContext;
 import etri.sdn.controller.OFController;
-import etri.sdn.controller.OFModule;
+import etri.sdn.controller.OFPipeline;
 import etri.sdn.controller.module.connectionmonitor.OFMConnectionMonitor;
 import etri.sdn.controller.module.devicemanager.OFMDefaultEntityClassifier;
 import etri.sdn.controller.module.devicemanager.OFMDeviceManager;
@@ -38,7 +38,7 @@ public class BasicOFController extends OFController {
 	private OFMNetFailover m_netfailover = new OFMNetFailover();
 	private OFMConnectionMonitor m_connection_monitor = new OFMConnectionMonitor();
 	
-	private OFModule[] packet_in_pipeline = { 
+	private OFPipeline packet_in_pipeline = createPipeline( 
 			m_link_discovery, 
 			m_topology_manager,
 			m_entity_classifier, 
@@ -46,7 +46,7 @@ public class BasicOFController extends OFController {
 			m_firewall,
 			m_forwarding,
 			m_connection_monitor
-	};
+	);
 
 	public BasicOFController(int num_of_queue, String role) {
 		super(num_of_queue, role);
@@ -73,19 +73,9 @@ public class BasicOFController extends OFController {
 
 	@Override
 	public boolean handlePacketIn(Connection conn, MessageContext context, OFMessage m) {
-		List<OFMessage> out = new LinkedList<OFMessage>();
-		for ( int i = 0; i < packet_in_pipeline.length; ++i ) {
-			boolean cont = packet_in_pipeline[i].processMessage( conn, context, m, out );
-			if ( !conn.write(out) ) {
-				return false;
-			}
-			if ( !cont ) {
-				// we process this packet no further.
-				break;
-			}
-			out.clear();
-		}
-		return true;
+		// modules that do not accept PACKET_IN are skipped by the compiled pipeline,
+		// and the outgoing messages of all the modules are written at once.
+		return packet_in_pipeline.process( conn, context, m );
 	}
 
 	@Override
@@ -1,13 +1,10 @@
 package etri.sdn.controller.app.simple;
 
-import java.util.LinkedList;
-import java.util.List;
-
 import org.projectfloodlight.openflow.protocol.OFMessage;
 
 import etri.sdn.controller.MessageContext;
 import etri.sdn.controller.OFController;
-import etri.sdn.controller.OFModule;
+import etri.sdn.controller.OFPipeline;
 import etri.sdn.controller.module.learningmac.OFMLearningMac;
 import etri.sdn.controller.protocol.io.Connection;
 
@@ -23,9 +20,9 @@ public class Benchmarking extends OFController {
 
 	private OFMLearningMac m_learning_mac = new OFMLearningMac();
 	
-	private OFModule[] packet_in_pipeline = { 
+	private OFPipeline packet_in_pipeline = createPipeline( 
 			m_learning_mac
-	};
+	);
 
 	public Benchmarking(int num_of_queue, String role) {
 		super(num_of_queue, role);
@@ -51,19 +48,7 @@ public class Benchmarking extends OFController {
 	@Override
 	public boolean handlePacketIn(Connection conn, MessageContext context, OFMessage m) {
 		
-		List<OFMessage> out = new LinkedList<OFMessage>();
-		for ( int i = 0; i < packet_in_pipeline.length; ++i ) {
-			boolean cont = packet_in_pipeline[i].processMessage( conn, context, m, out );
-			if ( !conn.write(out) ) {
-				return false;
-			}
-			if ( !cont ) {
-				// we process this packet no further.
-				break;
-			}
-			out.clear();
-		}
-		return true;
+		return packet_in_pipeline.process( conn, context, m );
 	}
 
 	/**
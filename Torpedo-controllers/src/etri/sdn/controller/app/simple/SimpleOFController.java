@@ -8,7 +8,7 @@ import org.projectfloodlight.openflow.protocol.OFType;
 
 import etri.sdn.controller.MessageContext;
 import etri.sdn.controller.OFController;
-import etri.sdn.controller.OFModule;
+import etri.sdn.controller.OFPipeline;
 import etri.sdn.controller.module.devicemanager.OFMDefaultEntityClassifier;
 import etri.sdn.controller.module.devicemanager.OFMDeviceManager;
 import etri.sdn.controller.module.learningmac.OFMLearningMac;
@@ -45,13 +45,13 @@ public class SimpleOFController extends OFController {
 	private OFMStateManager m_state_manager = new OFMStateManager();
 	private OFMStorageManager m_storage_manager = new OFMStorageManager();
 	
-	private OFModule[] packet_in_pipeline = { 
+	private OFPipeline packet_in_pipeline = createPipeline( 
 			m_learning_mac,
 			m_link_discovery, 
 			m_topology_manager,
 			m_entity_classifier, 
 			m_device_manager
-	};
+	);
 
 	public SimpleOFController(int num_of_queue, String role) {
 		super(num_of_queue, role);
@@ -84,19 +84,7 @@ public class SimpleOFController extends OFController {
 	@Override
 	public boolean handlePacketIn(Connection conn, MessageContext context, OFMessage m) {
 		
-		List<OFMessage> out = new LinkedList<OFMessage>();
-		for ( int i = 0; i < packet_in_pipeline.length; ++i ) {
-			boolean cont = packet_in_pipeline[i].processMessage( conn, context, m, out );
-			if ( !conn.write(out) ) {
-				return false;
-			}
-			if ( !cont ) {
-				// we process this packet no further.
-				break;
-			}
-			out.clear();
-		}
-		return true;
+		return packet_in_pipeline.process( conn, context, m );
 	}
 
 	/**
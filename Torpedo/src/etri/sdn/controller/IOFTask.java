@@ -1,7 +1,5 @@
 package etri.sdn.controller;
 
-import java.util.TimerTask;
-
 /**
  * This is an interface for a task that asynchronously scheduled to be executed.
  * Normally, the object of IOFTask is passed to the 
@@ -14,7 +12,8 @@ public interface IOFTask {
 
 	/**
 	 * Execute the given task object.
-	 * This method is normally called by {@link TimerTask#run()}. 
+	 * This method is called by a worker thread of {@link TaskScheduler}.
+	 * An exception thrown by this method is logged, and the task remains scheduled.
 	 * 
 	 * @return a boolean value which indicates if this task is able to be re-scheduled.
 	 */
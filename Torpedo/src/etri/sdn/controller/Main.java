@@ -11,9 +11,12 @@ import java.nio.file.attribute.PosixFilePermissions;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.openflow.io.DirectBufferPool;
+import org.openflow.io.OFMessageAsyncStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import etri.sdn.controller.protocol.io.Connection;
 import etri.sdn.controller.protocol.io.TcpServer;
 import etri.sdn.controller.util.Basename;
 import etri.sdn.controller.util.JarLoader;
@@ -56,6 +59,25 @@ public class Main {
 		//
 		TorpedoProperties sysconf = TorpedoProperties.loadConfiguration();
 
+		//
+		// create the direct buffer pool shared by all the switch connections.
+		//
+		DirectBufferPool.setDefault( new DirectBufferPool(
+				DirectBufferPool.DEFAULT_MIN_CLASS_SIZE,
+				DirectBufferPool.DEFAULT_MAX_CLASS_SIZE,
+				sysconf.getInt("io-buffer-retain-kb") * 1024L ) );
+		Connection.setReadLimit( sysconf.getInt("read-batch-limit") );
+		OFMessageAsyncStream.LAZY_PACKET_IN = Boolean.parseBoolean( sysconf.getString("lazy-packet-in") );
+		MessageContext.setReusePackets( Boolean.parseBoolean( sysconf.getString("reuse-packets") ) );
+
+		//
+		// create the scheduler that runs the periodic tasks of all the controllers.
+		//
+		TaskScheduler.setDefault( new TaskScheduler(
+				sysconf.getInt("scheduler-tick-ms"),
+				sysconf.getInt("scheduler-wheel-size"),
+				sysconf.getInt("scheduler-threads") ) );
+
 		//
 		// load & start TCP server.
 		//
@@ -17,14 +17,36 @@
 
 package etri.sdn.controller;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+
+import etri.sdn.controller.protocol.packet.BasePacket;
+import etri.sdn.controller.protocol.packet.Ethernet;
+import etri.sdn.controller.protocol.packet.PacketHeaders;
 
 /**
  * This is a context object where listeners can register 
  * and later retrieve context information associated with an event.
  * 
- * The MessageContext object is created one per each OFMessage 
- * received from a switch. 
+ * The MessageContext object is created one per each QP thread,
+ * and is reset for each OFMessage received from a switch. 
+ * 
+ * Items are stored with typed keys ({@link Key}) that are registered 
+ * once by {@link #registerKey(String, Class)}, normally as static constants
+ * of the module which defines the item. Each key is bound to a slot
+ * of an array, thus no hashing is done for put() and get(), and 
+ * {@link #reset()} increases the generation of the context and clears only 
+ * the slots written since the last reset: a slot is valid only when its generation 
+ * equals the generation of the context.
+ * 
+ * A context is used only by the thread that processes the message, 
+ * thus this class is not thread-safe.
  * 
  * Originally, this was FloodlightContext in Floodlight.
  * 
@@ -34,63 +56,318 @@ import java.util.concurrent.ConcurrentHashMap;
 public final class MessageContext {
 	
 	/**
-	 * Internal representation of the message context storage.
+	 * Typed key of an item saved in the message context.
+	 * 
+	 * @param <T> type of the item
+	 */
+	public static final class Key<T> {
+		private final String name;
+		private final Class<T> type;
+		private final int slot;
+		
+		private Key(String name, Class<T> type, int slot) {
+			this.name = name;
+			this.type = type;
+			this.slot = slot;
+		}
+		
+		/**
+		 * @return	name of the key
+		 */
+		public String getName() {
+			return this.name;
+		}
+		
+		/**
+		 * @return	type of the items saved with this key
+		 */
+		public Class<T> getType() {
+			return this.type;
+		}
+		
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+	
+	/**
+	 * name-to-key map of all the registered keys.
+	 */
+	private static final ConcurrentMap<String, Key<?>> keys = new ConcurrentHashMap<String, Key<?>>();
+	
+	/**
+	 * number of the registered keys. 
 	 */
-	private ConcurrentHashMap<String, Object> storage =
-		new ConcurrentHashMap<String, Object>();
+	private static int slots = 0;
+	
+	/**
+	 * Register a key. Registering the same name again returns the key registered first.
+	 * 
+	 * @param name	name that uniquely identifies the key
+	 * @param type	type of the items saved with the key
+	 * @return		Key object
+	 * @throws IllegalArgumentException	if the name is registered with another type
+	 */
+	public static synchronized <T> Key<T> registerKey(String name, Class<T> type) {
+		Key<?> k = keys.get(name);
+		if ( k == null ) {
+			Key<T> n = new Key<T>(name, type, slots++);
+			keys.put(name, n);
+			return n;
+		}
+		if ( k.type != type ) {
+			throw new IllegalArgumentException("key " + name + " is already registered with " + k.type.getName());
+		}
+		@SuppressWarnings("unchecked")
+		Key<T> ret = (Key<T>) k;
+		return ret;
+	}
+	
+	/**
+	 * Look up a key by name. A key of Object type is registered if the name is unknown.
+	 */
+	private static Key<?> keyOf(String name) {
+		Key<?> k = keys.get(name);
+		return (k != null) ? k : registerKey(name, Object.class);
+	}
 
 	/**
 	 * a predefined key for the Ethernet payload.
 	 */
-	public static final String ETHER_PAYLOAD = 
-		"net.floodlightcontroller.core.IFloodlightProvider.piPayload";
+	public static final Key<Ethernet> ETHER_PAYLOAD = 
+		registerKey("net.floodlightcontroller.core.IFloodlightProvider.piPayload", Ethernet.class);
 
 	/**
-	 * a predefined key for the Routing Decisions.
+	 * a predefined key for the headers of the packet in a PACKET_IN message.
+	 * Use {@link #getPacketHeaders(OFPacketIn)} instead of get() with this key.
 	 */
-	public static final String ROUTING_DECISION = 
-		"net.floodlightcontroller.routing.decision";
-	
-    /**
-     * a predefined key to find the source device 
-     * for the current packet-in, if applicable.
-     */
-    public static final String SRC_DEVICE = 
-            "net.floodlightcontroller.devicemanager.srcDevice"; 
-
-    /**
-     * a predefined key to find the destination device 
-     * for the current packet-in, if applicable.
-     */
-    public static final String DST_DEVICE = 
-            "net.floodlightcontroller.devicemanager.dstDevice";
+	public static final Key<PacketHeaders> PACKET_HEADERS = 
+		registerKey("etri.sdn.controller.MessageContext.packetHeaders", PacketHeaders.class);
 
-    /**
-     * Return the actual storage associated with the message context.
-     * With put() and get() method, this method should be rarely used.
-     * 
-     * @return the actual storage object associated with the message context
-     */
-	public ConcurrentHashMap<String, Object> getStorage() {
-		return storage;
+	/**
+	 * values of the items. values[i] is valid only when generations[i] == generation.
+	 */
+	private Object[] values;
+	private int[] generations;
+	private int generation = 1;
+	
+	/**
+	 * slots written in the current generation, which are cleared by {@link #reset()}.
+	 */
+	private int[] written;
+	private int writtenCount = 0;
+	
+	/**
+	 * buffer of the outgoing messages, which is reused by {@link OFPipeline}.
+	 */
+	private List<OFMessage> outgoing = null;
+	
+	/**
+	 * packet header view, which is reused for every PACKET_IN message.
+	 */
+	private PacketHeaders headers = null;
+	
+	/**
+	 * if true, {@link #getEthernet(OFPacketIn)} reuses the packet objects of a context.
+	 */
+	private static volatile boolean reusePackets = false;
+	
+	/**
+	 * Ethernet object reused for every PACKET_IN message, if reusePackets is true.
+	 */
+	private Ethernet ethernet = null;
+	
+	public MessageContext() {
+		int n = Math.max( 8, keys.size() );
+		this.values = new Object[n];
+		this.generations = new int[n];
+		this.written = new int[n];
+	}
+	
+	/**
+	 * Get the buffer of the outgoing messages that is reused for every message
+	 * processed with this context. 
+	 * 
+	 * @return	List of OFMessage objects
+	 */
+	List<OFMessage> getOutgoingBuffer() {
+		if ( this.outgoing == null ) {
+			this.outgoing = new ArrayList<OFMessage>();
+		}
+		return this.outgoing;
+	}
+	
+	/**
+	 * Get the headers of the packet in the PACKET_IN message being processed.
+	 * The headers are decoded once per message, and shared by all the modules
+	 * that process the message. The returned object is reused for the next message,
+	 * thus it should not be kept after the message is processed.
+	 * 
+	 * @param pi	PACKET_IN message being processed with this context
+	 * @return		PacketHeaders object
+	 */
+	public PacketHeaders getPacketHeaders(OFPacketIn pi) {
+		PacketHeaders ret = get(PACKET_HEADERS);
+		if ( ret == null ) {
+			if ( this.headers == null ) {
+				this.headers = new PacketHeaders();
+			}
+			ret = this.headers.wrap( pi.getData() );
+			put(PACKET_HEADERS, ret);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Set whether the Ethernet objects (and their payloads) returned by 
+	 * {@link #getEthernet(OFPacketIn)} are reused for the next messages
+	 * processed with the same context, not to create packet objects for every message.
+	 * This should be enabled only when no module keeps the packet objects
+	 * after the message is processed.
+	 * 
+	 * @param reuse	true to reuse the packet objects per QP thread
+	 */
+	public static void setReusePackets(boolean reuse) {
+		reusePackets = reuse;
+	}
+	
+	/**
+	 * @return	true if the packet objects are reused per QP thread
+	 */
+	public static boolean isReusePackets() {
+		return reusePackets;
+	}
+	
+	/**
+	 * Get the Ethernet packet in the PACKET_IN message being processed. 
+	 * The packet is deserialized on the first call for the message and saved 
+	 * with {@link #ETHER_PAYLOAD}. Only the Ethernet header is decoded at first:
+	 * the payloads are decoded on the first access (see {@link BasePacket#getPayload()}).
+	 * 
+	 * @param pi	PACKET_IN message being processed with this context
+	 * @return		Ethernet object
+	 */
+	public Ethernet getEthernet(OFPacketIn pi) {
+		Ethernet ret = get(ETHER_PAYLOAD);
+		if ( ret == null ) {
+			if ( reusePackets ) {
+				if ( this.ethernet == null ) {
+					this.ethernet = new Ethernet();
+					this.ethernet.setReusePayload(true);
+				}
+				ret = this.ethernet;
+			} else {
+				ret = new Ethernet();
+			}
+			byte[] data = pi.getData();
+			ret.deserialize(data, 0, data.length);
+			put(ETHER_PAYLOAD, ret);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Remove all the items in this context. 
+	 */
+	public void reset() {
+		// not to keep the items of the last message reachable.
+		for ( int i = 0; i < this.writtenCount; ++i ) {
+			this.values[ this.written[i] ] = null;
+		}
+		this.writtenCount = 0;
+		if ( ++this.generation == 0 ) {
+			// generation wrapped around. stale slots could look valid.
+			Arrays.fill( this.generations, 0 );
+			this.generation = 1;
+		}
 	}
 
 	/**
 	 * retrieve an object saved with the given key
-	 * @param key 		value that uniquely identifies an item saved in the message context
-	 * @return			Object saved in the storage
+	 * @param key 		key of the item
+	 * @return			Object saved in the context, or null if there's no item for the key.
 	 */
-	public Object get(String key) {
-		return storage.get(key);
+	public <T> T get(Key<T> key) {
+		int slot = key.slot;
+		if ( slot >= this.values.length || this.generations[slot] != this.generation ) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		T ret = (T) this.values[slot];
+		return ret;
 	}
 	
 	/**
 	 * Put something in the message context with given key.
 	 * 
-	 * @param key 	value that uniquely identifies an item saved in the message context
+	 * @param key 	key of the item
+	 * @param value value that is saved in the message context
+	 */
+	public <T> void put(Key<T> key, T value) {
+		int slot = key.slot;
+		if ( slot >= this.values.length ) {
+			int n = Math.max( slot + 1, this.values.length * 2 );
+			this.values = Arrays.copyOf( this.values, n );
+			this.generations = Arrays.copyOf( this.generations, n );
+		}
+		if ( this.generations[slot] != this.generation ) {
+			if ( this.writtenCount == this.written.length ) {
+				this.written = Arrays.copyOf( this.written, this.writtenCount * 2 );
+			}
+			this.written[ this.writtenCount++ ] = slot;
+			this.generations[slot] = this.generation;
+		}
+		this.values[slot] = value;
+	}
+	
+	/**
+	 * Remove the item saved with the given key.
+	 * 
+	 * @param key	key of the item
+	 */
+	public void remove(Key<?> key) {
+		int slot = key.slot;
+		if ( slot < this.values.length ) {
+			this.values[slot] = null;
+			this.generations[slot] = 0;
+		}
+	}
+
+	/**
+	 * retrieve an object saved with the given key name.
+	 * This is slower than {@link #get(Key)} because the name should be looked up.
+	 * 
+	 * @param key 		name of the key
+	 * @return			Object saved in the context
+	 */
+	public Object get(String key) {
+		return get( keyOf(key) );
+	}
+	
+	/**
+	 * Put something in the message context with given key name.
+	 * This is slower than {@link #put(Key, Object)} because the name should be looked up.
+	 * 
+	 * @param key 	name of the key
 	 * @param value value that is saved in the message context
 	 */
 	public void put(String key, Object value) {
-		storage.put( key, value );
+		Key<?> k = keyOf(key);
+		if ( value != null && !k.type.isInstance(value) ) {
+			throw new ClassCastException("value of " + key + " should be " + k.type.getName());
+		}
+		@SuppressWarnings("unchecked")
+		Key<Object> o = (Key<Object>) k;
+		put( o, value );
+	}
+	
+	/**
+	 * Remove the item saved with the given key name.
+	 * 
+	 * @param key	name of the key
+	 */
+	public void remove(String key) {
+		remove( keyOf(key) );
 	}
 }
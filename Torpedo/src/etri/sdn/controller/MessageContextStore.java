@@ -31,14 +31,14 @@ public final class MessageContextStore<V> {
     
     @SuppressWarnings("unchecked")
     public V get(MessageContext bc, String key) {
-        return (V)bc.getStorage().get(key);
+        return (V)bc.get(key);
     }
     
     public void put(MessageContext bc, String key, V value) {
-        bc.getStorage().put(key, value);
+        bc.put(key, value);
     }
     
     public void remove(MessageContext bc, String key) {
-        bc.getStorage().remove(key);
+        bc.remove(key);
     }
 }
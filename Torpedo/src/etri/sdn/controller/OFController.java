@@ -1,19 +1,22 @@
 package etri.sdn.controller;
 
 //import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TransferQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.slf4j.Logger;
@@ -24,7 +27,9 @@ import etri.sdn.controller.protocol.io.Connection;
 import etri.sdn.controller.protocol.io.IOFHandler;
 import etri.sdn.controller.protocol.io.IOFProtocolServer;
 import etri.sdn.controller.protocol.io.IOFSwitch;
+import etri.sdn.controller.protocol.io.MessageBatch;
 import etri.sdn.controller.protocol.io.TcpServer;
+import etri.sdn.controller.util.SpscRingBuffer;
 
 /**
  * Mother of all OpenFlow controller implementations. 
@@ -37,9 +42,9 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 	private static final Logger logger = LoggerFactory.getLogger(OFController.class);
 
 	/**
-	 * Timer for scheduling asynchronous jobs.
+	 * default capacity of a lane, which is used when qp-ring-size is not given.
 	 */
-	private Timer timer = new Timer();
+	private static final int DEFAULT_RING_SIZE = 1024;
 
 	/** 
 	 * index to all switches.
@@ -51,56 +56,240 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 	 */
 	private Set<OFModule> modules = Collections.synchronizedSet(new HashSet<OFModule>());
 
+	/**
+	 * pipelines created by {@link #createPipeline(OFModule...)}.
+	 */
+	private List<OFPipeline> pipelines = new CopyOnWriteArrayList<OFPipeline>();
+
 	/**
 	 * role of this controller. (EQUAL, MASTER, SLAVE)
 	 */
 	private Role role = null;
 
 	/**
-	 * Queue Item
-	 * @author bjlee
-	 *
+	 * Get the batch to hand over to a QP thread, and take a reference to it.
+	 * The reference should be released when the batch is processed or dropped.
+	 * 
+	 * @param conn	connection that the messages arrived
+	 * @param msgs	messages read
+	 * @return		MessageBatch object
+	 */
+	private static MessageBatch retainBatch(Connection conn, List<OFMessage> msgs) {
+		if ( msgs instanceof MessageBatch ) {
+			return ((MessageBatch) msgs).retain();
+		}
+		return MessageBatch.wrap(conn, msgs).retain();
+	}
+
+	/**
+	 * A lane is a hand-off path from one producer thread (a ClientChannelWatcher) 
+	 * to one QP thread. As every producer thread has its own lane for each QP,
+	 * the ring of a lane always has a single producer and a single consumer.
 	 */
-	private class QI {
-		Connection conn;
-		List<OFMessage> msgs;
+	private class Lane {
+		private String producer;
+		private SpscRingBuffer<MessageBatch> ring;
 
-		public QI(Connection conn, List<OFMessage> msgs) {
-			this.conn = conn;
-			this.msgs = msgs;
+		/**
+		 * items that could not be put into the ring because it was full.
+		 * only accessed by the producer thread.
+		 */
+		private Queue<MessageBatch> overflow = new ArrayDeque<MessageBatch>();
+
+		/**
+		 * true while the producer holds some items in the overflow queue.
+		 */
+		private volatile boolean backpressured = false;
+
+		/**
+		 * a connection of the producer, which is used to get back to the producer thread.
+		 */
+		private volatile Connection resume_target = null;
+
+		/*
+		 * statistics. each counter has only one writer thread.
+		 */
+		private volatile long enqueued = 0;
+		private volatile long backpressures = 0;
+		private volatile long dropped = 0;
+		private volatile int overflowed = 0;
+
+		Lane(String producer, int capacity) {
+			this.producer = producer;
+			this.ring = new SpscRingBuffer<MessageBatch>(capacity);
 		}
+	}
 
-		Connection connection() { 
-			return this.conn;
+	/**
+	 * Statistics of a hand-off lane between a watcher thread and a QP thread.
+	 * This is exported to REST API to size the watcher-num and instance-num properties.
+	 */
+	public static final class LaneStatistics {
+		private int processor;
+		private String producer;
+		private int capacity;
+		private int occupancy;
+		private long enqueued;
+		private long backpressures;
+		private long dropped;
+		private int overflowed;
+
+		LaneStatistics(int processor, Lane l) {
+			this.processor = processor;
+			this.producer = l.producer;
+			this.capacity = l.ring.capacity();
+			this.occupancy = l.ring.size();
+			this.enqueued = l.enqueued;
+			this.backpressures = l.backpressures;
+			this.dropped = l.dropped;
+			this.overflowed = l.overflowed;
 		}
 
-		List<OFMessage> messages() {
-			return this.msgs;
+		/** @return index of the QP thread */
+		public int getProcessor() { return processor; }
+		/** @return name of the watcher thread */
+		public String getProducer() { return producer; }
+		/** @return capacity of the ring */
+		public int getCapacity() { return capacity; }
+		/** @return number of items in the ring */
+		public int getOccupancy() { return occupancy; }
+		/** @return number of items put into the ring so far */
+		public long getEnqueued() { return enqueued; }
+		/** @return number of times that a connection is suspended because the ring is full */
+		public long getBackpressures() { return backpressures; }
+		/** @return number of items discarded because their connection was closed while held */
+		public long getDropped() { return dropped; }
+		/** @return number of items held by the producer because the ring is full */
+		public int getOverflowed() { return overflowed; }
+	}
+
+	/**
+	 * Dispatch mode of read events to QP threads.
+	 * <ul>
+	 * <li>PINNED: a connection is always processed by the same QP thread (conn.getSeq() % processors.length).</li>
+	 * <li>STEALING: a connection has its home QP thread, but an idle QP thread
+	 *     can steal the pending batches of a connection from a busy one.
+	 *     At most one QP thread processes a connection at any moment,
+	 *     so the messages of a switch are still processed in order.</li>
+	 * </ul>
+	 */
+	public static enum Dispatch { PINNED, STEALING };
+
+	/**
+	 * Per-connection queue of read events, which is used by the STEALING dispatch mode.
+	 * A mailbox is scheduled to at most one run queue at a time, 
+	 * and the QP thread that takes it out processes its batches in order.
+	 */
+	private class Mailbox {
+		private Connection conn;
+		private Queue<MessageBatch> batches = new ConcurrentLinkedQueue<MessageBatch>();
+		private AtomicInteger pending = new AtomicInteger(0);
+
+		/**
+		 * true while this mailbox is in a run queue or being processed.
+		 */
+		private AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		/**
+		 * true while reading from the connection is suspended by this mailbox.
+		 */
+		private AtomicBoolean suspended = new AtomicBoolean(false);
+
+		/**
+		 * number of resumes requested but not yet handled by the watcher.
+		 */
+		private AtomicInteger resumes = new AtomicInteger(0);
+
+		Mailbox(Connection conn) {
+			this.conn = conn;
 		}
 	}
 
 	/**
-	 * Queue Item Processor, which is a thread that pulls QI object
-	 * from the queue that is associated with the thread.
-	 * Each QP thread has one queue to receive QI object.
-	 * Through the experiment, we have found out that TransferQueue is the most 
-	 * effective queueing mechanism for this thread.
+	 * Statistics of a QP thread.
+	 */
+	public static final class ProcessorStatistics {
+		private int processor;
+		private long processed;
+		private long stolen;
+		private int scheduled;
+
+		ProcessorStatistics(int processor, QP qp) {
+			this.processor = processor;
+			this.processed = qp.processed;
+			this.stolen = qp.stolen;
+			this.scheduled = qp.runq.size();
+		}
+
+		/** @return index of the QP thread */
+		public int getProcessor() { return processor; }
+		/** @return number of batches processed by the QP thread */
+		public long getProcessed() { return processed; }
+		/** @return number of mailboxes (connections with pending batches) that the QP thread has stolen from other QP threads */
+		public long getStolen() { return stolen; }
+		/** @return number of connections waiting in the run queue (STEALING mode only) */
+		public int getScheduled() { return scheduled; }
+	}
+
+	/**
+	 * Queue Item Processor, which is a thread that pulls MessageBatch object
+	 * from the lanes that are associated with the thread.
+	 * Each QP thread has one bounded lane per watcher thread to receive MessageBatch object.
+	 * The watcher never blocks on a QP: when a lane is full, the watcher stops
+	 * reading the connection until the QP catches up.
+	 * In STEALING dispatch mode, the QP thread pulls per-connection mailboxes
+	 * from its run queue instead, and steals them from other QP threads when idle.
 	 * 
 	 * @author bjlee
 	 *
 	 */
 	private class QP extends Thread {
 		private volatile boolean quit = false;
-		private TransferQueue<QI> queue = new LinkedTransferQueue<QI>();
 		private MessageContext context = new MessageContext();
 		private OFController controller;
+		private int index;
+
+		/**
+		 * run queue of the mailboxes whose home is this QP. (STEALING mode only)
+		 */
+		private Queue<Mailbox> runq = new ConcurrentLinkedQueue<Mailbox>();
+
+		/*
+		 * statistics. only written by this thread.
+		 */
+		private volatile long processed = 0;
+		private volatile long stolen = 0;
+
+		/**
+		 * all lanes of this QP. a lane is added when a new producer thread shows up.
+		 */
+		private List<Lane> lanes = new CopyOnWriteArrayList<Lane>();
+
+		/**
+		 * lane of the current producer thread.
+		 */
+		private ThreadLocal<Lane> lane = new ThreadLocal<Lane>() {
+			@Override
+			protected Lane initialValue() {
+				Lane l = new Lane( Thread.currentThread().getName(), ring_size );
+				lanes.add( l );
+				return l;
+			}
+		};
+
+		/**
+		 * true while this thread is (about to be) parked.
+		 */
+		private volatile boolean waiting = false;
 
 		/**
 		 * Constructor
 		 * @param ctrl reference to the OFController object
+		 * @param index index of this QP in the processors array
 		 */
-		public QP(OFController ctrl) {
+		public QP(OFController ctrl, int index) {
 			this.controller = ctrl;
+			this.index = index;
 		}
 
 		/**
@@ -108,60 +297,265 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 		 */
 		public void shutdown() {
 			quit = true;
+			LockSupport.unpark(this);
 		}
 
 		/**
 		 * This function delivers a read event to the QP thread.
+		 * This is called by the watcher thread, and never blocks.
+		 * 
 		 * @param conn		connection that the messages arrived
 		 * @param msgs		messages read
 		 * @return			true of correctly handled, false otherwise.
 		 */
 		public boolean handleReadEvent(Connection conn, List<OFMessage> msgs) {
+			if ( dispatch == Dispatch.STEALING ) {
+				return handleReadEventToMailbox(conn, msgs);
+			}
 
-			do {
-				try {
-					this.queue.transfer( new QI(conn, msgs) );
-				} catch (InterruptedException e) {
+			Lane l = this.lane.get();
+			MessageBatch qi = retainBatch(conn, msgs);
+
+			if ( l.overflow.isEmpty() && l.ring.offer(qi) ) {
+				l.enqueued++;
+			} else {
+				// the lane is full. we hold the item and stop reading
+				// the connection until this QP catches up.
+				l.overflow.add( qi );
+				l.overflowed = l.overflow.size();
+				l.resume_target = conn;
+				l.backpressured = true;
+				l.backpressures++;
+				conn.suspendRead();
+			}
+
+			wakeup();
+			return true;
+		}
+
+		/**
+		 * Move the held items of the current producer into the lane,
+		 * and resume reading the connections of the moved items.
+		 * This is called by the watcher thread.
+		 */
+		public void handleResumeEvent() {
+			Lane l = this.lane.get();
+
+			MessageBatch qi = null;
+			while ( (qi = l.overflow.peek()) != null ) {
+				if ( !qi.getConnection().isConnected() ) {
+					// connection is closed while being held.
+					l.overflow.poll().release();
+					l.dropped++;
 					continue;
 				}
-				
-				break;
-				
-			} while ( true );
+				if ( !l.ring.offer(qi) ) {
+					break;
+				}
+				l.overflow.poll();
+				l.enqueued++;
+				qi.getConnection().resumeRead();
+			}
+
+			l.overflowed = l.overflow.size();
+			if ( !l.overflow.isEmpty() ) {
+				l.backpressured = true;
+			}
+			wakeup();
+		}
+
+		/**
+		 * Put the messages into the mailbox of the connection, and schedule the mailbox
+		 * to the run queue of this QP if it is not scheduled yet.
+		 * This is called by the watcher thread in STEALING mode.
+		 * 
+		 * @param conn		connection that the messages arrived
+		 * @param msgs		messages read
+		 * @return			true of correctly handled, false otherwise.
+		 */
+		private boolean handleReadEventToMailbox(Connection conn, List<OFMessage> msgs) {
+			Mailbox mb = mailboxes.get(conn);
+			if ( mb == null ) {
+				Mailbox tmp = new Mailbox(conn);
+				mb = mailboxes.putIfAbsent(conn, tmp);
+				if ( mb == null ) {
+					mb = tmp;
+				}
+			}
 
+			mb.batches.add( retainBatch(conn, msgs) );
+			if ( mb.pending.incrementAndGet() >= ring_size && mb.suspended.compareAndSet(false, true) ) {
+				// this connection has too many batches to process. stop reading it.
+				conn.suspendRead();
+			}
+
+			if ( mb.scheduled.compareAndSet(false, true) ) {
+				this.runq.add( mb );
+				if ( this.waiting ) {
+					LockSupport.unpark(this);
+				} else {
+					// this QP is busy. wake up an idle one to steal the mailbox.
+					wakeupIdleProcessor();
+				}
+			}
 			return true;
 		}
 
 		/**
-		 * Read one read event from the queue, and process it. 
+		 * Process the batches in the mailbox. 
+		 * The mailbox is processed up to ring_size batches at once, and re-scheduled 
+		 * to this QP if it has more batches, so that a hot connection cannot 
+		 * starve the others in the same run queue.
+		 * 
+		 * @param mb	mailbox taken from a run queue
+		 */
+		private void processMailbox(Mailbox mb) {
+			int n = 0;
+			MessageBatch qi = null;
+			while ( n < ring_size && (qi = mb.batches.poll()) != null ) {
+				try {
+					if ( qi.getConnection().isConnected() ) {
+						process( qi.getConnection(), qi );
+					}
+				} finally {
+					qi.release();
+				}
+				++n;
+			}
+			this.processed += n;
+
+			if ( mb.pending.addAndGet(-n) <= ring_size / 2 && mb.suspended.compareAndSet(true, false) ) {
+				// there's enough room now. resume reading the connection.
+				mb.resumes.incrementAndGet();
+				mb.conn.requestResume();
+			}
+
+			mb.scheduled.set(false);
+			if ( !mb.batches.isEmpty() && mb.scheduled.compareAndSet(false, true) ) {
+				this.runq.add( mb );
+			}
+		}
+
+		/**
+		 * Take a mailbox from the run queue of other QP threads.
+		 * @return	mailbox stolen, or null if all the other run queues are empty.
+		 */
+		private Mailbox steal() {
+			for ( int i = 1; i < processors.length; ++i ) {
+				QP victim = processors[ (this.index + i) % processors.length ];
+				Mailbox mb = victim.runq.poll();
+				if ( mb != null ) {
+					this.stolen++;
+					return mb;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * wake up this thread if it is parked.
+		 */
+		private void wakeup() {
+			if ( this.waiting ) {
+				LockSupport.unpark(this);
+			}
+		}
+
+		/**
+		 * move items from all the lanes into the given list.
+		 * @param qis	list to fill
+		 */
+		private void drainLanes(List<MessageBatch> qis) {
+			for ( Lane l : lanes ) {
+				l.ring.drainTo( qis, l.ring.capacity() );
+
+				if ( l.backpressured && l.ring.size() <= l.ring.capacity() / 2 ) {
+					// there's enough room now. ask the producer to hand over the held items.
+					l.backpressured = false;
+					Connection target = l.resume_target;
+					if ( target != null ) {
+						target.requestResume();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Read read events from the lanes, and process them. 
 		 */
 		@Override
 		public void run() {
-			List<QI> qis = new LinkedList<QI>();
+			if ( dispatch == Dispatch.STEALING ) {
+				runStealing();
+				return;
+			}
+
+			List<MessageBatch> qis = new ArrayList<MessageBatch>();
 
 			try { 
 				while ( !quit ) { 
-					try {
-						qis.clear();
+					qis.clear();
+					drainLanes( qis );
 
-						// I don't know why 300 guarantees the best performance (-_-)
-						QI qi = this.queue.poll(300, TimeUnit.MILLISECONDS);						
-						if ( qi == null ) {
+					if ( qis.isEmpty() ) {
+						this.waiting = true;
+						drainLanes( qis );
+						if ( qis.isEmpty() ) {
+							// I don't know why 300 guarantees the best performance (-_-)
+							LockSupport.parkNanos( this, TimeUnit.MILLISECONDS.toNanos(300) );
+						}
+						this.waiting = false;
+						if ( qis.isEmpty() ) {
 							continue;
 						}
+					}
 
-						qis.add(qi);
-						this.queue.drainTo( qis );
-
-						for ( QI item : qis ) {
-							if ( item.connection().isConnected() )
-								process( item.connection(), item.messages() );
+					for ( int i = 0; i < qis.size(); ++i ) {
+						MessageBatch item = qis.get(i);
+						try {
+							if ( item.getConnection().isConnected() )
+								process( item.getConnection(), item );
+						} finally {
+							item.release();
 						}
+					}
+					this.processed += qis.size();
+				}
+			} catch ( Exception | Error e ) {
+				logger.error(e.getMessage());
+				this.controller.removeSelf();
+				return;					// end this controller thread.
+			} 
+		}
 
-					} catch (InterruptedException e) {
-						logger.debug(e.getMessage());
-						continue;
+		/**
+		 * Take mailboxes from the run queue (or from other QP threads), 
+		 * and process them. This is the main loop of the STEALING mode.
+		 */
+		private void runStealing() {
+			try { 
+				while ( !quit ) { 
+					Mailbox mb = this.runq.poll();
+					if ( mb == null ) {
+						mb = steal();
 					}
+
+					if ( mb == null ) {
+						this.waiting = true;
+						mb = this.runq.poll();
+						if ( mb == null ) {
+							mb = steal();
+						}
+						if ( mb == null ) {
+							LockSupport.parkNanos( this, TimeUnit.MILLISECONDS.toNanos(300) );
+						}
+						this.waiting = false;
+						if ( mb == null ) {
+							continue;
+						}
+					}
+
+					processMailbox( mb );
 				}
 			} catch ( Exception | Error e ) {
 				logger.error(e.getMessage());
@@ -169,7 +563,7 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 				return;					// end this controller thread.
 			} 
 		}
-		
+
 		/**
 		 * process a list of OFMessage objects received from the connection.
 		 * 
@@ -182,8 +576,9 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 
 			OFProtocol protocol = this.controller.getProtocol();
 			
-			for (OFMessage m : msgs) {
-				context.getStorage().clear();
+			for ( int i = 0; i < msgs.size(); ++i ) {
+				OFMessage m = msgs.get(i);
+				context.reset();
 				
 				if ( !protocol.process(conn, context, m) ) {
 					// I/O related error is detected. 
@@ -199,6 +594,34 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 	 * Queue Item Processors 
 	 */
 	private QP[] processors = null;
+
+	/**
+	 * capacity of each lane between a watcher thread and a QP thread.
+	 * In STEALING mode, this is the maximum number of pending batches of a connection.
+	 */
+	private int ring_size;
+
+	/**
+	 * dispatch mode of read events, which is given by qp-dispatch property.
+	 */
+	private Dispatch dispatch = Dispatch.PINNED;
+
+	/**
+	 * mailboxes of all connections. (STEALING mode only)
+	 */
+	private ConcurrentMap<Connection, Mailbox> mailboxes = new ConcurrentHashMap<Connection, Mailbox>();
+
+	/**
+	 * wake up a parked QP thread, if any. 
+	 */
+	private void wakeupIdleProcessor() {
+		for ( QP qp : processors ) {
+			if ( qp.waiting ) {
+				LockSupport.unpark(qp);
+				return;
+			}
+		}
+	}
 	
 	/**
 	 * Protocol Server object, which is currently {@link TcpServer}.
@@ -212,9 +635,18 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 	 * @param num_of_queue number of Queue Item Processors
 	 */
 	public OFController(int num_of_queue, String role) {
+		TorpedoProperties conf = TorpedoProperties.loadConfiguration();
+		this.ring_size = conf.getInt("qp-ring-size");
+		if ( this.ring_size <= 0 ) {
+			this.ring_size = DEFAULT_RING_SIZE;
+		}
+		if ( "stealing".equalsIgnoreCase( conf.getString("qp-dispatch") ) ) {
+			this.dispatch = Dispatch.STEALING;
+		}
+
 		this.processors = new QP[num_of_queue];
 		for ( int i = 0; i < this.processors.length; ++i ) {
-			this.processors[i] = new QP(this);
+			this.processors[i] = new QP(this, i);
 		}
 
 		if ( role.equals("MASTER") ) {
@@ -269,12 +701,28 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 	}
 	
 	/**
-	 * Start all modules.
+	 * Start all modules, and compile the pipelines created by {@link #createPipeline(OFModule...)}
+	 * with the filters registered by the modules.
 	 */
 	public void startModules() {
 		for ( OFModule m : this.modules ) {
 			m.start();
 		}
+		for ( OFPipeline p : this.pipelines ) {
+			p.compile();
+		}
+	}
+
+	/**
+	 * Create a pipeline of the modules, which is compiled by {@link #startModules()}.
+	 * 
+	 * @param modules	modules in the processing order
+	 * @return			OFPipeline object
+	 */
+	protected final OFPipeline createPipeline(OFModule... modules) {
+		OFPipeline p = new OFPipeline(modules);
+		this.pipelines.add( p );
+		return p;
 	}
 
 	/**
@@ -319,6 +767,7 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 	/**
 	 * Schedule a task to be executed periodically.
 	 * if period is specified zero, the task will be only executed once. 
+	 * Tasks are run by the worker threads of {@link TaskScheduler#getDefault()}.
 	 * 
 	 * @param task	IOFTask object to run
 	 * @param delay 	start the task after this amount of time.
@@ -326,24 +775,7 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 	 */
 	@Override
 	public void scheduleTask(final IOFTask task, final long delay, final long period) {
-		timer.scheduleAtFixedRate(
-				new TimerTask() { 
-					public void run() {
-						if ( !task.execute() ) {
-							// no further re-scheduling is possible.
-							this.cancel();
-							return;
-						}
-
-						if ( period == 0 ) {
-							// this guarantees only one-time execution.
-							this.cancel();
-						}
-					}
-				},
-				delay,
-				period
-		);
+		TaskScheduler.getDefault().schedule(task, delay, period);
 	}
 
 	/*
@@ -386,6 +818,60 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 		return processors[ conn.getSeq() % processors.length ].handleReadEvent(conn, msgs);
 	}
 
+	/**
+	 * This is a method that cannot be overridden. This is an internal method 
+	 * only called by ClientChannelWatcher object, when a QP has made some room
+	 * for the messages held by the watcher thread.
+	 */
+	@Override
+	public final void handleResumeEvent(Connection conn) {
+		if ( dispatch == Dispatch.STEALING ) {
+			Mailbox mb = mailboxes.get(conn);
+			for ( int n = (mb == null) ? 0 : mb.resumes.getAndSet(0); n > 0; --n ) {
+				conn.resumeRead();
+			}
+			return;
+		}
+
+		for ( QP qp : processors ) {
+			qp.handleResumeEvent();
+		}
+	}
+
+	/**
+	 * Get the dispatch mode of this controller.
+	 * @return	Dispatch value
+	 */
+	public final Dispatch getDispatch() {
+		return this.dispatch;
+	}
+
+	/**
+	 * Get the statistics of all QP threads.
+	 * @return	list of ProcessorStatistics objects
+	 */
+	public final List<ProcessorStatistics> getProcessorStatistics() {
+		List<ProcessorStatistics> ret = new ArrayList<ProcessorStatistics>();
+		for ( int i = 0; i < processors.length; ++i ) {
+			ret.add( new ProcessorStatistics(i, processors[i]) );
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the statistics of all the lanes between watcher threads and QP threads.
+	 * @return	list of LaneStatistics objects
+	 */
+	public final List<LaneStatistics> getLaneStatistics() {
+		List<LaneStatistics> ret = new ArrayList<LaneStatistics>();
+		for ( int i = 0; i < processors.length; ++i ) {
+			for ( Lane l : processors[i].lanes ) {
+				ret.add( new LaneStatistics(i, l) );
+			}
+		}
+		return ret;
+	}
+
 	/*
 	 * You can freely modify following methods.
 	 */
@@ -425,10 +911,15 @@ public abstract class OFController implements IOFHandler, Comparable<IOFHandler>
 	@Override
 	public final boolean handleDisconnectEvent(Connection conn) {
 		
+		mailboxes.remove( conn );
+		
 		assert( conn.getSwitch() != null );
 		
 		if ( conn.getSwitch() != null ) {
 			
+			// requests waiting for the replies from the switch will never be answered.
+			this.protocol.getCorrelator().cancelAll( conn.getSwitch() );
+			
 			try { 
 				conn.getSwitch().getId();
 				
@@ -63,6 +63,16 @@ public abstract class OFModule {
 		filters.put(messageType, filter);
 	}
 
+	/**
+	 * get the filter registered for the message type. This is used by {@link OFPipeline#compile()}.
+	 * 
+	 * @param messageType type of the OFMessage
+	 * @return the filter object, or null if this module does not accept the type.
+	 */
+	OFMFilter getFilter(OFType messageType) {
+		return filters.get(messageType);
+	}
+
 	/**
 	 * initialize module. 
 	 * This method is called by {@link OFController#init()}.
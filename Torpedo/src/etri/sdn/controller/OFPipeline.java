@@ -0,0 +1,115 @@
+package etri.sdn.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFType;
+
+import etri.sdn.controller.protocol.io.Connection;
+
+/**
+ * Ordered list of modules that process messages, compiled into a dispatch table.
+ *
+ * {@link #compile()} builds, for each OFType, the array of the stages (module and its filter)
+ * of the modules that registered a filter for the type, keeping the order of the modules.
+ * Thus, a message is passed only to the modules that are interested in its type,
+ * without looking up the filter of every module for every message.
+ *
+ * The outgoing messages of all the stages are accumulated in a buffer which
+ * is reused by the QP thread (see {@link MessageContext}), and written to
+ * the connection at once after the last stage.
+ *
+ * A pipeline is created by {@link OFController#createPipeline(OFModule...)}, and
+ * compiled by {@link OFController#startModules()} after all the modules have
+ * registered their filters.
+ */
+public final class OFPipeline {
+
+	private static final OFType[] TYPES = OFType.values();
+	private static final Stage[] NO_STAGES = new Stage[0];
+
+	/**
+	 * a module and its filter for a message type.
+	 */
+	private static final class Stage {
+		final OFModule module;
+		final OFMFilter filter;
+
+		Stage(OFModule module, OFMFilter filter) {
+			this.module = module;
+			this.filter = filter;
+		}
+	}
+
+	private final OFModule[] modules;
+
+	/**
+	 * OFType.ordinal() to stages table.
+	 */
+	private volatile Stage[][] table = null;
+
+	OFPipeline(OFModule... modules) {
+		this.modules = modules.clone();
+	}
+
+	/**
+	 * Build the dispatch table from the filters that are currently registered to the modules.
+	 * Filters registered after this call are not used until this method is called again.
+	 */
+	public void compile() {
+		Stage[][] t = new Stage[TYPES.length][];
+		for ( OFType type : TYPES ) {
+			List<Stage> stages = new ArrayList<Stage>();
+			for ( OFModule m : this.modules ) {
+				OFMFilter f = m.getFilter(type);
+				if ( f != null ) {
+					stages.add( new Stage(m, f) );
+				}
+			}
+			t[type.ordinal()] = stages.isEmpty() ? NO_STAGES : stages.toArray( new Stage[stages.size()] );
+		}
+		this.table = t;
+	}
+
+	/**
+	 * @return	the modules of this pipeline in order
+	 */
+	public OFModule[] getModules() {
+		return this.modules.clone();
+	}
+
+	/**
+	 * Pass the message to the modules in order, until a module returns false.
+	 *
+	 * @param conn		connection from which the message is received
+	 * @param context	MessageContext object of the QP thread
+	 * @param m			message to process
+	 * @return			false if the outgoing messages could not be written to the connection.
+	 */
+	public boolean process(Connection conn, MessageContext context, OFMessage m) {
+		Stage[][] t = this.table;
+		if ( t == null ) {
+			throw new IllegalStateException("pipeline is not compiled");
+		}
+
+		Stage[] stages = t[m.getType().ordinal()];
+		if ( stages.length == 0 ) {
+			return true;
+		}
+
+		List<OFMessage> out = context.getOutgoingBuffer();
+		try {
+			for ( int i = 0; i < stages.length; ++i ) {
+				Stage s = stages[i];
+				if ( s.filter.filter(m) && !s.module.handleMessage(conn, context, m, out) ) {
+					// we process this packet no further.
+					break;
+				}
+			}
+			return out.isEmpty() || conn.write(out);
+		} finally {
+			out.clear();
+		}
+	}
+}
@@ -0,0 +1,519 @@
+package etri.sdn.controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import etri.sdn.controller.util.StackTrace;
+
+/**
+ * Scheduler that runs {@link IOFTask} objects for all the controllers.
+ *
+ * Deadlines are kept in a hashed timing wheel which is advanced by a single
+ * ticker thread every 'tick' milliseconds, so that scheduling and cancelling
+ * a task costs O(1) regardless of the number of the scheduled tasks.
+ * Expired tasks are not run by the ticker but handed over to a small pool of
+ * worker threads, so a slow task (e.g., a topology computation) does not delay
+ * the other tasks (e.g., LLDP emission or echo requests) as long as a worker is free.
+ *
+ * A periodic task is re-inserted into the wheel only after its execution returns,
+ * thus the same task never runs concurrently with itself. If an execution takes longer
+ * than the period, the missed periods are skipped (and counted) instead of
+ * being executed in a burst. An exception thrown by a task is logged and
+ * the task remains scheduled.
+ *
+ * Execution time and lateness (time between the deadline and the actual start)
+ * are accumulated per task class, and can be retrieved by {@link #getTaskStatistics()}.
+ *
+ * This class is thread-safe.
+ */
+public final class TaskScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(TaskScheduler.class);
+
+	public static final int DEFAULT_TICK_MS = 10;
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+	public static final int DEFAULT_WORKERS = 4;
+
+	private static volatile TaskScheduler DEFAULT = null;
+
+	private final long tick_nanos;
+	private final ScheduledTask[] wheel;
+	private final int mask;
+	private final int workers;
+	private final long start_time;
+
+	/**
+	 * tasks waiting to be put into the wheel by the ticker thread.
+	 */
+	private final Queue<ScheduledTask> pending = new ConcurrentLinkedQueue<ScheduledTask>();
+
+	/**
+	 * number of tasks in the wheel or in the pending queue, or running.
+	 */
+	private final AtomicInteger scheduled = new AtomicInteger(0);
+
+	private final ConcurrentHashMap<String, Counters> counters = new ConcurrentHashMap<String, Counters>();
+
+	private final ExecutorService executor;
+	private final Thread ticker;
+	private volatile boolean quit = false;
+
+	/**
+	 * Create a scheduler and start its threads.
+	 *
+	 * @param tick_ms		resolution of the timing wheel in milliseconds
+	 * @param wheel_size	number of slots of the wheel. rounded up to the power of two.
+	 * @param workers		number of threads that run the tasks
+	 */
+	public TaskScheduler(int tick_ms, int wheel_size, int workers) {
+		if ( tick_ms <= 0 || wheel_size <= 0 || workers <= 0 ) {
+			throw new IllegalArgumentException("invalid scheduler configuration: tick=" + tick_ms +
+					", wheel=" + wheel_size + ", workers=" + workers);
+		}
+		int size = Integer.highestOneBit(wheel_size);
+		if ( size != wheel_size ) {
+			size <<= 1;
+		}
+		this.tick_nanos = TimeUnit.MILLISECONDS.toNanos(tick_ms);
+		this.wheel = new ScheduledTask[size];
+		this.mask = size - 1;
+		this.workers = workers;
+		this.start_time = System.nanoTime();
+
+		this.executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			private final AtomicInteger index = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "TaskScheduler-worker-" + index.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		this.ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				tickLoop();
+			}
+		}, "TaskScheduler-ticker");
+		this.ticker.setDaemon(true);
+		this.ticker.start();
+	}
+
+	/**
+	 * Get the scheduler which is shared by all the controllers by default.
+	 *
+	 * @return	TaskScheduler object
+	 */
+	public static TaskScheduler getDefault() {
+		if ( DEFAULT == null ) {
+			synchronized ( TaskScheduler.class ) {
+				if ( DEFAULT == null ) {
+					DEFAULT = new TaskScheduler(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE, DEFAULT_WORKERS);
+				}
+			}
+		}
+		return DEFAULT;
+	}
+
+	/**
+	 * Replace the default scheduler. This should be called before any controller is started.
+	 * The previous scheduler, if any, is shut down.
+	 *
+	 * @param scheduler		TaskScheduler object
+	 */
+	public static void setDefault(TaskScheduler scheduler) {
+		TaskScheduler prev = null;
+		synchronized ( TaskScheduler.class ) {
+			prev = DEFAULT;
+			DEFAULT = scheduler;
+		}
+		if ( prev != null && prev != scheduler ) {
+			prev.shutdown();
+		}
+	}
+
+	/**
+	 * Schedule a task.
+	 *
+	 * @param task		IOFTask object to run
+	 * @param delay		start the task after this amount of time (milliseconds).
+	 * @param period	after this amount of time (milliseconds), the task will be re-executed.
+	 * 					if zero, the task is executed only once.
+	 * @return			ScheduledTask object which can be used to cancel the task
+	 */
+	public ScheduledTask schedule(IOFTask task, long delay, long period) {
+		if ( task == null ) {
+			throw new NullPointerException("task");
+		}
+		if ( delay < 0 || period < 0 ) {
+			throw new IllegalArgumentException("negative delay or period: " + delay + ", " + period);
+		}
+
+		String name = nameOf(task);
+		Counters c = counters.get(name);
+		if ( c == null ) {
+			Counters n = new Counters(name);
+			c = counters.putIfAbsent(name, n);
+			if ( c == null ) {
+				c = n;
+			}
+		}
+
+		ScheduledTask ret = new ScheduledTask(this, task, c,
+				System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay),
+				TimeUnit.MILLISECONDS.toNanos(period));
+		scheduled.incrementAndGet();
+		c.active.incrementAndGet();
+		pending.add(ret);
+		return ret;
+	}
+
+	/**
+	 * Stop the threads of this scheduler. Scheduled tasks are discarded.
+	 */
+	public void shutdown() {
+		quit = true;
+		ticker.interrupt();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return	number of tasks that are scheduled (including the running ones).
+	 */
+	public int getScheduledCount() {
+		return scheduled.get();
+	}
+
+	/**
+	 * @return	resolution of the timing wheel in milliseconds
+	 */
+	public long getTickMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(tick_nanos);
+	}
+
+	/**
+	 * @return	number of slots of the timing wheel
+	 */
+	public int getWheelSize() {
+		return wheel.length;
+	}
+
+	/**
+	 * @return	number of the worker threads
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Get the snapshot of the per-task statistics.
+	 *
+	 * @return	list of TaskStatistics objects, one for each task class that has been scheduled.
+	 */
+	public List<TaskStatistics> getTaskStatistics() {
+		Collection<Counters> all = counters.values();
+		List<TaskStatistics> ret = new ArrayList<TaskStatistics>(all.size());
+		for ( Counters c : all ) {
+			ret.add( new TaskStatistics(c) );
+		}
+		return ret;
+	}
+
+	/**
+	 * Tasks are identified by their class names without the package name.
+	 * For anonymous classes, this gives the enclosing class name with the index
+	 * of the anonymous class (e.g., OFMLinkDiscovery$3).
+	 */
+	private static String nameOf(IOFTask task) {
+		String name = task.getClass().getName();
+		int dot = name.lastIndexOf('.');
+		return (dot < 0) ? name : name.substring(dot + 1);
+	}
+
+	/**
+	 * Body of the ticker thread.
+	 */
+	private void tickLoop() {
+		long tick = 0;
+		while ( !quit ) {
+			long deadline = start_time + (tick + 1) * tick_nanos;
+			long sleep = deadline - System.nanoTime();
+			if ( sleep > 0 ) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					if ( quit ) {
+						return;
+					}
+				}
+				continue;
+			}
+
+			transferPendingTasks(tick);
+			expire(tick);
+			++tick;
+		}
+	}
+
+	/**
+	 * Put the pending tasks into the wheel. This is called by the ticker thread.
+	 *
+	 * @param current	current tick
+	 */
+	private void transferPendingTasks(long current) {
+		ScheduledTask t = null;
+		while ( (t = pending.poll()) != null ) {
+			if ( t.cancelled ) {
+				t.finish();
+				continue;
+			}
+			long ticks = (t.deadline - start_time) / tick_nanos;
+			if ( ticks < current ) {
+				ticks = current;
+			}
+			t.rounds = (ticks - current) / wheel.length;
+			int slot = (int) (ticks & mask);
+			t.next = wheel[slot];
+			wheel[slot] = t;
+		}
+	}
+
+	/**
+	 * Hand over the tasks expired at the tick to the workers. This is called by the ticker thread.
+	 *
+	 * @param current	current tick
+	 */
+	private void expire(long current) {
+		int slot = (int) (current & mask);
+		ScheduledTask prev = null;
+		ScheduledTask t = wheel[slot];
+		while ( t != null ) {
+			ScheduledTask next = t.next;
+			if ( t.cancelled || t.rounds <= 0 ) {
+				// unlink
+				if ( prev == null ) {
+					wheel[slot] = next;
+				} else {
+					prev.next = next;
+				}
+				t.next = null;
+
+				if ( t.cancelled ) {
+					t.finish();
+				} else {
+					dispatch(t);
+				}
+			} else {
+				t.rounds--;
+				prev = t;
+			}
+			t = next;
+		}
+	}
+
+	private void dispatch(ScheduledTask t) {
+		try {
+			executor.execute(t);
+		} catch (RejectedExecutionException e) {
+			// the scheduler is shutting down.
+			t.finish();
+		}
+	}
+
+	/**
+	 * Re-insert a periodic task after its execution.
+	 */
+	private void reschedule(ScheduledTask t) {
+		pending.add(t);
+		if ( quit ) {
+			pending.remove(t);
+			t.finish();
+		}
+	}
+
+	/**
+	 * A task scheduled by {@link TaskScheduler#schedule(IOFTask, long, long)}.
+	 */
+	public static final class ScheduledTask implements Runnable {
+		private final TaskScheduler scheduler;
+		private final IOFTask task;
+		private final Counters counters;
+		private final long period;
+
+		/*
+		 * following fields are handed over between the ticker and the workers
+		 * through the pending queue and the executor, which make them visible.
+		 */
+		private long deadline;
+		private long rounds;
+		private ScheduledTask next;
+
+		private volatile boolean cancelled = false;
+		private final AtomicInteger finished = new AtomicInteger(0);
+
+		private ScheduledTask(TaskScheduler scheduler, IOFTask task, Counters counters, long deadline, long period) {
+			this.scheduler = scheduler;
+			this.task = task;
+			this.counters = counters;
+			this.deadline = deadline;
+			this.period = period;
+		}
+
+		/**
+		 * Cancel this task. If the task is running, it finishes its current execution,
+		 * and is not executed anymore.
+		 */
+		public void cancel() {
+			this.cancelled = true;
+		}
+
+		/**
+		 * @return	true if this task will not be executed anymore.
+		 */
+		public boolean isDone() {
+			return this.finished.get() != 0;
+		}
+
+		private void finish() {
+			if ( this.finished.compareAndSet(0, 1) ) {
+				this.counters.active.decrementAndGet();
+				this.scheduler.scheduled.decrementAndGet();
+			}
+		}
+
+		@Override
+		public void run() {
+			if ( this.cancelled ) {
+				finish();
+				return;
+			}
+
+			long start = System.nanoTime();
+			boolean again = true;
+			try {
+				again = this.task.execute();
+			} catch (Throwable t) {
+				this.counters.failures.incrementAndGet();
+				logger.error("task {} failed: {}", this.counters.name, StackTrace.of(t));
+			}
+			long end = System.nanoTime();
+			this.counters.record(start - this.deadline, end - start);
+
+			if ( !again || this.period == 0 || this.cancelled ) {
+				finish();
+				return;
+			}
+
+			this.deadline += this.period;
+			if ( this.deadline < end ) {
+				// the execution took longer than the period. skip the missed periods.
+				long missed = (end - this.deadline) / this.period + 1;
+				this.deadline += missed * this.period;
+				this.counters.skipped.addAndGet(missed);
+			}
+			this.scheduler.reschedule(this);
+		}
+	}
+
+	/**
+	 * Per-task-class counters.
+	 */
+	private static final class Counters {
+		private final String name;
+		private final AtomicInteger active = new AtomicInteger(0);
+		private final AtomicLong executions = new AtomicLong(0);
+		private final AtomicLong failures = new AtomicLong(0);
+		private final AtomicLong skipped = new AtomicLong(0);
+		private final AtomicLong total_exec = new AtomicLong(0);
+		private final AtomicLong max_exec = new AtomicLong(0);
+		private final AtomicLong total_late = new AtomicLong(0);
+		private final AtomicLong max_late = new AtomicLong(0);
+
+		private Counters(String name) {
+			this.name = name;
+		}
+
+		private void record(long late, long exec) {
+			if ( late < 0 ) {
+				late = 0;
+			}
+			executions.incrementAndGet();
+			total_exec.addAndGet(exec);
+			total_late.addAndGet(late);
+			updateMax(max_exec, exec);
+			updateMax(max_late, late);
+		}
+
+		private static void updateMax(AtomicLong max, long value) {
+			long cur;
+			while ( (cur = max.get()) < value ) {
+				if ( max.compareAndSet(cur, value) ) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Snapshot of the statistics of a task class. Times are in microseconds.
+	 */
+	public static final class TaskStatistics {
+		private String name;
+		private int active;
+		private long executions;
+		private long failures;
+		private long skipped;
+		private long total_exec;
+		private long max_exec;
+		private long total_late;
+		private long max_late;
+
+		private TaskStatistics(Counters c) {
+			this.name = c.name;
+			this.active = c.active.get();
+			this.executions = c.executions.get();
+			this.failures = c.failures.get();
+			this.skipped = c.skipped.get();
+			this.total_exec = TimeUnit.NANOSECONDS.toMicros(c.total_exec.get());
+			this.max_exec = TimeUnit.NANOSECONDS.toMicros(c.max_exec.get());
+			this.total_late = TimeUnit.NANOSECONDS.toMicros(c.total_late.get());
+			this.max_late = TimeUnit.NANOSECONDS.toMicros(c.max_late.get());
+		}
+
+		/** @return class name of the task */
+		public String getName() { return name; }
+		/** @return number of the tasks of this class that are currently scheduled */
+		public int getActive() { return active; }
+		/** @return number of executions */
+		public long getExecutions() { return executions; }
+		/** @return number of executions that threw an exception */
+		public long getFailures() { return failures; }
+		/** @return number of periods skipped because an execution took longer than the period */
+		public long getSkipped() { return skipped; }
+		/** @return total execution time */
+		public long getTotalExecutionTime() { return total_exec; }
+		/** @return longest execution time */
+		public long getMaxExecutionTime() { return max_exec; }
+		/** @return average execution time */
+		public long getAverageExecutionTime() { return (executions == 0) ? 0 : total_exec / executions; }
+		/** @return longest delay between a deadline and the start of the execution */
+		public long getMaxLateness() { return max_late; }
+		/** @return average delay between a deadline and the start of the execution */
+		public long getAverageLateness() { return (executions == 0) ? 0 : total_late / executions; }
+	}
+}
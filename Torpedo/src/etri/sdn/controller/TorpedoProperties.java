@@ -92,6 +92,22 @@ public final class TorpedoProperties extends Properties {
 			sysconf_.setProperty("port-number", "6633");
 			sysconf_.setProperty("watcher-num", "2");
 			sysconf_.setProperty("web-server-port", "8080");
+			sysconf_.setProperty("qp-ring-size", "1024");
+			sysconf_.setProperty("qp-dispatch", "pinned");
+			sysconf_.setProperty("io-buffer-retain-kb", "65536");
+			sysconf_.setProperty("read-batch-limit", "256");
+			sysconf_.setProperty("lazy-packet-in", "true");
+			sysconf_.setProperty("reuse-packets", "false");
+			sysconf_.setProperty("lldp-probes-per-second", "0");
+			sysconf_.setProperty("scheduler-threads", "4");
+			sysconf_.setProperty("scheduler-tick-ms", "10");
+			sysconf_.setProperty("scheduler-wheel-size", "512");
+			sysconf_.setProperty("topology-parallelism", "0");
+			sysconf_.setProperty("topology-parallel-threshold", "256");
+			sysconf_.setProperty("multipath", "ecmp");
+			sysconf_.setProperty("multipath-max-routes", "4");
+			sysconf_.setProperty("topology-batch-min-ms", "50");
+			sysconf_.setProperty("topology-batch-max-ms", "1000");
 	
 			File sysconf_file = new File("./torpedo.properties");
 			if ( sysconf_file.exists() ) {
@@ -0,0 +1,18 @@
+package etri.sdn.controller.module.connectionmonitor;
+
+import etri.sdn.controller.IService;
+
+/**
+ * The interface of the service that {@link OFMConnectionMonitor} implements.
+ */
+public interface IConnectionMonitorService extends IService {
+
+	/**
+	 * Returns the round-trip time between the controller and a switch,
+	 * which is measured with ECHO_REQUEST and ECHO_REPLY messages.
+	 *
+	 * @param switchId	datapath id of the switch
+	 * @return			smoothed round-trip time in nanoseconds, or -1 if it is not measured
+	 */
+	public long getEchoRtt(long switchId);
+}
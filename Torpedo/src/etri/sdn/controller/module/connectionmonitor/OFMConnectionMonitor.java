@@ -2,11 +2,14 @@ package etri.sdn.controller.module.connectionmonitor;
 
 import java.util.Calendar;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.projectfloodlight.openflow.protocol.OFEchoReply;
 import org.projectfloodlight.openflow.protocol.OFEchoRequest;
 import org.projectfloodlight.openflow.protocol.OFFactories;
 import org.projectfloodlight.openflow.protocol.OFFactory;
@@ -32,10 +35,12 @@ import etri.sdn.controller.protocol.io.IOFSwitch;
  * Some application failure on a normal TCP connection cannot be detected in this case.
  * This module is optional, but it sends periodical ECHO_REQUEST to all switches if activated.
  * If there is no responses, it terminates these connections and removes switches.
+ * The ECHO_REQUEST carries its sending time, so that the round-trip time
+ * to each switch is measured from the ECHO_REPLY (see {@link IConnectionMonitorService}).
  * 
  *  @author jshin
  */
-public class OFMConnectionMonitor extends OFModule {
+public class OFMConnectionMonitor extends OFModule implements IConnectionMonitorService {
 
 	private static final Logger logger = LoggerFactory.getLogger(ForwardingBase.class);
 
@@ -58,6 +63,11 @@ public class OFMConnectionMonitor extends OFModule {
 	 */
 	Map<IOFSwitch, Long> switchMap;
 
+	/*
+	 * a map of switch id and smoothed round-trip time (ns)
+	 */
+	private ConcurrentMap<Long, Long> echoRtts = new ConcurrentHashMap<Long, Long>();
+
 	/**
 	 * Adds or updates switchMap.
 	 * 
@@ -87,6 +97,9 @@ public class OFMConnectionMonitor extends OFModule {
 
 		IOFSwitch sw = conn.getSwitch();
 		switchMap.remove(sw);
+		if (sw != null) {
+			echoRtts.remove(sw.getId());
+		}
 
 		logger.debug("[ConnMon] Switch disconnected: {}", Calendar.getInstance().getTime());
 	}
@@ -127,17 +140,59 @@ public class OFMConnectionMonitor extends OFModule {
 		OFFactory fac = OFFactories.getFactory(sw.getVersion());
 		OFEchoRequest.Builder echoReq = fac.buildEchoRequest();
 
+		// the sending time of the request is returned in the reply.
+		byte[] data = new byte[8];
+		long now = System.nanoTime();
+		for (int i = 7; i >= 0; --i) {
+			data[i] = (byte) now;
+			now >>>= 8;
+		}
+		echoReq.setData(data);
+
 		sw.getConnection().write(echoReq.build());
 	}
 
+	/**
+	 * Updates the round-trip time of a switch with an ECHO_REPLY to {@link #sendEchoRequest(IOFSwitch)}.
+	 *
+	 * @param sw
+	 * @param reply
+	 */
+	private void updateEchoRtt (IOFSwitch sw, OFEchoReply reply) {
+
+		byte[] data = reply.getData();
+		if (sw == null || data == null || data.length != 8) {
+			return;
+		}
+		long sent = 0;
+		for (int i = 0; i < 8; ++i) {
+			sent = (sent << 8) | (data[i] & 0xff);
+		}
+		long rtt = System.nanoTime() - sent;
+		if (rtt < 0) {
+			return;
+		}
+
+		// exponentially weighted moving average with the weight of 1/4 for a new sample.
+		Long old = echoRtts.get(sw.getId());
+		echoRtts.put(sw.getId(), (old == null) ? rtt : old + (rtt - old) / 4);
+	}
+
+	@Override
+	public long getEchoRtt(long switchId) {
+		Long rtt = echoRtts.get(switchId);
+		return (rtt == null) ? -1 : rtt;
+	}
+
 	/*
 	 * OFModule Methods 
 	 */
 
 	@Override
 	protected Collection<Class<? extends IService>> services() {
-		// no service to implement
-		return Collections.emptyList();
+		List<Class<? extends IService>> ret = new LinkedList<Class<? extends IService>>();
+		ret.add(IConnectionMonitorService.class);
+		return ret;
 	}
 
 	@Override
@@ -229,6 +284,7 @@ public class OFMConnectionMonitor extends OFModule {
 			case ECHO_REPLY:
 				logger.debug("[ConnMon] ECHO_REPLY received");
 				updateSwitch(conn);
+				updateEchoRtt(conn.getSwitch(), (OFEchoReply) msg);
 				break;
 			default:
 				break;
@@ -24,13 +24,29 @@ import java.util.Iterator;
 import org.projectfloodlight.openflow.types.OFPort;
 
 import etri.sdn.controller.IService;
+import etri.sdn.controller.MessageContext;
 
 /**
  * The device manager allows interacting with devices on the network. Note
  * that under normal circumstances, {@link Device} objects should be retrieved
- * from the {@link etri.sdn.controller.MessageContext}.
+ * from the {@link MessageContext}.
  */
 public interface IDeviceService extends IService {
+
+    /**
+     * key to find the source device for the current packet-in 
+     * in the message context, if applicable.
+     */
+    public static final MessageContext.Key<IDevice> SRC_DEVICE = 
+        MessageContext.registerKey("net.floodlightcontroller.devicemanager.srcDevice", IDevice.class);
+
+    /**
+     * key to find the destination device for the current packet-in 
+     * in the message context, if applicable.
+     */
+    public static final MessageContext.Key<IDevice> DST_DEVICE = 
+        MessageContext.registerKey("net.floodlightcontroller.devicemanager.dstDevice", IDevice.class);
+
     /**
      * Fields used in devices for indexes and querying
      * 
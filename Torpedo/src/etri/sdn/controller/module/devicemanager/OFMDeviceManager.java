@@ -33,9 +33,7 @@ import etri.sdn.controller.module.topologymanager.ITopologyListener;
 import etri.sdn.controller.module.topologymanager.ITopologyService;
 import etri.sdn.controller.protocol.io.Connection;
 import etri.sdn.controller.protocol.io.IOFSwitch;
-import etri.sdn.controller.protocol.packet.ARP;
-import etri.sdn.controller.protocol.packet.Ethernet;
-import etri.sdn.controller.protocol.packet.IPv4;
+import etri.sdn.controller.protocol.packet.PacketHeaders;
 
 /**
  * This class implements the device manager module.
@@ -231,14 +229,7 @@ implements IDeviceService, ITopologyListener, IEntityClassListener, IInfoProvide
 
 	private boolean processPacketInMessage(IOFSwitch sw, OFPacketIn pi, MessageContext cntx) {
 
-		Ethernet eth = (Ethernet) cntx.get(MessageContext.ETHER_PAYLOAD);
-
-		if ( eth == null ) {
-			// parse Ethernet header and put into the context
-			eth = new Ethernet();
-			eth.deserialize(pi.getData(), 0, pi.getData().length);
-			cntx.put(MessageContext.ETHER_PAYLOAD, eth);
-		}
+		PacketHeaders eth = cntx.getPacketHeaders(pi);
 
 		// Extract source entity information
 		Entity srcEntity = getSourceEntityFromPacket(eth, sw, getInputPort(pi));
@@ -261,7 +252,7 @@ implements IDeviceService, ITopologyListener, IEntityClassListener, IInfoProvide
 		//		}
 
 		// Store the source device in the context
-		cntx.put(MessageContext.SRC_DEVICE, srcDevice);
+		cntx.put(IDeviceService.SRC_DEVICE, srcDevice);
 
 		// Find the device matching the destination from the entity
 		// classes of the source.
@@ -270,7 +261,7 @@ implements IDeviceService, ITopologyListener, IEntityClassListener, IInfoProvide
 		if (dstEntity != null) {
 			dstDevice = devices.findDestByEntity(srcDevice, dstEntity);
 			if (dstDevice != null)
-				cntx.put(MessageContext.DST_DEVICE, dstDevice);
+				cntx.put(IDeviceService.DST_DEVICE, dstDevice);
 		}
 
 		return true;
@@ -289,22 +280,21 @@ implements IDeviceService, ITopologyListener, IEntityClassListener, IInfoProvide
 	}
 
 	/**
-	 * Parses an entity from an {@link Ethernet} packet.
+	 * Parses an entity from the headers of a packet.
 	 * 
-	 * @param eth 		the packet to parse
+	 * @param eth 		the packet headers to parse
 	 * @param sw	 	the switch on which the packet arrived
 	 * @param ofPort 	the original packetin
 	 * 
 	 * @return the entity from the packet
 	 */
-	private Entity getSourceEntityFromPacket(Ethernet eth, IOFSwitch sw, OFPort ofPort) {
+	private Entity getSourceEntityFromPacket(PacketHeaders eth, IOFSwitch sw, OFPort ofPort) {
 		long swdpid = sw.getId();
 
-		byte[] dlAddrArr = eth.getSourceMACAddress();
-		long dlAddr = Ethernet.toLong(dlAddrArr);
+		long dlAddr = eth.getSourceMAC();
 
 		// Ignore broadcast/multicast source
-		if ((dlAddrArr[0] & 0x1) != 0)
+		if ((dlAddr & 0x010000000000L) != 0)
 			return null;
 
 		short vlan = eth.getVlanID();
@@ -320,20 +310,18 @@ implements IDeviceService, ITopologyListener, IEntityClassListener, IInfoProvide
 	/**
 	 * Gets IP address from packet if the packet is either an ARP a DHCP packet.
 	 * 
-	 * @param eth the Ethernet packet
+	 * @param eth the packet headers
 	 * @param dlAddr the Ethernet address
 	 * 
 	 * @return the source IP address 
 	 */
-	private int getSrcNwAddr(Ethernet eth, long dlAddr) {
-		if (eth.getPayload() instanceof ARP) {
-			ARP arp = (ARP) eth.getPayload();
-			if ((arp.getProtocolType() == ARP.PROTO_TYPE_IP) &&
-					(Ethernet.toLong(arp.getSenderHardwareAddress()) == dlAddr)) {
-				return IPv4.toIPv4Address(arp.getSenderProtocolAddress());
+	private int getSrcNwAddr(PacketHeaders eth, long dlAddr) {
+		if (eth.isARP()) {
+			if (eth.hasArpIPv4Addresses() &&
+					(eth.getArpSenderHardwareAddress() == dlAddr)) {
+				return eth.getArpSenderProtocolAddress();
 			}
-		} else if (eth.getPayload() instanceof IPv4) {
-			IPv4 ipv4 = (IPv4) eth.getPayload();
+		} else if (eth.isIPv4()) {
 			/*
 			if (ipv4.getPayload() instanceof UDP) {
 				UDP udp = (UDP)ipv4.getPayload();
@@ -347,7 +335,7 @@ implements IDeviceService, ITopologyListener, IEntityClassListener, IInfoProvide
 			 */
 
 			// bjlee - 2013.10.11
-			return ipv4.getSourceAddress();
+			return eth.getNetworkSource();
 		}
 		return 0;
 	}
@@ -355,23 +343,21 @@ implements IDeviceService, ITopologyListener, IEntityClassListener, IInfoProvide
 	/**
 	 * Gets a (partial) entity for the destination from the packet.
 	 * 
-	 * @param eth the Ethernet packet
+	 * @param eth the packet headers
 	 * 
 	 * @return the entity for the destination
 	 */
-	private Entity getDestEntityFromPacket(Ethernet eth) {
-		byte[] dlAddrArr = eth.getDestinationMACAddress();
-		long dlAddr = Ethernet.toLong(dlAddrArr);
+	private Entity getDestEntityFromPacket(PacketHeaders eth) {
+		long dlAddr = eth.getDestinationMAC();
 		short vlan = eth.getVlanID();
 		int nwDst = 0;
 
 		// Ignore broadcast/multicast destination
-		if ((dlAddrArr[0] & 0x1) != 0)
+		if (eth.isMulticast())
 			return null;
 
-		if (eth.getPayload() instanceof IPv4) {
-			IPv4 ipv4 = (IPv4) eth.getPayload();
-			nwDst = ipv4.getDestinationAddress();
+		if (eth.isIPv4()) {
+			nwDst = eth.getNetworkDestination();
 		}
 
 		return new Entity(dlAddr,
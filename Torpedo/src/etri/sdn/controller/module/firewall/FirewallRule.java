@@ -11,10 +11,8 @@ import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.util.HexString;
 
 import etri.sdn.controller.protocol.packet.Ethernet;
-import etri.sdn.controller.protocol.packet.IPacket;
 import etri.sdn.controller.protocol.packet.IPv4;
-import etri.sdn.controller.protocol.packet.TCP;
-import etri.sdn.controller.protocol.packet.UDP;
+import etri.sdn.controller.protocol.packet.PacketHeaders;
 
 /**
  * This class defines the firewall rule.
@@ -216,7 +214,7 @@ public class FirewallRule implements Comparable<FirewallRule>, Serializable {
 	 * 
 	 * @param switchDpid the dpid of the connected switch
 	 * @param inPort the switch port where the packet originated from
-	 * @param packet the Ethernet packet that arrives at the switch
+	 * @param packet the headers of the packet that arrives at the switch
 	 * @param wildcards the pair of wildcards (allow and deny) given by Firewall
 	 *        module that is used by the Firewall module's matchWithRule method 
 	 *        to derive wildcards for the decision to be taken
@@ -224,16 +222,10 @@ public class FirewallRule implements Comparable<FirewallRule>, Serializable {
 	 * @return true if the rule matches the given packetin, false otherwise
 	 * 
 	 */
-	public boolean matchesFlow(long switchDpid, OFPort inPort, Ethernet packet,
+	public boolean matchesFlow(long switchDpid, OFPort inPort, PacketHeaders packet,
 			WildcardsPair wildcards) {
-		IPacket pkt = packet.getPayload();
-
-		// dl_type type
-		IPv4 pkt_ip = null;
-
 		// nw_proto types
-		TCP pkt_tcp = null;
-		UDP pkt_udp = null;
+		boolean pkt_tcp_udp = false;
 
 		// tp_src and tp_dst (tp port numbers)
 		short pkt_tp_src = 0;
@@ -254,7 +246,7 @@ public class FirewallRule implements Comparable<FirewallRule>, Serializable {
 
 		// mac address (src and dst) match?
 		if (wildcard_dl_src == false
-				&& dl_src != packet.getSourceMAC().toLong())
+				&& dl_src != packet.getSourceMAC())
 			return false;
 		if (action == FirewallRule.FirewallAction.DENY) {
 			wildcards.drop &= ~OFPFW_DL_SRC;
@@ -263,7 +255,7 @@ public class FirewallRule implements Comparable<FirewallRule>, Serializable {
 		}
 
 		if (wildcard_dl_dst == false
-				&& dl_dst != packet.getDestinationMAC().toLong())
+				&& dl_dst != packet.getDestinationMAC())
 			return false;
 		if (action == FirewallRule.FirewallAction.DENY) {
 			wildcards.drop &= ~OFPFW_DL_DST;
@@ -287,7 +279,7 @@ public class FirewallRule implements Comparable<FirewallRule>, Serializable {
 					}
 				}
 			} else if (dl_type == Ethernet.TYPE_IPv4) {
-				if (packet.getEtherType() != Ethernet.TYPE_IPv4)
+				if (packet.isIPv4() == false)
 					return false;
 				else {
 					if (action == FirewallRule.FirewallAction.DENY) {
@@ -296,12 +288,10 @@ public class FirewallRule implements Comparable<FirewallRule>, Serializable {
 						wildcards.allow &= ~OFPFW_NW_PROTO;
 					}
 					// IP packets, proceed with ip address check
-					pkt_ip = (IPv4) pkt;
-
 					// IP addresses (src and dst) match?
 					if (wildcard_nw_src == false
 							&& this.matchIPAddress(nw_src_prefix,
-									nw_src_maskbits, pkt_ip.getSourceAddress()) == false)
+									nw_src_maskbits, packet.getNetworkSource()) == false)
 						return false;
 					if (action == FirewallRule.FirewallAction.DENY) {
 						wildcards.drop &= ~OFPFW_NW_SRC_ALL;
@@ -314,7 +304,7 @@ public class FirewallRule implements Comparable<FirewallRule>, Serializable {
 					if (wildcard_nw_dst == false
 							&& this.matchIPAddress(nw_dst_prefix,
 									nw_dst_maskbits,
-									pkt_ip.getDestinationAddress()) == false)
+									packet.getNetworkDestination()) == false)
 						return false;
 					if (action == FirewallRule.FirewallAction.DENY) {
 						wildcards.drop &= ~OFPFW_NW_DST_ALL;
@@ -327,23 +317,23 @@ public class FirewallRule implements Comparable<FirewallRule>, Serializable {
 					// nw_proto check
 					if (wildcard_nw_proto == false) {
 						if (nw_proto == IPv4.PROTOCOL_TCP) {
-							if (pkt_ip.getProtocol() != IPv4.PROTOCOL_TCP)
+							if (packet.getNetworkProtocol() != IPv4.PROTOCOL_TCP)
 								return false;
 							else {
-								pkt_tcp = (TCP) pkt_ip.getPayload();
-								pkt_tp_src = pkt_tcp.getSourcePort();
-								pkt_tp_dst = pkt_tcp.getDestinationPort();
+								pkt_tcp_udp = true;
+								pkt_tp_src = packet.getTransportSource();
+								pkt_tp_dst = packet.getTransportDestination();
 							}
 						} else if (nw_proto == IPv4.PROTOCOL_UDP) {
-							if (pkt_ip.getProtocol() != IPv4.PROTOCOL_UDP)
+							if (packet.getNetworkProtocol() != IPv4.PROTOCOL_UDP)
 								return false;
 							else {
-								pkt_udp = (UDP) pkt_ip.getPayload();
-								pkt_tp_src = pkt_udp.getSourcePort();
-								pkt_tp_dst = pkt_udp.getDestinationPort();
+								pkt_tcp_udp = true;
+								pkt_tp_src = packet.getTransportSource();
+								pkt_tp_dst = packet.getTransportDestination();
 							}
 						} else if (nw_proto == IPv4.PROTOCOL_ICMP) {
-							if (pkt_ip.getProtocol() != IPv4.PROTOCOL_ICMP)
+							if (packet.getNetworkProtocol() != IPv4.PROTOCOL_ICMP)
 								return false;
 							else {
 								// nothing more needed for ICMP
@@ -356,7 +346,7 @@ public class FirewallRule implements Comparable<FirewallRule>, Serializable {
 						}
 
 						// TCP/UDP source and destination ports match?
-						if (pkt_tcp != null || pkt_udp != null) {
+						if (pkt_tcp_udp) {
 							// does the source port match?
 							if (tp_src != 0 && tp_src != pkt_tp_src)
 								return false;
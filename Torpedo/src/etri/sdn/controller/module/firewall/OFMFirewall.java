@@ -36,6 +36,7 @@ import etri.sdn.controller.OFModel;
 import etri.sdn.controller.OFModule;
 import etri.sdn.controller.TorpedoProperties;
 import etri.sdn.controller.module.devicemanager.IDevice;
+import etri.sdn.controller.module.devicemanager.IDeviceService;
 import etri.sdn.controller.module.forwarding.Forwarding;
 import etri.sdn.controller.module.routing.IRoutingDecision;
 import etri.sdn.controller.module.routing.RoutingDecision;
@@ -43,8 +44,8 @@ import etri.sdn.controller.module.storagemanager.IStorageService;
 import etri.sdn.controller.module.storagemanager.OFMStorageManager;
 import etri.sdn.controller.protocol.io.Connection;
 import etri.sdn.controller.protocol.io.IOFSwitch;
-import etri.sdn.controller.protocol.packet.Ethernet;
 import etri.sdn.controller.protocol.packet.IPv4;
+import etri.sdn.controller.protocol.packet.PacketHeaders;
 import etri.sdn.controller.util.AppCookie;
 
 /**
@@ -153,7 +154,7 @@ public class OFMFirewall extends OFModule implements IFirewallService
 	 */
 	private boolean processPacketInMessage(IOFSwitch sw, OFPacketIn pi, IRoutingDecision decision, MessageContext cntx){
 
-		Ethernet eth = (Ethernet) cntx.get(MessageContext.ETHER_PAYLOAD);
+		PacketHeaders eth = cntx.getPacketHeaders(pi);
 		OFPort inPort = getInputPort(pi);
 
 		// Allowing L2 broadcast + ARP broadcast request (also deny malformed
@@ -162,9 +163,8 @@ public class OFMFirewall extends OFModule implements IFirewallService
 			boolean allowBroadcast = true;
 			// the case to determine if we have L2 broadcast + L3 unicast
 			// don't allow this broadcast packet if such is the case (malformed packet)
-			if (eth.getEtherType() == Ethernet.TYPE_IPv4
-					&& this.IPIsBroadcast(((IPv4) eth.getPayload())
-							.getDestinationAddress()) == false) {
+			if (eth.isIPv4()
+					&& this.IPIsBroadcast(eth.getNetworkDestination()) == false) {
 				allowBroadcast = false;
 			}
 			if (allowBroadcast == true) {
@@ -173,7 +173,7 @@ public class OFMFirewall extends OFModule implements IFirewallService
 				decision = new RoutingDecision(
 						sw.getId(),
 						inPort, 
-						(IDevice) cntx.get(MessageContext.SRC_DEVICE),
+						cntx.get(IDeviceService.SRC_DEVICE),
 						IRoutingDecision.RoutingAction.MULTICAST);
 				decision.addToContext(cntx);
 			} else {
@@ -182,7 +182,7 @@ public class OFMFirewall extends OFModule implements IFirewallService
 				decision = new RoutingDecision(
 						sw.getId(),
 						inPort, 
-						(IDevice) cntx.get(MessageContext.SRC_DEVICE),
+						cntx.get(IDeviceService.SRC_DEVICE),
 						IRoutingDecision.RoutingAction.DROP);
 				decision.addToContext(cntx);
 			}
@@ -210,7 +210,7 @@ public class OFMFirewall extends OFModule implements IFirewallService
 				decision = new RoutingDecision(
 						sw.getId(),
 						inPort, 
-						(IDevice) cntx.get(MessageContext.SRC_DEVICE),
+						cntx.get(IDeviceService.SRC_DEVICE),
 						IRoutingDecision.RoutingAction.DROP);
 				decision.setWildcards(match_ret.wildcards);
 				decision.addToContext(cntx);
@@ -226,7 +226,7 @@ public class OFMFirewall extends OFModule implements IFirewallService
 				decision = new RoutingDecision(
 						sw.getId(),
 						inPort, 
-						(IDevice) cntx.get(MessageContext.SRC_DEVICE),
+						cntx.get(IDeviceService.SRC_DEVICE),
 						IRoutingDecision.RoutingAction.FORWARD_OR_FLOOD);
 				decision.setWildcards(match_ret.wildcards);
 				decision.addToContext(cntx);
@@ -271,7 +271,7 @@ public class OFMFirewall extends OFModule implements IFirewallService
 		FirewallRule matched_rule = null;
 		OFPort inPort = getInputPort(pi);
 
-		Ethernet eth = (Ethernet) cntx.get(MessageContext.ETHER_PAYLOAD);
+		PacketHeaders eth = cntx.getPacketHeaders(pi);
 
 		WildcardsPair wildcards = new WildcardsPair();
 
@@ -561,7 +561,7 @@ public class OFMFirewall extends OFModule implements IFirewallService
 		case PACKET_IN:
 			IRoutingDecision decision = null;
 			if (context != null) {
-				decision = (IRoutingDecision) context.get(MessageContext.ROUTING_DECISION);
+				decision = context.get(IRoutingDecision.ROUTING_DECISION);
 
 				return this.processPacketInMessage(conn.getSwitch(), (OFPacketIn) msg, decision, context);
 			}
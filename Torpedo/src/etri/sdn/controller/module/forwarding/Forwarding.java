@@ -58,6 +58,7 @@ import etri.sdn.controller.protocol.OFProtocol;
 import etri.sdn.controller.protocol.io.Connection;
 import etri.sdn.controller.protocol.io.IOFSwitch;
 import etri.sdn.controller.protocol.packet.Ethernet;
+import etri.sdn.controller.protocol.packet.PacketHeaders;
 import etri.sdn.controller.util.AppCookie;
 
 /**
@@ -115,14 +116,7 @@ public class Forwarding extends ForwardingBase {
 	public boolean processPacketInMessage(Connection conn, OFPacketIn pi,
 			IRoutingDecision decision, MessageContext cntx) {
 
-		Ethernet eth = (Ethernet) cntx.get(MessageContext.ETHER_PAYLOAD);
-		
-		if ( eth == null ) {
-			// parse Ethernet header and put into the context
-			eth = new Ethernet();
-			eth.deserialize(pi.getData(), 0, pi.getData().length);
-			cntx.put(MessageContext.ETHER_PAYLOAD, eth);
-		}
+		Ethernet eth = cntx.getEthernet(pi);
 
 		// If a decision has been made we obey it
 		// otherwise we just forward
@@ -176,7 +170,7 @@ public class Forwarding extends ForwardingBase {
 		OFPort inPort = getInputPort(pi);
 		
 		// initialize match structure and populate it using the packet
-		Match match = protocol.loadOFMatchFromPacket(sw, pi, inPort, false);
+		Match match = protocol.loadOFMatchFromPacket(pi.getVersion(), cntx.getPacketHeaders(pi), inPort, false);
 
 		// Create flow-mod based on packet-in and src-switch
 		OFFlowAdd.Builder fm = OFFactories.getFactory(pi.getVersion()).buildFlowAdd();
@@ -229,13 +223,14 @@ public class Forwarding extends ForwardingBase {
 		
 		OFPort inPort = getInputPort(pi);
 		
-		Match match = protocol.loadOFMatchFromPacket(sw, pi, inPort, false);
+		PacketHeaders headers = cntx.getPacketHeaders(pi);
+		Match match = protocol.loadOFMatchFromPacket(pi.getVersion(), headers, inPort, false);
 
 		// Check if we have the location of the destination
-		IDevice dstDevice = (IDevice) cntx.get(MessageContext.DST_DEVICE);
+		IDevice dstDevice = cntx.get(IDeviceService.DST_DEVICE);
 
 		if (dstDevice != null) {
-			IDevice srcDevice = (IDevice) cntx.get(MessageContext.SRC_DEVICE);
+			IDevice srcDevice = cntx.get(IDeviceService.SRC_DEVICE);
 			Long srcIsland = topology.getL2DomainId(sw.getId());
 
 			if (srcDevice == null) {
@@ -298,11 +293,13 @@ public class Forwarding extends ForwardingBase {
 					if (!srcDap.equals(dstDap) && 
 							/* (srcCluster != null) && */		// --redundant null check.
 							(dstCluster != null)) {
-						Route route = 
-								routingEngine.getRoute(srcDap.getSwitchDPID(),
+						// spread the flows over the routes of the same switch pair.
+						List<Route> routes = 
+								routingEngine.getRoutes(srcDap.getSwitchDPID(),
 										srcDap.getPort(),
 										dstDap.getSwitchDPID(),
 										dstDap.getPort());
+						Route route = selectRoute(routes, headers);
 						if (route != null) {
 //							if (log.isTraceEnabled()) {
 //								log.trace("pushRoute match={} route={} " + 
@@ -333,6 +330,50 @@ public class Forwarding extends ForwardingBase {
 		}
 	}
 
+	/**
+	 * Select a route for a flow. The flows of the same addresses and ports
+	 * always take the same route.
+	 * 
+	 * @param routes routes of a switch pair
+	 * @param headers headers of the packet
+	 * @return one of the routes, or null if the list is empty
+	 */
+	protected static Route selectRoute(List<Route> routes, PacketHeaders headers) {
+		if (routes.isEmpty()) {
+			return null;
+		}
+		if (routes.size() == 1) {
+			return routes.get(0);
+		}
+		return routes.get((getFlowHash(headers) & 0x7fffffff) % routes.size());
+	}
+
+	/**
+	 * Computes a hash of the addresses and the ports of a packet.
+	 * 
+	 * @param headers headers of the packet
+	 * @return hash value
+	 */
+	protected static int getFlowHash(PacketHeaders headers) {
+		long h = headers.getSourceMAC() * 31 + headers.getDestinationMAC();
+		if (headers.isIPv4()) {
+			h = h * 31 + headers.getNetworkSource();
+			h = h * 31 + headers.getNetworkDestination();
+			h = h * 31 + headers.getNetworkProtocol();
+			if (headers.hasTransportPorts()) {
+				h = h * 31 + (headers.getTransportSource() & 0xffff);
+				h = h * 31 + (headers.getTransportDestination() & 0xffff);
+			}
+		}
+		// mix the bits (the finalizer of MurmurHash3)
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
 	/**
 	 * Creates a OFPacketOut with packetin that is flooded on all ports
 	 * unless the port is blocked, in which case the packet will be dropped.
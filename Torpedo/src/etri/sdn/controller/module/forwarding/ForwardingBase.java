@@ -177,7 +177,7 @@ public abstract class ForwardingBase extends OFModule implements IDeviceListener
 		case PACKET_IN:
 			IRoutingDecision decision = null;
 			if (cntx != null) {
-				decision = (IRoutingDecision) cntx.get(MessageContext.ROUTING_DECISION);
+				decision = cntx.get(IRoutingDecision.ROUTING_DECISION);
 			}
 
 			return this.processPacketInMessage(conn,
@@ -619,7 +619,7 @@ public abstract class ForwardingBase extends OFModule implements IDeviceListener
 		// If the feature is disabled, always return false;
 		if (!broadcastCacheFeature) return false;
 
-		Ethernet eth = (Ethernet) cntx.get(MessageContext.ETHER_PAYLOAD);
+		Ethernet eth = cntx.get(MessageContext.ETHER_PAYLOAD);
 
 		Long broadcastHash;
 		OFPort inPort = getInputPort(pi);
@@ -648,7 +648,7 @@ public abstract class ForwardingBase extends OFModule implements IDeviceListener
 		if (!broadcastCacheFeature) return false;
 
 		// Get the hash of the Ethernet packet.
-		Ethernet eth = (Ethernet) cntx.get(MessageContext.ETHER_PAYLOAD);
+		Ethernet eth = cntx.get(MessageContext.ETHER_PAYLOAD);
 
 		OFPort inPort = getInputPort(pi);
 		
@@ -326,7 +326,7 @@ public final class OFMLearningMac extends OFModule {
 		try { 
 			match = pi.getMatch();
 		} catch ( UnsupportedOperationException u ) {
-			match = this.protocol.loadOFMatchFromPacket(conn.getSwitch(), pi, pi.getInPort(), true);
+			match = this.protocol.loadOFMatchFromPacket(pi.getVersion(), context.getPacketHeaders(pi), pi.getInPort(), true);
 		}
 		
 		OFPort inputPort = match.get(MatchField.IN_PORT);
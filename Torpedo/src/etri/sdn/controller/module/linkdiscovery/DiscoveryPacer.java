@@ -0,0 +1,199 @@
+package etri.sdn.controller.module.linkdiscovery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pacing scheduler of the periodic discovery messages.
+ *
+ * Instead of sending LLDPs out of all the ports at once every interval,
+ * the ports of a discovery cycle are sent in round-robin order, a few on each tick,
+ * so that the cycle ends after the interval. Thus, every port is still probed
+ * once per interval, but the probes and the PACKET_INs that they make are spread
+ * evenly over the interval.
+ *
+ * The total number of probes is limited by a probes-per-second budget, which is shared
+ * with the quarantine and maintenance queues of {@link OFMLinkDiscovery}.
+ * The queued ports take the budget first, and the round-robin ports use the rest.
+ * If the budget is too small for the ports, the cycle takes longer than the interval.
+ *
+ * A port is stable if it has not changed (port status, or a link on it)
+ * for {@code stableCycles} intervals. A stable port is probed once every
+ * {@code stableEvery} cycles, and the stable ports are spread over those cycles.
+ * A port that has changed recently is probed every cycle.
+ *
+ * Except for {@link #markChanged(NodePortTuple, long)}, the methods are called by
+ * the discovery task only.
+ */
+final class DiscoveryPacer {
+
+	private final long intervalMillis;
+	private final long tickMillis;
+	private final int probesPerSecond;
+	private final int stableCycles;
+	private final int stableEvery;
+
+	/**
+	 * ports to probe in the current cycle, and the number of ports that are sent.
+	 */
+	private List<NodePortTuple> cycle = Collections.emptyList();
+	private int cursor = 0;
+	private long cycleStart = 0;
+	private long cycleCount = 0;
+
+	/**
+	 * available budget in 1/1000 probes, and the time when it is last refilled.
+	 */
+	private long credit = 0;
+	private long lastRefill = -1;
+
+	/**
+	 * last change time of the ports that have changed recently.
+	 */
+	private ConcurrentMap<NodePortTuple, Long> changes = new ConcurrentHashMap<NodePortTuple, Long>();
+
+	/**
+	 * @param intervalMillis	time in which every port is probed (milliseconds)
+	 * @param tickMillis		interval of the discovery task (milliseconds)
+	 * @param probesPerSecond	maximum number of probes per second, or 0 for no limit
+	 * @param stableCycles		number of cycles after which an unchanged port is stable
+	 * @param stableEvery		a stable port is probed once every this number of cycles
+	 */
+	DiscoveryPacer(long intervalMillis, long tickMillis, int probesPerSecond, int stableCycles, int stableEvery) {
+		if ( intervalMillis <= 0 || tickMillis <= 0 || probesPerSecond < 0 || stableEvery < 1 ) {
+			throw new IllegalArgumentException("invalid pacing parameters");
+		}
+		this.intervalMillis = intervalMillis;
+		this.tickMillis = tickMillis;
+		this.probesPerSecond = probesPerSecond;
+		this.stableCycles = stableCycles;
+		this.stableEvery = stableEvery;
+	}
+
+	/**
+	 * Mark that a port has changed. The port is probed every cycle until it becomes stable.
+	 *
+	 * @param npt	switch port
+	 * @param now	current time (milliseconds)
+	 */
+	void markChanged(NodePortTuple npt, long now) {
+		this.changes.put(npt, now);
+	}
+
+	/**
+	 * @param npt	switch port
+	 * @param now	current time (milliseconds)
+	 * @return		true if the port has not changed for the stable period
+	 */
+	boolean isStable(NodePortTuple npt, long now) {
+		Long t = this.changes.get(npt);
+		return t == null || now - t >= this.stableCycles * this.intervalMillis;
+	}
+
+	/**
+	 * Refill the budget for the elapsed time, and get the number of probes that can be sent.
+	 * The budget is not accumulated over two ticks, to avoid bursts after idle ticks.
+	 *
+	 * @param now	current time (milliseconds)
+	 * @return		number of probes that can be sent now
+	 */
+	int refill(long now) {
+		if ( this.probesPerSecond == 0 ) {
+			return Integer.MAX_VALUE;
+		}
+		long elapsed = (this.lastRefill < 0) ? this.tickMillis : Math.max(0, now - this.lastRefill);
+		this.lastRefill = now;
+		long max = Math.max(1000, 2 * this.tickMillis * this.probesPerSecond);
+		this.credit = Math.min(max, this.credit + elapsed * this.probesPerSecond);
+		return (int) (this.credit / 1000);
+	}
+
+	/**
+	 * Take some probes from the budget.
+	 *
+	 * @param probes	number of probes sent
+	 */
+	void consume(int probes) {
+		if ( this.probesPerSecond != 0 ) {
+			this.credit = Math.max(0, this.credit - probes * 1000L);
+		}
+	}
+
+	/**
+	 * @param now	current time (milliseconds)
+	 * @return		true if the current cycle is done, and the ports of a new cycle should be given
+	 */
+	boolean needsCycle(long now) {
+		if ( this.cycleCount == 0 ) {
+			return true;
+		}
+		return this.cursor >= this.cycle.size() && now - this.cycleStart >= this.intervalMillis;
+	}
+
+	/**
+	 * Start a new cycle with the currently enabled ports.
+	 * The stable ports that are not due in this cycle are skipped.
+	 *
+	 * @param ports		enabled switch ports
+	 * @param now		current time (milliseconds)
+	 */
+	void startCycle(List<NodePortTuple> ports, long now) {
+		List<NodePortTuple> c = new ArrayList<NodePortTuple>(ports.size());
+		for ( NodePortTuple npt : ports ) {
+			if ( this.stableEvery == 1 || !isStable(npt, now) ||
+				 (this.cycleCount + (npt.hashCode() & 0x7fffffff)) % this.stableEvery == 0 ) {
+				c.add(npt);
+			}
+		}
+
+		// the ports that are stable now need not be remembered.
+		for ( Iterator<Map.Entry<NodePortTuple, Long>> i = this.changes.entrySet().iterator(); i.hasNext(); ) {
+			if ( now - i.next().getValue() >= this.stableCycles * this.intervalMillis ) {
+				i.remove();
+			}
+		}
+
+		this.cycle = c;
+		this.cursor = 0;
+		this.cycleStart = now;
+		this.cycleCount++;
+	}
+
+	/**
+	 * Get the ports to probe on this tick: as many as needed to finish the cycle at the end of
+	 * the interval, within the given budget.
+	 *
+	 * @param now		current time (milliseconds)
+	 * @param budget	maximum number of ports to return
+	 * @return			ports to probe
+	 */
+	List<NodePortTuple> next(long now, int budget) {
+		int size = this.cycle.size();
+		if ( this.cursor >= size || budget <= 0 ) {
+			return Collections.emptyList();
+		}
+		// number of ports that should be sent by the end of this tick.
+		long elapsed = now - this.cycleStart + this.tickMillis;
+		int target = (elapsed >= this.intervalMillis) ? size :
+			(int) ((size * elapsed + this.intervalMillis - 1) / this.intervalMillis);
+		int n = Math.min(target - this.cursor, budget);
+		if ( n <= 0 ) {
+			return Collections.emptyList();
+		}
+		List<NodePortTuple> ret = this.cycle.subList(this.cursor, this.cursor + n);
+		this.cursor += n;
+		return ret;
+	}
+
+	/**
+	 * @return	number of ports that are not probed yet in the current cycle
+	 */
+	int getRemaining() {
+		return this.cycle.size() - this.cursor;
+	}
+}
@@ -0,0 +1,232 @@
+package etri.sdn.controller.module.linkdiscovery;
+
+import etri.sdn.controller.protocol.packet.BSN;
+import etri.sdn.controller.protocol.packet.Ethernet;
+
+/**
+ * Flyweight parser of the discovery messages (LLDP and BDDP) in PACKET_IN payloads.
+ *
+ * The fields that {@link OFMLinkDiscovery} needs are read from the packet array
+ * into primitive fields by offset, without creating the Ethernet, LLDP and LLDPTLV
+ * objects for the packet. The TLVs are recognized as follows:
+ *
+ * <ul>
+ * <li> port id TLV (type 2) with 3 bytes: the port number of the sender
+ * <li> organizationally specific TLV (type 127) with the OpenFlow OUI 00-26-E1: the datapath id of the sender
+ * <li> controller TLV (type 12) with 8 bytes: the id of the controller that has sent the message
+ * <li> timestamp TLV (type 0x74) with 8 bytes: the time when the controller has sent the message
+ * <li> direction TLV (type 0x73) with 1 byte: forward or reverse
+ * </ul>
+ *
+ * This class is not thread-safe.
+ */
+final class DiscoveryPacket {
+
+	/** not a discovery message */
+	static final int NONE = 0;
+	/** standard LLDP */
+	static final int LLDP = 1;
+	/** BDDP (LLDP encapsulated in BSN header) */
+	static final int BDDP = 2;
+
+	private static final short TYPE_VLAN = (short) 0x8100;
+	private static final int ETHERNET_HEADER_LENGTH = 14;
+	private static final int BSN_HEADER_LENGTH = 8;
+
+	private static final byte TLV_PORT_ID_TYPE = 2;
+	private static final byte TLV_ORG_SPECIFIC_TYPE = 127;
+	private static final byte TLV_CONTROLLER_TYPE = 12;
+
+	private int type;
+	private boolean has_port;
+	private short port;
+	private boolean has_dpid;
+	private long dpid;
+	private boolean has_controller;
+	private long controller;
+	private byte direction;
+	private boolean has_timestamp;
+	private long timestamp;
+
+	private static short getShort(byte[] data, int i) {
+		return (short) (((data[i] & 0xff) << 8) | (data[i + 1] & 0xff));
+	}
+
+	private static long getLong(byte[] data, int i) {
+		long ret = 0;
+		for ( int k = 0; k < 8; ++k ) {
+			ret = (ret << 8) | (data[i + k] & 0xff);
+		}
+		return ret;
+	}
+
+	/**
+	 * Check if the packet can be a discovery message, by its ether type.
+	 *
+	 * @param data	packet
+	 * @return		true if the ether type is LLDP or BSN (with or without a VLAN tag)
+	 */
+	static boolean isCandidate(byte[] data) {
+		if ( data == null || data.length < ETHERNET_HEADER_LENGTH ) {
+			return false;
+		}
+		short type = getShort(data, 12);
+		if ( type == TYPE_VLAN && data.length >= ETHERNET_HEADER_LENGTH + 4 ) {
+			type = getShort(data, 16);
+		}
+		return type == Ethernet.TYPE_LLDP || type == Ethernet.TYPE_BSN;
+	}
+
+	/**
+	 * Parse the packet.
+	 *
+	 * @param data	packet
+	 * @return		{@link #LLDP}, {@link #BDDP}, or {@link #NONE} if the packet is not a discovery message
+	 */
+	int parse(byte[] data) {
+		this.type = NONE;
+		this.has_port = this.has_dpid = this.has_controller = this.has_timestamp = false;
+		this.port = 0;
+		this.dpid = this.controller = this.timestamp = 0;
+		this.direction = 0;
+
+		int end = (data == null) ? 0 : data.length;
+		if ( end < ETHERNET_HEADER_LENGTH ) {
+			return NONE;
+		}
+
+		int i = 12;
+		short ethType = getShort(data, i);
+		if ( ethType == TYPE_VLAN && end >= ETHERNET_HEADER_LENGTH + 4 ) {
+			i += 4;
+			ethType = getShort(data, i);
+		}
+		i += 2;
+
+		if ( ethType == Ethernet.TYPE_BSN ) {
+			if ( end - i < BSN_HEADER_LENGTH ||
+				 ((getShort(data, i) & 0xffff) << 16 | (getShort(data, i + 2) & 0xffff)) != BSN.BSN_MAGIC ||
+				 getShort(data, i + 4) != BSN.BSN_TYPE_BDDP ||
+				 getShort(data, i + 6) != BSN.BSN_VERSION_CURRENT ) {
+				return NONE;
+			}
+			i += BSN_HEADER_LENGTH;
+			this.type = BDDP;
+		} else if ( ethType == Ethernet.TYPE_LLDP ) {
+			this.type = LLDP;
+		} else {
+			return NONE;
+		}
+
+		// TLVs. type is the upper 7 bits, and length is the lower 9 bits.
+		while ( end - i >= 2 ) {
+			int header = getShort(data, i) & 0xffff;
+			int tlvType = header >>> 9;
+			int length = header & 0x1ff;
+			i += 2;
+			if ( tlvType == 0 || end - i < length ) {
+				break;
+			}
+
+			if ( tlvType == TLV_PORT_ID_TYPE ) {
+				if ( length == 3 ) {
+					this.has_port = true;
+					this.port = getShort(data, i + 1);
+				}
+			} else if ( tlvType == TLV_ORG_SPECIFIC_TYPE ) {
+				if ( length == 12 && data[i] == 0x0 && data[i + 1] == 0x26 &&
+					 data[i + 2] == (byte) 0xe1 && data[i + 3] == 0x0 ) {
+					this.has_dpid = true;
+					this.dpid = getLong(data, i + 4);
+				}
+			} else if ( tlvType == TLV_CONTROLLER_TYPE ) {
+				if ( length == 8 ) {
+					this.has_controller = true;
+					this.controller = getLong(data, i);
+				}
+			} else if ( tlvType == DiscoveryProbe.TLV_DIRECTION_TYPE ) {
+				if ( length == DiscoveryProbe.TLV_DIRECTION_LENGTH ) {
+					this.direction = data[i];
+				}
+			} else if ( tlvType == DiscoveryProbe.TLV_TIMESTAMP_TYPE ) {
+				if ( length == DiscoveryProbe.TLV_TIMESTAMP_LENGTH ) {
+					this.has_timestamp = true;
+					this.timestamp = getLong(data, i);
+				}
+			}
+			i += length;
+		}
+
+		return this.type;
+	}
+
+	/**
+	 * @return	{@link #LLDP}, {@link #BDDP}, or {@link #NONE}
+	 */
+	int getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return	true if the packet has a port id TLV of 3 bytes
+	 */
+	boolean hasPort() {
+		return this.has_port;
+	}
+
+	/**
+	 * @return	port number of the switch that has sent the message
+	 */
+	short getPort() {
+		return this.port;
+	}
+
+	/**
+	 * @return	true if the packet has the datapath id TLV
+	 */
+	boolean hasDpid() {
+		return this.has_dpid;
+	}
+
+	/**
+	 * @return	datapath id of the switch that has sent the message
+	 */
+	long getDpid() {
+		return this.dpid;
+	}
+
+	/**
+	 * @return	true if the packet has a controller TLV
+	 */
+	boolean hasController() {
+		return this.has_controller;
+	}
+
+	/**
+	 * @return	id of the controller that has created the message
+	 */
+	long getController() {
+		return this.controller;
+	}
+
+	/**
+	 * @return	value of the direction TLV, or 0 if the packet does not have one
+	 */
+	byte getDirection() {
+		return this.direction;
+	}
+
+	/**
+	 * @return	true if the packet has a timestamp TLV
+	 */
+	boolean hasTimestamp() {
+		return this.has_timestamp;
+	}
+
+	/**
+	 * @return	value of the timestamp TLV (System.nanoTime() of the controller that has sent the message)
+	 */
+	long getTimestamp() {
+		return this.timestamp;
+	}
+}
@@ -0,0 +1,209 @@
+package etri.sdn.controller.module.linkdiscovery;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+import etri.sdn.controller.protocol.packet.BSN;
+import etri.sdn.controller.protocol.packet.Ethernet;
+import etri.sdn.controller.protocol.packet.LLDP;
+import etri.sdn.controller.protocol.packet.LLDPTLV;
+
+/**
+ * Precomputed discovery message (LLDP or BDDP) of a switch port.
+ *
+ * The frame of a port only depends on the switch, the port, its hardware address
+ * and the controller, so it is built only once through the LLDP object model.
+ * The timestamp TLV and the direction TLV are the only parts that differ
+ * between the messages of a port, so a PACKET_OUT message is made
+ * by patching those bytes in a copy of the frame.
+ *
+ * A probe is cached by {@link OFMLinkDiscovery} until the port or
+ * the switch changes (PORT_STATUS, disconnection or handshake).
+ */
+final class DiscoveryProbe {
+
+	static final byte TLV_DIRECTION_TYPE = 0x73;
+	static final short TLV_DIRECTION_LENGTH = 1;  // 1 byte
+	static final byte TLV_DIRECTION_VALUE_FORWARD = 0x01;
+	static final byte TLV_DIRECTION_VALUE_REVERSE = 0x02;
+
+	static final byte TLV_TIMESTAMP_TYPE = 0x74;
+	static final short TLV_TIMESTAMP_LENGTH = 8;  // System.nanoTime() of the controller
+
+	/**
+	 * LLDP Data Units (LLDPDUs) are sent to the destination MAC address 01:80:c2:00:00:0e.
+	 * AN LLDPDU will not be forwarded by MAC bridges (e.g. switches) that conform to IEEE Std 802.1D-2004.
+	 */
+	private static final byte[] LLDP_STANDARD_DST_MAC = { 0x01, (byte) 0x80, (byte) 0xc2, 0x00, 0x00, 0x0e };
+
+	// BigSwitch OUI is 5C:16:C7, so 5D:16:C7 is the multicast version
+	// private static final String LLDP_BSN_DST_MAC_STRING = "5d:16:c7:00:00:01";
+	private static final String LLDP_BSN_DST_MAC_STRING = "ff:ff:ff:ff:ff:ff";
+
+	private final OFFactory factory;
+	private final OFPort port;
+	private final MacAddress hwAddr;
+	private final byte[] frame;
+	private final int directionOffset;
+	private final int timestampOffset;
+	private final List<OFAction> actions;
+
+	/**
+	 * Build the probe of a switch port.
+	 *
+	 * @param version		OpenFlow version of the switch
+	 * @param dpid			datapath id of the switch
+	 * @param port			port to send the probe out
+	 * @param hwAddr		hardware address of the port, which is the source MAC address of the frame
+	 * @param isStandard	true for a standard LLDP, false for a BDDP
+	 * @param controllerTLV	TLV that identifies the controller
+	 */
+	DiscoveryProbe(OFVersion version, long dpid, OFPort port, MacAddress hwAddr, boolean isStandard, LLDPTLV controllerTLV) {
+		this.factory = OFFactories.getFactory(version);
+		this.port = port;
+		this.hwAddr = hwAddr;
+		this.frame = buildFrame(dpid, port, hwAddr, isStandard, controllerTLV);
+		// the direction TLV is the last one, which is followed by the 2 byte end of LLDPDU.
+		this.directionOffset = this.frame.length - 3;
+		// the timestamp TLV is right before the direction TLV.
+		this.timestampOffset = this.directionOffset - 2 - TLV_TIMESTAMP_LENGTH;
+		this.actions = Collections.<OFAction>singletonList(
+				this.factory.actions().buildOutput().setPort(port).setMaxLen(0).build() );
+	}
+
+	private static byte[] buildFrame(long dpid, OFPort port, MacAddress hwAddr, boolean isStandard, LLDPTLV controllerTLV) {
+		// using "nearest customer bridge" MAC address for broadest possible propagation
+		// through provider and TPMR bridges (see IEEE 802.1AB-2009 and 802.1Q-2011),
+		// in particular the Linux bridge which behaves mostly like a provider bridge
+		byte[] chassisId = new byte[] {4, 0, 0, 0, 0, 0, 0}; // filled in later
+		byte[] portId = new byte[] {2, 0, 0}; // filled in later
+		byte[] ttlValue = new byte[] {0, 0x78};
+		// OpenFlow OUI - 00-26-E1
+		byte[] dpidTLVValue = new byte[] {0x0, 0x26, (byte) 0xe1, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+		LLDPTLV dpidTLV = new LLDPTLV().setType((byte) 127).setLength((short) dpidTLVValue.length).setValue(dpidTLVValue);
+
+		byte[] dpidArray = new byte[8];
+		ByteBuffer.wrap(dpidArray).putLong(dpid);
+		// set the chassis id's value to last 6 bytes of dpid
+		System.arraycopy(dpidArray, 2, chassisId, 1, 6);
+		// set the optional tlv to the full dpid
+		System.arraycopy(dpidArray, 0, dpidTLVValue, 4, 8);
+
+		// set the portId to the outgoing port
+		ByteBuffer.wrap(portId, 1, 2).putShort( port.getShortPortNumber() );
+
+		LLDP lldp = new LLDP();
+		lldp.setChassisId(new LLDPTLV().setType((byte) 1).setLength((short) chassisId.length).setValue(chassisId));
+		lldp.setPortId(new LLDPTLV().setType((byte) 2).setLength((short) portId.length).setValue(portId));
+		lldp.setTtl(new LLDPTLV().setType((byte) 3).setLength((short) ttlValue.length).setValue(ttlValue));
+		lldp.getOptionalTLVList().add(dpidTLV);
+
+		// Add the controller identifier to the TLV value.
+		lldp.getOptionalTLVList().add(controllerTLV);
+		lldp.getOptionalTLVList().add(new LLDPTLV()
+				.setType(TLV_TIMESTAMP_TYPE)
+				.setLength(TLV_TIMESTAMP_LENGTH)
+				.setValue(new byte[TLV_TIMESTAMP_LENGTH]));
+		lldp.getOptionalTLVList().add(new LLDPTLV()
+				.setType(TLV_DIRECTION_TYPE)
+				.setLength(TLV_DIRECTION_LENGTH)
+				.setValue(new byte[] { TLV_DIRECTION_VALUE_FORWARD }));
+
+		Ethernet ethernet;
+		if (isStandard) {
+			ethernet = new Ethernet()
+			.setSourceMACAddress(hwAddr.getBytes())
+			.setDestinationMACAddress(LLDP_STANDARD_DST_MAC)
+			.setEtherType(Ethernet.TYPE_LLDP);
+			ethernet.setPayload(lldp);
+		} else {
+			BSN bsn = new BSN(BSN.BSN_TYPE_BDDP);
+			bsn.setPayload(lldp);
+
+			ethernet = new Ethernet()
+			.setSourceMACAddress(hwAddr.getBytes())
+			.setDestinationMACAddress(LLDP_BSN_DST_MAC_STRING)
+			.setEtherType(Ethernet.TYPE_BSN);
+			ethernet.setPayload(bsn);
+		}
+
+		return ethernet.serialize();
+	}
+
+	private OFPacketOut buildPacketOut(byte[] data) {
+		OFPacketOut.Builder po = this.factory.buildPacketOut();
+
+		po.setBufferId(OFBufferId.NO_BUFFER);
+		if ( this.factory.getVersion() == OFVersion.OF_10 )
+			po.setInPort(OFPort.ANY /*Openflow 1.0 calls this 'None'*/);
+		else
+			po.setInPort(OFPort.CONTROLLER);		// packet-out is created by the controller.
+
+		return po.setData(data).setActions(this.actions).build();
+	}
+
+	/**
+	 * Check if this probe is still valid for the port.
+	 *
+	 * @param version	current OpenFlow version of the switch
+	 * @param hwAddr	current hardware address of the port
+	 * @return			true if the probe can be sent
+	 */
+	boolean isValidFor(OFVersion version, MacAddress hwAddr) {
+		return this.factory.getVersion() == version && this.hwAddr.equals(hwAddr);
+	}
+
+	/**
+	 * @return	port to send this probe out
+	 */
+	OFPort getPort() {
+		return this.port;
+	}
+
+	/**
+	 * @return	Ethernet frame of the forward probe with zero timestamp. The caller should not modify the array.
+	 */
+	byte[] getFrame() {
+		return this.frame;
+	}
+
+	/**
+	 * Get the Ethernet frame of this probe.
+	 *
+	 * @param isReverse		indicates whether the probe is sent as a response
+	 * @param timestamp		value of the timestamp TLV
+	 * @return				a new array of the frame
+	 */
+	byte[] getFrame(boolean isReverse, long timestamp) {
+		byte[] data = this.frame.clone();
+		if ( isReverse ) {
+			data[this.directionOffset] = TLV_DIRECTION_VALUE_REVERSE;
+		}
+		for ( int i = TLV_TIMESTAMP_LENGTH - 1; i >= 0; --i ) {
+			data[this.timestampOffset + i] = (byte) timestamp;
+			timestamp >>>= 8;
+		}
+		return data;
+	}
+
+	/**
+	 * Get the PACKET_OUT message of this probe.
+	 *
+	 * @param isReverse		indicates whether the probe is sent as a response
+	 * @param timestamp		value of the timestamp TLV, which is the System.nanoTime() when the probe is sent
+	 * @return				OFPacketOut message
+	 */
+	OFPacketOut getPacketOut(boolean isReverse, long timestamp) {
+		return buildPacketOut(getFrame(isReverse, timestamp));
+	}
+}
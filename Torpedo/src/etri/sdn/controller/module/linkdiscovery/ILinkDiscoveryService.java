@@ -38,6 +38,12 @@ public interface ILinkDiscoveryService extends IService {
      */
     public Map<Link, LinkInfo> getLinks();
 
+    /**
+     * Retrieves the one-way latency of the links in microseconds,
+     * which is estimated from the LLDPs. Links without a measurement are not in the map.
+     */
+    public Map<Link, Long> getLinkLatencies();
+
     /**
      * Returns link type of a given link.
      * Modified by bjlee
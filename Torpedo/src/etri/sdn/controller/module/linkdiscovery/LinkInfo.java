@@ -37,6 +37,14 @@ public class LinkInfo {
         this.lastBddpReceivedTime = lastBddpReceivedTime;
     }
 
+    public LinkInfo(LinkInfo fromLinkInfo) {
+        this(fromLinkInfo.getFirstSeenTime(),
+             fromLinkInfo.getUnicastValidTime(),
+             fromLinkInfo.getMulticastValidTime(),
+             fromLinkInfo.getSrcPortState(),
+             fromLinkInfo.getDstPortState());
+    }
+
     protected Set<OFPortState> srcPortState;
     protected Set<OFPortState> dstPortState;
     protected Long firstSeenTime;
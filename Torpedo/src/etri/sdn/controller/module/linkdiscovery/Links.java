@@ -2,16 +2,19 @@ package etri.sdn.controller.module.linkdiscovery;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -31,6 +34,21 @@ import etri.sdn.controller.protocol.rest.serializer.OFTypeSerializerModule;
 /**
  * Model of the module {@link OFMLinkDiscovery}
  * 
+ * The link state is kept in concurrent maps, and the updates are serialized by
+ * a lock stripe per switch: an update of a link locks the stripes of its two end switches,
+ * so that the LLDPs from different parts of the network are processed in parallel.
+ *
+ * A {@link LinkInfo} object in {@link #links} is never modified after it is put.
+ * An update puts a new object instead (copy-on-write), and the readers that need
+ * a consistent view use an immutable snapshot that is rebuilt only when the links have changed
+ * (see {@link #getLinks()}).
+ *
+ * Timeouts are tracked by a queue ordered by the expiry time of each link,
+ * so {@link #timeoutLinks()} only looks at the links that may have expired.
+ *
+ * The one-way latency of a link is estimated from the timestamp TLV of the LLDPs
+ * (see {@link #updateLatency(Link, long)}).
+ *
  * @author bjlee
  *
  */
@@ -42,35 +60,130 @@ public class Links extends OFModel {
 	protected final int LINK_TIMEOUT = 35; 
 	
 	/**
-	 * Lock for guaranteeing synchronized access to {@link #links};
+	 * Number of lock stripes. Should be a power of 2.
 	 */
-	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private static final int LOCK_STRIPES = 64;
+
+	/**
+	 * Locks for the updates of the links. A link is guarded by the stripes of its
+	 * source and destination switches (see {@link #lock(Link)}).
+	 */
+	private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
 
 	/**
 	 * Association between a link and the link information
 	 */
-	private Map<Link, LinkInfo> links = new HashMap<Link, LinkInfo>();
+	private ConcurrentMap<Link, LinkInfo> links = new ConcurrentHashMap<Link, LinkInfo>();
 
 	/**
 	 * Map from switch id to a set of all links with it as an endpoint
 	 */
-	private Map<Long, Set<Link>> switchLinks = new HashMap<Long, Set<Link>>();
+	private ConcurrentMap<Long, Set<Link>> switchLinks = new ConcurrentHashMap<Long, Set<Link>>();
 
 	/**
 	 * Map from a id:port to the set of links containing it as an endpoint
 	 */
-	private Map<NodePortTuple, Set<Link>> portLinks = new HashMap<NodePortTuple, Set<Link>>();
+	private ConcurrentMap<NodePortTuple, Set<Link>> portLinks = new ConcurrentHashMap<NodePortTuple, Set<Link>>();
 
 	/**
 	 * Set of link tuples over which multicast LLDPs are received
 	 * and unicast LLDPs are not received.
 	 */
-	private Map<NodePortTuple, Set<Link>> portBroadcastDomainLinks = new HashMap<NodePortTuple, Set<Link>>();
+	private ConcurrentMap<NodePortTuple, Set<Link>> portBroadcastDomainLinks = new ConcurrentHashMap<NodePortTuple, Set<Link>>();
+
+	/**
+	 * Expiry queue of the links. A link has at most one entry in the queue,
+	 * and the links that have an entry are kept in {@link #scheduled}.
+	 * An entry may be earlier than the actual expiry time of the link,
+	 * because LLDPs refresh the link without touching the queue.
+	 * Such an entry is put back with the new expiry time when it comes out.
+	 */
+	private PriorityBlockingQueue<Expiry> expiries = new PriorityBlockingQueue<Expiry>();
+	private Set<Link> scheduled = Collections.newSetFromMap(new ConcurrentHashMap<Link, Boolean>());
+
+	/**
+	 * number of modifications to {@link #links}, and the last snapshot of it.
+	 * A refresh of a link that changes nothing but its valid times is not counted,
+	 * so the snapshot may hold the {@link LinkInfo} of an earlier refresh.
+	 */
+	private AtomicLong version = new AtomicLong(0);
+	private volatile Snapshot snapshot = new Snapshot(0, new HashMap<Link, LinkInfo>());
 	
+	/**
+	 * A link is reported to the listeners again if its latency has changed
+	 * by this ratio of the last reported latency, and by at least {@link #LATENCY_MIN_CHANGE} ns.
+	 */
+	private static final double LATENCY_CHANGE_RATIO = 0.5;
+	private static final long LATENCY_MIN_CHANGE = 100000;
+
+	/**
+	 * smoothed one-way latency of the links.
+	 */
+	private ConcurrentMap<Link, Latency> latencies = new ConcurrentHashMap<Link, Latency>();
+
 	/**
 	 * reference to the module of this model.
 	 */
 	private OFMLinkDiscovery manager;
+
+	/**
+	 * An entry of {@link Links#expiries}.
+	 */
+	private static final class Expiry implements Comparable<Expiry> {
+		final Link link;
+		final long time;
+
+		Expiry(Link link, long time) {
+			this.link = link;
+			this.time = time;
+		}
+
+		@Override
+		public int compareTo(Expiry o) {
+			return (this.time < o.time) ? -1 : ((this.time == o.time) ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Latency of a link in nanoseconds. Guarded by the lock of the link.
+	 */
+	private static final class Latency {
+		volatile long value;
+		long reported;
+
+		Latency(long value) {
+			this.value = this.reported = value;
+		}
+	}
+
+	/**
+	 * Immutable view of {@link Links#links} and {@link Links#switchLinks}.
+	 */
+	private static final class Snapshot {
+		final long version;
+		final Map<Link, LinkInfo> links;
+		final Map<Long, Set<Link>> switchLinks;
+
+		Snapshot(long version, Map<Link, LinkInfo> links) {
+			Map<Long, Set<Link>> sl = new HashMap<Long, Set<Link>>();
+			for ( Link lt : links.keySet() ) {
+				for ( Long sw : new Long[] { lt.getSrc(), lt.getDst() } ) {
+					Set<Link> s = sl.get(sw);
+					if ( s == null ) {
+						s = new HashSet<Link>();
+						sl.put(sw, s);
+					}
+					s.add(lt);
+				}
+			}
+			for ( Map.Entry<Long, Set<Link>> e : sl.entrySet() ) {
+				e.setValue(Collections.unmodifiableSet(e.getValue()));
+			}
+			this.version = version;
+			this.links = Collections.unmodifiableMap(links);
+			this.switchLinks = Collections.unmodifiableMap(sl);
+		}
+	}
 	
 	/**
 	 * Constructor
@@ -79,65 +192,159 @@ public class Links extends OFModel {
 	 */
 	public Links(OFMLinkDiscovery manager) {
 		this.manager = manager;
+		for ( int i = 0; i < LOCK_STRIPES; ++i ) {
+			this.stripes[i] = new ReentrantLock();
+		}
+	}
+
+	private static int stripe(long switchId) {
+		int h = (int) (switchId ^ (switchId >>> 32));
+		h ^= (h >>> 16);
+		h ^= (h >>> 7);
+		return h & (LOCK_STRIPES - 1);
 	}
 	
 	/** 
-	 * Iterates through the list of links and deletes if the
-	 * last discovery message reception time exceeds timeout values.
+	 * Lock the stripes of both ends of a link, in the order of the stripe index.
+	 *
+	 * @param lt	link
+	 */
+	private void lock(Link lt) {
+		int s = stripe(lt.getSrc());
+		int d = stripe(lt.getDst());
+		this.stripes[Math.min(s, d)].lock();
+		if ( s != d ) {
+			this.stripes[Math.max(s, d)].lock();
+		}
+	}
+
+	private void unlock(Link lt) {
+		int s = stripe(lt.getSrc());
+		int d = stripe(lt.getDst());
+		if ( s != d ) {
+			this.stripes[Math.max(s, d)].unlock();
+		}
+		this.stripes[Math.min(s, d)].unlock();
+	}
+
+	/**
+	 * @param info	link information
+	 * @return		the earliest time when the unicast or multicast valid time of the link expires
+	 */
+	private long getExpiryTime(LinkInfo info) {
+		long ret = Long.MAX_VALUE;
+		if ( info.getUnicastValidTime() != null ) {
+			ret = info.getUnicastValidTime() + this.LINK_TIMEOUT * 1000;
+		}
+		if ( info.getMulticastValidTime() != null ) {
+			ret = Math.min(ret, info.getMulticastValidTime() + this.LINK_TIMEOUT * 1000);
+		}
+		return ret;
+	}
+
+	/**
+	 * Deletes the links of which the last discovery message reception time exceeds timeout values.
 	 */
 	public void timeoutLinks() {
-		List<Link> eraseList = new ArrayList<Link>();
-		Long curTime = System.currentTimeMillis();
-		boolean linkChanged = false;
+		timeoutLinks(System.currentTimeMillis());
+	}
 
-		// reentrant required here because deleteLink also write locks
-		lock.writeLock().lock();
-		try {
-			Iterator<Entry<Link, LinkInfo>> it =
-				this.links.entrySet().iterator();
-			while (it.hasNext()) {
-				Entry<Link, LinkInfo> entry = it.next();
-				Link lt = entry.getKey();
-				LinkInfo info = entry.getValue();
+	/**
+	 * Deletes the links that have expired at the given time.
+	 * Only the links at the head of the expiry queue are examined.
+	 *
+	 * @param curTime	current time (milliseconds)
+	 */
+	void timeoutLinks(long curTime) {
+		for (;;) {
+			Expiry e = this.expiries.peek();
+			if ( e == null || e.time >= curTime ) {
+				break;
+			}
+			e = this.expiries.poll();
+			if ( e == null ) {
+				break;
+			}
+			if ( e.time >= curTime ) {
+				// another caller has taken the head.
+				this.expiries.add(e);
+				break;
+			}
+
+			Link lt = e.link;
+			lock(lt);
+			try {
+				LinkInfo info = this.links.get(lt);
+				if ( info == null ) {
+					this.scheduled.remove(lt);
+					continue;
+				}
+				long expiry = getExpiryTime(info);
+				if ( expiry >= curTime ) {
+					// refreshed after the entry is queued.
+					this.expiries.add(new Expiry(lt, expiry));
+					continue;
+				}
 
 				// Timeout the unicast and multicast LLDP valid times
 				// independently.
+				info = new LinkInfo(info);
 				if ((info.getUnicastValidTime() != null) && 
 						(info.getUnicastValidTime() + (this.LINK_TIMEOUT * 1000) < curTime)){
 					info.setUnicastValidTime(null);
 
 					if (info.getMulticastValidTime() != null)
 						addLinkToBroadcastDomain(lt);
-					// Note that even if mTime becomes null later on,
-					// the link would be deleted, which would trigger updateClusters().
-					linkChanged = true;
 				}
 				if ((info.getMulticastValidTime()!= null) && 
 						(info.getMulticastValidTime()+ (this.LINK_TIMEOUT * 1000 ) < curTime)) {
 					info.setMulticastValidTime(null);
 					// if uTime is not null, then link will remain as openflow
-					// link. If uTime is null, it will be deleted.  So, we
-					// don't care about linkChanged flag here.
+					// link. If uTime is null, it will be deleted.
 					removeLinkFromBroadcastDomain(lt);
-					linkChanged = true;
 				}
-				// Add to the erase list only if the unicast
-				// time is null.
+
 				if (info.getUnicastValidTime() == null && 
-						info.getMulticastValidTime() == null){
-					eraseList.add(entry.getKey());
-				} else if (linkChanged) {
+						info.getMulticastValidTime() == null) {
+					// Reason: LLDP Timeout
+					this.scheduled.remove(lt);
+					deleteLink(lt);
+				} else {
+					this.links.put(lt, info);
+					this.version.incrementAndGet();
+					this.expiries.add(new Expiry(lt, getExpiryTime(info)));
 					this.manager.addLinkUpdate(lt, info);
 				}
+			} finally {
+				unlock(lt);
 			}
+		}
+	}
+
+	/**
+	 * Add a link into a set of the given map.
+	 * The caller should hold the lock of the switch of the key.
+	 */
+	private static <K> void addToIndex(ConcurrentMap<K, Set<Link>> index, K key, Link lt) {
+		Set<Link> s = index.get(key);
+		if ( s == null ) {
+			s = Collections.newSetFromMap(new ConcurrentHashMap<Link, Boolean>());
+			index.put(key, s);
+		}
+		s.add(lt);
+	}
 
-			// if any link was deleted or any link was changed.
-			if ((eraseList.size() > 0) || linkChanged) {
-				// Reason: LLDP Timeout
-				deleteLinks(eraseList);
+	/**
+	 * Remove a link from a set of the given map.
+	 * The caller should hold the lock of the switch of the key.
+	 */
+	private static <K> void removeFromIndex(ConcurrentMap<K, Set<Link>> index, K key, Link lt) {
+		Set<Link> s = index.get(key);
+		if ( s != null ) {
+			s.remove(lt);
+			if ( s.isEmpty() ) {
+				index.remove(key);
 			}
-		} finally {
-			lock.writeLock().unlock();
 		}
 	}
 	
@@ -148,17 +355,13 @@ public class Links extends OFModel {
 	 * @param lt	link to put into the list.
 	 */
 	public void addLinkToBroadcastDomain(Link lt) {
-		NodePortTuple srcNpt, dstNpt;
-		srcNpt = new NodePortTuple(lt.getSrc(), lt.getSrcPort());
-		dstNpt = new NodePortTuple(lt.getDst(), lt.getDstPort());
-
-		if ( !portBroadcastDomainLinks.containsKey(srcNpt) ) 
-			portBroadcastDomainLinks.put(srcNpt, new HashSet<Link>());
-		portBroadcastDomainLinks.get(srcNpt).add(lt);
-
-		if ( !portBroadcastDomainLinks.containsKey(dstNpt) )
-			portBroadcastDomainLinks.put(dstNpt, new HashSet<Link>());
-		portBroadcastDomainLinks.get(dstNpt).add(lt);
+		lock(lt);
+		try {
+			addToIndex(portBroadcastDomainLinks, new NodePortTuple(lt.getSrc(), lt.getSrcPort()), lt);
+			addToIndex(portBroadcastDomainLinks, new NodePortTuple(lt.getDst(), lt.getDstPort()), lt);
+		} finally {
+			unlock(lt);
+		}
 	}
 	
 	/**
@@ -168,20 +371,12 @@ public class Links extends OFModel {
 	 * @param lt	link to remove
 	 */
 	public void removeLinkFromBroadcastDomain(Link lt) {
-		NodePortTuple srcNpt, dstNpt;
-		srcNpt = new NodePortTuple(lt.getSrc(), lt.getSrcPort());
-		dstNpt = new NodePortTuple(lt.getDst(), lt.getDstPort());
-
-		if (portBroadcastDomainLinks.containsKey(srcNpt)) {
-			portBroadcastDomainLinks.get(srcNpt).remove(lt);
-			if (portBroadcastDomainLinks.get(srcNpt).isEmpty())
-				portBroadcastDomainLinks.remove(srcNpt);
-		}
-
-		if (portBroadcastDomainLinks.containsKey(dstNpt)) {
-			portBroadcastDomainLinks.get(dstNpt).remove(lt);
-			if (portBroadcastDomainLinks.get(dstNpt).isEmpty())
-				portBroadcastDomainLinks.remove(dstNpt);
+		lock(lt);
+		try {
+			removeFromIndex(portBroadcastDomainLinks, new NodePortTuple(lt.getSrc(), lt.getSrcPort()), lt);
+			removeFromIndex(portBroadcastDomainLinks, new NodePortTuple(lt.getDst(), lt.getDstPort()), lt);
+		} finally {
+			unlock(lt);
 		}
 	}
 	
@@ -191,10 +386,9 @@ public class Links extends OFModel {
 	 * @param npt	a node-port tuple
 	 */
 	public void deleteLinksOnPort(NodePortTuple npt) {
-		List<Link> eraseList = new ArrayList<Link>();
-		if (this.portLinks.containsKey(npt)) {
-			eraseList.addAll(this.portLinks.get(npt));
-			deleteLinks(eraseList);
+		Set<Link> s = this.portLinks.get(npt);
+		if (s != null) {
+			deleteLinks(new ArrayList<Link>(s));
 		}
 
 		// send port-down notification to all listeners
@@ -253,26 +447,21 @@ public class Links extends OFModel {
 		// first seen within a small interval, send probe on the 
 		// reverse link.
 
-		lock.readLock().lock();
-		try {
-			newLinkInfo = links.get(lt);
-			if (newLinkInfo != null && isStandard && isReverse == false) {
-				Link reverseLink = new Link(lt.getDst(), lt.getDstPort(),
-						lt.getSrc(), lt.getSrcPort());
-				LinkInfo reverseInfo = links.get(reverseLink);
-				if (reverseInfo == null) {
-					// the reverse link does not exist.
-					if (newLinkInfo.getFirstSeenTime() > System.currentTimeMillis() - LINK_TIMEOUT) {
-						this.manager.sendDiscoveryMessage(
-								lt.getDst(),
-								lt.getDstPort(), 
-								isStandard, 
-								true);
-					}
+		newLinkInfo = links.get(lt);
+		if (newLinkInfo != null && isStandard && isReverse == false) {
+			Link reverseLink = new Link(lt.getDst(), lt.getDstPort(),
+					lt.getSrc(), lt.getSrcPort());
+			LinkInfo reverseInfo = links.get(reverseLink);
+			if (reverseInfo == null) {
+				// the reverse link does not exist.
+				if (newLinkInfo.getFirstSeenTime() > System.currentTimeMillis() - LINK_TIMEOUT) {
+					this.manager.sendDiscoveryMessage(
+							lt.getDst(),
+							lt.getDstPort(),
+							isStandard,
+							true);
 				}
 			}
-		} finally {
-			lock.readLock().unlock();
 		}
 
 		// If the received packet is a BDDP packet, then create a reverse BDDP
@@ -307,12 +496,16 @@ public class Links extends OFModel {
 		
 		boolean linkInfoChanged = false;
 		
-		lock.writeLock().lock();
-		try {
-			if (this.portLinks.containsKey(npt)) {
-				for (Link lt: this.portLinks.get(npt)) {
+		Set<Link> s = this.portLinks.get(npt);
+		if (s != null) {
+			for (Link lt: new ArrayList<Link>(s)) {
+				lock(lt);
+				try {
 					LinkInfo linkInfo = links.get(lt);
-					assert(linkInfo != null);
+					if (linkInfo == null) {
+						// removed meanwhile.
+						continue;
+					}
 					Set<OFPortState> updatedSrcPortState = null;
 					Set<OFPortState> updatedDstPortState = null;
 					// update if source port state has been changed
@@ -320,33 +513,115 @@ public class Links extends OFModel {
 						 lt.getSrcPort().equals(npt.getPortId()) &&
 						 !linkInfo.getSrcPortState().equals(ps.getDesc().getState()) ) {
 						updatedSrcPortState = ps.getDesc().getState();
-						linkInfo.setSrcPortState(updatedSrcPortState);
 					}
 					// update if destination port state has been changed
 					if ( lt.getDst() == npt.getNodeId() &&
 						 lt.getDstPort().equals(npt.getPortId()) &&
 						 !linkInfo.getDstPortState().equals(ps.getDesc().getState()) ) {
 						updatedDstPortState = ps.getDesc().getState();
-						linkInfo.setDstPortState(updatedDstPortState);
 					}
 					if ((updatedSrcPortState != null) || 
 						(updatedDstPortState != null)) {
+						linkInfo = new LinkInfo(linkInfo);
+						if (updatedSrcPortState != null)
+							linkInfo.setSrcPortState(updatedSrcPortState);
+						if (updatedDstPortState != null)
+							linkInfo.setDstPortState(updatedDstPortState);
+						links.put(lt, linkInfo);
+						this.version.incrementAndGet();
+
 						// The link is already known to link discovery
 						// manager and the status has changed, therefore
 						// send an LDUpdate.
 						this.manager.addLinkUpdate(lt, linkInfo);
 						linkInfoChanged = true;
 					}
+				} finally {
+					unlock(lt);
 				}
 			}
-		} finally { 
-			lock.writeLock().unlock();
 		}
 
 		this.manager.addLinkUpdate(switchId, portnum, ps.getDesc().getState());
 		
 		return linkInfoChanged;
 	}
+
+	/**
+	 * Update the latency of a link with a new sample.
+	 * The latency is smoothed with the weight of 1/4 for a new sample.
+	 * If the latency has changed much since it is last reported,
+	 * the listeners are notified on the link update, so that the routes are computed again.
+	 *
+	 * @param lt		link
+	 * @param sample	measured one-way latency of the link in nanoseconds
+	 */
+	public void updateLatency(Link lt, long sample) {
+		sample = Math.max(0, sample);
+		lock(lt);
+		try {
+			LinkInfo info = this.links.get(lt);
+			if ( info == null ) {
+				return;
+			}
+			Latency l = this.latencies.get(lt);
+			if ( l == null ) {
+				this.latencies.put(lt, new Latency(sample));
+				return;
+			}
+			l.value += (sample - l.value) / 4;
+			long diff = Math.abs(l.value - l.reported);
+			if ( diff >= LATENCY_MIN_CHANGE && diff > l.reported * LATENCY_CHANGE_RATIO ) {
+				l.reported = l.value;
+				this.manager.addLinkUpdate(lt, info);
+			}
+		} finally {
+			unlock(lt);
+		}
+	}
+
+	/**
+	 * @return	map of the links and their latencies in microseconds.
+	 * 			The links of which the latency is not measured are not in the map.
+	 */
+	public Map<Link, Long> getLatencies() {
+		Map<Link, Long> ret = new HashMap<Link, Long>();
+		for ( Map.Entry<Link, Latency> e : this.latencies.entrySet() ) {
+			ret.put(e.getKey(), e.getValue().value / 1000);
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the immutable snapshot of the links.
+	 * A new snapshot is created only if the links have changed since the last one.
+	 *
+	 * @return	snapshot
+	 */
+	private Snapshot getSnapshot() {
+		Snapshot s = this.snapshot;
+		long v = this.version.get();
+		if ( s.version != v ) {
+			s = new Snapshot(v, new HashMap<Link, LinkInfo>(this.links));
+			this.snapshot = s;
+		}
+		return s;
+	}
+
+	/**
+	 * @return	read-only snapshot of all links and their information.
+	 * 			the valid times of a link may be older than its last refresh.
+	 */
+	public Map<Link, LinkInfo> getLinks() {
+		return getSnapshot().links;
+	}
+
+	/**
+	 * @return	read-only snapshot of the map from switch id to the links of the switch
+	 */
+	public Map<Long, Set<Link>> getSwitchLinks() {
+		return getSnapshot().switchLinks;
+	}
 	
 	/**
 	 * return the name of this Model.
@@ -363,10 +638,10 @@ public class Links extends OFModel {
 	 */
 	public String getStringRepresentation() {
 		StringBuffer ret = new StringBuffer();
-		for ( NodePortTuple npt : portLinks.keySet() ) {
+		for ( Map.Entry<NodePortTuple, Set<Link>> e : portLinks.entrySet() ) {
 			ret.append("\n Port and Links \n");
-			ret.append("[").append(npt.toString()).append("\n");
-			for( Link l : portLinks.get(npt) ) {
+			ret.append("[").append(e.getKey().toString()).append("\n");
+			for( Link l : e.getValue() ) {
 				ret.append("\t ").append(l.toString());
 				ret.append("\n");
 			}
@@ -382,63 +657,43 @@ public class Links extends OFModel {
 	 * @param links
 	 */
 	private void deleteLinks(List<Link> links) {
-		NodePortTuple srcNpt, dstNpt;
+		for (Link lt : links) {
+			lock(lt);
+			try {
+				deleteLink(lt);
+			} finally {
+				unlock(lt);
+			}
+		}
+	}
 
-		lock.writeLock().lock();
-		try {
-			for (Link lt : links) {
-				srcNpt = new NodePortTuple(lt.getSrc(), lt.getSrcPort());
-				dstNpt  =new NodePortTuple(lt.getDst(), lt.getDstPort());
+	/**
+	 * Delete a link. The caller should hold the lock of the link.
+	 *
+	 * @param lt	link to delete
+	 */
+	private void deleteLink(Link lt) {
+		LinkInfo info = this.links.remove(lt);
+		if ( info == null ) {
+			return;
+		}
+		this.version.incrementAndGet();
+		this.latencies.remove(lt);
 
-				Set<Link> slinks = switchLinks.get(lt.getSrc());
-				Set<Link> dlinks = switchLinks.get(lt.getDst());
+		NodePortTuple srcNpt = new NodePortTuple(lt.getSrc(), lt.getSrcPort());
+		NodePortTuple dstNpt = new NodePortTuple(lt.getDst(), lt.getDstPort());
 				
-				if ( slinks != null ) {
-					slinks.remove(lt);
-					if ( slinks.isEmpty() ) {
-						this.switchLinks.remove(lt.getSrc());
-					}
-				}
-				if ( dlinks != null ) {
-					dlinks.remove(lt);
-					if ( dlinks.isEmpty() ) {
-						this.switchLinks.remove(lt.getDst());
-					}
-				}
+		removeFromIndex(switchLinks, lt.getSrc(), lt);
+		removeFromIndex(switchLinks, lt.getDst(), lt);
+		removeFromIndex(portLinks, srcNpt, lt);
+		removeFromIndex(portLinks, dstNpt, lt);
+		removeFromIndex(portBroadcastDomainLinks, srcNpt, lt);
+		removeFromIndex(portBroadcastDomainLinks, dstNpt, lt);
 
-				if (this.portLinks.get(srcNpt) != null) {
-					this.portLinks.get(srcNpt).remove(lt);
-					if (this.portLinks.get(srcNpt).isEmpty())
-						this.portLinks.remove(srcNpt);
-				}
-				if (this.portLinks.get(dstNpt) != null) {
-					this.portLinks.get(dstNpt).remove(lt);
-					if (this.portLinks.get(dstNpt).isEmpty())
-						this.portLinks.remove(dstNpt);
-				}
+		this.manager.addLinkUpdate(lt, info, UpdateOperation.LINK_REMOVED);
 
-				LinkInfo info = this.links.remove(lt);
-				
-				this.manager.addLinkUpdate(lt, info, UpdateOperation.LINK_REMOVED);
-
-				//                // Update Event History
-				//                evHistTopoLink(lt.getSrc(),
-				//                               lt.getDst(),
-				//                               lt.getSrcPort(),
-				//                               lt.getDstPort(),
-				//                               0, 0, // Port states
-				//                               LinkType.INVALID_LINK,
-				//                               EvAction.LINK_DELETED, reason);
-
-				// remove link from storage.
-				//                removeLinkFromStorage(lt);
-
-				// TODO  Whenever link is removed, it has to checked if
-				// the switchports must be added to quarantine.
-			}
-		} finally {
-			lock.writeLock().unlock();
-		}
+		// TODO  Whenever link is removed, it has to checked if
+		// the switchports must be added to quarantine.
 	}
 	
 	/**
@@ -462,17 +717,9 @@ public class Links extends OFModel {
 		NodePortTuple srcNpt, dstNpt;
 		boolean linkChanged = false;
 
-		lock.writeLock().lock();
+		lock(lt);
 		try {
-			// put the new info.  if an old info exists, it will be returned.
-			LinkInfo oldInfo = links.put(lt, newInfo);
-			
-			// we preserve the original LinkInfo object's first seen time. 
-			if (oldInfo != null &&
-					oldInfo.getFirstSeenTime() < newInfo.getFirstSeenTime())
-				newInfo.setFirstSeenTime(oldInfo.getFirstSeenTime());
-
-			linkChanged = false;
+			LinkInfo oldInfo = links.get(lt);
 
 			srcNpt = new NodePortTuple(lt.getSrc(), lt.getSrcPort());
 			dstNpt = new NodePortTuple(lt.getDst(), lt.getDstPort());
@@ -481,25 +728,15 @@ public class Links extends OFModel {
 				// if there was no old LinkInfo object, 
 				// linkChanged is changed to true without exception. 
 				// we manually add all Link object to all data structures.
+				links.put(lt, newInfo);
 				
-				// index it by switch source
-				if (!switchLinks.containsKey(lt.getSrc()))
-					switchLinks.put(lt.getSrc(), new HashSet<Link>());
-				switchLinks.get(lt.getSrc()).add(lt);
-
-				// index it by switch dest
-				if (!switchLinks.containsKey(lt.getDst()))
-					switchLinks.put(lt.getDst(), new HashSet<Link>());
-				switchLinks.get(lt.getDst()).add(lt);
+				// index it by switch source and dest
+				addToIndex(switchLinks, lt.getSrc(), lt);
+				addToIndex(switchLinks, lt.getDst(), lt);
 
 				// index both ends by switch:port
-				if (!portLinks.containsKey(srcNpt))
-					portLinks.put(srcNpt, new HashSet<Link>());
-				portLinks.get(srcNpt).add(lt);
-
-				if (!portLinks.containsKey(dstNpt))
-					portLinks.put(dstNpt, new HashSet<Link>());
-				portLinks.get(dstNpt).add(lt);
+				addToIndex(portLinks, srcNpt, lt);
+				addToIndex(portLinks, dstNpt, lt);
 
 				// Add to portNOFLinks if the unicast valid time is null
 				// getUnicastValidTime() returns null if the link was found
@@ -507,7 +744,11 @@ public class Links extends OFModel {
 				if (newInfo.getUnicastValidTime() == null)
 					addLinkToBroadcastDomain(lt);
 
-				//              writeLinkToStorage(lt, newInfo);
+				if (scheduled.add(lt)) {
+					expiries.add(new Expiry(lt, getExpiryTime(newInfo)));
+				}
+				this.version.incrementAndGet();
+
 				linkChanged = true;
 				
 				// Now as the new Link information has been added,
@@ -517,6 +758,10 @@ public class Links extends OFModel {
 			} else {
 				// Since the link info is already there, we need to
 				// update the right fields.
+
+				// we preserve the original LinkInfo object's first seen time.
+				if (oldInfo.getFirstSeenTime() < newInfo.getFirstSeenTime())
+					newInfo.setFirstSeenTime(oldInfo.getFirstSeenTime());
 				
 				// getUnicastValidTime() returns the time that the last time 
 				// that a LLDP packet is received. 
@@ -536,6 +781,7 @@ public class Links extends OFModel {
 						newInfo.setMulticastValidTime(oldInfo.getMulticastValidTime());
 					}
 				}
+				links.put(lt, newInfo);
 
 				Long oldTime = oldInfo.getUnicastValidTime();
 				Long newTime = newInfo.getUnicastValidTime();
@@ -558,10 +804,10 @@ public class Links extends OFModel {
 					  !newInfo.getDstPortState().equals(oldInfo.getDstPortState()) )
 					linkChanged = true;
 
-				// Write changes to storage. This will always write the updated
-				// valid time, plus the port states if they've changed (i.e. if
-				// they weren't set to null in the previous block of code.
-				//              writeLinkToStorage(lt, newInfo);
+				// most updates only refresh the valid times, which do not need a new snapshot.
+				if (linkChanged || oldInfo.getLinkType() != newInfo.getLinkType()) {
+					this.version.incrementAndGet();
+				}
 
 				if (linkChanged) {
 					this.manager.addLinkUpdate(lt, newInfo);
@@ -569,7 +815,7 @@ public class Links extends OFModel {
 			}
 
 		} finally {
-			lock.writeLock().unlock();
+			unlock(lt);
 		}
 
 		return linkChanged;
@@ -604,7 +850,10 @@ public class Links extends OFModel {
 		
 		public String type;
 		
-		public RESTLink (Link l) {
+		@JsonProperty("latency-us")
+		public Long latency;
+		
+		public RESTLink (Link l, LinkInfo linkInfo, Long latency) {
 			byte[] bDPID = ByteBuffer.allocate(8).putLong(l.getSrc()).array();
 			this.srcdpid = String.format("%02x:%02x:%02x:%02x:%02x:%02x:%02x:%02x",
 					bDPID[0], bDPID[1], bDPID[2], bDPID[3], bDPID[4], bDPID[5], bDPID[6], bDPID[7]);
@@ -616,10 +865,10 @@ public class Links extends OFModel {
 			this.srcport = l.getSrcPort();
 			this.dstport = l.getDstPort();
 			
-			LinkInfo linkInfo = links.get( l );
 			this.srcstatus = linkInfo.getSrcPortState();
 			this.dststatus = linkInfo.getDstPortState();
 			this.type = linkInfo.getLinkType().toString();
+			this.latency = latency;
 		}
 	}
 	
@@ -642,8 +891,9 @@ public class Links extends OFModel {
 
 					// retrieve all link information as JSON.
 					List<RESTLink> list = new LinkedList<RESTLink>();
-					for ( Link l : links.keySet() ){
-						list.add( new RESTLink (l) );
+					Map<Link, Long> latencies = getLatencies();
+					for ( Map.Entry<Link, LinkInfo> e : getLinks().entrySet() ){
+						list.add( new RESTLink (e.getKey(), e.getValue(), latencies.get(e.getKey())) );
 					}
 
 					try {
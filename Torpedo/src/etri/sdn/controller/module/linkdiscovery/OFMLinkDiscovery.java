@@ -6,33 +6,30 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.LinkedBlockingQueue;
 
-import org.projectfloodlight.openflow.protocol.OFFactories;
-import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFPacketIn;
-import org.projectfloodlight.openflow.protocol.OFPacketOut;
 import org.projectfloodlight.openflow.protocol.OFPortDesc;
 import org.projectfloodlight.openflow.protocol.OFPortReason;
 import org.projectfloodlight.openflow.protocol.OFPortState;
 import org.projectfloodlight.openflow.protocol.OFPortStatus;
 import org.projectfloodlight.openflow.protocol.OFType;
 import org.projectfloodlight.openflow.protocol.OFVersion;
-import org.projectfloodlight.openflow.protocol.action.OFAction;
-import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
-import org.projectfloodlight.openflow.types.OFBufferId;
 import org.projectfloodlight.openflow.types.OFPort;
-import org.projectfloodlight.openflow.util.HexString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,6 +39,8 @@ import etri.sdn.controller.MessageContext;
 import etri.sdn.controller.OFMFilter;
 import etri.sdn.controller.OFModel;
 import etri.sdn.controller.OFModule;
+import etri.sdn.controller.TorpedoProperties;
+import etri.sdn.controller.module.connectionmonitor.IConnectionMonitorService;
 import etri.sdn.controller.module.linkdiscovery.ILinkDiscoveryListener.LDUpdate;
 import etri.sdn.controller.module.linkdiscovery.ILinkDiscoveryListener.UpdateOperation;
 import etri.sdn.controller.protocol.OFProtocol;
@@ -49,10 +48,8 @@ import etri.sdn.controller.protocol.io.Connection;
 import etri.sdn.controller.protocol.io.IOFHandler.Role;
 import etri.sdn.controller.protocol.io.IOFSwitch;
 import etri.sdn.controller.protocol.io.IOFSwitch.SwitchType;
-import etri.sdn.controller.protocol.packet.BSN;
-import etri.sdn.controller.protocol.packet.Ethernet;
 import etri.sdn.controller.protocol.packet.IPv4;
-import etri.sdn.controller.protocol.packet.LLDP;
+import etri.sdn.controller.protocol.packet.PacketHeaders;
 import etri.sdn.controller.protocol.packet.LLDPTLV;
 
 /**
@@ -71,30 +68,15 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	// LLDP and BDDP fields
 	//
 	
-	/**
-	 * LLDP Data Units (LLDPDUs) are sent to the destination MAC address 01:80:c2:00:00:0e. 
-	 * This address is defined as the "LLDP_Multicast" address. 
-	 * This address is defined within a range of addresses reserved by the IEEE for protocols 
-	 * that are to be constrained to an individual LAN. 
-	 * AN LLDPDU will not be forwarded by MAC bridges (e.g. switches) that conform to IEEE Std 802.1D-2004.
-	 */
-	private static final byte[] LLDP_STANDARD_DST_MAC_STRING = 
-		HexString.fromHexString("01:80:c2:00:00:0e");
 	private static final long LINK_LOCAL_MASK  = 0xfffffffffff0L;
 	private static final long LINK_LOCAL_VALUE = 0x0180c2000000L;
 
-	// BigSwitch OUI is 5C:16:C7, so 5D:16:C7 is the multicast version
-	// private static final String LLDP_BSN_DST_MAC_STRING = "5d:16:c7:00:00:01";
-	private static final String LLDP_BSN_DST_MAC_STRING = "ff:ff:ff:ff:ff:ff";
-
-	private static final byte TLV_DIRECTION_TYPE = 0x73;
-	private static final short TLV_DIRECTION_LENGTH = 1;  // 1 byte
-	private static final byte TLV_DIRECTION_VALUE_FORWARD[] = {0x01};
-	private static final byte TLV_DIRECTION_VALUE_REVERSE[] = {0x02};
-
 	protected final int DISCOVERY_TASK_INTERVAL = 1; 	// 1 second.
+	/**
+	 * Every port is probed within this interval (seconds).
+	 * The probes are spread over the interval by {@link DiscoveryPacer}.
+	 */
 	protected final int LLDP_TO_ALL_INTERVAL = 7; 		//15 seconds.
-	protected long lldpClock = 0;
 	
 	/**
 	 * LLDP frequency for known links.
@@ -106,6 +88,7 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 
 	/**
 	 * Quarantine Task. 100ms.
+	 * The paced LLDPs are also sent by this task.
 	 */
 	protected final int BDDP_TASK_INTERVAL = 100; 
 	
@@ -114,20 +97,37 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 */
 	protected final int BDDP_TASK_SIZE = 5;
 
-	private static final LLDPTLV forwardTLV 
-	= new LLDPTLV().
-	setType((byte)TLV_DIRECTION_TYPE).
-	setLength((short)TLV_DIRECTION_LENGTH).
-	setValue(TLV_DIRECTION_VALUE_FORWARD);
+	/**
+	 * A port that has not changed for this number of LLDP_TO_ALL_INTERVALs is stable.
+	 */
+	protected final int LLDP_STABLE_CYCLES = 3;
+
+	/**
+	 * A stable port is probed once every this number of LLDP_TO_ALL_INTERVALs.
+	 * LLDP_TO_ALL_INTERVAL * LLDP_STABLE_EVERY should be kept well below {@link Links#LINK_TIMEOUT}.
+	 */
+	protected final int LLDP_STABLE_EVERY = 2;
 
-	private static final LLDPTLV reverseTLV 
-	= new LLDPTLV().
-	setType((byte)TLV_DIRECTION_TYPE).
-	setLength((short)TLV_DIRECTION_LENGTH).
-	setValue(TLV_DIRECTION_VALUE_REVERSE);
+	/**
+	 * scheduler of the periodic LLDPs. initialized within initialize()
+	 */
+	private DiscoveryPacer pacer;
 
 	protected LLDPTLV controllerTLV;
 
+	/**
+	 * value of {@link #controllerTLV}.
+	 */
+	private long controllerId;
+
+	/**
+	 * precomputed LLDP and BDDP probes of switch ports.
+	 * A probe is created when it is first sent out of the port,
+	 * and removed when the port or the switch changes (see {@link #invalidateProbes(long, OFPort)}).
+	 */
+	private ConcurrentMap<NodePortTuple, DiscoveryProbe> lldpProbes = new ConcurrentHashMap<NodePortTuple, DiscoveryProbe>();
+	private ConcurrentMap<NodePortTuple, DiscoveryProbe> bddpProbes = new ConcurrentHashMap<NodePortTuple, DiscoveryProbe>();
+
 	/** 
 	 * A list of ports that are quarantined for discovering links through
 	 * them.  Data traffic from these ports are not allowed until the ports
@@ -136,6 +136,14 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	protected LinkedBlockingQueue<NodePortTuple> quarantineQueue = new LinkedBlockingQueue<NodePortTuple>();
 	
 	protected LinkedBlockingQueue<NodePortTuple> maintenanceQueue = new LinkedBlockingQueue<NodePortTuple>();
+
+	/**
+	 * ports in {@link #quarantineQueue} and {@link #maintenanceQueue}.
+	 * A port is removed from a queue by removing it from the set only, 
+	 * and the queue entry of a port that is not in the set is skipped when it is taken out.
+	 */
+	private Set<NodePortTuple> quarantinePorts = Collections.newSetFromMap(new ConcurrentHashMap<NodePortTuple, Boolean>());
+	private Set<NodePortTuple> maintenancePorts = Collections.newSetFromMap(new ConcurrentHashMap<NodePortTuple, Boolean>());
 	
 	protected BlockingQueue<LDUpdate> updates = new LinkedBlockingQueue<LDUpdate>();
 	
@@ -205,11 +213,11 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 		if ( pi == null ) {
 			throw new AssertionError("pi cannot refer null");
 		}
-		try {
+		// OF 1.0 and 1.1 have in_port field, and the others have it in the match.
+		if ( pi.getVersion().compareTo(OFVersion.OF_12) < 0 ) {
 			return pi.getInPort();
-		} catch ( UnsupportedOperationException e ) {
-			return pi.getMatch().get(MatchField.IN_PORT);
 		}
+		return pi.getMatch().get(MatchField.IN_PORT);
 	}
 	
 	@Override
@@ -236,6 +244,15 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 		this.links = new Links(this);
 		
 		this.protocol = getController().getProtocol();
+
+		TorpedoProperties conf = TorpedoProperties.loadConfiguration();
+		int probesPerSecond = conf.getInt("lldp-probes-per-second");
+		this.pacer = new DiscoveryPacer(
+				LLDP_TO_ALL_INTERVAL * 1000, 
+				BDDP_TASK_INTERVAL, 
+				Math.max(0, probesPerSecond), 
+				LLDP_STABLE_CYCLES, 
+				LLDP_STABLE_EVERY);
 		
 		// initialize controller TLV
 		setControllerTLV();
@@ -250,20 +267,9 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 						// we process all PACKET_IN regardless of its version.
 						OFPacketIn pi = (OFPacketIn) m;
 						
-						byte[] packet = pi.getData();
-						
-						if ( packet == null || packet.length < 14 ) {
-							// this packet is not mine!
-							return false;
-						}
-						
-						// this checks if the Packet-In is for LLDP!
+						// this checks if the Packet-In is for LLDP or BDDP!
 						// This is very important to guarantee maximum performance. (-_-;)
-						if ( packet[12] != (byte)0x88 || packet[13] != (byte)0xcc ) {
-							// this packet is not mine!
-							return false;
-						}
-						return true;
+						return DiscoveryPacket.isCandidate( pi.getData() );
 					}
 
 				}
@@ -283,7 +289,7 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 		
 		// register discovery task
 		initiatePeriodicDiscovery();
-		initiatePeriodicQuarantineWorker();
+		initiatePacedDiscovery();
 		initiatePeriodicTopologyUpdate();
 	}
 	
@@ -299,6 +305,7 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 * @param info LinkInfo object
 	 */
 	public void addLinkUpdate(Link lt, LinkInfo info) {
+		markChanged(lt);
 		UpdateOperation operation = getUpdateOperation(info.getSrcPortState(),
 				info.getDstPortState());
 		updates.add(new LDUpdate(lt.getSrc(), lt.getSrcPort(),
@@ -314,6 +321,7 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 * @param operation UpdateOperation value
 	 */
 	public void addLinkUpdate(Link lt, LinkInfo info, UpdateOperation operation) {
+		markChanged(lt);
 		updates.add(new LDUpdate(lt.getSrc(), lt.getSrcPort(),
 				lt.getDst(), lt.getDstPort(),
 				getLinkType(lt, info),
@@ -328,8 +336,20 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 * @param op		update operation. see {@link ILinkDiscoveryService} 
 	 */
 	public void addLinkUpdate(long switchId, OFPort portNum, UpdateOperation op) {
+		pacer.markChanged(new NodePortTuple(switchId, portNum), System.currentTimeMillis());
 		updates.add(new LDUpdate(switchId, portNum, op));
 	}
+
+	/**
+	 * Mark both ends of the link as changed, so that they are probed every cycle for a while.
+	 * 
+	 * @param lt	Link object
+	 */
+	private void markChanged(Link lt) {
+		long now = System.currentTimeMillis();
+		pacer.markChanged(new NodePortTuple(lt.getSrc(), lt.getSrcPort()), now);
+		pacer.markChanged(new NodePortTuple(lt.getDst(), lt.getDstPort()), now);
+	}
 	
 	/**
 	 * Add a new LDUpdate object to the {@link #updates} queue. 
@@ -401,6 +421,7 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 
 		// type is set to 0x0c (12) which means the TLV is created by the controller. 
 		this.controllerTLV = new LLDPTLV().setType((byte) 0x0c).setLength((short) controllerTLVValue.length).setValue(controllerTLVValue);
+		this.controllerId = result;
 	}
 
 	private void initiatePeriodicDiscovery() {
@@ -440,41 +461,52 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 		this.disconnections.removeAll(to_remove);
 	}
 
-	private void initiatePeriodicQuarantineWorker() {
+	private void initiatePacedDiscovery() {
 		this.controller.scheduleTask(
 				new IOFTask() {
 
 					/**
-					 * This method processes the quarantine list in bursts.  The task is
-					 * at most once per BDDP_TASK_INTERVAL.
+					 * This method processes the quarantine list in bursts, 
+					 * and then sends the LLDPs that are due on this tick (see {@link DiscoveryPacer}). 
+					 * The task is at most once per BDDP_TASK_INTERVAL.
 					 * One each call, BDDP_TASK_SIZE number of switch ports are processed.
 					 * Once the BDDP packets are sent out through the switch ports, the ports
 					 * are removed from the quarantine list.
 					 */
 					public boolean execute() {
-						int count = 0;
+						long now = System.currentTimeMillis();
+						int budget = pacer.refill(now);
+						int sent = 0;
 						Set<NodePortTuple> nptList = new HashSet<NodePortTuple>();
 
-						while(count < BDDP_TASK_SIZE && quarantineQueue.peek() !=null) {
-							NodePortTuple npt;
-							npt = quarantineQueue.remove();
+						int count = 0;
+						NodePortTuple npt;
+						while(count < BDDP_TASK_SIZE && sent < budget && 
+								(npt = pollQueue(quarantineQueue, quarantinePorts)) != null) {
 							sendDiscoveryMessage(controller.getSwitch(npt.getNodeId()), npt.getPortId(), false, false);
 							nptList.add(npt);
 							count++;
+							sent++;
 						}
 
 						count = 0;
-						while (count < BDDP_TASK_SIZE && maintenanceQueue.peek() != null) {
-							NodePortTuple npt;
-							npt = maintenanceQueue.remove();
+						while (count < BDDP_TASK_SIZE && sent < budget && 
+								(npt = pollQueue(maintenanceQueue, maintenancePorts)) != null) {
 							sendDiscoveryMessage(controller.getSwitch(npt.getNodeId()), npt.getPortId(), false, false);
 							count++;
+							sent++;
 						}
 
-						for(NodePortTuple npt:nptList) {
-							generateSwitchPortStatusUpdate(controller.getSwitch(npt.getNodeId()), npt.getPortId());
+						for(NodePortTuple p:nptList) {
+							generateSwitchPortStatusUpdate(controller.getSwitch(p.getNodeId()), p.getPortId());
+						}
+
+						Role role = controller.getRole();
+						if ( role == null || role == Role.MASTER || role == Role.EQUAL ) {
+							sent += discoverOnDuePorts(now, budget - sent);
 						}
 
+						pacer.consume(sent);
 						return true;
 					}
 				},
@@ -539,7 +571,7 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 */
 	@SuppressWarnings("unused")
 	private void addToQuarantineQueue(NodePortTuple npt) {
-		if (quarantineQueue.contains(npt) == false)
+		if (quarantinePorts.add(npt))
 			quarantineQueue.add(npt);
 	}
 
@@ -547,8 +579,25 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 * Remove a switch port from the quarantine queue.
 	 */
 	private void removeFromQuarantineQueue(NodePortTuple npt) {
-		// Remove all occurrences of the node port tuple from the list.
-		while (quarantineQueue.remove(npt));
+		// the queue entry is skipped by pollQueue().
+		quarantinePorts.remove(npt);
+	}
+
+	/**
+	 * Take out the first switch port in the queue which is not removed.
+	 * 
+	 * @param queue		quarantine or maintenance queue
+	 * @param ports		ports in the queue
+	 * @return			switch port, or null if the queue is empty
+	 */
+	private static NodePortTuple pollQueue(BlockingQueue<NodePortTuple> queue, Set<NodePortTuple> ports) {
+		NodePortTuple npt;
+		while ( (npt = queue.poll()) != null ) {
+			if ( ports.remove(npt) ) {
+				return npt;
+			}
+		}
+		return null;
 	}
 
 	/**
@@ -557,11 +606,7 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 * @param npt	{@link NodePortTuple} object.
 	 */
 	private void addToMaintenanceQueue(NodePortTuple npt) {
-		// TODO We are not checking if the switch port tuple is already
-		// in the maintenance list or not.  This will be an issue for
-		// really large number of switch ports in the network.
-		
-		if (maintenanceQueue.contains(npt) == false)
+		if (maintenancePorts.add(npt))
 			maintenanceQueue.add(npt);
 	}
 
@@ -571,8 +616,8 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 * @param npt	{@link NodePortTuple} object.
 	 */
 	private void removeFromMaintenanceQueue(NodePortTuple npt) {
-		// Remove all occurrences of the node port tuple from the queue.
-		while (maintenanceQueue.remove(npt));
+		// the queue entry is skipped by pollQueue().
+		maintenancePorts.remove(npt);
 	}
 
 	@Override
@@ -593,15 +638,8 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	private void discoverLinks() {
 
 		// timeout known links.
+		// LLDPs are sent by the paced discovery task.
 		this.links.timeoutLinks();
-
-		//increment LLDP clock
-		lldpClock = (lldpClock + 1)% LLDP_TO_ALL_INTERVAL;
-
-		if (lldpClock == 0) {
-			discoverOnAllPorts();
-			//			Logger.stdout(this.toString());
-		}
 	}
 
 	private UpdateOperation getUpdateOperation(Set<OFPortState> srcPortState) {
@@ -631,9 +669,39 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	}
 
 	/**
-	 * Send LLDPs to all switch-ports
+	 * Send LLDPs to the switch-ports that are due on this tick.
+	 * When a cycle ends, the next cycle starts with all the enabled switch-ports.
+	 * 
+	 * @param now		current time (milliseconds)
+	 * @param budget	maximum number of LLDPs to send
+	 * @return			number of LLDPs sent
+	 */
+	private int discoverOnDuePorts(long now, int budget) {
+
+		if ( pacer.needsCycle(now) ) {
+			pacer.startCycle(getEnabledPorts(), now);
+		}
+
+		List<NodePortTuple> due = pacer.next(now, budget);
+		for ( NodePortTuple npt : due ) {
+
+			sendDiscoveryMessage(controller.getSwitch(npt.getNodeId()), npt.getPortId(), true, false);
+
+			// If the switch port is not already in the maintenance
+			// queue, add it.
+			addToMaintenanceQueue(npt);
+		}
+		return due.size();
+	}
+
+	/**
+	 * Get all the enabled ports of the connected switches.
+	 * 
+	 * @return	list of switch-ports
 	 */
-	private void discoverOnAllPorts() {
+	private List<NodePortTuple> getEnabledPorts() {
+
+		List<NodePortTuple> ret = new ArrayList<NodePortTuple>();
 
 		for ( IOFSwitch sw : controller.getSwitches() ) {
 			
@@ -644,16 +712,35 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 			if ( pports != null ) {
 
 				for ( OFPortDesc ofp: pports ) {
-
-					sendDiscoveryMessage(sw, ofp.getPortNo(), true, false);
-
-					// If the switch port is not already in the maintenance
-					// queue, add it.
-					NodePortTuple npt = new NodePortTuple(sw.getId(), ofp.getPortNo());
-					addToMaintenanceQueue(npt);
+					ret.add( new NodePortTuple(sw.getId(), ofp.getPortNo()) );
 				}
 			}
 		}
+		return ret;
+	}
+
+	/**
+	 * Estimate the latency of a link from the time between sending an LLDP and receiving it.
+	 * The LLDP goes from the controller to the source switch, through the link, 
+	 * and from the destination switch to the controller.
+	 * So, the half of the echo round-trip time of both switches is subtracted, 
+	 * if {@link IConnectionMonitorService} has measured it.
+	 * 
+	 * @param lt		link
+	 * @param elapsed	time between sending and receiving the LLDP (nanoseconds)
+	 */
+	private void updateLatency(Link lt, long elapsed) {
+		IConnectionMonitorService monitor = 
+				(IConnectionMonitorService) getModule(IConnectionMonitorService.class);
+		if (monitor != null) {
+			long srcRtt = monitor.getEchoRtt(lt.getSrc());
+			long dstRtt = monitor.getEchoRtt(lt.getDst());
+			if (srcRtt > 0) 
+				elapsed -= srcRtt / 2;
+			if (dstRtt > 0)
+				elapsed -= dstRtt / 2;
+		}
+		this.links.updateLatency(lt, elapsed);
 	}
 
 	/**
@@ -678,103 +765,70 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 		if ( port == OFPort.CONTROLLER || port == OFPort.LOCAL )
 			return true;
 
+		DiscoveryProbe probe = getProbe(sw, port, isStandard);
+		if ( probe == null ) {
+			return true;
+		}
+
+		if (sw.getConnection() != null) {
+			return sw.getConnection().write(probe.getPacketOut(isReverse, System.nanoTime()));
+		}
+		else {
+			return false;
+		}
+	}
+
+	/**
+	 * Get the precomputed probe of a switch port.
+	 * The probe is built if it is not cached, or if the port has changed
+	 * without a PORT_STATUS message.
+	 * 
+	 * @param sw			IOFSwitch object
+	 * @param port			port to send the probe out
+	 * @param isStandard	indicates standard or modified LLDP
+	 * @return				DiscoveryProbe object, or null if the port is not known
+	 */
+	private DiscoveryProbe getProbe(IOFSwitch sw, OFPort port, boolean isStandard) {
 		OFPortDesc ofpPort = protocol.getPortInformation(sw, port);
 
 		if (ofpPort == null) {
 			logger.error("sw: {},  port: {} is null", sw.getId(), port.getPortNumber());
-			return true;
+			return null;
 		}
-		
+
 		if (ofpPort.getHwAddr() == null) {
 			logger.error("switch {} might be already removed", sw.getId());
+			return null;
 		}
 
-		// using "nearest customer bridge" MAC address for broadest possible propagation
-		// through provider and TPMR bridges (see IEEE 802.1AB-2009 and 802.1Q-2011),
-		// in particular the Linux bridge which behaves mostly like a provider bridge
-		byte[] chassisId = new byte[] {4, 0, 0, 0, 0, 0, 0}; // filled in later
-		byte[] portId = new byte[] {2, 0, 0}; // filled in later
-		byte[] ttlValue = new byte[] {0, 0x78};
-		// OpenFlow OUI - 00-26-E1
-		byte[] dpidTLVValue = new byte[] {0x0, 0x26, (byte) 0xe1, 0, 0, 0, 0, 0, 0, 0, 0, 0};
-		LLDPTLV dpidTLV = new LLDPTLV().setType((byte) 127).setLength((short) dpidTLVValue.length).setValue(dpidTLVValue);
-
-		byte[] dpidArray = new byte[8];
-		ByteBuffer dpidBB = ByteBuffer.wrap(dpidArray);
-		ByteBuffer portBB = ByteBuffer.wrap(portId, 1, 2);
-
-		Long dpid = sw.getId();
-
-		dpidBB.putLong(dpid);
-		// set the ethernet source mac to last 6 bytes of dpid
-//		System.arraycopy(dpidArray, 2, ofpPort.getHardwareAddress(), 0, 6);
-		System.arraycopy(dpidArray, 2, ofpPort.getHwAddr().getBytes(), 0, 6);
-		// set the chassis id's value to last 6 bytes of dpid
-		System.arraycopy(dpidArray, 2, chassisId, 1, 6);
-		// set the optional tlv to the full dpid
-		System.arraycopy(dpidArray, 0, dpidTLVValue, 4, 8);
-
-		// set the portId to the outgoing port
-		portBB.putShort( port.getShortPortNumber() );
-
-		LLDP lldp = new LLDP();
-		lldp.setChassisId(new LLDPTLV().setType((byte) 1).setLength((short) chassisId.length).setValue(chassisId));
-		lldp.setPortId(new LLDPTLV().setType((byte) 2).setLength((short) portId.length).setValue(portId));
-		lldp.setTtl(new LLDPTLV().setType((byte) 3).setLength((short) ttlValue.length).setValue(ttlValue));
-		lldp.getOptionalTLVList().add(dpidTLV);
-
-		// Add the controller identifier to the TLV value.
-		lldp.getOptionalTLVList().add(controllerTLV);
-		if (isReverse) {
-			lldp.getOptionalTLVList().add(reverseTLV);
-		}else {
-			lldp.getOptionalTLVList().add(forwardTLV);
+		ConcurrentMap<NodePortTuple, DiscoveryProbe> probes = isStandard ? lldpProbes : bddpProbes;
+		NodePortTuple npt = new NodePortTuple(sw.getId(), port);
+		DiscoveryProbe probe = probes.get(npt);
+		if ( probe == null || !probe.isValidFor(sw.getVersion(), ofpPort.getHwAddr()) ) {
+			probe = new DiscoveryProbe(sw.getVersion(), sw.getId(), port, ofpPort.getHwAddr(), isStandard, controllerTLV);
+			probes.put(npt, probe);
 		}
+		return probe;
+	}
 
-		Ethernet ethernet;
-		if (isStandard) {
-			ethernet = new Ethernet()
-			.setSourceMACAddress(ofpPort.getHwAddr().getBytes())
-			.setDestinationMACAddress(LLDP_STANDARD_DST_MAC_STRING)
-			.setEtherType(Ethernet.TYPE_LLDP);
-			ethernet.setPayload(lldp);
-		} else {
-			BSN bsn = new BSN(BSN.BSN_TYPE_BDDP);
-			bsn.setPayload(lldp);
-
-			ethernet = new Ethernet()
-			.setSourceMACAddress(ofpPort.getHwAddr().getBytes())
-			.setDestinationMACAddress(LLDP_BSN_DST_MAC_STRING)
-			.setEtherType(Ethernet.TYPE_BSN);
-			ethernet.setPayload(bsn);
+	/**
+	 * Remove the precomputed probes of a switch port.
+	 * 
+	 * @param switchId	switch id
+	 * @param port		port number, or null to remove the probes of all the ports of the switch
+	 */
+	private void invalidateProbes(long switchId, OFPort port) {
+		if ( port != null ) {
+			NodePortTuple npt = new NodePortTuple(switchId, port);
+			lldpProbes.remove(npt);
+			bddpProbes.remove(npt);
+			return;
 		}
-
-		// serialize and wrap in a packet out
-		byte[] data = ethernet.serialize();
-		
-		OFFactory fac = OFFactories.getFactory(sw.getVersion());
-		
-		OFPacketOut.Builder po = fac.buildPacketOut();
-		
-		po.setBufferId(OFBufferId.NO_BUFFER);
-		if ( sw.getVersion() == OFVersion.OF_10 ) 
-			po.setInPort(OFPort.ANY /*Openflow 1.0 calls this 'None'*/);
-		else 
-			po.setInPort(OFPort.CONTROLLER);		// packet-out is created by the controller.
-		
-		List<OFAction> actions = new ArrayList<OFAction>();
-		OFActionOutput.Builder action_output = fac.actions().buildOutput();
-		actions.add( action_output.setPort(port).setMaxLen(0).build());
-
-		po
-		.setData(data)
-		.setActions(actions);
-
-		if (sw.getConnection() != null) {
-			return sw.getConnection().write(po.build());
+		for ( Iterator<NodePortTuple> i = lldpProbes.keySet().iterator(); i.hasNext(); ) {
+			if ( i.next().getNodeId() == switchId ) i.remove();
 		}
-		else {
-			return false;
+		for ( Iterator<NodePortTuple> i = bddpProbes.keySet().iterator(); i.hasNext(); ) {
+			if ( i.next().getNodeId() == switchId ) i.remove();
 		}
 	}
 
@@ -786,6 +840,9 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 			return false;
 		}
 
+		// the switch may have reconnected with another version or ports.
+		invalidateProbes(sw.getId(), null);
+
 		if ( protocol.getEnabledPorts(sw) != null ) {
 			for ( OFPort p : protocol.getEnabledPortNumbers(sw) ) {
 				processNewPort(sw, p);
@@ -808,6 +865,7 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	@Override
 	protected boolean handleDisconnect(Connection conn) {
 		try { 
+			invalidateProbes(conn.getSwitch().getId(), null);
 			this.disconnections.add(new Disconnection(conn.getSwitch()));
 		} catch ( Exception e ) {
 			// this connection is cut before the FEATURE_REPLY is exchanged. 
@@ -834,21 +892,22 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 * This method handles a PACKET_IN message as follows:
 	 * 
 	 * <ol>
-	 * <li> First, decapsulate the Ethernet part of the PACKET_IN payload.
+	 * <li> First, parse the PACKET_IN payload with {@link DiscoveryPacket}, 
+	 *      which reads the fields of LLDP and BDDP directly from the packet bytes.
 	 * <li> if the ETHERTYPE of the header is BSN and its payload is LLDP,
 	 *      that means a BDDP packet (non-standard bigswitch-specific LLDP) is 
-	 *      received. If not, just return true to pass this PACKET_IN to other module. 
-	 *      The BDDP packet is handled by calling {@link #handleLldp(LLDP, IOFSwitch, OFPacketIn, boolean, List)}.
+	 *      received. The BDDP packet is handled by calling 
+	 *      {@link #handleLldp(DiscoveryPacket, IOFSwitch, OFPacketIn, boolean, List)}.
 	 * <li> If the ETHERTYPE of the header is LLDP, then handle the packet 
-	 *      by calling {@link #handleLldp(LLDP, IOFSwitch, OFPacketIn, boolean, List)}.
+	 *      by calling {@link #handleLldp(DiscoveryPacket, IOFSwitch, OFPacketIn, boolean, List)}.
 	 * <li> If the ETHERTYPE of the header is smaller than (<) 1500 and 
 	 *      destMac & LINK_LOCAL_MASK) == LINK_LOCAL_VALUE, then we just return false 
 	 *      to suppress the further processing of the PACKET_IN msg. 
 	 * </ol>
 	 * 
 	 * However, in the current OFMLinkDiscovery Implementation, 
-	 * As {@link #initialize()} has been coded only to accept the standard LLDP 
-	 * packets with Ethertype 0x88cc, there are other cases that never be executed. 
+	 * As {@link #initialize()} has been coded only to accept the LLDP and BSN
+	 * packets, there are other cases that never be executed. 
 	 * 
 	 * @param sw			IOFSwitch object
 	 * @param context		MessageContext object
@@ -858,39 +917,27 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 */
 	private boolean handlePacketIn(IOFSwitch sw, MessageContext context, OFPacketIn pi, List<OFMessage> outgoing) {
 
-		Ethernet eth = (Ethernet) context.get(MessageContext.ETHER_PAYLOAD);
-
-		if ( eth == null ) {
-			// parse Ethernet header and put into the context
-			eth = new Ethernet();
-			eth.deserialize(pi.getData(), 0, pi.getData().length);
-			context.put(MessageContext.ETHER_PAYLOAD, eth);
-		}
+		DiscoveryPacket dp = new DiscoveryPacket();
 
-		if(eth.getEtherType() == Ethernet.TYPE_BSN) {
-			BSN bsn = (BSN) eth.getPayload();
-			if (bsn == null) return false;
-			if (bsn.getPayload() == null) return false;
-			// It could be a packet other than BSN LLDP, therefore
+		switch ( dp.parse(pi.getData()) ) {
+		case DiscoveryPacket.LLDP:
+			return handleLldp(dp, sw, pi, true, outgoing);
+		case DiscoveryPacket.BDDP:
+			return handleLldp(dp, sw, pi, false, outgoing);
+		default:
+			// It could be a BSN packet other than BDDP, therefore
 			// continue with the regular processing.
-			if (bsn.getPayload() instanceof LLDP == false) {
-				// this packet-in is not for me
-				return true;
-			}
+			break;
+		}
 
-			return handleLldp((LLDP) bsn.getPayload(), sw, pi, false, outgoing);
-		} else if (eth.getEtherType() == Ethernet.TYPE_LLDP)  {
-			return handleLldp((LLDP) eth.getPayload(), sw, pi, true, outgoing);
-		} else if (eth.getEtherType() < 1500) {
-			long destMac = eth.getDestinationMAC().toLong();
-			if ((destMac & LINK_LOCAL_MASK) == LINK_LOCAL_VALUE){
-				return false;
-			}
+		PacketHeaders h = context.getPacketHeaders(pi);
+		if ((h.getEtherType() & 0xffff) < 1500 && 
+			(h.getDestinationMAC() & LINK_LOCAL_MASK) == LINK_LOCAL_VALUE) {
+			return false;
 		}
 
 		// If packet-in is from a quarantine port, stop processing.
-		NodePortTuple npt = new NodePortTuple(sw.getId(), pi.getInPort());
-		if (quarantineQueue.contains(npt)) {
+		if (sw != null && quarantinePorts.contains(new NodePortTuple(sw.getId(), getInputPort(pi)))) {
 			return false;
 		}
 
@@ -918,59 +965,36 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 *     remove the node & port pair (both side) from the Quarantine and Maintenance Queue and drop the message.
 	 * </ol>
 	 * 
-	 * @param lldp			LLDP packet to process
+	 * @param lldp			parsed LLDP or BDDP packet to process
 	 * @param sw			the switch that the lldp packet is received
 	 * @param pi			OFPacketIn message itself
 	 * @param isStandard	true(standard LLDP), or false
 	 * @param outgoing		list of OFMessage objects to be delivered to switches after this method ends the execution
 	 * @return				true to further process the message, or false.
 	 */
-	private boolean handleLldp(LLDP lldp, IOFSwitch sw, OFPacketIn pi, boolean isStandard, List<OFMessage> outgoing) {
+	private boolean handleLldp(DiscoveryPacket lldp, IOFSwitch sw, OFPacketIn pi, boolean isStandard, List<OFMessage> outgoing) {
 		// If LLDP is suppressed on this port, ignore received packet as well
 		if (sw == null) {
 			return false;
 		}
 
 		// If this is a malformed LLDP, or not from us, exit
-		if (lldp.getPortId() == null || lldp.getPortId().getLength() != 3) {
+		if (!lldp.hasPort()) {
 			return true;
 		}
 
-		long myId = ByteBuffer.wrap(controllerTLV.getValue()).getLong();
-		long otherId = 0;
-		boolean myLLDP = false;
+		long myId = this.controllerId;
+		// if the controller TLV is there, the LLDP is created by a controller.
+		long otherId = lldp.hasController() ? lldp.getController() : 0;
+		boolean myLLDP = lldp.hasController() && myId == otherId;
 		Boolean isReverse = null;
+		if (lldp.getDirection() == DiscoveryProbe.TLV_DIRECTION_VALUE_FORWARD)
+			isReverse = false;
+		else if (lldp.getDirection() == DiscoveryProbe.TLV_DIRECTION_VALUE_REVERSE)
+			isReverse = true;
 
-		ByteBuffer portBB = ByteBuffer.wrap(lldp.getPortId().getValue());
-		portBB.position(1);
-
-		OFPort remotePort = OFPort.of(portBB.getShort());
-		IOFSwitch remoteSwitch = null;
-
-		// Verify this LLDP packet matches what we're looking for
-		for (LLDPTLV lldptlv : lldp.getOptionalTLVList()) {
-			// '127' means 'Organizationally specific TLV'.
-			if (lldptlv.getType() == 127 && lldptlv.getLength() == 12 &&
-					lldptlv.getValue()[0] == 0x0 && lldptlv.getValue()[1] == 0x26 &&
-					lldptlv.getValue()[2] == (byte)0xe1 && lldptlv.getValue()[3] == 0x0) {
-				ByteBuffer dpidBB = ByteBuffer.wrap(lldptlv.getValue());
-				remoteSwitch = this.controller.getSwitch(dpidBB.getLong(4));
-			} 
-			// if type is set to 12 (0x0c), it means the TLV is created by the controller
-			// (controllerTLV). 
-			else if (lldptlv.getType() == 12 && lldptlv.getLength() == 8){
-				otherId = ByteBuffer.wrap(lldptlv.getValue()).getLong();
-				if (myId == otherId)
-					myLLDP = true;
-			} 
-			else if (lldptlv.getType() == TLV_DIRECTION_TYPE &&
-					lldptlv.getLength() == TLV_DIRECTION_LENGTH) {
-				if (lldptlv.getValue()[0] == TLV_DIRECTION_VALUE_FORWARD[0])
-					isReverse = false;
-				else if (lldptlv.getValue()[0] == TLV_DIRECTION_VALUE_REVERSE[0])
-					isReverse = true;
-			}
-		}
+		OFPort remotePort = OFPort.of(lldp.getPort());
+		IOFSwitch remoteSwitch = lldp.hasDpid() ? this.controller.getSwitch(lldp.getDpid()) : null;
 
 		if (myLLDP == false) {
 			// This is not the LLDP sent by this controller.
@@ -1017,6 +1041,10 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 				isReverse
 		);
 
+		if (myLLDP && lldp.hasTimestamp()) {
+			updateLatency(lt, System.nanoTime() - lldp.getTimestamp());
+		}
+
 		// Remove the node ports from the quarantine and maintenance queues.
 		NodePortTuple nptSrc = new NodePortTuple(lt.getSrc(), lt.getSrcPort());
 		NodePortTuple nptDst = new NodePortTuple(lt.getDst(), lt.getDstPort());
@@ -1076,6 +1104,9 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 		boolean linkDeleted  = false;
 		boolean linkInfoChanged = false;
 
+		// the port may have a new hardware address, or be deleted.
+		invalidateProbes(sw.getId(), portnum);
+
 		// if ps is a delete, or a modify where the port is down or
 		// configured down
 		if ( ps.getReason() == OFPortReason.DELETE || 
@@ -1118,6 +1149,7 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 	 */
 	private void processNewPort(IOFSwitch sw, OFPort portnum) {
 		if ( sw != null ) {
+			pacer.markChanged( new NodePortTuple(sw.getId(), portnum), System.currentTimeMillis() );
 			sendDiscoveryMessage(sw, portnum, true, false);
 
 			// Add to maintenance queue to ensure that BDDP packets
@@ -1132,14 +1164,17 @@ public class OFMLinkDiscovery extends OFModule implements ILinkDiscoveryService
 
 	@Override
 	public Map<Link, LinkInfo> getLinks() {
-		// TODO Auto-generated method stub
-		return null;
+		return this.links.getLinks();
+	}
+
+	@Override
+	public Map<Link, Long> getLinkLatencies() {
+		return this.links.getLatencies();
 	}
 
 	@Override
 	public Map<Long, Set<Link>> getSwitchLinks() {
-		// TODO Auto-generated method stub
-		return null;
+		return this.links.getSwitchLinks();
 	}
 
 	@Override
@@ -106,7 +106,7 @@ public class OFMOpenstackML2Connector extends OFModule implements IOpenstackML2C
 			IRoutingDecision decision = null;
 						
 			if(context != null) {
-				decision = (IRoutingDecision) context.get(MessageContext.ROUTING_DECISION);		
+				decision = context.get(IRoutingDecision.ROUTING_DECISION);		
 				return this.processPacketIn(conn.getSwitch(), (OFPacketIn) msg, decision, context);
 			}
 			break;
@@ -209,7 +209,7 @@ public class OFMOpenstackML2Connector extends OFModule implements IOpenstackML2C
 	
 	private boolean processPacketIn(IOFSwitch sw, OFPacketIn pi, IRoutingDecision decision, MessageContext cntx) {
 		
-		Ethernet eth = (Ethernet) cntx.get(MessageContext.ETHER_PAYLOAD);
+		Ethernet eth = cntx.getEthernet(pi);
 
 		String srcNetwork = eth.getSourceMAC().toString();		
 		
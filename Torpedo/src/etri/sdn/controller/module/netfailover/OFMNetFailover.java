@@ -143,14 +143,12 @@ implements ITopologyListener {
 				// can this be some source of evil?
 				if ( s <= d ) continue;
 				
-				 Route r = this.routingService.getOldRoute(s, d);
-				 if  (r == null) 
-					 // topology is not ready right now.
-					 continue;
-				 
-				 BloomFilter<NodePortTuple> bf = r.getBloomFilter();
-				 if ( bf.mightContain(srcNpt) || bf.mightContain(dstNpt) ) {
-					 removeRouteFromNetwork(r);
+				 // the flows may have taken any of the routes of the pair.
+				 for ( Route r : this.routingService.getOldRoutes(s, d) ) {
+					 BloomFilter<NodePortTuple> bf = r.getBloomFilter();
+					 if ( bf.mightContain(srcNpt) || bf.mightContain(dstNpt) ) {
+						 removeRouteFromNetwork(r);
+					 }
 				 }
 			}
 		}		
@@ -169,14 +167,11 @@ implements ITopologyListener {
 				// can this be some source of evil?
 				if ( s <= d ) continue;
 				
-				 Route r = this.routingService.getRoute(s, d);
-				 if  (r == null) 
-					 // topology is not ready right now.
-					 continue;
-				 
-				 BloomFilter<NodePortTuple> bf = r.getBloomFilter();
-				 if ( bf.mightContain(srcNpt) || bf.mightContain(dstNpt) ) {
-					 removeAnyRouteFromNetwork(r);
+				 for ( Route r : this.routingService.getRoutes(s, d) ) {
+					 BloomFilter<NodePortTuple> bf = r.getBloomFilter();
+					 if ( bf.mightContain(srcNpt) || bf.mightContain(dstNpt) ) {
+						 removeAnyRouteFromNetwork(r);
+					 }
 				 }
 			}
 		}		
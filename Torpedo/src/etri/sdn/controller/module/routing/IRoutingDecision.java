@@ -24,6 +24,13 @@ import etri.sdn.controller.module.devicemanager.IDevice;
 import etri.sdn.controller.module.devicemanager.SwitchPort;
 
 public interface IRoutingDecision {
+
+    /**
+     * key of the routing decision saved in the message context.
+     */
+    public static final MessageContext.Key<IRoutingDecision> ROUTING_DECISION = 
+        MessageContext.registerKey("net.floodlightcontroller.routing.decision", IRoutingDecision.class);
+
     public enum RoutingAction {
         /*
          * NONE:                    NO-OP, continue with the packet processing chain
@@ -17,6 +17,8 @@
 
 package etri.sdn.controller.module.routing;
 
+import java.util.List;
+
 import org.projectfloodlight.openflow.types.OFPort;
 
 import etri.sdn.controller.IService;
@@ -51,6 +53,26 @@ public interface IRoutingService extends IService {
 	 */
 	public boolean routeExists(long src, long dst, boolean tunnelEnabled);
 
+	//
+	// APIs for multipath routes
+	//
+
+	/** Provides the routes between src and dst that allows tunnels, 
+	 *  which are the equal-cost routes or the k shortest routes as configured.
+	 *  The first route is the route of getRoute(src, dst). 
+	 *  The list is empty if there is no route. */
+	public List<Route> getRoutes(long src, long dst);
+
+	public List<Route> getRoutes(long srcId, OFPort srcPort, long dstId, OFPort dstPort);
+
+	/** Provides at most maxRoutes shortest routes between src and dst, 
+	 *  which have the same cost within the error of the link latencies. */
+	public List<Route> getEqualCostRoutes(long src, long dst, int maxRoutes);
+
+	/** Provides the k shortest loopless routes between src and dst,
+	 *  from the shortest one. */
+	public List<Route> getKShortestRoutes(long src, long dst, int k);
+
 	//
 	// APIs for old route
 	//
@@ -78,4 +100,8 @@ public interface IRoutingService extends IService {
 	 *  or not have tunnels as part of the path.
 	 */
 	public boolean oldRouteExists(long src, long dst, boolean tunnelEnabled);
+
+	/** Provides the routes between src and dst in the old topology,
+	 *  in the same way as getRoutes(src, dst). */
+	public List<Route> getOldRoutes(long src, long dst);
 }
\ No newline at end of file
@@ -87,7 +87,7 @@ public class RoutingDecision implements IRoutingDecision {
    
     @Override
     public void addToContext(MessageContext cntx) {
-    	cntx.put(MessageContext.ROUTING_DECISION, this);
+    	cntx.put(IRoutingDecision.ROUTING_DECISION, this);
     }
     
     public String toString() {
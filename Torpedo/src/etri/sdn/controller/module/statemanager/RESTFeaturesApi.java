@@ -2,16 +2,16 @@ package etri.sdn.controller.module.statemanager;
 
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.module.SimpleModule;
 import org.projectfloodlight.openflow.protocol.OFFactories;
-import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
 import org.projectfloodlight.openflow.protocol.OFPortDescStatsReply;
 import org.projectfloodlight.openflow.protocol.OFPortDescStatsRequest;
-import org.projectfloodlight.openflow.protocol.OFStatsReply;
 import org.projectfloodlight.openflow.protocol.OFStatsRequestFlags;
 import org.projectfloodlight.openflow.protocol.OFVersion;
 import org.projectfloodlight.openflow.util.HexString;
@@ -20,6 +20,8 @@ import org.restlet.Response;
 import org.restlet.Restlet;
 import org.restlet.data.MediaType;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import etri.sdn.controller.protocol.OFProtocol;
 import etri.sdn.controller.protocol.io.IOFSwitch;
 import etri.sdn.controller.util.StackTrace;
@@ -39,30 +41,53 @@ public class RESTFeaturesApi extends Restlet {
 		System.out.println(protocol + " " + manager + " " + modules);
 	}
 	
-	private HashMap<String, OFPortDescStatsReply> get13features(IOFSwitch sw) {
-		OFPortDescStatsRequest pdreq = OFFactories.getFactory(sw.getVersion()).portDescStatsRequest(EnumSet.noneOf(OFStatsRequestFlags.class));
-		
-		// the switch supports version 1.3
-		List<OFStatsReply> reply = protocol.getSwitchStatistics( sw, pdreq );
-		
-		if ( reply != null && ! reply.isEmpty() ) {
-			HashMap<String, OFPortDescStatsReply> result = new HashMap<String, OFPortDescStatsReply>();
-			result.put( sw.getStringId(), (OFPortDescStatsReply) reply.remove(0) );
-			
-			return result;
+	/**
+	 * Send the request for the features of the switch.
+	 * 
+	 * @param sw	IOFSwitch object
+	 * @return		future of the reply (List of OFStatsReply for 1.3, OFFeaturesReply for 1.0)
+	 */
+	private ListenableFuture<?> requestFeatures(IOFSwitch sw) {
+		if ( sw.getVersion() == OFVersion.OF_10 ) {
+			// this switch version is lower than 1.3. It does not support OFStatisticsPortDescRequest
+			return protocol.requestFeaturesReply(sw);
 		} else {
-			return null;
+			// the switch supports version 1.3
+			OFPortDescStatsRequest pdreq = OFFactories.getFactory(sw.getVersion()).portDescStatsRequest(EnumSet.noneOf(OFStatsRequestFlags.class));
+			return protocol.requestSwitchStatistics(sw, pdreq);
 		}
 	}
 	
-	private HashMap<String, OFFeaturesReply> get10features(IOFSwitch sw) {
-		// this switch version is lower than 1.3. It does not support OFStatisticsPortDescRequest
-		OFFeaturesReply reply = protocol.getFeaturesReply(sw);
+	/**
+	 * Wait for the reply of {@link #requestFeatures(IOFSwitch)}, and convert it into a map.
+	 * 
+	 * @param sw		IOFSwitch object
+	 * @param future	future returned by {@link #requestFeatures(IOFSwitch)}
+	 * @return			switch id to reply map, or null if there's no reply.
+	 */
+	private HashMap<String, Object> getFeatures(IOFSwitch sw, ListenableFuture<?> future) {
+		Object reply = null;
+		try {
+			reply = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			OFMStateManager.logger.debug("features request failed={}", e.getCause().toString());
+		}
 		
-		HashMap<String, OFFeaturesReply> result = new HashMap<String, OFFeaturesReply>();
-		result.put( sw.getStringId(), reply );
+		HashMap<String, Object> result = new HashMap<String, Object>();
+		if ( sw.getVersion() == OFVersion.OF_10 ) {
+			result.put( sw.getStringId(), reply );
+			return result;
+		}
 		
-		return result;
+		List<?> replies = (List<?>) reply;
+		if ( replies != null && ! replies.isEmpty() ) {
+			result.put( sw.getStringId(), (OFPortDescStatsReply) replies.get(0) );
+			return result;
+		} else {
+			return null;
+		}
 	}
 	
 	private void sendReply(Object result, Response response) {
@@ -97,19 +122,19 @@ public class RESTFeaturesApi extends Restlet {
 			switches.add( sw );
 		}
 		
+		// send all the requests first, so that 
+		// the replies from the switches are waited concurrently.
+		List<ListenableFuture<?>> futures = new LinkedList<>();
+		for ( IOFSwitch sw : switches ) {
+			futures.add( this.requestFeatures( sw ) );
+		}
+		
 		List<Object> results = new LinkedList<>();
+		Iterator<ListenableFuture<?>> fi = futures.iterator();
 		for ( IOFSwitch sw : switches ) {
-			
-			if ( sw.getVersion() == OFVersion.OF_10 ) {
-				Object res = this.get10features( sw );
-				if ( res != null ) {
-					results.add( res );
-				}
-			} else {
-				Object res = this.get13features( sw );
-				if ( res != null ) {
-					results.add( res );
-				}
+			Object res = this.getFeatures( sw, fi.next() );
+			if ( res != null ) {
+				results.add( res );
 			}
 		}
 		
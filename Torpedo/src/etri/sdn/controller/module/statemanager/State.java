@@ -17,6 +17,7 @@ import org.codehaus.jackson.map.module.SimpleModule;
 import org.codehaus.jackson.type.TypeReference;
 import org.joda.time.Interval;
 import org.joda.time.Period;
+import org.openflow.io.DirectBufferPool;
 import org.projectfloodlight.openflow.protocol.OFAggregateStatsRequest;
 import org.projectfloodlight.openflow.protocol.OFDescStatsReply;
 import org.projectfloodlight.openflow.protocol.OFFactories;
@@ -28,6 +29,7 @@ import org.projectfloodlight.openflow.protocol.OFPortStatsEntry;
 import org.projectfloodlight.openflow.protocol.OFPortStatsReply;
 import org.projectfloodlight.openflow.protocol.OFPortStatsRequest;
 import org.projectfloodlight.openflow.protocol.OFStatsReply;
+import org.projectfloodlight.openflow.protocol.OFStatsRequest;
 import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.types.OFGroup;
 import org.projectfloodlight.openflow.types.OFPort;
@@ -38,7 +40,13 @@ import org.restlet.Response;
 import org.restlet.Restlet;
 import org.restlet.data.MediaType;
 
+import com.google.common.base.Function;
+
+import etri.sdn.controller.OFController;
+import etri.sdn.controller.OFController.LaneStatistics;
+import etri.sdn.controller.OFController.ProcessorStatistics;
 import etri.sdn.controller.OFModel;
+import etri.sdn.controller.TaskScheduler;
 import etri.sdn.controller.module.staticentrymanager.StaticFlowEntry;
 import etri.sdn.controller.module.staticentrymanager.StaticFlowEntryException;
 import etri.sdn.controller.protocol.OFProtocol;
@@ -343,27 +351,25 @@ public class State extends OFModel {
 						public void handle(Request request, Response response) {
 							
 							String switchIdStr = (String) request.getAttributes().get("switchid");
-							Long switchId = HexString.toLong(switchIdStr);
-							IOFSwitch sw = manager.getController().getSwitch(switchId);
-							if ( sw == null ) {
-								return;		// switch is not completely set up.
+							List<IOFSwitch> switches = new java.util.LinkedList<IOFSwitch>();
+							if ( switchIdStr.equals("all") ) {
+								switches.addAll( manager.getController().getSwitches() );
+							} else {
+								Long switchId = HexString.toLong(switchIdStr);
+								IOFSwitch sw = manager.getController().getSwitch(switchId);
+								if ( sw == null ) {
+									return;		// switch is not completely set up.
+								}
+								switches.add( sw );
 							}
 							
-							OFFactory fac = OFFactories.getFactory(sw.getVersion());
-							
 							HashMap<String, List<OFFlowStatsEntry>> result = 
 								new HashMap<String, List<OFFlowStatsEntry>>();
-							List<OFFlowStatsEntry> resultValues = 
-								new java.util.LinkedList<OFFlowStatsEntry>();
-							result.put(switchIdStr, resultValues);
-												
-							OFFlowStatsRequest.Builder req = fac.buildFlowStatsRequest();
 							
 							String matchListStr = request.getEntityAsText();
-							Match match = null;
+							Map<String, Object> matchListMap = null;
 							if (matchListStr != null) {		// if the request has match fields
 								matchListStr = matchListStr.replaceAll("[\']", "");
-								Map<String, Object> matchListMap;
 								try {
 									MappingJsonFactory f = new MappingJsonFactory();		
 									ObjectMapper m = new ObjectMapper(f);
@@ -374,40 +380,35 @@ public class State extends OFModel {
 									OFMStateManager.logger.error("error={}", StackTrace.of(e));
 									return;
 								}
-
-								List<String> matchList = new ArrayList<String>();
-								matchList.addAll(matchListMap.keySet());
-								
-								try {
-									//TODO: If method calls of utility level (like makeMatch) frequently occur,
-									//      it is better to consider to create an interface.
-									match = StaticFlowEntry.makeMatch(sw, matchList, matchListMap);
-								} catch (StaticFlowEntryException e) {
-									OFMStateManager.logger.error("error={}", StackTrace.of(e));
-								}
-							}
-							
-							if (match != null) {
-								req
-								.setMatch( match )
-								.setOutPort( OFPort.ANY /* NONE for 1.0*/ );
-							} else {
-								req
-								.setMatch( fac.matchWildcardAll() )
-								.setOutPort( OFPort.ANY /* NONE for 1.0*/ );
 							}
-
-							try {
-								req
-								.setOutGroup(OFGroup.ANY)
-								.setTableId(TableId.ALL);
-							} catch ( UnsupportedOperationException u ) {}
+							final Map<String, Object> matchFields = matchListMap;
 
 							try { 
-								List<OFStatsReply> reply = protocol.getSwitchStatistics(sw, req.build());
-								for ( OFStatsReply s : reply ) {
-									if ( s instanceof OFFlowStatsReply ) {
-										resultValues.addAll( ((OFFlowStatsReply)s).getEntries() );
+								// the requests are sent to all the switches at once, 
+								// and the replies are waited concurrently.
+								Map<IOFSwitch, List<OFStatsReply>> replies = protocol.requestSwitchStatistics(
+										switches,
+										new Function<IOFSwitch, OFStatsRequest<?>>() {
+											@Override
+											public OFStatsRequest<?> apply(IOFSwitch sw) {
+												return buildFlowStatsRequest(sw, matchFields);
+											}
+										}).get();
+								
+								for ( IOFSwitch sw : switches ) {
+									List<OFFlowStatsEntry> resultValues = new java.util.LinkedList<OFFlowStatsEntry>();
+									result.put( 
+											switchIdStr.equals("all") ? HexString.toHexString(sw.getId()) : switchIdStr, 
+											resultValues );
+									
+									List<OFStatsReply> reply = replies.get(sw);
+									if ( reply == null ) {
+										continue;
+									}
+									for ( OFStatsReply s : reply ) {
+										if ( s instanceof OFFlowStatsReply ) {
+											resultValues.addAll( ((OFFlowStatsReply)s).getEntries() );
+										}
 									}
 								}
 							} catch ( Exception e ) {
@@ -521,6 +522,148 @@ public class State extends OFModel {
 					}
 				),
 				
+				/**
+				 * This object is to implement a REST handler 
+				 * that exports the occupancy and backpressure counters
+				 * of the lanes between watcher threads and QP threads.
+				 */
+				new RESTApi(
+					"/wm/core/controller/queues/json",
+					new Restlet() {
+						@Override
+						public void handle(Request request, Response response) {
+							StringWriter sWriter = new StringWriter();
+							JsonFactory f = new JsonFactory();
+							JsonGenerator g = null;
+							try {
+								g = f.createJsonGenerator(sWriter);
+								OFController controller = protocol.getController();
+								g.writeStartObject();
+								g.writeStringField("dispatch", controller.getDispatch().name().toLowerCase());
+								g.writeArrayFieldStart("lanes");
+								for ( LaneStatistics l : controller.getLaneStatistics() ) {
+									g.writeStartObject();
+									g.writeNumberField("processor", l.getProcessor());
+									g.writeStringField("watcher", l.getProducer());
+									g.writeNumberField("capacity", l.getCapacity());
+									g.writeNumberField("occupancy", l.getOccupancy());
+									g.writeNumberField("enqueued", l.getEnqueued());
+									g.writeNumberField("backpressures", l.getBackpressures());
+									g.writeNumberField("held", l.getOverflowed());
+									g.writeNumberField("dropped", l.getDropped());
+									g.writeEndObject();
+								}
+								g.writeEndArray();
+								g.writeArrayFieldStart("processors");
+								for ( ProcessorStatistics p : controller.getProcessorStatistics() ) {
+									g.writeStartObject();
+									g.writeNumberField("processor", p.getProcessor());
+									g.writeNumberField("processed", p.getProcessed());
+									g.writeNumberField("stolen", p.getStolen());
+									g.writeNumberField("scheduled", p.getScheduled());
+									g.writeEndObject();
+								}
+								g.writeEndArray();
+								g.writeEndObject();
+								g.close();
+							} catch (IOException e) {
+								OFMStateManager.logger.error("error={}", StackTrace.of(e));
+							}
+
+							String r = sWriter.toString();
+							
+							response.setEntity(r, MediaType.APPLICATION_JSON);
+						}
+					}
+				),
+
+				/**
+				 * This object is to implement a REST handler 
+				 * that exports the utilization of the direct buffer pool 
+				 * shared by the switch connections.
+				 */
+				new RESTApi(
+					"/wm/core/controller/buffers/json",
+					new Restlet() {
+						@Override
+						public void handle(Request request, Response response) {
+							StringWriter sWriter = new StringWriter();
+							JsonFactory f = new JsonFactory();
+							JsonGenerator g = null;
+							try {
+								DirectBufferPool.Statistics s = DirectBufferPool.getDefault().getStatistics();
+								g = f.createJsonGenerator(sWriter);
+								g.writeStartObject();
+								g.writeNumberField("allocated", s.getAllocatedBytes());
+								g.writeNumberField("borrowed", s.getBorrowedBytes());
+								g.writeNumberField("retained", s.getRetainedBytes());
+								g.writeNumberField("retain-limit", s.getRetainLimit());
+								g.writeNumberField("borrows", s.getBorrows());
+								g.writeNumberField("hits", s.getHits());
+								g.writeNumberField("oversized", s.getOversized());
+								g.writeNumberField("discarded", s.getDiscarded());
+								g.writeEndObject();
+								g.close();
+							} catch (IOException e) {
+								OFMStateManager.logger.error("error={}", StackTrace.of(e));
+							}
+
+							String r = sWriter.toString();
+							
+							response.setEntity(r, MediaType.APPLICATION_JSON);
+						}
+					}
+				),
+
+				/**
+				 * This object is to implement a REST handler
+				 * that exports the execution statistics of the scheduled tasks.
+				 * Times are in microseconds.
+				 */
+				new RESTApi(
+					"/wm/core/controller/tasks/json",
+					new Restlet() {
+						@Override
+						public void handle(Request request, Response response) {
+							StringWriter sWriter = new StringWriter();
+							JsonFactory f = new JsonFactory();
+							JsonGenerator g = null;
+							try {
+								TaskScheduler scheduler = TaskScheduler.getDefault();
+								g = f.createJsonGenerator(sWriter);
+								g.writeStartObject();
+								g.writeNumberField("tick-ms", scheduler.getTickMillis());
+								g.writeNumberField("wheel-size", scheduler.getWheelSize());
+								g.writeNumberField("workers", scheduler.getWorkers());
+								g.writeNumberField("scheduled", scheduler.getScheduledCount());
+								g.writeArrayFieldStart("tasks");
+								for ( TaskScheduler.TaskStatistics s : scheduler.getTaskStatistics() ) {
+									g.writeStartObject();
+									g.writeStringField("name", s.getName());
+									g.writeNumberField("active", s.getActive());
+									g.writeNumberField("executions", s.getExecutions());
+									g.writeNumberField("failures", s.getFailures());
+									g.writeNumberField("skipped", s.getSkipped());
+									g.writeNumberField("exec-avg", s.getAverageExecutionTime());
+									g.writeNumberField("exec-max", s.getMaxExecutionTime());
+									g.writeNumberField("late-avg", s.getAverageLateness());
+									g.writeNumberField("late-max", s.getMaxLateness());
+									g.writeEndObject();
+								}
+								g.writeEndArray();
+								g.writeEndObject();
+								g.close();
+							} catch (IOException e) {
+								OFMStateManager.logger.error("error={}", StackTrace.of(e));
+							}
+
+							String r = sWriter.toString();
+							
+							response.setEntity(r, MediaType.APPLICATION_JSON);
+						}
+					}
+				),
+
 				/**
 				 * This object is to implement a REST handler 
 				 * that exports memory status. 
@@ -569,6 +712,51 @@ public class State extends OFModel {
 	private OFFlowStatisticsReplySerializerModule flow_statistics_reply_module 
 		= new OFFlowStatisticsReplySerializerModule();
 	
+	/**
+	 * Build FLOW_STATISTICS_REQUEST message for the switch.
+	 * This is used to handle the REST URI /wm/core/switch/{switchid}/flow/json.
+	 * 
+	 * @param sw			IOFSwitch object
+	 * @param matchListMap	match fields given by the REST request. null if not given.
+	 * @return				OFFlowStatsRequest object
+	 */
+	private OFFlowStatsRequest buildFlowStatsRequest(IOFSwitch sw, Map<String, Object> matchListMap) {
+		OFFactory fac = OFFactories.getFactory(sw.getVersion());
+		OFFlowStatsRequest.Builder req = fac.buildFlowStatsRequest();
+		
+		Match match = null;
+		if ( matchListMap != null ) {
+			List<String> matchList = new ArrayList<String>();
+			matchList.addAll(matchListMap.keySet());
+			
+			try {
+				//TODO: If method calls of utility level (like makeMatch) frequently occur,
+				//      it is better to consider to create an interface.
+				match = StaticFlowEntry.makeMatch(sw, matchList, matchListMap);
+			} catch (StaticFlowEntryException e) {
+				OFMStateManager.logger.error("error={}", StackTrace.of(e));
+			}
+		}
+		
+		if (match != null) {
+			req
+			.setMatch( match )
+			.setOutPort( OFPort.ANY /* NONE for 1.0*/ );
+		} else {
+			req
+			.setMatch( fac.matchWildcardAll() )
+			.setOutPort( OFPort.ANY /* NONE for 1.0*/ );
+		}
+
+		try {
+			req
+			.setOutGroup(OFGroup.ANY)
+			.setTableId(TableId.ALL);
+		} catch ( UnsupportedOperationException u ) {}
+		
+		return req.build();
+	}
+	
 	/**
 	 * Returns the list of all RESTApi objects
 	 * 
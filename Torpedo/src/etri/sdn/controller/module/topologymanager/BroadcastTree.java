@@ -17,56 +17,101 @@
 
 package etri.sdn.controller.module.topologymanager;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.projectfloodlight.openflow.util.HexString;
 
 import etri.sdn.controller.module.linkdiscovery.Link;
+import etri.sdn.controller.module.routing.Route;
 
 /**
  * This class represents a broadcast tree.
- * the class has links and costs.
+ * the class has links and costs, which are kept in arrays
+ * indexed by the node numbers of a {@link ClusterGraph}.
  * 
  */
 public class BroadcastTree {
-    protected HashMap<Long, Link> links;
-    protected HashMap<Long, Integer> costs;
+    protected ClusterGraph graph;
+    protected int[] next;   // link number of the tree link of each node, or -1
+    protected int[] dist;   // cost of each node
 
-    public BroadcastTree() {
-        links = new HashMap<Long, Link>();
-        costs = new HashMap<Long, Integer>();
-    }
+    // route from each node to the root, which is kept when it is built for the first time.
+    private final AtomicReference<AtomicReferenceArray<Route>> routes =
+            new AtomicReference<AtomicReferenceArray<Route>>();
 
-    public BroadcastTree(HashMap<Long, Link> links, HashMap<Long, Integer> costs) {
-        this.links = links;
-        this.costs = costs;
+    BroadcastTree(ClusterGraph graph, int[] next, int[] dist) {
+        this.graph = graph;
+        this.next = next;
+        this.dist = dist;
     }
 
     public Link getTreeLink(long node) {
-        return links.get(node);
+        int i = graph.indexOf(node);
+        if (i < 0 || next[i] < 0) return null;
+        return graph.links[next[i]];
     }
 
     public int getCost(long node) {
-        if (costs.get(node) == null) return -1;
-        return (costs.get(node));
+        int i = graph.indexOf(node);
+        if (i < 0) return -1;
+        return dist[i];
     }
 
+    /**
+     * @return a new map of the tree link of each node, which is null for the root
+     */
     public HashMap<Long, Link> getLinks() {
+        HashMap<Long, Link> links = new HashMap<Long, Link>();
+        for (int i = 0; i < next.length; ++i) {
+            links.put(graph.nodes[i], (next[i] < 0) ? null : graph.links[next[i]]);
+        }
         return links;
     }
 
-    public void addTreeLink(long myNode, Link link) {
-        links.put(myNode, link);
+    /**
+     * @param node node number
+     * @return the route from the node to the root, or null if it is not kept yet
+     */
+    Route getRoute(int node) {
+        AtomicReferenceArray<Route> r = routes.get();
+        return (r == null) ? null : r.get(node);
+    }
+
+    /**
+     * Keep the route from the node to the root, unless another thread has kept one already.
+     *
+     * @param node node number
+     * @param route route from the node
+     * @return the route that is kept
+     */
+    Route putRoute(int node, Route route) {
+        AtomicReferenceArray<Route> r = routes.get();
+        if (r == null) {
+            routes.compareAndSet(null, new AtomicReferenceArray<Route>(next.length));
+            r = routes.get();
+        }
+        if (r.compareAndSet(node, null, route)) return route;
+        return r.get(node);
     }
 
     public String toString() {
         StringBuffer sb = new StringBuffer();
-        for(long n: links.keySet()) {
-            sb.append("[" + HexString.toHexString(n) + ": cost=" + costs.get(n) + ", " + links.get(n) + "]");
+        for (int i = 0; i < next.length; ++i) {
+            sb.append("[" + HexString.toHexString(graph.nodes[i]) + ": cost=" + dist[i] + ", " + 
+                    ((next[i] < 0) ? null : graph.links[next[i]]) + "]");
         }
         return sb.toString();
     }
 
+    /**
+     * @return a new map of the cost of each node
+     */
     public HashMap<Long, Integer> getCosts() {
+        HashMap<Long, Integer> costs = new HashMap<Long, Integer>();
+        for (int i = 0; i < dist.length; ++i) {
+            costs.put(graph.nodes[i], dist[i]);
+        }
         return costs;
     }
 }
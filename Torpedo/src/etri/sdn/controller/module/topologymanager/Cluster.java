@@ -18,6 +18,7 @@ import etri.sdn.controller.module.linkdiscovery.Link;
 public class Cluster {
     protected long id; // the lowest id of the nodes
     protected Map<Long, Set<Link>> links; // set of links connected to a node.
+    protected ClusterGraph graph; // links in arrays, built after all links are added.
 
     public Cluster() {
         id = Long.MAX_VALUE;
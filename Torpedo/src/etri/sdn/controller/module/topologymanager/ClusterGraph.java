@@ -0,0 +1,123 @@
+package etri.sdn.controller.module.topologymanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import etri.sdn.controller.module.linkdiscovery.Link;
+
+/**
+ * Compressed sparse row (CSR) form of the links of a cluster,
+ * which is built once for a topology instance and never modified.
+ *
+ * The switches of the cluster are numbered from 0 in the order of their ids,
+ * and the links are numbered from 0 as well. The links that leave (or enter)
+ * the node i are outLinks[outStart[i]] .. outLinks[outStart[i+1] - 1]
+ * (or inLinks[inStart[i]] .. inLinks[inStart[i+1] - 1]).
+ *
+ * Two graphs of clusters with the same switches have the same node numbers,
+ * but not the same link numbers.
+ */
+final class ClusterGraph {
+
+	/** switch id of each node, in ascending order */
+	final long[] nodes;
+
+	/** link, source node, destination node and cost of each link */
+	final Link[] links;
+	final int[] src;
+	final int[] dst;
+	final int[] cost;
+
+	final int[] outStart;
+	final int[] outLinks;
+	final int[] inStart;
+	final int[] inLinks;
+
+	/**
+	 * @param c			cluster
+	 * @param linkCost	cost of the links. a link that is not in the map costs 1.
+	 */
+	ClusterGraph(Cluster c, Map<Link, Integer> linkCost) {
+		int n = c.links.size();
+		nodes = new long[n];
+		int i = 0;
+		for ( Long node : c.links.keySet() ) {
+			nodes[i++] = node;
+		}
+		Arrays.sort(nodes);
+
+		// each link is in the sets of both its source and destination.
+		List<Link> all = new ArrayList<Link>();
+		for ( long node : nodes ) {
+			for ( Link l : c.links.get(node) ) {
+				if ( l.getSrc() == node ) {
+					all.add(l);
+				}
+			}
+		}
+
+		int m = all.size();
+		links = all.toArray(new Link[m]);
+		src = new int[m];
+		dst = new int[m];
+		cost = new int[m];
+		outStart = new int[n + 1];
+		inStart = new int[n + 1];
+		for ( int e = 0; e < m; ++e ) {
+			src[e] = indexOf(links[e].getSrc());
+			dst[e] = indexOf(links[e].getDst());
+			Integer w = (linkCost == null) ? null : linkCost.get(links[e]);
+			cost[e] = (w == null) ? 1 : w;
+			outStart[src[e] + 1]++;
+			inStart[dst[e] + 1]++;
+		}
+		for ( i = 0; i < n; ++i ) {
+			outStart[i + 1] += outStart[i];
+			inStart[i + 1] += inStart[i];
+		}
+
+		outLinks = new int[m];
+		inLinks = new int[m];
+		int[] outFill = Arrays.copyOf(outStart, n);
+		int[] inFill = Arrays.copyOf(inStart, n);
+		for ( int e = 0; e < m; ++e ) {
+			outLinks[outFill[src[e]]++] = e;
+			inLinks[inFill[dst[e]]++] = e;
+		}
+	}
+
+	/**
+	 * @return	the number of nodes
+	 */
+	int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * @param node	switch id
+	 * @return		node number of the switch, or -1 if it is not in the cluster
+	 */
+	int indexOf(long node) {
+		int i = Arrays.binarySearch(nodes, node);
+		return (i < 0) ? -1 : i;
+	}
+
+	/**
+	 * @param l		link
+	 * @return		link number of the link, or -1 if it is not in the cluster
+	 */
+	int indexOf(Link l) {
+		int s = indexOf(l.getSrc());
+		if ( s < 0 ) {
+			return -1;
+		}
+		for ( int k = outStart[s]; k < outStart[s + 1]; ++k ) {
+			if ( links[outLinks[k]].equals(l) ) {
+				return outLinks[k];
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,205 @@
+package etri.sdn.controller.module.topologymanager;
+
+import java.util.List;
+
+import etri.sdn.controller.module.linkdiscovery.Link;
+
+/**
+ * Incremental maintenance of a destination-rooted shortest path tree,
+ * in the way of Ramalingam and Reps.
+ *
+ * Given the tree of the previous topology and the links that are removed from
+ * or added to the cluster, only the part of the tree that the changes affect is computed again:
+ *
+ * <ul>
+ * <li> A removed link (or a link of which the cost has increased) matters only if it is
+ * the next hop of its source node. Then, the nodes whose path goes through the link
+ * (the subtree of the source node) are reset, and their distances are computed again
+ * from the nodes around the subtree.
+ * <li> An added link (or a link of which the cost has decreased) matters only if it makes
+ * the path of its source node shorter. Then, the decrease is propagated to the nodes
+ * that reach the source node.
+ * </ul>
+ *
+ * If the subtrees of the removed links are larger than the half of the cluster,
+ * the repair gives up and the caller should run {@link TopologyInstance#dijkstra} instead.
+ *
+ * The old and the new trees are built on the {@link ClusterGraph}s of clusters with
+ * the same switches, so the node numbers are the same but the link numbers are not.
+ */
+final class DynamicShortestPaths {
+
+	private DynamicShortestPaths() {
+		// static methods only
+	}
+
+	/**
+	 * Repair a destination-rooted tree of the previous topology for the new topology.
+	 * The cluster should have the same nodes as the cluster of the old tree.
+	 *
+	 * @param g			graph of the cluster of the new topology
+	 * @param old		tree of the previous topology, which is not modified
+	 * @param removed	links that are removed, or of which the cost has increased
+	 * @param added		links that are added, or of which the cost has decreased
+	 * @return			repaired tree (the old tree if the changes do not affect it),
+	 * 					or null if the whole tree should be computed again
+	 */
+	static BroadcastTree repair(ClusterGraph g, BroadcastTree old, List<Link> removed, List<Link> added) {
+		if ( !isAffected(g, old, removed, added) ) {
+			return old;
+		}
+
+		final int n = g.size();
+		final int max = TopologyInstance.MAX_PATH_WEIGHT;
+		int[] dist = old.dist.clone();
+		int[] next = new int[n];
+		for ( int x = 0; x < n; ++x ) {
+			int e = old.next[x];
+			// a removed link becomes -1.
+			next[x] = (e < 0 || old.graph == g) ? e : g.indexOf(old.graph.links[e]);
+		}
+
+		// reset the nodes of which the path goes through a removed link.
+		boolean[] affected = new boolean[n];
+		int[] queue = new int[n];
+		int count = 0;
+		int[] children = null;
+		int[] childStart = null;
+		for ( Link e : removed ) {
+			int u = g.indexOf(e.getSrc());
+			if ( u < 0 || affected[u] || !isTreeLink(old, u, e) ) {
+				continue;
+			}
+			if ( children == null ) {
+				childStart = new int[n + 1];
+				children = getChildren(g, next, childStart);
+			}
+			int head = count;
+			affected[u] = true;
+			queue[count++] = u;
+			while ( head < count ) {
+				int x = queue[head++];
+				for ( int k = childStart[x]; k < childStart[x + 1]; ++k ) {
+					int z = children[k];
+					if ( !affected[z] ) {
+						affected[z] = true;
+						queue[count++] = z;
+					}
+				}
+			}
+			if ( count > n / 2 ) {
+				return null;
+			}
+		}
+
+		IndexedHeap q = new IndexedHeap(n);
+		for ( int i = 0; i < count; ++i ) {
+			int x = queue[i];
+			dist[x] = max;
+			next[x] = -1;
+		}
+		// the best link from each affected node to the rest of the tree.
+		for ( int i = 0; i < count; ++i ) {
+			int x = queue[i];
+			for ( int k = g.outStart[x]; k < g.outStart[x + 1]; ++k ) {
+				int e = g.outLinks[k];
+				int y = g.dst[e];
+				if ( affected[y] || dist[y] >= max ) continue;
+				int nd = dist[y] + g.cost[e];
+				if ( nd < dist[x] ) {
+					dist[x] = nd;
+					next[x] = e;
+				}
+			}
+			if ( dist[x] < max ) {
+				q.update(x, dist[x]);
+			}
+		}
+
+		for ( Link l : added ) {
+			int e = g.indexOf(l);
+			if ( e < 0 ) continue;
+			int u = g.src[e];
+			int v = g.dst[e];
+			if ( dist[v] >= max ) continue;
+			int nd = dist[v] + g.cost[e];
+			if ( nd < dist[u] ) {
+				dist[u] = nd;
+				next[u] = e;
+				q.update(u, nd);
+			}
+		}
+
+		// propagate the decreased distances to the nodes that reach them.
+		while ( !q.isEmpty() ) {
+			int x = q.poll();
+			for ( int k = g.inStart[x]; k < g.inStart[x + 1]; ++k ) {
+				int e = g.inLinks[k];
+				int z = g.src[e];
+				int nd = dist[x] + g.cost[e];
+				if ( nd < dist[z] ) {
+					dist[z] = nd;
+					next[z] = e;
+					q.update(z, nd);
+				}
+			}
+		}
+
+		return new BroadcastTree(g, next, dist);
+	}
+
+	/**
+	 * @return	true if a removed link is in the tree, or an added link makes a path shorter.
+	 */
+	private static boolean isAffected(ClusterGraph g, BroadcastTree old, List<Link> removed, List<Link> added) {
+		for ( Link e : removed ) {
+			int u = g.indexOf(e.getSrc());
+			if ( u >= 0 && isTreeLink(old, u, e) ) {
+				return true;
+			}
+		}
+		for ( Link l : added ) {
+			int e = g.indexOf(l);
+			if ( e < 0 ) continue;
+			int dv = old.dist[g.dst[e]];
+			if ( dv < TopologyInstance.MAX_PATH_WEIGHT && dv + g.cost[e] < old.dist[g.src[e]] ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isTreeLink(BroadcastTree old, int u, Link e) {
+		int t = old.next[u];
+		return t >= 0 && old.graph.links[t].equals(e);
+	}
+
+	/**
+	 * @param g				graph
+	 * @param next			tree link of each node, or -1
+	 * @param childStart	array of (nodes + 1) elements, to which the start of the children
+	 * 						of each node is written
+	 * @return				children of the nodes: the children of the node x are
+	 * 						ret[childStart[x]] .. ret[childStart[x+1] - 1]
+	 */
+	private static int[] getChildren(ClusterGraph g, int[] next, int[] childStart) {
+		int n = next.length;
+		for ( int x = 0; x < n; ++x ) {
+			if ( next[x] >= 0 ) {
+				childStart[g.dst[next[x]] + 1]++;
+			}
+		}
+		for ( int x = 0; x < n; ++x ) {
+			childStart[x + 1] += childStart[x];
+		}
+		int[] fill = new int[n];
+		System.arraycopy(childStart, 0, fill, 0, n);
+		int[] children = new int[childStart[n]];
+		for ( int x = 0; x < n; ++x ) {
+			if ( next[x] >= 0 ) {
+				children[fill[g.dst[next[x]]]++] = x;
+			}
+		}
+		return children;
+	}
+}
@@ -0,0 +1,96 @@
+package etri.sdn.controller.module.topologymanager;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of the nodes 0 .. capacity-1 with int keys,
+ * of which the key of a node in the heap can be decreased.
+ * Nodes with the same key are polled in the order of their numbers.
+ */
+final class IndexedHeap {
+
+	private final int[] heap;	// node at each position
+	private final int[] pos;	// position of each node, or -1 if it is not in the heap
+	private final int[] key;	// key of each node
+	private int size;
+
+	IndexedHeap(int capacity) {
+		heap = new int[capacity];
+		pos = new int[capacity];
+		key = new int[capacity];
+		Arrays.fill(pos, -1);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Insert a node, or decrease the key of the node if it is in the heap already.
+	 *
+	 * @param node	node
+	 * @param k		new key, which should not be larger than the current key of the node
+	 */
+	void update(int node, int k) {
+		key[node] = k;
+		int i = pos[node];
+		if ( i < 0 ) {
+			i = size++;
+			heap[i] = node;
+			pos[node] = i;
+		}
+		siftUp(i);
+	}
+
+	/**
+	 * @return	the node with the smallest key, which is removed from the heap
+	 */
+	int poll() {
+		int top = heap[0];
+		pos[top] = -1;
+		if ( --size > 0 ) {
+			heap[0] = heap[size];
+			pos[heap[0]] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	private boolean less(int a, int b) {
+		return key[a] < key[b] || (key[a] == key[b] && a < b);
+	}
+
+	private void siftUp(int i) {
+		int node = heap[i];
+		while ( i > 0 ) {
+			int parent = (i - 1) >>> 1;
+			if ( !less(node, heap[parent]) ) {
+				break;
+			}
+			heap[i] = heap[parent];
+			pos[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = node;
+		pos[node] = i;
+	}
+
+	private void siftDown(int i) {
+		int node = heap[i];
+		int half = size >>> 1;
+		while ( i < half ) {
+			int child = 2 * i + 1;
+			if ( child + 1 < size && less(heap[child + 1], heap[child]) ) {
+				++child;
+			}
+			if ( !less(heap[child], node) ) {
+				break;
+			}
+			heap[i] = heap[child];
+			pos[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = node;
+		pos[node] = i;
+	}
+}
@@ -0,0 +1,185 @@
+package etri.sdn.controller.module.topologymanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * The k shortest loopless paths between two nodes of a {@link ClusterGraph},
+ * by the algorithm of Yen.
+ *
+ * The i-th path is found among the deviations from the (i-1)-th path:
+ * for each node of the (i-1)-th path, the shortest path from the node that
+ * does not use the links that the paths found so far use after the same prefix,
+ * and does not go through the nodes of the prefix.
+ */
+final class KShortestPaths {
+
+	private KShortestPaths() {
+		// static methods only
+	}
+
+	/**
+	 * A path as the link numbers from the source, which is ordered by its cost,
+	 * and then by its length and links.
+	 */
+	private static class Path implements Comparable<Path> {
+		final int[] links;
+		final int cost;
+
+		Path(ClusterGraph g, int[] links) {
+			this.links = links;
+			int c = 0;
+			for ( int e : links ) {
+				c += g.cost[e];
+			}
+			this.cost = c;
+		}
+
+		@Override
+		public int compareTo(Path o) {
+			if ( cost != o.cost ) {
+				return (cost < o.cost) ? -1 : 1;
+			}
+			if ( links.length != o.links.length ) {
+				return (links.length < o.links.length) ? -1 : 1;
+			}
+			for ( int i = 0; i < links.length; ++i ) {
+				if ( links[i] != o.links[i] ) {
+					return (links[i] < o.links[i]) ? -1 : 1;
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof Path) && Arrays.equals(links, ((Path) o).links);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(links);
+		}
+	}
+
+	/**
+	 * @param g		graph
+	 * @param src	source node number
+	 * @param dst	destination node number
+	 * @param k		the largest number of paths
+	 * @return		at most k paths from src to dst as the link numbers, from the shortest one
+	 */
+	static List<int[]> find(ClusterGraph g, int src, int dst, int k) {
+		List<int[]> found = new ArrayList<int[]>();
+		if ( src == dst || k <= 0 ) {
+			return found;
+		}
+		int[] first = shortest(g, src, dst, new boolean[g.size()], new boolean[g.links.length]);
+		if ( first == null ) {
+			return found;
+		}
+
+		Set<Path> seen = new HashSet<Path>();
+		PriorityQueue<Path> candidates = new PriorityQueue<Path>();
+		found.add(first);
+		seen.add(new Path(g, first));
+
+		while ( found.size() < k ) {
+			int[] prev = found.get(found.size() - 1);
+			for ( int i = 0; i < prev.length; ++i ) {
+				int spur = g.src[prev[i]];
+
+				// do not take the next links of the found paths with the same prefix,
+				// and do not go back to the prefix.
+				boolean[] bannedLinks = new boolean[g.links.length];
+				for ( int[] p : found ) {
+					if ( p.length > i && isSamePrefix(p, prev, i) ) {
+						bannedLinks[p[i]] = true;
+					}
+				}
+				boolean[] bannedNodes = new boolean[g.size()];
+				for ( int j = 0; j < i; ++j ) {
+					bannedNodes[g.src[prev[j]]] = true;
+				}
+
+				int[] spurPath = shortest(g, spur, dst, bannedNodes, bannedLinks);
+				if ( spurPath == null ) {
+					continue;
+				}
+				int[] links = new int[i + spurPath.length];
+				System.arraycopy(prev, 0, links, 0, i);
+				System.arraycopy(spurPath, 0, links, i, spurPath.length);
+				Path candidate = new Path(g, links);
+				if ( seen.add(candidate) ) {
+					candidates.add(candidate);
+				}
+			}
+
+			Path best = candidates.poll();
+			if ( best == null ) {
+				break;
+			}
+			found.add(best.links);
+		}
+		return found;
+	}
+
+	private static boolean isSamePrefix(int[] a, int[] b, int length) {
+		for ( int i = 0; i < length; ++i ) {
+			if ( a[i] != b[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return	the shortest path from src to dst that avoids the banned nodes and links,
+	 * 			as the link numbers, or null if there is no such path
+	 */
+	private static int[] shortest(ClusterGraph g, int src, int dst, boolean[] bannedNodes, boolean[] bannedLinks) {
+		int n = g.size();
+		int[] dist = new int[n];
+		int[] prev = new int[n];
+		Arrays.fill(dist, TopologyInstance.MAX_PATH_WEIGHT);
+		Arrays.fill(prev, -1);
+
+		IndexedHeap q = new IndexedHeap(n);
+		dist[src] = 0;
+		q.update(src, 0);
+		while ( !q.isEmpty() ) {
+			int x = q.poll();
+			if ( x == dst ) {
+				break;
+			}
+			for ( int k = g.outStart[x]; k < g.outStart[x + 1]; ++k ) {
+				int e = g.outLinks[k];
+				int y = g.dst[e];
+				if ( bannedLinks[e] || bannedNodes[y] ) continue;
+				int nd = dist[x] + g.cost[e];
+				if ( nd < dist[y] ) {
+					dist[y] = nd;
+					prev[y] = e;
+					q.update(y, nd);
+				}
+			}
+		}
+		if ( prev[dst] < 0 ) {
+			return null;
+		}
+
+		int length = 0;
+		for ( int x = dst; x != src; x = g.src[prev[x]] ) {
+			++length;
+		}
+		int[] links = new int[length];
+		for ( int x = dst; x != src; x = g.src[prev[x]] ) {
+			links[--length] = prev[x];
+		}
+		return links;
+	}
+}
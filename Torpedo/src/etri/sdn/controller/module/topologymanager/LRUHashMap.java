@@ -1,42 +0,0 @@
-/**
-*    Copyright 2011, Big Switch Networks, Inc. 
-*    Originally created by David Erickson, Stanford University
-* 
-*    Licensed under the Apache License, Version 2.0 (the "License"); you may
-*    not use this file except in compliance with the License. You may obtain
-*    a copy of the License at
-*
-*         http://www.apache.org/licenses/LICENSE-2.0
-*
-*    Unless required by applicable law or agreed to in writing, software
-*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
-*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
-*    License for the specific language governing permissions and limitations
-*    under the License.
-**/
-
-package etri.sdn.controller.module.topologymanager;
-
-import java.util.LinkedHashMap;
-import java.util.Map;
-
-/**
- * This class represents a LRU (Least Recently Used) HashMap.
- *  
- */
-public class LRUHashMap<K, V> extends LinkedHashMap<K, V> {
-    
-    private static final long serialVersionUID = 1L;
-    
-    private final int capacity;
-    public LRUHashMap(int capacity)
-    {
-        super(capacity+1, 0.75f, true);
-        this.capacity = capacity;
-    }
-    
-    protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
-       return size() > capacity;
-    }
-
-}
@@ -2,6 +2,7 @@ package etri.sdn.controller.module.topologymanager;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -10,6 +11,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.projectfloodlight.openflow.protocol.OFFactories;
@@ -33,6 +35,7 @@ import etri.sdn.controller.MessageContext;
 import etri.sdn.controller.OFMFilter;
 import etri.sdn.controller.OFModel;
 import etri.sdn.controller.OFModule;
+import etri.sdn.controller.TorpedoProperties;
 import etri.sdn.controller.module.linkdiscovery.ILinkDiscovery.LinkType;
 import etri.sdn.controller.module.linkdiscovery.ILinkDiscoveryListener;
 import etri.sdn.controller.module.linkdiscovery.ILinkDiscoveryService;
@@ -84,12 +87,14 @@ public class OFMTopologyManager extends OFModule implements ITopologyService, IL
 	 */
 	protected Map<NodePortTuple, Set<Link>> tunnelLinks;  
 
-	// These must be accessed using getCurrentInstance(), not directly
-	protected TopologyInstance currentInstance;
-	protected TopologyInstance currentInstanceWithoutTunnels;
+	// These must be accessed using getCurrentInstance(), not directly.
+	// An instance is not modified after it is computed, and the forwarding threads
+	// read the instances while a new instance is computed. So they are volatile.
+	protected volatile TopologyInstance currentInstance;
+	protected volatile TopologyInstance currentInstanceWithoutTunnels;
 
-	protected TopologyInstance oldInstance;
-	protected TopologyInstance oldInstanceWithoutTunnels;
+	protected volatile TopologyInstance oldInstance;
+	protected volatile TopologyInstance oldInstanceWithoutTunnels;
 
 	/**
 	 * Flag that indicates if links (direct/tunnel/multihop links) were
@@ -117,6 +122,32 @@ public class OFMTopologyManager extends OFModule implements ITopologyService, IL
 
 	private OFProtocol protocol;
 
+	/**
+	 * pool that computes the topology instances in parallel, which is shared by 
+	 * the topology managers of all controllers. null if the instances are computed sequentially.
+	 */
+	private static ForkJoinPool computePool;
+	private static boolean computePoolCreated;
+	private int parallelThreshold;
+
+	/**
+	 * how getRoutes() finds the routes of a switch pair
+	 */
+	public static enum MultipathMode {
+		NONE,		// the route of getRoute() only
+		ECMP,		// the shortest routes of the same cost
+		KSHORTEST	// the k shortest loopless routes
+	}
+
+	private MultipathMode multipathMode = MultipathMode.ECMP;
+	private int maxRoutes = 4;
+
+	/**
+	 * batches the link discovery updates into the topology computations.
+	 * created by initialize().
+	 */
+	private UpdateCoalescer coalescer;
+
 	public OFMTopologyManager() {
 		this.switchPorts = new HashMap<Long,Set<OFPort>>();
 		this.switchPortLinks = new HashMap<NodePortTuple, Set<Link>>();
@@ -144,10 +175,23 @@ public class OFMTopologyManager extends OFModule implements ITopologyService, IL
 		topologyModel = new Topology(this);
 
 		linkDiscovery = (ILinkDiscoveryService) getModule(ILinkDiscoveryService.class);
-		linkDiscovery.addListener(this);
 
 		protocol = (OFProtocol) getController().getProtocol();
 
+		TorpedoProperties conf = TorpedoProperties.loadConfiguration();
+		parallelThreshold = conf.getInt("topology-parallel-threshold");
+		createComputePool(conf.getInt("topology-parallelism"));
+		try {
+			multipathMode = MultipathMode.valueOf(conf.getString("multipath").trim().toUpperCase());
+		} catch ( IllegalArgumentException e ) {
+			logger.error("unknown multipath mode {}. ECMP is used.", conf.getString("multipath"));
+		}
+		maxRoutes = Math.max(1, conf.getInt("multipath-max-routes"));
+		createCoalescer(conf.getInt("topology-batch-min-ms"), conf.getInt("topology-batch-max-ms"));
+
+		// the updates need the coalescer.
+		linkDiscovery.addListener(this);
+
 		// I will receive all PACKET_IN messages.
 		registerFilter(
 				OFType.PACKET_IN, 
@@ -160,6 +204,67 @@ public class OFMTopologyManager extends OFModule implements ITopologyService, IL
 				);
 	}
 
+	/**
+	 * Create the pool to compute the topology instances, if it is not created yet.
+	 *
+	 * @param parallelism	the number of threads of the pool. 0 for the number of processors,
+	 * 						and 1 to compute the instances sequentially without the pool.
+	 */
+	private static synchronized void createComputePool(int parallelism) {
+		if (computePoolCreated) return;
+		computePoolCreated = true;
+
+		if (parallelism <= 0) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		}
+		if (parallelism > 1) {
+			computePool = new ForkJoinPool(parallelism);
+		}
+	}
+
+	/**
+	 * Create the coalescer that computes the topology from the updates in ldUpdates.
+	 *
+	 * @param minWindow	milliseconds without updates after which the updates are computed
+	 * @param maxWindow	the longest milliseconds that an update waits for a computation
+	 */
+	private void createCoalescer(int minWindow, int maxWindow) {
+		if (minWindow < 0 || maxWindow < minWindow) {
+			logger.error("invalid topology batch windows {}, {}. 50 and 1000 are used.", minWindow, maxWindow);
+			minWindow = 50;
+			maxWindow = 1000;
+		}
+		coalescer = new UpdateCoalescer(minWindow, maxWindow) {
+			@Override
+			protected int compute() {
+				// the updates of the follow-up may have been taken by the previous computation.
+				if (ldUpdates.isEmpty()) {
+					return 0;
+				}
+				updateTopology();
+				return appliedUpdates.size();
+			}
+
+			@Override
+			protected void schedule(long delay) {
+				controller.scheduleTask(new IOFTask() {
+					@Override
+					public boolean execute() {
+						coalescer.fire();
+						return false;
+					}
+				}, delay);
+			}
+		};
+	}
+
+	/**
+	 * @return	statistics of the topology computations that the link discovery updates trigger
+	 */
+	public UpdateCoalescer.Statistics getUpdateStatistics() {
+		return coalescer.getStatistics();
+	}
+
 	public boolean updateTopology() {
 		boolean newInstanceFlag;
 		linksUpdated = false;
@@ -378,14 +483,7 @@ public class OFMTopologyManager extends OFModule implements ITopologyService, IL
 	private boolean processPacketInMessage(IOFSwitch sw, OFPacketIn pi, MessageContext context, List<OFMessage> outgoing) {
 
 		// get the packet-in switch.
-		Ethernet eth = (Ethernet) context.get(MessageContext.ETHER_PAYLOAD);
-
-		if ( eth == null ) {
-			// parse Ethernet header and put into the context
-			eth = new Ethernet();
-			eth.deserialize(pi.getData(), 0, pi.getData().length);
-			context.put(MessageContext.ETHER_PAYLOAD, eth);
-		}
+		Ethernet eth = context.getEthernet(pi);
 
 		if (eth.getEtherType() == Ethernet.TYPE_BSN) {
 			BSN bsn = (BSN) eth.getPayload();
@@ -616,12 +714,20 @@ public class OFMTopologyManager extends OFModule implements ITopologyService, IL
 				openflowLinks.remove(npt);
 		}
 
+		// the first instance is created before the link discovery service is known.
+		Map<Link, Long> latencies = (linkDiscovery == null) ?
+				new HashMap<Link, Long>() : linkDiscovery.getLinkLatencies();
+
 		TopologyInstance nt = new TopologyInstance(switchPorts, 
 				blockedPorts,
 				openflowLinks, 
 				portBroadcastDomainLinks.keySet(), 
-				tunnelLinks.keySet());
-		nt.compute();
+				tunnelLinks.keySet(),
+				latencies);
+		nt.setComputePool(computePool, parallelThreshold);
+		nt.compute(currentInstance);
+		logger.debug("topology computed: {} trees computed, {} trees repaired",
+				nt.getComputedTrees(), nt.getRepairedTrees());
 
 		// update old topology instance
 		oldInstance = currentInstance;
@@ -649,26 +755,12 @@ public class OFMTopologyManager extends OFModule implements ITopologyService, IL
 
 	@Override
 	public void linkDiscoveryUpdate(LDUpdate update) {		
-		boolean scheduleFlag = false;
-		// if there's no udpates in the queue, then
-		// we need to schedule an update.
-		if (ldUpdates.peek() == null)
-			scheduleFlag = true;
-
 		ldUpdates.add(update);
 		logger.debug("link discovery update received={}", update);
 
-		if (scheduleFlag) {
-			this.controller.scheduleTask( new IOFTask() {
-
-				@Override
-				public boolean execute() {
-					updateTopology();
-					return false;
-				}
-
-			}, 300 /* millisecond */);
-		}
+		// the coalescer schedules a computation for the update,
+		// or merges it into the one that is scheduled or running.
+		coalescer.updateReceived();
 	}
 
 	@Override
@@ -961,6 +1053,66 @@ public class OFMTopologyManager extends OFModule implements ITopologyService, IL
 		return ti.getRoute(src, srcPort, dst, dstPort);
 	}
 
+	@Override
+	public List<Route> getRoutes(long src, long dst) {
+		return getRoutes(getCurrentInstance(), src, dst);
+	}
+
+	@Override
+	public List<Route> getRoutes(long srcId, OFPort srcPort, long dstId, OFPort dstPort) {
+		TopologyInstance ti = getCurrentInstance();
+		if (srcId == dstId) {
+			Route r = ti.getRoute(srcId, srcPort, dstId, dstPort);
+			return (r == null) ? Collections.<Route>emptyList() : Collections.singletonList(r);
+		}
+
+		List<Route> routes = getRoutes(ti, srcId, dstId);
+		List<Route> ret = new ArrayList<Route>(routes.size());
+		for (Route r : routes) {
+			ret.add(ti.addPorts(r, srcId, srcPort, dstId, dstPort));
+		}
+		return ret;
+	}
+
+	@Override
+	public List<Route> getEqualCostRoutes(long src, long dst, int maxRoutes) {
+		return getCurrentInstance().getEqualCostRoutes(src, dst, maxRoutes);
+	}
+
+	@Override
+	public List<Route> getKShortestRoutes(long src, long dst, int k) {
+		return getCurrentInstance().getKShortestRoutes(src, dst, k);
+	}
+
+	@Override
+	public List<Route> getOldRoutes(long src, long dst) {
+		TopologyInstance ti = getOldInstance(true);
+		if ( ti == null ) {
+			return Collections.emptyList();
+		}
+		return getRoutes(ti, src, dst);
+	}
+
+	private List<Route> getRoutes(TopologyInstance ti, long src, long dst) {
+		switch (multipathMode) {
+		case ECMP:
+			return ti.getEqualCostRoutes(src, dst, maxRoutes);
+		case KSHORTEST:
+			return ti.getKShortestRoutes(src, dst, maxRoutes);
+		default:
+			Route r = ti.getRoute(src, dst);
+			return (r == null) ? Collections.<Route>emptyList() : Collections.singletonList(r);
+		}
+	}
+
+	public MultipathMode getMultipathMode() {
+		return multipathMode;
+	}
+
+	public int getMaxRoutes() {
+		return maxRoutes;
+	}
+
 	@Override
 	public boolean routeExists(long src, long dst) {
 		return routeExists(src, dst, true);
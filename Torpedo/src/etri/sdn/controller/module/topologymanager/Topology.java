@@ -2,8 +2,11 @@ package etri.sdn.controller.module.topologymanager;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -19,10 +22,13 @@ import org.restlet.Response;
 import org.restlet.Restlet;
 import org.restlet.data.MediaType;
 import org.restlet.data.Method;
+import org.restlet.data.Status;
 import org.restlet.representation.Representation;
 import org.restlet.resource.ClientResource;
 
 import etri.sdn.controller.OFModel;
+import etri.sdn.controller.module.linkdiscovery.NodePortTuple;
+import etri.sdn.controller.module.routing.Route;
 import etri.sdn.controller.util.StackTrace;
 
 /**
@@ -183,6 +189,82 @@ public class Topology extends OFModel {
 					response.setEntity(r, MediaType.APPLICATION_JSON);
 				}
 			}
+		),
+
+		new RESTApi(
+			/*
+			 * the equal-cost routes and the k shortest routes of a switch pair.
+			 * the switches are given as 00:00:00:00:00:00:00:01 or as decimal numbers.
+			 */
+			"/wm/topology/paths/{src-dpid}/{dst-dpid}/json",
+			new Restlet() {
+				private long parseDpid(String dpid) {
+					return dpid.contains(":") ? HexString.toLong(dpid) : Long.parseLong(dpid);
+				}
+
+				private List<List<Map<String, Object>>> toList(List<Route> routes) {
+					List<List<Map<String, Object>>> ret = new ArrayList<List<Map<String, Object>>>();
+					for ( Route r : routes ) {
+						List<Map<String, Object>> path = new ArrayList<Map<String, Object>>();
+						for ( NodePortTuple npt : r.getPath() ) {
+							Map<String, Object> hop = new LinkedHashMap<String, Object>();
+							hop.put("switch", HexString.toHexString(npt.getNodeId()));
+							hop.put("port", npt.getPortId().getPortNumber());
+							path.add(hop);
+						}
+						ret.add(path);
+					}
+					return ret;
+				}
+
+				@Override
+				public void handle(Request request, Response response) {
+					long src, dst;
+					try {
+						src = parseDpid((String) request.getAttributes().get("src-dpid"));
+						dst = parseDpid((String) request.getAttributes().get("dst-dpid"));
+					} catch ( NumberFormatException e ) {
+						response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+						return;
+					}
+
+					TopologyInstance ti = manager.getCurrentInstance();
+					int max = manager.getMaxRoutes();
+
+					Map<String, Object> ret = new LinkedHashMap<String, Object>();
+					ret.put("src-switch", HexString.toHexString(src));
+					ret.put("dst-switch", HexString.toHexString(dst));
+					ret.put("cost", ti.getCost(src, dst));
+					ret.put("mode", manager.getMultipathMode().toString().toLowerCase());
+					ret.put("ecmp", toList(ti.getEqualCostRoutes(src, dst, max)));
+					ret.put("k-shortest", toList(ti.getKShortestRoutes(src, dst, max)));
+
+					try {
+						String r = new ObjectMapper().writeValueAsString(ret);
+						response.setEntity(r, MediaType.APPLICATION_JSON);
+					} catch ( Exception e ) {
+						OFMTopologyManager.logger.error("error={}", StackTrace.of(e));
+					}
+				}
+			}
+		),
+
+		new RESTApi(
+			/*
+			 * the number of topology computations, and their batch sizes and durations.
+			 */
+			"/wm/topology/metrics/json",
+			new Restlet() {
+				@Override
+				public void handle(Request request, Response response) {
+					try {
+						String r = new ObjectMapper().writeValueAsString(manager.getUpdateStatistics());
+						response.setEntity(r, MediaType.APPLICATION_JSON);
+					} catch ( Exception e ) {
+						OFMTopologyManager.logger.error("error={}", StackTrace.of(e));
+					}
+				}
+			}
 		)
 	};
 
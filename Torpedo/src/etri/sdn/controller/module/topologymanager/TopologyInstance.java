@@ -1,14 +1,18 @@
 package etri.sdn.controller.module.topologymanager;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.projectfloodlight.openflow.types.OFPort;
 import org.slf4j.Logger;
@@ -36,7 +40,11 @@ public class TopologyInstance {
 
 	public static final int MAX_LINK_WEIGHT = 10000;
 	public static final int MAX_PATH_WEIGHT = Integer.MAX_VALUE - MAX_LINK_WEIGHT - 1;
-	public static final int PATH_CACHE_SIZE = 1000;
+
+	/**
+	 * A link costs one more than a hop for each this microseconds of its latency.
+	 */
+	public static final int LATENCY_COST_UNIT = 100;
 
 	protected Map<Long, Set<OFPort>> switchPorts; // Set of ports for each switch
 	/** Set of switch ports that are marked as blocked.  A set of blocked
@@ -51,6 +59,8 @@ public class TopologyInstance {
 	protected Set<Long> switches;
 	protected Set<NodePortTuple> broadcastDomainPorts;
 	protected Set<NodePortTuple> tunnelPorts;
+	/** one-way latency of the links in microseconds */
+	protected Map<Link, Long> linkLatencies;
 
 	protected Set<Cluster> clusters;  // set of openflow domains
 	protected Map<Long, Cluster> switchClusterMap; // switch to OF domain map
@@ -59,7 +69,21 @@ public class TopologyInstance {
 	protected Map<Long, BroadcastTree> destinationRootedTrees;
 	protected Map<Long, Set<NodePortTuple>> clusterBroadcastNodePorts;
 	protected Map<Long, BroadcastTree> clusterBroadcastTrees;
-	protected LRUHashMap<RouteId, Route> pathcache;
+	/** number of the destination-rooted trees that are computed, and repaired from the previous instance */
+	protected int computedTrees;
+	protected int repairedTrees;
+
+	/** the equal-cost routes and the k shortest routes of the switch pairs, which are found on demand */
+	protected final ConcurrentMap<RouteId, RouteSet> equalCostRoutes = new ConcurrentHashMap<RouteId, RouteSet>();
+	protected final ConcurrentMap<RouteId, RouteSet> kShortestRoutes = new ConcurrentHashMap<RouteId, RouteSet>();
+
+	/** pool to compute the trees in parallel, or null to compute them sequentially */
+	protected ForkJoinPool computePool;
+	/** the smallest number of switches for which the trees are computed in parallel */
+	protected int parallelThreshold;
+
+	/** the number of jobs that a fork-join task runs without splitting itself */
+	protected static final int PARALLEL_GRAIN = 8;
 
 	public TopologyInstance() {
 		this.switches = new HashSet<Long>();
@@ -69,6 +93,7 @@ public class TopologyInstance {
 		this.tunnelPorts = new HashSet<NodePortTuple>();
 		this.blockedPorts = new HashSet<NodePortTuple>();
 		this.blockedLinks = new HashSet<Link>();
+		this.linkLatencies = new HashMap<Link, Long>();
 	}
 
 	public TopologyInstance(Map<Long, Set<OFPort>> switchPorts,
@@ -82,6 +107,7 @@ public class TopologyInstance {
 		this.tunnelPorts = new HashSet<NodePortTuple>();
 		this.blockedPorts = new HashSet<NodePortTuple>();
 		this.blockedLinks = new HashSet<Link>();
+		this.linkLatencies = new HashMap<Link, Long>();
 
 		clusters = new HashSet<Cluster>();
 		switchClusterMap = new HashMap<Long, Cluster>();
@@ -91,6 +117,16 @@ public class TopologyInstance {
 			Map<NodePortTuple, Set<Link>> switchPortLinks,
 			Set<NodePortTuple> broadcastDomainPorts,
 			Set<NodePortTuple> tunnelPorts){
+		this(switchPorts, blockedPorts, switchPortLinks, broadcastDomainPorts, tunnelPorts,
+				new HashMap<Link, Long>());
+	}
+
+	public TopologyInstance(Map<Long, Set<OFPort>> switchPorts,
+			Set<NodePortTuple> blockedPorts,
+			Map<NodePortTuple, Set<Link>> switchPortLinks,
+			Set<NodePortTuple> broadcastDomainPorts,
+			Set<NodePortTuple> tunnelPorts,
+			Map<Link, Long> linkLatencies){
 
 		// copy these structures
 		this.switches = new HashSet<Long>(switchPorts.keySet());
@@ -107,6 +143,7 @@ public class TopologyInstance {
 		}
 		this.broadcastDomainPorts = new HashSet<NodePortTuple>(broadcastDomainPorts);
 		this.tunnelPorts = new HashSet<NodePortTuple>(tunnelPorts);
+		this.linkLatencies = new HashMap<Link, Long>(linkLatencies);
 
 		blockedLinks = new HashSet<Link>();
 		clusters = new HashSet<Cluster>();
@@ -114,10 +151,77 @@ public class TopologyInstance {
 		destinationRootedTrees = new HashMap<Long, BroadcastTree>();
 		clusterBroadcastTrees = new HashMap<Long, BroadcastTree>();
 		clusterBroadcastNodePorts = new HashMap<Long, Set<NodePortTuple>>();
-		pathcache = new LRUHashMap<RouteId, Route>(PATH_CACHE_SIZE);
 	}
 
 	public void compute() {
+		compute(null);
+	}
+
+	/**
+	 * Make the shortest path trees and the broadcast trees computed in parallel
+	 * by the pool, if the topology has at least the given number of switches.
+	 *
+	 * @param pool		fork-join pool, or null to compute the trees sequentially
+	 * @param threshold	the smallest number of switches to use the pool
+	 */
+	public void setComputePool(ForkJoinPool pool, int threshold) {
+		this.computePool = pool;
+		this.parallelThreshold = threshold;
+	}
+
+	/**
+	 * Run the jobs, in parallel if the pool is set and the topology is large enough.
+	 * The jobs should be independent each other.
+	 *
+	 * @param jobs	jobs to run
+	 */
+	protected void runJobs(List<? extends Runnable> jobs) {
+		if (computePool == null || switches.size() < parallelThreshold || jobs.size() <= PARALLEL_GRAIN) {
+			for (Runnable job: jobs) {
+				job.run();
+			}
+			return;
+		}
+		computePool.invoke(new JobsTask(jobs, 0, jobs.size()));
+	}
+
+	/**
+	 * Fork-join task that runs a range of jobs, splitting the range into halves
+	 * until it becomes smaller than {@link #PARALLEL_GRAIN}.
+	 */
+	@SuppressWarnings("serial")
+	protected static class JobsTask extends RecursiveAction {
+		private final List<? extends Runnable> jobs;
+		private final int from;
+		private final int to;
+
+		JobsTask(List<? extends Runnable> jobs, int from, int to) {
+			this.jobs = jobs;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= PARALLEL_GRAIN) {
+				for (int i = from; i < to; ++i) {
+					jobs.get(i).run();
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new JobsTask(jobs, from, mid), new JobsTask(jobs, mid, to));
+		}
+	}
+
+	/**
+	 * Compute the topology. If the previous instance is given, the shortest path trees
+	 * of the clusters that have not changed their switches are repaired from the trees
+	 * of the previous instance (see {@link DynamicShortestPaths}), rather than computed from scratch.
+	 *
+	 * @param previous	the previous instance, or null
+	 */
+	public void compute(TopologyInstance previous) {
 
 		// Step 1: Compute clusters ignoring broadcast domain links
 		// Create nodes for clusters in the higher level topology
@@ -135,7 +239,7 @@ public class TopologyInstance {
 		// Step 2. Compute shortest path trees in each cluster for 
 		// unicast routing.  The trees are rooted at the destination.
 		// Cost for tunnel links and direct links are the same.
-		calculateShortestPathTreeInClusters();
+		calculateShortestPathTreeInClusters(previous);
 
 		// Step 3. Compute broadcast tree in each cluster.
 		// Cost for tunnel links are high to discourage use of 
@@ -421,89 +525,65 @@ public class TopologyInstance {
 		return broadcastDomainPorts.contains(npt);
 	}
 
-	class NodeDist implements Comparable<NodeDist> {
-		private Long node;
-		public Long getNode() {
-			return node;
-		}
-
-		private int dist; 
-		public int getDist() {
-			return dist;
-		}
-
-		public NodeDist(Long node, int dist) {
-			this.node = node;
-			this.dist = dist;
-		}
-
-		public int compareTo(NodeDist o) {
-			if (o.dist == this.dist) {
-				return (int)(o.node - this.node);
-			}
-			return o.dist - this.dist;
-		}
-	}
-
-	protected BroadcastTree dijkstra(Cluster c, Long root, 
-			Map<Link, Integer> linkCost,
-			boolean isDstRooted) {
-		HashMap<Long, Link> nexthoplinks = new HashMap<Long, Link>();
-		//HashMap<Long, Long> nexthopnodes = new HashMap<Long, Long>();
-		HashMap<Long, Integer> cost = new HashMap<Long, Integer>();
-		int w;
-
-		for (Long node: c.links.keySet()) {
-			nexthoplinks.put(node, null);
-			//nexthopnodes.put(node, null);
-			cost.put(node, MAX_PATH_WEIGHT);
-		}
-
-		HashMap<Long, Boolean> seen = new HashMap<Long, Boolean>();
-		PriorityQueue<NodeDist> nodeq = new PriorityQueue<NodeDist>();
-		nodeq.add(new NodeDist(root, 0));
-		cost.put(root, 0);
-		while (nodeq.peek() != null) {
-			NodeDist n = nodeq.poll();
-			Long cnode = n.getNode();
-			int cdist = n.getDist();
+	/**
+	 * Compute the shortest path tree of a cluster.
+	 *
+	 * @param g				graph of the cluster
+	 * @param root			node number of the root
+	 * @param isDstRooted	true for the tree of the paths to the root,
+	 * 						false for the tree of the paths from the root
+	 * @return				shortest path tree
+	 */
+	protected BroadcastTree dijkstra(ClusterGraph g, int root, boolean isDstRooted) {
+		int n = g.size();
+		int[] nexthoplinks = new int[n];
+		int[] cost = new int[n];
+		Arrays.fill(nexthoplinks, -1);
+		Arrays.fill(cost, MAX_PATH_WEIGHT);
+
+		// the links toward a node (or from a node), and their other ends.
+		int[] start = isDstRooted ? g.inStart : g.outStart;
+		int[] adjacent = isDstRooted ? g.inLinks : g.outLinks;
+		int[] neighbor = isDstRooted ? g.src : g.dst;
+
+		IndexedHeap nodeq = new IndexedHeap(n);
+		cost[root] = 0;
+		nodeq.update(root, 0);
+		while (!nodeq.isEmpty()) {
+			int cnode = nodeq.poll();
+			int cdist = cost[cnode];
 			if (cdist >= MAX_PATH_WEIGHT) break;
-			if (seen.containsKey(cnode)) continue;
-			seen.put(cnode, true);
-
-			for (Link link: c.links.get(cnode)) {
-				Long neighbor;
 
-				if (isDstRooted == true) neighbor = link.getSrc();
-				else neighbor = link.getDst();
-
-				// links directed toward cnode will result in this condition
-				// if (neighbor == cnode) continue;
-
-				if (linkCost == null || linkCost.get(link)==null) w = 1;
-				else w = linkCost.get(link);
-
-				int ndist = cdist + w; // the weight of the link, always 1 in current version of floodlight.
-				if (ndist < cost.get(neighbor)) {
-					cost.put(neighbor, ndist);
-					nexthoplinks.put(neighbor, link);
-					//nexthopnodes.put(neighbor, cnode);
-					nodeq.add(new NodeDist(neighbor, ndist));
+			for (int k = start[cnode]; k < start[cnode + 1]; ++k) {
+				int link = adjacent[k];
+				int node = neighbor[link];
+				int ndist = cdist + g.cost[link];
+				if (ndist < cost[node]) {
+					cost[node] = ndist;
+					nexthoplinks[node] = link;
+					nodeq.update(node, ndist);
 				}
 			}
 		}
 
-		BroadcastTree ret = new BroadcastTree(nexthoplinks, cost);
-		return ret;
+		return new BroadcastTree(g, nexthoplinks, cost);
 	}
 
 	protected void calculateShortestPathTreeInClusters() {
-		pathcache.clear();
+		calculateShortestPathTreeInClusters(null);
+	}
+
+	protected void calculateShortestPathTreeInClusters(TopologyInstance previous) {
 		destinationRootedTrees.clear();
 
 		Map<Link, Integer> linkCost = new HashMap<Link, Integer>();
 		int tunnel_weight = switchPorts.size() + 1;
 
+		// prefer the links with lower latency.
+		for (Map.Entry<Link, Long> e: linkLatencies.entrySet()) {
+			linkCost.put(e.getKey(), getLatencyCost(e.getValue()));
+		}
+
 		for(NodePortTuple npt: tunnelPorts) {
 			if (switchPortLinks.get(npt) == null) continue;
 			for(Link link: switchPortLinks.get(npt)) {
@@ -512,14 +592,109 @@ public class TopologyInstance {
 			}
 		}
 
+		List<TreeJob> jobs = new ArrayList<TreeJob>();
 		for(Cluster c: clusters) {
-			for (Long node : c.links.keySet()) {
-				BroadcastTree tree = dijkstra(c, node, linkCost, true);
-				destinationRootedTrees.put(node, tree);
+			c.graph = new ClusterGraph(c, linkCost);
+			if (repairShortestPathTrees(c, previous, jobs)) continue;
+			for (int node = 0; node < c.graph.size(); ++node) {
+				jobs.add(new TreeJob(c.graph, node, null, null, null));
+			}
+		}
+
+		runJobs(jobs);
+
+		computedTrees = repairedTrees = 0;
+		for (TreeJob job: jobs) {
+			destinationRootedTrees.put(job.graph.nodes[job.root], job.tree);
+			if (job.repaired) repairedTrees++;
+			else computedTrees++;
+		}
+	}
+
+	/**
+	 * Job that computes the destination-rooted tree of a node, 
+	 * or repairs the tree of the previous instance if it is given.
+	 */
+	protected class TreeJob implements Runnable {
+		final ClusterGraph graph;
+		final int root;
+		final BroadcastTree old;
+		final List<Link> removed;
+		final List<Link> added;
+
+		BroadcastTree tree;
+		boolean repaired;
+
+		TreeJob(ClusterGraph graph, int root, BroadcastTree old, List<Link> removed, List<Link> added) {
+			this.graph = graph;
+			this.root = root;
+			this.old = old;
+			this.removed = removed;
+			this.added = added;
+		}
+
+		@Override
+		public void run() {
+			if (old != null) {
+				if (removed.isEmpty() && added.isEmpty()) {
+					// trees are not modified after compute(), so they can be shared.
+					tree = old;
+				} else {
+					tree = DynamicShortestPaths.repair(graph, old, removed, added);
+				}
+			}
+			repaired = (tree != null);
+			if (tree == null) {
+				tree = dijkstra(graph, root, true);
 			}
 		}
 	}
 
+	/**
+	 * Add the jobs that get the trees of a cluster by repairing the trees of the same cluster
+	 * in the previous instance.
+	 *
+	 * @param c			cluster
+	 * @param previous	the previous instance, or null
+	 * @param jobs		list to add the jobs to
+	 * @return			false if the cluster has changed its switches, or too many links of it
+	 * 					have changed. Then, all trees of the cluster should be computed.
+	 */
+	protected boolean repairShortestPathTrees(Cluster c, TopologyInstance previous, List<TreeJob> jobs) {
+		if (previous == null || previous.destinationRootedTrees == null) return false;
+		Cluster oc = previous.switchClusterMap.get(c.getId());
+		if (oc == null || oc.graph == null || !Arrays.equals(oc.graph.nodes, c.graph.nodes)) return false;
+
+		ClusterGraph og = oc.graph;
+		ClusterGraph g = c.graph;
+		List<Link> removed = new ArrayList<Link>();
+		List<Link> added = new ArrayList<Link>();
+		for (int e = 0; e < og.links.length; ++e) {
+			int ne = g.indexOf(og.links[e]);
+			if (ne < 0 || g.cost[ne] > og.cost[e]) removed.add(og.links[e]);
+			else if (g.cost[ne] < og.cost[e]) added.add(og.links[e]);
+		}
+		for (int e = 0; e < g.links.length; ++e) {
+			if (og.indexOf(g.links[e]) < 0) added.add(g.links[e]);
+		}
+
+		// the repair is cheaper than the full computation only for a few changes.
+		if (removed.size() + added.size() > Math.max(1, g.links.length / 4)) return false;
+
+		for (int node = 0; node < g.size(); ++node) {
+			jobs.add(new TreeJob(g, node, previous.destinationRootedTrees.get(g.nodes[node]), removed, added));
+		}
+		return true;
+	}
+
+	/**
+	 * @param latency	latency of a link in microseconds
+	 * @return			cost of the link, which is 1 for a link without latency
+	 */
+	protected static int getLatencyCost(long latency) {
+		return 1 + (int) Math.min(MAX_LINK_WEIGHT - 1, Math.max(0, latency / LATENCY_COST_UNIT));
+	}
+
 	protected void calculateBroadcastTreeInClusters() {
 		for(Cluster c: clusters) {
 			// c.id is the smallest node that's in the cluster
@@ -534,37 +709,61 @@ public class TopologyInstance {
 
 		calculateBroadcastTreeInClusters();
 
+		List<BroadcastJob> jobs = new ArrayList<BroadcastJob>();
 		for(Cluster c: clusters) {
 			// c.id is the smallest node that's in the cluster
 			BroadcastTree tree = clusterBroadcastTrees.get(c.id);
 			//log.info("Broadcast Tree {}", tree);
+			if (tree == null) continue;
+			jobs.add(new BroadcastJob(c.id, tree));
+		}
+
+		runJobs(jobs);
+
+		for (BroadcastJob job: jobs) {
+			clusterBroadcastNodePorts.put(job.clusterId, job.nptSet);
+		}
+	}
+
+	/**
+	 * Job that collects the switch ports of the broadcast tree of a cluster.
+	 */
+	protected static class BroadcastJob implements Runnable {
+		final long clusterId;
+		final BroadcastTree tree;
+
+		Set<NodePortTuple> nptSet;
 
-			Set<NodePortTuple> nptSet = new HashSet<NodePortTuple>();
-			Map<Long, Link> links = tree.getLinks();
-			if (links == null) continue;
-			for(long nodeId: links.keySet()) {
-				Link l = links.get(nodeId);
-				if (l == null) continue;
+		BroadcastJob(long clusterId, BroadcastTree tree) {
+			this.clusterId = clusterId;
+			this.tree = tree;
+		}
+
+		@Override
+		public void run() {
+			nptSet = new HashSet<NodePortTuple>();
+			for(int link: tree.next) {
+				if (link < 0) continue;
+				Link l = tree.graph.links[link];
 				NodePortTuple npt1 = new NodePortTuple(l.getSrc(), l.getSrcPort());
 				NodePortTuple npt2 = new NodePortTuple(l.getDst(), l.getDstPort());
 				nptSet.add(npt1);
 				nptSet.add(npt2);
 			}
-			clusterBroadcastNodePorts.put(c.id, nptSet);
 		}
 	}
 
+	/**
+	 * Build the route from a switch to another, of which the path is an immutable list
+	 * backed by an array.
+	 */
 	protected Route buildroute(RouteId id, long srcId, long dstId) {
-		NodePortTuple npt;
-
-		LinkedList<NodePortTuple> switchPorts =
-				new LinkedList<NodePortTuple>();
+		int[] links = null;
 
 		if (destinationRootedTrees == null) return null;
 		if (destinationRootedTrees.get(dstId) == null) return null;
 
-		Map<Long, Link> nexthoplinks =
-				destinationRootedTrees.get(dstId).getLinks();
+		BroadcastTree tree = destinationRootedTrees.get(dstId);
 
 		if (!switches.contains(srcId) || !switches.contains(dstId)) {
 			// This is a switch that is not connected to any other switch
@@ -576,25 +775,36 @@ public class TopologyInstance {
 			// The only possible non-null path for this case is
 			// if srcId equals dstId --- and that too is an 'empty' path []
 
-		} else if ((nexthoplinks!=null) && (nexthoplinks.get(srcId)!=null)) {
-			while (srcId != dstId) {
-				Link l = nexthoplinks.get(srcId);
+		} else if (tree.getTreeLink(srcId) != null) {
+			int src = tree.graph.indexOf(srcId);
+			int root = tree.graph.indexOf(dstId);
+			int hops = 0;
+			for (int node = src; node != root; node = tree.graph.dst[tree.next[node]]) {
+				hops++;
+			}
 
-				npt = new NodePortTuple(l.getSrc(), l.getSrcPort());
-				switchPorts.addLast(npt);
-				npt = new NodePortTuple(l.getDst(), l.getDstPort());
-				switchPorts.addLast(npt);
-				srcId = nexthoplinks.get(srcId).getDst();
+			links = new int[hops];
+			int i = 0;
+			for (int node = src; node != root; node = tree.graph.dst[tree.next[node]]) {
+				links[i++] = tree.next[node];
 			}
 		}
 		// else, no path exists, and path equals null
 
 		Route result = null;
-		if (switchPorts != null && !switchPorts.isEmpty()) 
-			result = new Route(id, switchPorts);
+		if (links != null && links.length > 0)
+			result = buildroute(id, tree.graph, links, links.length);
 		return result;
 	}
 
+	protected int getComputedTrees() {
+		return computedTrees;
+	}
+
+	protected int getRepairedTrees() {
+		return repairedTrees;
+	}
+
 	protected int getCost(long srcId, long dstId) {
 		BroadcastTree bt = destinationRootedTrees.get(dstId);
 		if (bt == null) return -1;
@@ -613,7 +823,7 @@ public class TopologyInstance {
 	protected boolean routeExists(long srcId, long dstId) {
 		BroadcastTree bt = destinationRootedTrees.get(dstId);
 		if (bt == null) return false;
-		Link link = bt.getLinks().get(srcId);
+		Link link = bt.getTreeLink(srcId);
 		if (link == null) return false;
 		return true;
 	}
@@ -627,10 +837,18 @@ public class TopologyInstance {
 		if (srcId == dstId && srcPort.equals(dstPort))
 			return null;
 
-		List<NodePortTuple> nptList;
-		NodePortTuple npt;
 		Route r = getRoute(srcId, dstId);
 		if (r == null && srcId != dstId) return null;
+		return addPorts(r, srcId, srcPort, dstId, dstPort);
+	}
+
+	/**
+	 * @param r		route between two switches, or null if the switches are the same
+	 * @return		new route that has the source and the destination ports at the ends of r
+	 */
+	protected Route addPorts(Route r, long srcId, OFPort srcPort, long dstId, OFPort dstPort) {
+		List<NodePortTuple> nptList;
+		NodePortTuple npt;
 
 		if (r != null) {
 			nptList= new ArrayList<NodePortTuple>(r.getPath());
@@ -647,18 +865,188 @@ public class TopologyInstance {
 		return r;
 	}
 
+	/**
+	 * Get the route from a switch to another. The route is kept in the destination-rooted tree
+	 * when it is built for the first time, and the kept route is returned afterwards.
+	 * This can be called by many threads at the same time, without locks.
+	 * The path of the returned route should not be modified.
+	 */
 	protected Route getRoute(long srcId, long dstId) {
-		RouteId id = new RouteId(srcId, dstId);
-		Route result = null;
-		if (pathcache.containsKey(id)) {
-			result = pathcache.get(id);
-		} else {
-			result = buildroute(id, srcId, dstId);
-			pathcache.put(id, result);
+		BroadcastTree tree = destinationRootedTrees.get(dstId);
+		if (tree == null) return null;
+		int node = tree.graph.indexOf(srcId);
+		if (node < 0) return null;
+
+		Route result = tree.getRoute(node);
+		if (result == null) {
+			result = buildroute(new RouteId(srcId, dstId), srcId, dstId);
+			if (result != null) result = tree.putRoute(node, result);
 		}
 		return result;
 	}
 
+	/**
+	 * Routes of a switch pair that are found with a limit on the number of routes.
+	 * If there are fewer routes than the limit, they are all the routes.
+	 */
+	protected static class RouteSet {
+		final int limit;
+		final List<Route> routes;
+
+		RouteSet(int limit, List<Route> routes) {
+			this.limit = limit;
+			this.routes = Collections.unmodifiableList(routes);
+		}
+
+		List<Route> get(int max) {
+			return (routes.size() <= max) ? routes : routes.subList(0, max);
+		}
+	}
+
+	/**
+	 * Get the shortest routes from a switch to another, which have the same cost.
+	 * The first route is the same as {@link #getRoute(long, long)}.
+	 *
+	 * @param maxRoutes	the largest number of routes
+	 * @return			list of routes, which is empty if there is no route
+	 */
+	protected List<Route> getEqualCostRoutes(long srcId, long dstId, int maxRoutes) {
+		RouteId id = new RouteId(srcId, dstId);
+		RouteSet set = equalCostRoutes.get(id);
+		if (set == null || set.limit < maxRoutes) {
+			set = new RouteSet(maxRoutes, buildEqualCostRoutes(id, srcId, dstId, maxRoutes));
+			equalCostRoutes.put(id, set);
+		}
+		return set.get(maxRoutes);
+	}
+
+	/**
+	 * Get the k shortest loopless routes from a switch to another, from the shortest one.
+	 *
+	 * @param k		the largest number of routes
+	 * @return		list of routes, which is empty if there is no route
+	 */
+	protected List<Route> getKShortestRoutes(long srcId, long dstId, int k) {
+		RouteId id = new RouteId(srcId, dstId);
+		RouteSet set = kShortestRoutes.get(id);
+		if (set == null || set.limit < k) {
+			List<Route> routes = new ArrayList<Route>();
+			Cluster c = switchClusterMap.get(dstId);
+			ClusterGraph g = (c == null) ? null : c.graph;
+			int src = (g == null) ? -1 : g.indexOf(srcId);
+			if (src >= 0) {
+				for (int[] links: KShortestPaths.find(g, src, g.indexOf(dstId), k)) {
+					routes.add(buildroute(id, g, links, links.length));
+				}
+			}
+			set = new RouteSet(k, routes);
+			kShortestRoutes.put(id, set);
+		}
+		return set.get(k);
+	}
+
+	/**
+	 * Find the equal-cost routes in the graph of the current cluster,
+	 * with the costs of the destination-rooted tree: a link from x to y is on
+	 * a shortest route if cost(x) = cost(y) + cost of the link.
+	 *
+	 * The latency costs are quantized estimates, so links of the same latency can
+	 * cost one more or less than each other. A route is therefore an equal-cost route
+	 * if it has no more hops than the route of the tree, and it costs at most one
+	 * more per hop of the route of the tree. A link is taken only if it gets closer to the destination,
+	 * so the routes have no loops.
+	 */
+	protected List<Route> buildEqualCostRoutes(RouteId id, long srcId, long dstId, int maxRoutes) {
+		List<Route> routes = new ArrayList<Route>();
+		BroadcastTree tree = destinationRootedTrees.get(dstId);
+		Cluster c = switchClusterMap.get(dstId);
+		if (tree == null || c == null || c.graph == null || maxRoutes <= 0) return routes;
+		if (srcId == dstId || tree.getTreeLink(srcId) == null) return routes;
+
+		ClusterGraph g = c.graph;
+		int src = g.indexOf(srcId);
+		int root = g.indexOf(dstId);
+		int hops = 0;
+		for (int x = src; x != root; x = tree.graph.dst[tree.next[x]]) {
+			++hops;
+		}
+		int[] path = new int[hops];
+		addEqualCostRoutes(id, g, tree, getHops(g, root), src, root, path, 0, hops, routes, maxRoutes);
+		return routes;
+	}
+
+	/**
+	 * @param slack		how much more the rest of the route may cost than the shortest one
+	 */
+	private void addEqualCostRoutes(RouteId id, ClusterGraph g, BroadcastTree tree, int[] hopsToRoot,
+			int node, int root, int[] path, int depth, int slack, List<Route> routes, int maxRoutes) {
+		if (routes.size() >= maxRoutes) return;
+		if (node == root) {
+			routes.add(buildroute(id, g, path, depth));
+			return;
+		}
+
+		// the tree link first. the tree may have been built on the graph of a previous instance.
+		int treeLink = g.indexOf(tree.graph.links[tree.next[node]]);
+		if (treeLink >= 0) {
+			addEqualCostLink(id, g, tree, hopsToRoot, node, treeLink, root, path, depth, slack, routes, maxRoutes);
+		}
+		for (int k = g.outStart[node]; k < g.outStart[node + 1] && routes.size() < maxRoutes; ++k) {
+			int e = g.outLinks[k];
+			if (e == treeLink) continue;
+			addEqualCostLink(id, g, tree, hopsToRoot, node, e, root, path, depth, slack, routes, maxRoutes);
+		}
+	}
+
+	private void addEqualCostLink(RouteId id, ClusterGraph g, BroadcastTree tree, int[] hopsToRoot,
+			int node, int e, int root, int[] path, int depth, int slack, List<Route> routes, int maxRoutes) {
+		int y = g.dst[e];
+		if (tree.dist[y] >= tree.dist[node]) return;
+		int extra = tree.dist[y] + g.cost[e] - tree.dist[node];
+		if (extra > slack || hopsToRoot[y] > path.length - depth - 1) return;
+		path[depth] = e;
+		addEqualCostRoutes(id, g, tree, hopsToRoot, y, root, path, depth + 1, slack - extra, routes, maxRoutes);
+	}
+
+	/**
+	 * @return	the smallest number of hops from each node to the root,
+	 * 			or Integer.MAX_VALUE if the node does not reach the root
+	 */
+	private static int[] getHops(ClusterGraph g, int root) {
+		int[] hops = new int[g.size()];
+		Arrays.fill(hops, Integer.MAX_VALUE);
+		int[] queue = new int[g.size()];
+		int head = 0, tail = 0;
+		hops[root] = 0;
+		queue[tail++] = root;
+		while (head < tail) {
+			int x = queue[head++];
+			for (int k = g.inStart[x]; k < g.inStart[x + 1]; ++k) {
+				int z = g.src[g.inLinks[k]];
+				if (hops[z] == Integer.MAX_VALUE) {
+					hops[z] = hops[x] + 1;
+					queue[tail++] = z;
+				}
+			}
+		}
+		return hops;
+	}
+
+	/**
+	 * @param links		link numbers of the route in the graph
+	 * @param length	the number of links
+	 * @return			route of the links
+	 */
+	protected static Route buildroute(RouteId id, ClusterGraph g, int[] links, int length) {
+		NodePortTuple[] switchPorts = new NodePortTuple[2 * length];
+		for (int i = 0; i < length; ++i) {
+			Link l = g.links[links[i]];
+			switchPorts[2 * i] = new NodePortTuple(l.getSrc(), l.getSrcPort());
+			switchPorts[2 * i + 1] = new NodePortTuple(l.getDst(), l.getDstPort());
+		}
+		return new Route(id, Collections.unmodifiableList(Arrays.asList(switchPorts)));
+	}
+
 	protected BroadcastTree getBroadcastTreeForCluster(long clusterId){
 		Cluster c = switchClusterMap.get(clusterId);
 		if (c == null) return null;
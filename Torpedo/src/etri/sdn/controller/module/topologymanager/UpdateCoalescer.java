@@ -0,0 +1,228 @@
+package etri.sdn.controller.module.topologymanager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalescing of the link discovery updates into the topology computations.
+ *
+ * The updates are batched until no update arrives for the minimum window,
+ * or until the maximum window has passed since the first update of the batch.
+ * So a single link change is computed after the minimum window, and a burst of
+ * updates (a switch goes down with all its links, for example) keeps the batch open
+ * until the burst ends, but not longer than the maximum window.
+ *
+ * At most one computation runs at a time. The updates that arrive while a computation
+ * runs are merged into a single follow-up computation, which does not start earlier than
+ * the duration of the previous computation after its end (but not later than the maximum window).
+ * So the computations take at most about half of a thread even if the updates never stop.
+ *
+ * A subclass provides the computation and the timer. This class is thread-safe.
+ */
+abstract class UpdateCoalescer {
+
+	private final long minWindow;
+	private final long maxWindow;
+
+	// guarded by this
+	private boolean scheduled;		// fire() is scheduled
+	private boolean running;		// a computation is running
+	private int pending;			// updates received since the start of the last computation
+	private long firstUpdate;		// time of the first pending update
+	private long lastUpdate;		// time of the last pending update
+	private long holdUntil;			// the next computation does not start before this time
+
+	// guarded by this
+	private long computations;
+	private long updates;
+	private int lastBatch;
+	private int maxBatch;
+	private long lastDuration;		// nanoseconds
+	private long maxDuration;
+	private long totalDuration;
+
+	/**
+	 * @param minWindow	milliseconds without updates after which a batch is computed
+	 * @param maxWindow	the longest milliseconds between the first update of a batch and its computation
+	 */
+	UpdateCoalescer(long minWindow, long maxWindow) {
+		if ( minWindow < 0 || maxWindow < minWindow ) {
+			throw new IllegalArgumentException("invalid batching windows: " + minWindow + ", " + maxWindow);
+		}
+		this.minWindow = minWindow;
+		this.maxWindow = maxWindow;
+	}
+
+	/**
+	 * Compute the updates that are received so far.
+	 *
+	 * @return	the number of updates that are computed
+	 */
+	protected abstract int compute();
+
+	/**
+	 * Call {@link #fire()} after the delay.
+	 *
+	 * @param delay	milliseconds
+	 */
+	protected abstract void schedule(long delay);
+
+	/**
+	 * @return	current time in milliseconds
+	 */
+	protected long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	/**
+	 * Should be called for each update, after the update is queued for {@link #compute()}.
+	 */
+	void updateReceived() {
+		long delay;
+		synchronized ( this ) {
+			long t = now();
+			if ( pending++ == 0 ) {
+				firstUpdate = t;
+			}
+			lastUpdate = t;
+			if ( scheduled || running ) {
+				// the timer or the running computation will take this update.
+				return;
+			}
+			scheduled = true;
+			delay = getDue() - t;
+		}
+		schedule(Math.max(0, delay));
+	}
+
+	/**
+	 * Compute the pending updates if the batch is due, or wait more.
+	 * Called by the timer.
+	 */
+	void fire() {
+		long wait;
+		synchronized ( this ) {
+			scheduled = false;
+			if ( running || pending == 0 ) {
+				return;
+			}
+			wait = getDue() - now();
+			if ( wait > 0 ) {
+				scheduled = true;
+			} else {
+				running = true;
+				pending = 0;
+			}
+		}
+		if ( wait > 0 ) {
+			schedule(wait);
+			return;
+		}
+
+		long start = System.nanoTime();
+		int batch = 0;
+		try {
+			batch = compute();
+		} finally {
+			long duration = System.nanoTime() - start;
+			long delay = -1;
+			synchronized ( this ) {
+				running = false;
+				if ( batch > 0 ) {
+					record(batch, duration);
+				}
+				holdUntil = now() + Math.min(TimeUnit.NANOSECONDS.toMillis(duration), maxWindow);
+				if ( pending > 0 && !scheduled ) {
+					// follow-up for the updates received during the computation.
+					scheduled = true;
+					delay = Math.max(0, getDue() - now());
+				}
+			}
+			if ( delay >= 0 ) {
+				schedule(delay);
+			}
+		}
+	}
+
+	/**
+	 * @return	the time at which the pending updates should be computed
+	 */
+	private long getDue() {
+		long due = Math.min(lastUpdate + minWindow, firstUpdate + maxWindow);
+		return Math.max(due, holdUntil);
+	}
+
+	private void record(int batch, long duration) {
+		computations++;
+		updates += batch;
+		lastBatch = batch;
+		maxBatch = Math.max(maxBatch, batch);
+		lastDuration = duration;
+		maxDuration = Math.max(maxDuration, duration);
+		totalDuration += duration;
+	}
+
+	/**
+	 * @return	snapshot of the statistics of the computations
+	 */
+	synchronized Statistics getStatistics() {
+		return new Statistics(this);
+	}
+
+	/**
+	 * Statistics of the topology computations. Durations are in microseconds.
+	 */
+	public static final class Statistics {
+		private long minWindow;
+		private long maxWindow;
+		private int pending;
+		private boolean running;
+		private long computations;
+		private long updates;
+		private int lastBatch;
+		private int maxBatch;
+		private long lastDuration;
+		private long maxDuration;
+		private long totalDuration;
+
+		private Statistics(UpdateCoalescer c) {
+			this.minWindow = c.minWindow;
+			this.maxWindow = c.maxWindow;
+			this.pending = c.pending;
+			this.running = c.running;
+			this.computations = c.computations;
+			this.updates = c.updates;
+			this.lastBatch = c.lastBatch;
+			this.maxBatch = c.maxBatch;
+			this.lastDuration = TimeUnit.NANOSECONDS.toMicros(c.lastDuration);
+			this.maxDuration = TimeUnit.NANOSECONDS.toMicros(c.maxDuration);
+			this.totalDuration = TimeUnit.NANOSECONDS.toMicros(c.totalDuration);
+		}
+
+		/** @return milliseconds without updates after which a batch is computed */
+		public long getMinWindow() { return minWindow; }
+		/** @return the longest milliseconds that a batch waits */
+		public long getMaxWindow() { return maxWindow; }
+		/** @return number of updates that wait for a computation */
+		public int getPending() { return pending; }
+		/** @return true if a computation is running */
+		public boolean isRunning() { return running; }
+		/** @return number of computations */
+		public long getComputations() { return computations; }
+		/** @return number of updates that are computed */
+		public long getUpdates() { return updates; }
+		/** @return number of updates of the last computation */
+		public int getLastBatchSize() { return lastBatch; }
+		/** @return the largest number of updates of a computation */
+		public int getMaxBatchSize() { return maxBatch; }
+		/** @return average number of updates of a computation */
+		public double getAverageBatchSize() { return (computations == 0) ? 0 : (double) updates / computations; }
+		/** @return duration of the last computation */
+		public long getLastDuration() { return lastDuration; }
+		/** @return longest duration of a computation */
+		public long getMaxDuration() { return maxDuration; }
+		/** @return total duration of the computations */
+		public long getTotalDuration() { return totalDuration; }
+		/** @return average duration of a computation */
+		public long getAverageDuration() { return (computations == 0) ? 0 : totalDuration / computations; }
+	}
+}
@@ -3,7 +3,6 @@ package etri.sdn.controller.protocol;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -14,6 +13,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
 
 import org.projectfloodlight.openflow.protocol.OFConfigFlags;
 import org.projectfloodlight.openflow.protocol.OFDescStatsReply;
@@ -73,10 +73,16 @@ import org.projectfloodlight.openflow.types.VlanPcp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import etri.sdn.controller.MessageContext;
 import etri.sdn.controller.OFController;
 import etri.sdn.controller.protocol.io.Connection;
 import etri.sdn.controller.protocol.io.IOFSwitch;
+import etri.sdn.controller.protocol.packet.Ethernet;
+import etri.sdn.controller.protocol.packet.IPv4;
+import etri.sdn.controller.protocol.packet.PacketHeaders;
 
 /**
  * This class is for handling Openflow protocol handshaking.
@@ -113,10 +119,9 @@ public class OFProtocol {
 			new ConcurrentHashMap<IOFSwitch, Map<OFPort, OFPortDesc>>();
 
 	/**
-	 * This field is used to exchange information with switch.
+	 * correlator of the requests sent to switches and their replies.
 	 */
-	private Map<IOFSwitch, Map<Long/*xid*/, Object>> responsesCache = 
-			new ConcurrentHashMap<IOFSwitch, Map<Long, Object>>();
+	private XidCorrelator correlator = new XidCorrelator();
 	
 	/**
 	 * This field used to maintain the list of hello-failed switches.
@@ -150,45 +155,11 @@ public class OFProtocol {
 	}
 
 	/**
-	 * This method is used with two other companion methods: getResponseCacheItem and removeResponseCacheItem.
-	 * @param sw	IOFSwitch object
-	 * @param xid	transaction id
-	 * @param item	object to set as a response for the transaction id
-	 */
-	public void setResponseCacheItem(IOFSwitch sw, long xid, Object item) {
-		Map<Long, Object> rcache = this.responsesCache.get(sw);
-		if ( rcache == null ) {
-			rcache = new ConcurrentHashMap<Long, Object>();
-			this.responsesCache.put(sw, rcache);
-		}
-		rcache.put( xid, item );
-	}
-
-	/**
-	 * This method is used with two other companion methods: setResponseCacheItem and removeResponseCacheItem.
-	 * @param sw	IOFSwitch object
-	 * @param xid	transaction id to get the response object
-	 * @return		Object set by setResponseCacheItem as a response for the transaction id
-	 */
-	public Object getResponseCacheItem(IOFSwitch sw, long xid) {
-		Map<Long, Object> rcache = this.responsesCache.get(sw);
-		if ( rcache == null ) {
-			return null;
-		}
-		return rcache.get(xid);
-	}
-
-	/**
-	 * This method is used with two other companion methods: setResponseCacheItem and getResponseCacheItem.
-	 * @param sw	IOFSwitch object
-	 * @param xid	transaction id to remove the response object
+	 * Get the correlator of the requests sent to switches and their replies.
+	 * @return	XidCorrelator object.
 	 */
-	public void removeResponseCacheItem(IOFSwitch sw, long xid) {
-		Map<Long, Object> rcache = this.responsesCache.get(sw);
-		if ( rcache == null ) {
-			return;
-		}
-		rcache.remove(xid);
+	public XidCorrelator getCorrelator() {
+		return this.correlator;
 	}
 
 	public SwitchInfo getSwitchInformation(IOFSwitch sw) {
@@ -388,6 +359,10 @@ public class OFProtocol {
 				logger.error("bad action={}", ba.getData().getParsedMessage() );
 			}
 			logger.error("GET ERROR : {}", err);
+			if ( sw != null ) {
+				// fail the request which caused this error, if any.
+				this.correlator.deliver( sw, err );
+			}
 			return false;
 
 		case ECHO_REQUEST:
@@ -484,7 +459,7 @@ public class OFProtocol {
 			//			Logger.stdout("adding a switch with id = " + conn.getSwitch().getId());
 			this.getController().addSwitch( conn.getSwitch().getId(), conn.getSwitch() );
 
-			this.deliverFeaturesReply( conn.getSwitch(), m.getXid(), (OFFeaturesReply) m );
+			this.correlator.deliver( sw, m );
 
 			if ( !getController().handleGeneric(conn, context, m) ) {
 				return false;
@@ -524,11 +499,12 @@ public class OFProtocol {
 					}
 				}
 				
-				deliverSwitchStatistics( sw, portDesc );
+				this.correlator.deliver( sw, portDesc );
 			} else if ( stat.getStatsType() == OFStatsType.DESC ) {
 				this.setSwitchInformation(sw, (OFDescStatsReply) stat);
+				this.correlator.deliver( sw, stat );
 			} else {
-				deliverSwitchStatistics( sw, stat );
+				this.correlator.deliver( sw, stat );
 			}
 			break;
 
@@ -554,89 +530,85 @@ public class OFProtocol {
 
 	/**
 	 * Modules that use IOFSwitch objects use this method to request statistics to the switch.
+	 * This method blocks the caller until all the replies arrive or the request times out.
+	 * Use {@link #requestSwitchStatistics(IOFSwitch, OFStatsRequest)} not to block.
+	 * 
 	 * @param req OFStatisticsRequest object.
+	 * @return	list of the replies (empty if the request failed), or null if the switch is not connected.
 	 */
 	public List<OFStatsReply> getSwitchStatistics(IOFSwitch sw, @SuppressWarnings("rawtypes") OFStatsRequest req) {
-		List<OFStatsReply> response = new LinkedList<OFStatsReply>();
-		long xid = req.getXid();
-
-		this.setResponseCacheItem(sw, xid, response);
-		if ( sw.getConnection() != null ) {
-			sw.getConnection().write(req);
-			synchronized ( response ) {
-				try {
-					response.wait(1000);
-				} catch ( InterruptedException e ) {
-					// does nothing.
-				} finally {
-					this.removeResponseCacheItem(sw, xid);
-				}
-			}
-			return response;
+		if ( sw.getConnection() == null ) {
+			return null;
 		}
-		return null;
+		@SuppressWarnings("unchecked")
+		List<OFStatsReply> ret = waitFor( requestSwitchStatistics(sw, req) );
+		return (ret == null) ? new LinkedList<OFStatsReply>() : ret;
 	}
 
-	private void deliverSwitchStatistics(IOFSwitch sw, OFStatsReply m) {
-		Object response = getResponseCacheItem(sw, m.getXid());
-		if ( response == null ) {
-			return;
-		}
-		if ( response instanceof List<?> ) {
-			@SuppressWarnings("unchecked")
-			List<OFStatsReply> rl = (List<OFStatsReply>) response;
-			synchronized ( response ) {
-				rl.add( m );
-				if ( !m.getFlags().contains(OFStatsReplyFlags.REPLY_MORE) ) {
-					response.notifyAll();
-				}
-			}
-		} 
-		else {
-			logger.error("cannot deliver statistics={}", m);
-		}
+	/**
+	 * Request statistics to the switch without blocking.
+	 * 
+	 * @param sw	IOFSwitch object
+	 * @param req	OFStatsRequest object
+	 * @return		future of all the replies of the request
+	 */
+	public ListenableFuture<List<OFStatsReply>> requestSwitchStatistics(IOFSwitch sw, OFStatsRequest<?> req) {
+		return this.correlator.requestStatistics(sw, req);
+	}
+
+	/**
+	 * Request statistics to the switches at once without blocking.
+	 * The returned future is completed when all the switches reply (or time out),
+	 * thus the whole request takes a single round trip time.
+	 * 
+	 * @param switches	switches to request statistics
+	 * @param builder	function that builds the request for a switch
+	 * @return			future of the switch-to-replies map
+	 */
+	public ListenableFuture<Map<IOFSwitch, List<OFStatsReply>>> requestSwitchStatistics(
+			Collection<IOFSwitch> switches, 
+			Function<IOFSwitch, OFStatsRequest<?>> builder) {
+		return this.correlator.requestStatistics(switches, builder);
 	}
 
 	/**
 	 * Get OFFeaturesReply for the given switch. 
+	 * This method blocks the caller until the reply arrives or the request times out.
+	 * 
 	 * @param sw	IOFSwitch object
-	 * @return		OFFeaturesReply object
+	 * @return		OFFeaturesReply object, or null if the request failed.
 	 */
 	public OFFeaturesReply getFeaturesReply(IOFSwitch sw) {
+		return waitFor( requestFeaturesReply(sw) );
+	}
+
+	/**
+	 * Request OFFeaturesReply to the switch without blocking.
+	 * 
+	 * @param sw	IOFSwitch object
+	 * @return		future of the OFFeaturesReply object
+	 */
+	public ListenableFuture<OFFeaturesReply> requestFeaturesReply(IOFSwitch sw) {
 		OFFeaturesRequest req = OFFactories.getFactory(sw.getVersion()).featuresRequest();
-		List<OFFeaturesReply> response = new LinkedList<OFFeaturesReply>();
-		this.setResponseCacheItem(sw, req.getXid(), response);
-		sw.getConnection().write( req );
-		synchronized ( response ) {
-			try { 
-				response.wait(1000);
-			} catch ( InterruptedException e ) {
-				// does nothing
-			} finally {
-				this.removeResponseCacheItem(sw, req.getXid());
-			}
-		}
-		if ( response.isEmpty() ) {
-			return null;
-		}
-		else {
-			return response.remove(0);
-		}
+		return this.correlator.request(sw, req, OFFeaturesReply.class);
 	}
 
-	private void deliverFeaturesReply(IOFSwitch sw, long xid, OFFeaturesReply reply) {
-		Object response = this.getResponseCacheItem(sw, xid);
-		if ( response == null ) {
-			return;
-		}
-		if ( response instanceof List<?> ) {
-			@SuppressWarnings("unchecked")
-			List<OFFeaturesReply> rl = (List<OFFeaturesReply>) response;
-			synchronized ( response ) {
-				rl.add( reply );
-				response.notifyAll();
-			}
+	/**
+	 * Wait for the future. The future is always completed by the correlator
+	 * (with timeout at worst), thus this does not block forever.
+	 * 
+	 * @param future	future to wait
+	 * @return			result of the future, or null if it failed.
+	 */
+	private static <T> T waitFor(ListenableFuture<T> future) {
+		try {
+			return future.get();
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		} catch ( ExecutionException e ) {
+			logger.debug("request failed={}", e.getCause().toString());
 		}
+		return null;
 	}
 
 	/**
@@ -711,118 +683,83 @@ public class OFProtocol {
 	/**
 	 * Create an OFMatch object from the packet-in data. 
 	 * This method is called by doDropFlow and doForwardFlow of Forwarding module, and processPacketInMesssage of LearningMac module.
+	 * The modules with a MessageContext should use {@link #loadOFMatchFromPacket(OFVersion, PacketHeaders, OFPort, boolean)}
+	 * with the headers of the context, not to decode the packet again.
+	 * 
 	 * @param sw			IOFSwitch object
 	 * @param packetIn	packet-in data array
 	 * @param inputPort		input port (short)
 	 * @return				OFMatch object
 	 */
 	public Match loadOFMatchFromPacket(IOFSwitch sw, OFPacketIn packetIn, OFPort inputPort, boolean l2only) {
+		return loadOFMatchFromPacket(packetIn.getVersion(), new PacketHeaders(packetIn.getData()), inputPort, l2only);
+	}
 
-		Match.Builder ret = OFFactories.getFactory(packetIn.getVersion()).buildMatch();
+	/**
+	 * Create an OFMatch object from the decoded packet headers. 
+	 * 
+	 * @param version		OpenFlow version of the match
+	 * @param headers		headers of the packet (see {@link MessageContext#getPacketHeaders(OFPacketIn)})
+	 * @param inputPort		input port
+	 * @param l2only		true if only the in_port and L2 fields are matched
+	 * @return				OFMatch object
+	 */
+	public Match loadOFMatchFromPacket(OFVersion version, PacketHeaders headers, OFPort inputPort, boolean l2only) {
 
-		short scratch = 0;
-		int transportOffset = 34;
-		ByteBuffer packetDataBB = ByteBuffer.wrap(packetIn.getData());
-		int limit = packetDataBB.limit();
+		Match.Builder ret = OFFactories.getFactory(version).buildMatch();
 
 		ret.setExact(MatchField.IN_PORT, inputPort);
 
-		assert (limit >= 14);
-		
-		// dl dst
-		byte[] eth_dst = new byte[6];
-		packetDataBB.get(eth_dst);
-		ret.setExact(MatchField.ETH_DST, MacAddress.of(eth_dst));
-
-		// dl src
-		byte[] eth_src = new byte[6];
-		packetDataBB.get(eth_src);
-		ret.setExact(MatchField.ETH_SRC, MacAddress.of(eth_src));
+		assert ( headers.hasEthernet() );
 
-		// dl type
-		short data_layer_type = packetDataBB.getShort();
-		ret.setExact(MatchField.ETH_TYPE, EthType.of(data_layer_type));
+		ret.setExact(MatchField.ETH_DST, MacAddress.of(headers.getDestinationMAC()));
+		ret.setExact(MatchField.ETH_SRC, MacAddress.of(headers.getSourceMAC()));
+		ret.setExact(MatchField.ETH_TYPE, EthType.of(headers.getEtherType() & 0xffff));
 
 		// has vlan
-		if ( data_layer_type == (short) 0x8100 ) {
-			scratch = packetDataBB.getShort();
-			if ( (0xfff & scratch) != 0 ) {
-				ret.setExact(MatchField.VLAN_VID, OFVlanVidMatch.ofVlan((short)(0xfff & scratch)));
-				ret.setExact(MatchField.VLAN_PCP, VlanPcp.of((byte)((0xe000 & scratch) >> 13)));
-			}
-		} 
+		short vlan = headers.getVlanID();
+		if ( vlan != PacketHeaders.VLAN_UNTAGGED && vlan != 0 ) {
+			ret.setExact(MatchField.VLAN_VID, OFVlanVidMatch.ofVlan(vlan));
+			ret.setExact(MatchField.VLAN_PCP, VlanPcp.of(headers.getPriorityCode()));
+		}
 
 		if ( l2only ) {
 			return ret.build();
 		}
-		
-		byte network_protocol = 0;
-
-		switch (data_layer_type) {
-		case 0x0800:							// IPv4
-			// check packet length
-			scratch = packetDataBB.get();
-			scratch = (short) (0xf & scratch);
-			transportOffset = (packetDataBB.position() - 1) + (scratch * 4);
-			
+
+		if ( headers.isIPv4() ) {
 			// nw tos (dscp & ecn)
-			scratch = packetDataBB.get();
-			ret.setExact(MatchField.IP_DSCP, IpDscp.of((byte)((0b11111100 & scratch) >> 2)));
-			try { 
-				ret.setExact(MatchField.IP_ECN, IpEcn.of((byte)(0b00000011 & scratch)));
-			} catch (UnsupportedOperationException u) {
-				// does nothing
+			byte tos = headers.getNetworkTypeOfService();
+			ret.setExact(MatchField.IP_DSCP, IpDscp.of((byte)((0b11111100 & tos) >> 2)));
+			if ( ret.supports(MatchField.IP_ECN) ) {
+				// not supported by OF 1.0. checked here not to throw an exception for every packet.
+				ret.setExact(MatchField.IP_ECN, IpEcn.of((byte)(0b00000011 & tos)));
 			}
 
-			// nw protocol
-			packetDataBB.position(packetDataBB.position() + 7);
-			ret.setExact(MatchField.IP_PROTO, IpProtocol.of(network_protocol = packetDataBB.get()));
-
-			// nw src & dst
-			packetDataBB.position(packetDataBB.position() + 2);
-			ret.setExact(MatchField.IPV4_SRC, IPv4Address.of(packetDataBB.getInt()));
-			ret.setExact(MatchField.IPV4_DST, IPv4Address.of(packetDataBB.getInt()));
-			
-			packetDataBB.position(transportOffset);
-			break;
-			
-		case 0x0806:							// ARP
-			// arp
-			int arpPos = packetDataBB.position();
-			// opcode
-			scratch = packetDataBB.getShort(arpPos + 6);
-			
-			ret.setExact(MatchField.ARP_OP, ArpOpcode.of(network_protocol = (byte) (0xff & scratch)));
-
-			scratch = packetDataBB.getShort(arpPos + 2);
-			// if ipv4 and addr len is 4
-			if (scratch == 0x800 && packetDataBB.get(arpPos + 5) == 4) {
-				ret.setExact(MatchField.ARP_SPA, IPv4Address.of(packetDataBB.getInt(arpPos + 14)));
-				ret.setExact(MatchField.ARP_TPA, IPv4Address.of(packetDataBB.getInt(arpPos + 24)));
+			// nw protocol, src & dst
+			byte network_protocol = headers.getNetworkProtocol();
+			ret.setExact(MatchField.IP_PROTO, IpProtocol.of(network_protocol));
+			ret.setExact(MatchField.IPV4_SRC, IPv4Address.of(headers.getNetworkSource()));
+			ret.setExact(MatchField.IPV4_DST, IPv4Address.of(headers.getNetworkDestination()));
+
+			if ( headers.hasTransportPorts() ) {
+				TransportPort src = TransportPort.of(0x0000ffff & headers.getTransportSource());
+				TransportPort dst = TransportPort.of(0x0000ffff & headers.getTransportDestination());
+				if ( network_protocol == IPv4.PROTOCOL_TCP ) {
+					ret.setExact(MatchField.TCP_SRC, src);
+					ret.setExact(MatchField.TCP_DST, dst);
+				} else {
+					ret.setExact(MatchField.UDP_SRC, src);
+					ret.setExact(MatchField.UDP_DST, dst);
+				}
+			}
+			// icmp type and code are not matched.
+		} else if ( headers.getEtherType() == Ethernet.TYPE_ARP && headers.isARP() ) {
+			ret.setExact(MatchField.ARP_OP, ArpOpcode.of(0xffff & headers.getArpOpcode()));
+			if ( headers.hasArpIPv4Addresses() ) {
+				ret.setExact(MatchField.ARP_SPA, IPv4Address.of(headers.getArpSenderProtocolAddress()));
+				ret.setExact(MatchField.ARP_TPA, IPv4Address.of(headers.getArpTargetProtocolAddress()));
 			}
-			break;
-		default:
-			break;
-		}
-
-		switch (network_protocol) {
-		case 0x01:
-			// icmp
-//			ret.setExact(MatchField.ICMPV4_TYPE, ICMPv4Type.of(packetDataBB.get()));
-//			ret.setExact(MatchField.ICMPV4_CODE, ICMPv4Code.of(packetDataBB.get()));
-			break;
-		case 0x06:
-			// tcp
-			ret.setExact(MatchField.TCP_SRC, TransportPort.of(0x0000ffff & packetDataBB.getShort()));
-			ret.setExact(MatchField.TCP_DST, TransportPort.of(0x0000ffff & packetDataBB.getShort()));
-			break;
-		case 0x11:
-			// udp
-			ret.setExact(MatchField.UDP_SRC, TransportPort.of(0x0000ffff & packetDataBB.getShort()));
-			ret.setExact(MatchField.UDP_DST, TransportPort.of(0x0000ffff & packetDataBB.getShort()));
-			break;
-		default:
-			break;
 		}
 
 		return ret.build();
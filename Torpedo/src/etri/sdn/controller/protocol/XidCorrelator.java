@@ -0,0 +1,406 @@
+package etri.sdn.controller.protocol;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+
+import org.projectfloodlight.openflow.protocol.OFErrorMsg;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFStatsReply;
+import org.projectfloodlight.openflow.protocol.OFStatsReplyFlags;
+import org.projectfloodlight.openflow.protocol.OFStatsRequest;
+import org.projectfloodlight.openflow.protocol.XidGenerator;
+import org.projectfloodlight.openflow.protocol.XidGenerators;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import etri.sdn.controller.IOFTask;
+import etri.sdn.controller.TaskScheduler;
+import etri.sdn.controller.protocol.io.Connection;
+import etri.sdn.controller.protocol.io.IOFSwitch;
+
+/**
+ * Correlates the requests sent to switches with their replies by the transaction id (xid).
+ *
+ * A request returns a future at once, instead of blocking the caller until
+ * the reply arrives. The future is completed by {@link #deliver(IOFSwitch, OFMessage)},
+ * which is called by {@link OFProtocol} for every reply from the switch:
+ *
+ * <ul>
+ * <li>with the reply, for a single-reply request.
+ * <li>with all the replies, for a multipart (statistics) request,
+ * when the reply without the REPLY_MORE flag arrives.
+ * <li>with {@link ErrorReplyException} if the switch answers with an ERROR message.
+ * <li>with {@link TimeoutException} if the reply does not arrive in time.
+ * Timeouts are kept in the timing wheel of {@link TaskScheduler}.
+ * <li>with {@link IOException} if the switch is disconnected.
+ * </ul>
+ *
+ * This class is thread-safe.
+ */
+public final class XidCorrelator {
+
+	public static final long DEFAULT_TIMEOUT = 1000;	/* milliseconds */
+
+	private final ConcurrentMap<IOFSwitch, Requests> pendings =
+			new ConcurrentHashMap<IOFSwitch, Requests>();
+
+	private final long timeout;
+
+	/**
+	 * xids for the requests built without xid.
+	 * The messages built by the factories have xid zero by default,
+	 * thus the requests to a switch would collide without this.
+	 */
+	private final XidGenerator xids = XidGenerators.create();
+
+	/**
+	 * Create a correlator with the default timeout.
+	 */
+	public XidCorrelator() {
+		this(DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @param timeout	time (milliseconds) to wait for the (last) reply of a request
+	 */
+	public XidCorrelator(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Exception set to a future when the switch replies with an ERROR message.
+	 */
+	public static final class ErrorReplyException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		private final OFErrorMsg error;
+
+		ErrorReplyException(OFErrorMsg error) {
+			super(error.toString());
+			this.error = error;
+		}
+
+		/**
+		 * @return	the ERROR message sent by the switch
+		 */
+		public OFErrorMsg getError() {
+			return this.error;
+		}
+	}
+
+	/**
+	 * The requests sent to a switch, by xid.
+	 * It is removed from {@link #pendings} when it becomes empty, so that a switch
+	 * that is dropped while a request is sent to it does not stay in the map.
+	 */
+	private static final class Requests {
+		final ConcurrentMap<Long, Pending<?>> map = new ConcurrentHashMap<Long, Pending<?>>();
+		boolean removed = false;	// guarded by this. no request can be added if true.
+	}
+
+	/**
+	 * A request waiting for its reply. This is also the timeout task of the request.
+	 */
+	private abstract class Pending<T> implements IOFTask {
+		final IOFSwitch sw;
+		final long xid;
+		final SettableFuture<T> future = SettableFuture.create();
+		TaskScheduler.ScheduledTask timer = null;
+
+		Pending(IOFSwitch sw, long xid) {
+			this.sw = sw;
+			this.xid = xid;
+		}
+
+		/**
+		 * Accumulate a reply. This is called while holding the lock of this object.
+		 *
+		 * @param m	reply
+		 * @return	true if the request is completed by the reply
+		 */
+		abstract boolean accept(OFMessage m);
+
+		void fail(Throwable cause) {
+			this.future.setException(cause);
+		}
+
+		@Override
+		public boolean execute() {
+			if ( remove(this) ) {
+				fail( new TimeoutException("no reply for xid " + xid + " from " + sw.getStringId()) );
+			}
+			return false;
+		}
+	}
+
+	private final class SinglePending<T extends OFMessage> extends Pending<T> {
+		private final Class<T> type;
+
+		SinglePending(IOFSwitch sw, long xid, Class<T> type) {
+			super(sw, xid);
+			this.type = type;
+		}
+
+		@Override
+		boolean accept(OFMessage m) {
+			if ( !type.isInstance(m) ) {
+				fail( new IllegalStateException("unexpected reply for xid " + xid + ": " + m.getType()) );
+			} else {
+				future.set( type.cast(m) );
+			}
+			return true;
+		}
+	}
+
+	private final class MultipartPending extends Pending<List<OFStatsReply>> {
+		private final List<OFStatsReply> replies = new LinkedList<OFStatsReply>();
+
+		MultipartPending(IOFSwitch sw, long xid) {
+			super(sw, xid);
+		}
+
+		@Override
+		boolean accept(OFMessage m) {
+			if ( !(m instanceof OFStatsReply) ) {
+				fail( new IllegalStateException("unexpected reply for xid " + xid + ": " + m.getType()) );
+				return true;
+			}
+			OFStatsReply r = (OFStatsReply) m;
+			replies.add( r );
+			if ( r.getFlags().contains(OFStatsReplyFlags.REPLY_MORE) ) {
+				return false;
+			}
+			future.set( replies );
+			return true;
+		}
+	}
+
+	/**
+	 * Send a request which is answered by a single reply.
+	 * If the xid of the request is not set (zero), a new xid is assigned.
+	 *
+	 * @param sw		switch to send the request to
+	 * @param req		request message
+	 * @param type		class of the reply
+	 * @return			future of the reply
+	 */
+	public <T extends OFMessage> ListenableFuture<T> request(IOFSwitch sw, OFMessage req, Class<T> type) {
+		if ( req.getXid() == 0 ) {
+			req = req.createBuilder().setXid( xids.nextXid() ).build();
+		}
+		return send( new SinglePending<T>(sw, req.getXid(), type), req );
+	}
+
+	/**
+	 * Send a statistics (multipart) request.
+	 * If the xid of the request is not set (zero), a new xid is assigned.
+	 *
+	 * @param sw		switch to send the request to
+	 * @param req		request message
+	 * @return			future of all the replies of the request
+	 */
+	public ListenableFuture<List<OFStatsReply>> requestStatistics(IOFSwitch sw, OFStatsRequest<?> req) {
+		if ( req.getXid() == 0 ) {
+			req = req.createBuilder().setXid( xids.nextXid() ).build();
+		}
+		return send( new MultipartPending(sw, req.getXid()), req );
+	}
+
+	/**
+	 * Send statistics requests to the switches at once.
+	 * The returned future is completed when all the requests are completed.
+	 *
+	 * @param switches	switches to send the requests to
+	 * @param builder	function that builds the request for a switch
+	 * @return			future of the switch-to-replies map. Switches whose requests failed
+	 * 					(e.g., timeout) are not included in the map.
+	 */
+	public ListenableFuture<Map<IOFSwitch, List<OFStatsReply>>> requestStatistics(
+			Collection<IOFSwitch> switches,
+			Function<IOFSwitch, OFStatsRequest<?>> builder) {
+
+		final List<IOFSwitch> targets = new ArrayList<IOFSwitch>(switches);
+		List<ListenableFuture<List<OFStatsReply>>> futures =
+				new ArrayList<ListenableFuture<List<OFStatsReply>>>(targets.size());
+		for ( IOFSwitch sw : targets ) {
+			futures.add( requestStatistics(sw, builder.apply(sw)) );
+		}
+
+		return Futures.transform(
+				Futures.successfulAsList(futures),
+				new Function<List<List<OFStatsReply>>, Map<IOFSwitch, List<OFStatsReply>>>() {
+					@Override
+					public Map<IOFSwitch, List<OFStatsReply>> apply(List<List<OFStatsReply>> replies) {
+						Map<IOFSwitch, List<OFStatsReply>> ret = new HashMap<IOFSwitch, List<OFStatsReply>>();
+						for ( int i = 0; i < replies.size(); ++i ) {
+							if ( replies.get(i) != null ) {
+								ret.put( targets.get(i), replies.get(i) );
+							}
+						}
+						return ret;
+					}
+				});
+	}
+
+	private <T> ListenableFuture<T> send(Pending<T> p, OFMessage req) {
+		Connection conn = p.sw.getConnection();
+		if ( conn == null ) {
+			p.fail( new IOException("switch is not connected") );
+			return p.future;
+		}
+
+		Pending<?> prev;
+		for ( ;; ) {
+			Requests r = pendings.get(p.sw);
+			if ( r == null ) {
+				Requests n = new Requests();
+				r = pendings.putIfAbsent(p.sw, n);
+				if ( r == null ) {
+					r = n;
+				}
+			}
+			synchronized ( r ) {
+				if ( !r.removed ) {
+					prev = r.map.put(p.xid, p);
+					break;
+				}
+			}
+			// r has been removed since it became empty. try again with a new one.
+		}
+		if ( prev != null ) {
+			cancelTimer(prev);
+			prev.fail( new IllegalStateException("xid " + p.xid + " is reused") );
+		}
+
+		// the timer is set before writing the request, so that
+		// a reply never arrives before the timer is set.
+		synchronized ( p ) {
+			p.timer = TaskScheduler.getDefault().schedule(p, timeout, 0);
+		}
+		conn.write(req);
+		return p.future;
+	}
+
+	/**
+	 * Hand over a message from the switch to the request waiting for it.
+	 *
+	 * @param sw	switch which sent the message
+	 * @param m		message
+	 * @return		true if the message is a reply of a pending request, false otherwise.
+	 */
+	public boolean deliver(IOFSwitch sw, OFMessage m) {
+		Requests r = pendings.get(sw);
+		if ( r == null ) {
+			return false;
+		}
+		Pending<?> p = r.map.get(m.getXid());
+		if ( p == null ) {
+			return false;
+		}
+
+		boolean done;
+		synchronized ( p ) {
+			if ( p.future.isDone() ) {
+				return false;
+			}
+			if ( m instanceof OFErrorMsg ) {
+				p.fail( new ErrorReplyException((OFErrorMsg) m) );
+				done = true;
+			} else {
+				done = p.accept(m);
+			}
+		}
+		if ( done && remove(r, p) ) {
+			cancelTimer(p);
+		}
+		return true;
+	}
+
+	/**
+	 * Fail all the requests sent to the switch. This is called when the switch is disconnected.
+	 *
+	 * @param sw	disconnected switch
+	 */
+	public void cancelAll(IOFSwitch sw) {
+		Requests r = pendings.remove(sw);
+		if ( r == null ) {
+			return;
+		}
+		synchronized ( r ) {
+			r.removed = true;
+		}
+		for ( Pending<?> p : r.map.values() ) {
+			cancelTimer(p);
+			synchronized ( p ) {
+				p.fail( new IOException("switch is disconnected") );
+			}
+		}
+	}
+
+	/**
+	 * @return	number of the requests waiting for their replies.
+	 */
+	public int getPendingCount() {
+		int ret = 0;
+		for ( Requests r : pendings.values() ) {
+			ret += r.map.size();
+		}
+		return ret;
+	}
+
+	/**
+	 * @return	number of the switches that have requests waiting for their replies.
+	 */
+	int getSwitchCount() {
+		return pendings.size();
+	}
+
+	private boolean remove(Pending<?> p) {
+		Requests r = pendings.get(p.sw);
+		if ( r == null ) {
+			return false;
+		}
+		return remove(r, p);
+	}
+
+	/**
+	 * Remove a request, and remove the requests of the switch if no request is left.
+	 *
+	 * @return	true if the request was waiting for its reply
+	 */
+	private boolean remove(Requests r, Pending<?> p) {
+		synchronized ( r ) {
+			boolean ret;
+			synchronized ( p ) {
+				ret = r.map.remove(p.xid, p);
+			}
+			if ( ret && r.map.isEmpty() && !r.removed ) {
+				r.removed = true;
+				pendings.remove(p.sw, r);
+			}
+			return ret;
+		}
+	}
+
+	private void cancelTimer(Pending<?> p) {
+		TaskScheduler.ScheduledTask t;
+		synchronized ( p ) {
+			t = p.timer;
+		}
+		if ( t != null ) {
+			t.cancel();
+		}
+	}
+}
@@ -7,40 +7,72 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListSet;
 
-import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Watcher thread that monitors channels which are able to be read.
+ *
+ * The watcher is a readiness-driven event loop. Every channel is registered
+ * only for OP_READ. OP_WRITE is added to the interest set only while
+ * the connection has outbound bytes that could not be written to the socket
+ * at once, so an idle watcher sleeps in select() instead of waking up
+ * for every writable socket.
+ *
+ * Connections that have new outbound messages are put into the pending-flush
+ * queue (see {@link #requestFlush(Connection)}), which is drained
+ * once per select cycle by this thread.
+ *
+ * OP_READ is cleared while a handler cannot accept more messages from
+ * the connection (see {@link Connection#suspendRead()}), so that
+ * the watcher never blocks on a slow handler.
+ *
  * @author bjlee
  *
  */
 public final class ClientChannelWatcher extends Thread {
-	
+
 	private static final Logger logger = LoggerFactory.getLogger(ClientChannelWatcher.class);
 
 	private volatile boolean quit = false;
-	private Object guard = new Object();
 	private Selector read_selector;
 	private static Set<IOFHandler> controllers = new ConcurrentSkipListSet<IOFHandler>();
 
+	/**
+	 * newly accepted channels waiting to be registered by this thread.
+	 */
+	private Queue<SocketChannel> pending_clients = new ConcurrentLinkedQueue<SocketChannel>();
+
+	/**
+	 * connections that have something to flush.
+	 * A connection is put into this queue at most once until it is drained
+	 * (see {@link Connection#markToWrite()}).
+	 */
+	private Queue<Connection> pending_flushes = new ConcurrentLinkedQueue<Connection>();
+
+	/**
+	 * connections whose handlers want to be called back on this thread
+	 * (see {@link Connection#requestResume()}).
+	 */
+	private Queue<Connection> pending_resumes = new ConcurrentLinkedQueue<Connection>();
+
 	ClientChannelWatcher() throws IOException {
 		this.read_selector = Selector.open();
 	}
-	
+
 	public static void registerController(IOFHandler controller) {
 		controllers.add(controller);
 	}
-	
+
 	public static void deregisterController(IOFHandler controller) {
 		controllers.remove(controller);
 	}
-	
+
 	public static Set<IOFHandler> getHandlersFor(Connection conn) {
 		Set<IOFHandler> ret = new ConcurrentSkipListSet<IOFHandler>();
 		for ( IOFHandler h : controllers ) {
@@ -53,53 +85,58 @@ public final class ClientChannelWatcher extends Thread {
 		quit = true;
 	}
 
+	/**
+	 * Hand over a newly accepted channel to this watcher.
+	 * The actual registration and the handshake initiation is done
+	 * by the watcher thread itself, so this method never blocks.
+	 *
+	 * @param client	accepted channel
+	 */
 	void addClient(SocketChannel client) {
-		synchronized ( guard ) {
-			try {
-				Connection new_conn = new Connection(client);
-				Set<IOFHandler> hset = getHandlersFor(new_conn);
-				if ( hset == null || hset.isEmpty() ) {
-					try {
-						// TODO: Does client need some indication for this disconnection?
-						client.close();
-					} catch (IOException e) {
-						// does nothing
-					}
-					return;
-				}
-				
-				new_conn.addHandler( hset );
-				new_conn.setSelector( read_selector );
-				
-				client.register( 
-						read_selector.wakeup(), 
-						SelectionKey.OP_READ | SelectionKey.OP_WRITE,
-//						SelectionKey.OP_READ,
-						new_conn
-				);
-			} catch (ClosedChannelException e) {
-				// channel is closed. 
-				try {
-					client.close();
-				} catch (IOException e1) {
-					// does nothing.
-				}
-			}
+		pending_clients.add( client );
+		read_selector.wakeup();
+	}
+
+	/**
+	 * Put the connection into the pending-flush queue.
+	 * This method is called by {@link Connection} when its output buffer
+	 * becomes non-empty.
+	 *
+	 * @param conn	connection to flush
+	 */
+	void requestFlush(Connection conn) {
+		pending_flushes.add( conn );
+		if ( Thread.currentThread() != this ) {
+			// the flush request made by this thread will be handled
+			// before the next select() call, thus we do not need to wake up.
+			read_selector.wakeup();
 		}
 	}
 
-	void wakeup() {
-		synchronized ( guard ) {
+	/**
+	 * Put the connection into the pending-resume queue.
+	 * This method is called by {@link Connection#requestResume()}.
+	 *
+	 * @param conn	connection to resume
+	 */
+	void requestResume(Connection conn) {
+		pending_resumes.add( conn );
+		if ( Thread.currentThread() != this ) {
 			read_selector.wakeup();
 		}
 	}
 
+	void wakeup() {
+		read_selector.wakeup();
+	}
+
 	@Override
 	public void run() {
 		while ( !quit ) {
 			try {
-				// guard idiom to prevent deadlock at client.register() call
-				synchronized (guard) {}
+				registerPendingClients();
+				resumePendingConnections();
+				flushPendingConnections();
 
 				int r = read_selector.select();
 				if ( r > 0 ) { // there's something to read.
@@ -108,51 +145,31 @@ public final class ClientChannelWatcher extends Thread {
 					for ( Iterator<SelectionKey> i = keys.iterator(); i.hasNext(); ) {
 						SelectionKey key = i.next();
 						i.remove();
-						try { 
+						try {
 							Connection conn = (Connection) key.attachment();
-							
-							if ( !key.isValid() ) {
-								handleDisconnectedEvent( conn );
-								key.cancel();
-								conn.close();
-								continue;
-							}
-							
-							if ( !conn.isConnected() ) {
-								handleDisconnectedEvent( conn );
-								key.cancel();
-								conn.close();
+
+							if ( !key.isValid() || !conn.isConnected() ) {
+								closeConnection( conn, key );
 								continue;
 							}
-							
+
 							if ( key.isWritable() ) {
-								if ( conn.getStatus() == Connection.STATUS.CONNECTED ) {
-									// handle initial connection setup
-									if ( !handleConnectedEvent( conn ) ) {
-										handleDisconnectedEvent( conn );
-										key.cancel();
-										conn.close();
-										continue;
-									}
-									conn.setStatus( Connection.STATUS.RUNNING );
-								}
-								else if ( conn.getStatus() == Connection.STATUS.RUNNING ) {
-									// this is for flushing stream whenever possible.
-									// without this line, this server will not respond to 
-									// cbench response-time test (without -t option) because 
-									// it will not give immediate response to the request
-									// until the byte buffer is filled enough to flush.
-									conn.flush();
+								// the socket has been drained enough to write the rest of the output.
+								if ( !handleWriteEvent( conn, key ) ) {
+									closeConnection( conn, key );
+									continue;
 								}
 							}
 							if ( conn.getStatus() == Connection.STATUS.RUNNING && key.isReadable() ) {
 								if ( !handleReadEvent(conn) ) {
-									handleDisconnectedEvent( conn );
-									key.cancel();
-									conn.close();
+									closeConnection( conn, key );
 									continue;
 								}
-							}							
+								if ( conn.isReadSuspended() ) {
+									// a handler is full. stop reading until it is resumed.
+									updateInterestOps( conn, key );
+								}
+							}
 						} catch ( CancelledKeyException e ) {
 							logger.debug("canced={}", e);
 							continue;
@@ -166,18 +183,170 @@ public final class ClientChannelWatcher extends Thread {
 		}
 	}
 
+	/**
+	 * Register all the channels handed over by {@link #addClient(SocketChannel)},
+	 * and initiate the handshake for them.
+	 */
+	private void registerPendingClients() {
+		SocketChannel client = null;
+		while ( (client = pending_clients.poll()) != null ) {
+			Connection new_conn = new Connection(client);
+			Set<IOFHandler> hset = getHandlersFor(new_conn);
+			if ( hset == null || hset.isEmpty() ) {
+				try {
+					// TODO: Does client need some indication for this disconnection?
+					client.close();
+				} catch (IOException e) {
+					// does nothing
+				}
+				continue;
+			}
+
+			new_conn.addHandler( hset );
+			new_conn.setWatcher( this );
+
+			SelectionKey key = null;
+			try {
+				key = client.register( read_selector, SelectionKey.OP_READ, new_conn );
+			} catch (ClosedChannelException e) {
+				// channel is closed.
+				new_conn.close();
+				continue;
+			}
+			new_conn.setSelectionKey( key );
+
+			// handle initial connection setup.
+			// the HELLO message is queued here, and flushed
+			// by the following flushPendingConnections() call.
+			if ( !handleConnectedEvent( new_conn ) ) {
+				closeConnection( new_conn, key );
+				continue;
+			}
+			new_conn.setStatus( Connection.STATUS.RUNNING );
+		}
+	}
+
+	/**
+	 * Drain the pending-resume queue, and give the handlers a chance to
+	 * hand over the messages that they could not accept.
+	 */
+	private void resumePendingConnections() {
+		Connection conn = null;
+		while ( (conn = pending_resumes.poll()) != null ) {
+			conn.clearResumeRequest();
+
+			Set<IOFHandler> handlers = conn.getHandlers();
+			for ( IOFHandler h : handlers ) {
+				h.handleResumeEvent( conn );
+			}
+
+			if ( !conn.isReadSuspended() && conn.hasBufferedMessages() ) {
+				// messages left by the read limit would wait for the next 
+				// readable event if we do not handle them here.
+				SelectionKey key = conn.getSelectionKey();
+				if ( key != null && !handleReadEvent(conn) ) {
+					closeConnection( conn, key );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drain the pending-flush queue. This is called once per select cycle.
+	 */
+	private void flushPendingConnections() {
+		Connection conn = null;
+		while ( (conn = pending_flushes.poll()) != null ) {
+			// clear the mark before flushing, so that messages written
+			// while flushing put the connection into the queue again.
+			conn.clearFlushRequest();
+
+			SelectionKey key = conn.getSelectionKey();
+			if ( key == null || !key.isValid() || !conn.isConnected() ) {
+				continue;
+			}
+
+			try {
+				if ( !handleWriteEvent( conn, key ) ) {
+					closeConnection( conn, key );
+				}
+			} catch ( CancelledKeyException e ) {
+				logger.debug("canced={}", e);
+			}
+		}
+	}
+
+	/**
+	 * Write the pending output of the connection, and update the interest set
+	 * of the key so that OP_WRITE is only set while some output remains.
+	 *
+	 * @param conn	connection to flush
+	 * @param key	selection key of the connection
+	 * @return		false if the connection is broken, true otherwise
+	 */
+	private boolean handleWriteEvent(Connection conn, SelectionKey key) {
+		if ( !conn.flush() ) {
+			return false;
+		}
+		updateInterestOps( conn, key );
+		return true;
+	}
+
+	/**
+	 * Compute the interest set of the connection from its status.
+	 * This method should be called by this thread.
+	 *
+	 * @param conn	connection
+	 */
+	void updateInterestOps(Connection conn) {
+		SelectionKey key = conn.getSelectionKey();
+		if ( key == null || !key.isValid() ) {
+			return;
+		}
+		try {
+			updateInterestOps( conn, key );
+		} catch ( CancelledKeyException e ) {
+			logger.debug("canced={}", e);
+		}
+	}
+
+	/**
+	 * Compute the interest set of the key from the connection status.
+	 *
+	 * @param conn	connection
+	 * @param key	selection key of the connection
+	 */
+	private void updateInterestOps(Connection conn, SelectionKey key) {
+		int ops = 0;
+		if ( !conn.isReadSuspended() ) {
+			ops |= SelectionKey.OP_READ;
+		}
+		if ( conn.hasPendingOutput() ) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		if ( key.interestOps() != ops ) {
+			key.interestOps( ops );
+		}
+	}
+
+	private void closeConnection(Connection conn, SelectionKey key) {
+		handleDisconnectedEvent( conn );
+		key.cancel();
+		conn.close();
+	}
+
 	private boolean handleConnectedEvent(Connection conn) {
-		
+
 		// create a switch object and set to the connection.
 		IOFSwitch sw = new OFSwitchImpl();
 		conn.setSwitch( sw );
-		
+
 		try {
 			logger.info("connected with {}", conn.getClient().getRemoteAddress());
 		} catch (IOException e1) {
 			// does nothing
 		}
-		
+
 		boolean ret = true;
 		Set<IOFHandler> handlers = conn.getHandlers();
 
@@ -186,31 +355,61 @@ public final class ClientChannelWatcher extends Thread {
 		}
 		return ret;
 	}
-	
+
+	/**
+	 * Read messages from the connection, and hand them over to the handlers.
+	 * Messages are read in batches of the read limit until no complete message
+	 * remains in the buffer, or a handler suspends reading.
+	 * 
+	 * @param conn	connection to read
+	 * @return		false if the connection is broken, true otherwise
+	 */
 	private boolean handleReadEvent(Connection conn) {
-		
-		List<OFMessage> msgs = null;
-		try {
-			msgs = conn.read();
-			if ( msgs == null ) { return true; }
-		} catch (IOException e) {
-			logger.debug("IOException on connection={}", e);
-			return false;
-		}
 
-		boolean ret = true;
-		Set<IOFHandler> handlers = conn.getHandlers();
-		for ( IOFHandler h : handlers ) {
-			ret = h.handleReadEvent(conn, msgs) == false ? false : ret ;
-		}
-		return ret;
+		do {
+			MessageBatch msgs = null;
+			try {
+				msgs = conn.read();
+				if ( msgs == null ) { return true; }
+			} catch (IOException e) {
+				logger.debug("IOException on connection={}", e);
+				return false;
+			}
+
+			try {
+				if ( msgs.isEmpty() ) { return true; }
+
+				boolean ret = true;
+				Set<IOFHandler> handlers = conn.getHandlers();
+				for ( IOFHandler h : handlers ) {
+					ret = h.handleReadEvent(conn, msgs) == false ? false : ret ;
+				}
+				if ( !ret ) {
+					return false;
+				}
+			} finally {
+				// handlers that keep the batch have retained it.
+				msgs.release();
+			}
+		} while ( !conn.isReadSuspended() && conn.hasBufferedMessages() );
+
+		return true;
 	}
 
 	private void handleDisconnectedEvent(Connection conn) {
-		try {
-			logger.info("disconnected with {}", conn.getClient().getRemoteAddress());
-		} catch (IOException e) {
-			logger.error("disconnected with a switch: error={}", e.getMessage());
+		SocketChannel client = conn.getClient();
+		if ( client == null ) {
+			logger.error("disconnected with a switch which is already closed");
+		} else {
+			try {
+				if ( conn.getSwitch() == null ) {
+					logger.info("disconnected with {} before the handshake", client.getRemoteAddress());
+				} else {
+					logger.info("disconnected with {}", client.getRemoteAddress());
+				}
+			} catch (IOException e) {
+				logger.error("disconnected with a switch: error={}", e.getMessage());
+			}
 		}
 
 		Set<IOFHandler> handlers = conn.getHandlers();
@@ -218,4 +417,4 @@ public final class ClientChannelWatcher extends Thread {
 			h.handleDisconnectEvent( conn );
 		}
 	}
-}
\ No newline at end of file
+}
@@ -2,32 +2,83 @@ package etri.sdn.controller.protocol.io;
 
 import java.io.IOException;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.openflow.io.OFMessageAsyncStream;
 //import org.openflow.protocol.factory.BasicFactory;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 
+/**
+ * A connection to a switch.
+ * 
+ * Any thread can write messages to the connection without locking.
+ * The messages are put into the outbound queue of the connection, and 
+ * the watcher thread that owns the connection encodes them 
+ * to the socket in batches (see {@link #flush()}).
+ * 
+ * @author bjlee
+ *
+ */
 public final class Connection {
 	public enum STATUS { CONNECTED, RUNNING, CLOSED };
 
-	private static int SEQ = 0;
+	// connections are created by all the watcher threads.
+	private static final AtomicInteger SEQ = new AtomicInteger(0);
 
 	private SocketChannel client;
 	private IOFSwitch sw;
 	private Set<IOFHandler> handlers = new ConcurrentSkipListSet<IOFHandler>();
 	private STATUS client_status;
-	private OFMessageAsyncStream stream;
+	private volatile OFMessageAsyncStream stream;
+
+	/**
+	 * outbound messages which are not encoded yet. 
+	 * Any thread can add messages, and only the watcher thread takes them out.
+	 */
+	private Queue<OFMessage> outbound = new ConcurrentLinkedQueue<OFMessage>();
+
+	/**
+	 * maximum number of messages read at once. 0 means no limit.
+	 */
+	private static volatile int READ_LIMIT = 256;
+
+	/**
+	 * number of free batches kept by a connection.
+	 */
+	private static final int FREE_BATCHES = 8;
+
+	/**
+	 * free batches, which are taken by the watcher thread, and given back by any thread.
+	 */
+	private AtomicReferenceArray<MessageBatch> free_batches = new AtomicReferenceArray<MessageBatch>(FREE_BATCHES);
 	private int seq;
 
-	private Selector selector;
-	AtomicBoolean write_set = new AtomicBoolean(false);
+	private ClientChannelWatcher watcher;
+	private SelectionKey key;
+
+	/**
+	 * true while this connection is in the pending-flush queue of the watcher.
+	 */
+	private AtomicBoolean flush_requested = new AtomicBoolean(false);
+
+	/**
+	 * true while this connection is in the pending-resume queue of the watcher.
+	 */
+	private AtomicBoolean resume_requested = new AtomicBoolean(false);
+
+	/**
+	 * number of handlers that cannot accept more messages from this connection.
+	 * only accessed by the watcher thread.
+	 */
+	private int read_suspensions = 0;
 
 	/**
 	 * Constructor to create a new Connection object.
@@ -42,7 +93,7 @@ public final class Connection {
 		} catch (IOException e) {
 			this.stream = null;
 		}
-		this.seq = ++SEQ;
+		this.seq = SEQ.incrementAndGet();
 	}
 
 	/**
@@ -119,11 +170,20 @@ public final class Connection {
 	}
 
 	/**
-	 * Close this connection
+	 * Close this connection. Closing a closed connection does nothing.
 	 */
 	public synchronized void close() {
 		this.client_status = STATUS.CLOSED;
+		if ( this.client == null ) {
+			// already closed, by a handler for example.
+			return;
+		}
 		try {
+			if ( this.stream != null ) {
+				// give the buffers back to the pool.
+				this.stream.close();
+			}
+			this.outbound.clear();
 			this.client.close();
 			this.client = null;
 			this.sw = null;
@@ -147,113 +207,245 @@ public final class Connection {
 	}
 
 	/**
-	 * Read OF messages from the connection 
-	 * @return	List<OFMessage> object
+	 * Set the maximum number of messages in a batch returned by {@link #read()}.
+	 * @param limit		maximum number of messages. 0 means no limit.
+	 */
+	public static void setReadLimit(int limit) {
+		READ_LIMIT = Math.max(0, limit);
+	}
+
+	/**
+	 * Read OF messages from the connection. 
+	 * At most {@link #READ_LIMIT} messages are read at once, and the rest remain
+	 * buffered (see {@link #hasBufferedMessages()}).
+	 * 
+	 * The returned batch holds a reference for the caller, 
+	 * which should be released by {@link MessageBatch#release()}.
+	 * 
+	 * @return	MessageBatch object, or null if the connection is closed
 	 * @throws 	IOException
 	 */
-	synchronized List<OFMessage> read() throws IOException {
+	synchronized MessageBatch read() throws IOException {
 		if ( this.stream == null ) {
-			return Collections.emptyList();
+			return null;
+		}
+		MessageBatch batch = takeBatch().retain();
+		try {
+			this.stream.read( batch, READ_LIMIT );
+		} catch ( IOException e ) {
+			batch.release();
+			throw e;
+		}
+		return batch;
+	}
+
+	/**
+	 * Check if this connection has complete messages which are not read yet 
+	 * because of the read limit. 
+	 * @return	true if there are such messages, false otherwise
+	 */
+	synchronized boolean hasBufferedMessages() {
+		return this.stream != null && this.stream.hasBufferedMessage();
+	}
+
+	/**
+	 * Take a free batch, or create one if there is none.
+	 * This is only called by the watcher thread.
+	 * @return	MessageBatch object
+	 */
+	private MessageBatch takeBatch() {
+		for ( int i = 0; i < this.free_batches.length(); ++i ) {
+			MessageBatch b = this.free_batches.getAndSet(i, null);
+			if ( b != null ) {
+				return b;
+			}
+		}
+		return new MessageBatch(this, Math.max(READ_LIMIT, 16), true);
+	}
+
+	/**
+	 * Give back a batch which is not referenced any more. 
+	 * This can be called by any thread. If the free slots are all taken, 
+	 * the batch is left to the garbage collector.
+	 * 
+	 * @param batch		MessageBatch object
+	 */
+	void recycle(MessageBatch batch) {
+		for ( int i = 0; i < this.free_batches.length(); ++i ) {
+			if ( this.free_batches.compareAndSet(i, null, batch) ) {
+				return;
+			}
 		}
-		return this.stream.read();
 	}
 
 	/**
-	 * Write an OF message to switch
+	 * Write an OF message to switch. 
+	 * The message is queued, and written to the socket by the watcher thread.
+	 * This method does not block, and can be called by any thread.
+	 * 
 	 * @param fm	OF Message to write
 	 * @return		true if successful, false otherwise
 	 */
-	public synchronized boolean write(OFMessage fm) {
+	public boolean write(OFMessage fm) {
 		if ( fm == null ) return true;
 		if ( this.stream == null ) return false;
 
-		// watch the channel 'client' for write!
-		this.markToWrite();
+		this.outbound.add( fm );
 
-		try {
-			this.stream.write( fm );	
-		} catch (IOException e) {
-			return false;
-		}
+		// ask the watcher to flush the channel 'client'!
+		this.markToWrite();
 		return true;
 	}
 
 	/** 
-	 * Flush the connection to write all the pending buffer to switch
+	 * Flush the connection to write the pending buffer to switch.
+	 * This method is only called by the watcher thread. 
+	 * The queued messages are encoded in batches, and no more messages are encoded
+	 * while the stream holds {@link OFMessageAsyncStream#MAX_OUTPUT_BUFFER_SIZE} bytes 
+	 * that the socket has not accepted yet. 
+	 * In that case, {@link #hasPendingOutput()} returns true.
+	 * 
 	 * @return true if successful, false otherwise
 	 */
 	synchronized boolean flush() {
 		if ( this.stream == null ) return false;
 		
 		try {
-			this.stream.flush();
+			do {
+				OFMessage m = null;
+				while ( this.stream.pendingBytes() < OFMessageAsyncStream.MAX_OUTPUT_BUFFER_SIZE && 
+						(m = this.outbound.poll()) != null ) {
+					this.stream.write( m );
+				}
+				this.stream.flush();
+				// if the socket has accepted all, encode the rest of the queue.
+			} while ( !this.stream.needsFlush() && !this.outbound.isEmpty() );
 		} catch (IOException e) {
 			return false;
-		} finally {
-			this.markFlushed();
 		}
 		return true;
 	}
 
 	/**
-	 * Write OF messages to switch
+	 * Check if this connection has some output which is not written to the socket yet.
+	 * @return	true if there is a pending output, false otherwise
+	 */
+	boolean hasPendingOutput() {
+		OFMessageAsyncStream s = this.stream;
+		if ( s == null ) return false;
+		return !this.outbound.isEmpty() || s.needsFlush();
+	}
+
+	/**
+	 * Write OF messages to switch.
+	 * The messages are queued, and written to the socket by the watcher thread.
+	 * This method does not block, and can be called by any thread.
+	 * 
 	 * @param out	OF messages to write
 	 * @return		true if successful, false otherwise
 	 */
-	public synchronized boolean write(List<OFMessage> out) {
+	public boolean write(List<OFMessage> out) {
 
 		if ( this.stream == null ) return false;
-		
-		// watch the channel 'client' for write!
-		this.markToWrite();
+		if ( out.isEmpty() ) return true;
 
-		for ( OFMessage m : out ) {
-			try { 
-				this.stream.write( m );
-			} catch ( IOException e ) {
-				return false;
-			}
-		}
+		this.outbound.addAll( out );
 
+		// ask the watcher to flush the channel 'client'!
+		this.markToWrite();
 		return true;
 	}
 
 	/**
-	 * Append selector to this connection
-	 * @param read_selector selector to attach 
+	 * Set the watcher that monitors this connection
+	 * @param watcher	ClientChannelWatcher object 
+	 */
+	void setWatcher(ClientChannelWatcher watcher) {
+		this.watcher = watcher;
+	}
+
+	/**
+	 * Set the selection key which is returned when this connection is registered to the watcher
+	 * @param key	SelectionKey object
+	 */
+	void setSelectionKey(SelectionKey key) {
+		this.key = key;
+	}
+
+	/**
+	 * Get the selection key of this connection
+	 * @return	SelectionKey object, or null if this connection is not registered yet
 	 */
-	void setSelector(Selector read_selector) {
-		this.selector = read_selector;
+	SelectionKey getSelectionKey() {
+		return this.key;
 	}
 
 	/**
-	 * Mark the selector to monitor both read and write event
+	 * Ask the watcher to flush this connection.
+	 * The connection is put into the pending-flush queue of the watcher 
+	 * only if it is not already in there.
 	 */
 	private void markToWrite() {
-		try {
-			if ( this.write_set.compareAndSet(false, true) ) {
-				this.client.keyFor(this.selector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-				this.selector.wakeup();
-			}
-		} catch ( NullPointerException e ) {
-			// this is a truly exceptional case that there is no key
-			// bounded for the client. (connection is already cut.)
-			return;
+		if ( this.watcher != null && this.flush_requested.compareAndSet(false, true) ) {
+			this.watcher.requestFlush(this);
 		}
 	}
 
 	/**
-	 * Mark the selector to only monitor read event
+	 * Clear the flush request mark. 
+	 * This is called by the watcher when it takes this connection out of the pending-flush queue.
 	 */
-	private void markFlushed() {
-		try {
-			if ( this.write_set.compareAndSet(true, false) ) {
-				this.client.keyFor(this.selector).interestOps(SelectionKey.OP_READ);
-			}
-		} catch ( NullPointerException e ) {
-			// this is a truly exceptional case that there is no key
-			// bounded for the client. (connection is already cut.)
-			return;
+	void clearFlushRequest() {
+		this.flush_requested.set(false);
+	}
+
+	/**
+	 * Stop reading from this connection until {@link #resumeRead()} is called.
+	 * This is called by a handler (on the watcher thread) within 
+	 * {@link IOFHandler#handleReadEvent(Connection, List)} when it cannot
+	 * accept more messages.
+	 */
+	public void suspendRead() {
+		++this.read_suspensions;
+	}
+
+	/**
+	 * Undo a {@link #suspendRead()} call. When no handler holds the connection,
+	 * the watcher starts reading from the connection again.
+	 * This should be called on the watcher thread, normally within
+	 * {@link IOFHandler#handleResumeEvent(Connection)}. 
+	 */
+	public void resumeRead() {
+		if ( this.read_suspensions > 0 && --this.read_suspensions == 0 && this.watcher != null ) {
+			this.watcher.updateInterestOps(this);
+		}
+	}
+
+	/**
+	 * Check if reading from this connection is suspended.
+	 * @return	true if suspended, false otherwise
+	 */
+	boolean isReadSuspended() {
+		return this.read_suspensions > 0;
+	}
+
+	/**
+	 * Ask the watcher to call {@link IOFHandler#handleResumeEvent(Connection)} 
+	 * of the handlers of this connection. This can be called by any thread.
+	 * A handler that has suspended reading uses this method to get back to
+	 * the watcher thread when it can accept messages again.
+	 */
+	public void requestResume() {
+		if ( this.watcher != null && this.resume_requested.compareAndSet(false, true) ) {
+			this.watcher.requestResume(this);
 		}
 	}
+
+	/**
+	 * Clear the resume request mark. 
+	 * This is called by the watcher when it takes this connection out of the pending-resume queue.
+	 */
+	void clearResumeRequest() {
+		this.resume_requested.set(false);
+	}
 }
@@ -42,7 +42,24 @@ public interface IOFHandler {
 
 	public abstract void registerProtocolServer(IOFProtocolServer server);
 
+	/**
+	 * Called on the watcher thread when messages are read from the connection.
+	 * The list is a {@link MessageBatch} which is recycled after this call returns.
+	 * A handler that uses the list after returning should call {@link MessageBatch#retain()}
+	 * here, and {@link MessageBatch#release()} when it is done with the list.
+	 * @param conn	connection from which the messages are read
+	 * @param msgs	messages read
+	 * @return		false if the connection should be closed, true otherwise
+	 */
 	public abstract boolean handleReadEvent(Connection conn, List<OFMessage> msgs);
+
+	/**
+	 * Called on the watcher thread after {@link Connection#requestResume()} is called.
+	 * A handler that suspended reading from connections with {@link Connection#suspendRead()}
+	 * hands over the held messages here, and calls {@link Connection#resumeRead()}.
+	 * @param conn	connection that requested the resume
+	 */
+	public abstract void handleResumeEvent(Connection conn);
 	public abstract boolean handleDisconnectEvent(Connection conn);
 	public abstract boolean handleConnectedEvent(final Connection conn);
 
@@ -0,0 +1,75 @@
+package etri.sdn.controller.protocol.io;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.projectfloodlight.openflow.protocol.OFMessage;
+
+/**
+ * List of OF messages that are read from a connection at once.
+ *
+ * A batch is recycled by the connection that made it:
+ * the watcher thread holds a reference to the batch while the handlers
+ * are called, and a handler that keeps the batch after
+ * {@link IOFHandler#handleReadEvent(Connection, java.util.List)} returns
+ * should call {@link #retain()}, and {@link #release()} when it is done with the batch.
+ * When the last reference is released, the batch is cleared and
+ * returned to the connection to be filled again.
+ */
+public final class MessageBatch extends ArrayList<OFMessage> {
+
+	private static final long serialVersionUID = 1L;
+
+	private Connection conn;
+	private AtomicInteger refs = new AtomicInteger(0);
+	private boolean recyclable;
+
+	MessageBatch(Connection conn, int capacity, boolean recyclable) {
+		super(capacity);
+		this.conn = conn;
+		this.recyclable = recyclable;
+	}
+
+	/**
+	 * Wrap the messages which are not from a connection into a batch.
+	 * The returned batch is not recycled.
+	 *
+	 * @param conn	connection to which the messages belong
+	 * @param msgs	messages to wrap
+	 * @return		MessageBatch object
+	 */
+	public static MessageBatch wrap(Connection conn, Collection<OFMessage> msgs) {
+		MessageBatch ret = new MessageBatch(conn, msgs.size(), false);
+		ret.addAll(msgs);
+		return ret;
+	}
+
+	/**
+	 * Get the connection from which the messages are read.
+	 * @return	Connection object
+	 */
+	public Connection getConnection() {
+		return this.conn;
+	}
+
+	/**
+	 * Add a reference to this batch.
+	 * @return	this object
+	 */
+	public MessageBatch retain() {
+		this.refs.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * Remove a reference to this batch.
+	 * The batch should not be touched after the caller releases it.
+	 */
+	public void release() {
+		if ( this.refs.decrementAndGet() == 0 && this.recyclable ) {
+			this.clear();
+			this.conn.recycle(this);
+		}
+	}
+}
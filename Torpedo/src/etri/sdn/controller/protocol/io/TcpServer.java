@@ -25,6 +25,7 @@ public final class TcpServer extends Thread implements IOFProtocolServer {
 		this.watchers = new ClientChannelWatcher[watcher_num];
 		for ( int i = 0; i < watchers.length; ++i ) {
 			this.watchers[i] = new ClientChannelWatcher();
+			this.watchers[i].setName("ClientChannelWatcher-" + i);
 		}
 	}
 
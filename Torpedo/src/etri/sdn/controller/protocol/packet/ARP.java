@@ -17,6 +17,7 @@
 
 package etri.sdn.controller.protocol.packet;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
@@ -44,6 +45,13 @@ public class ARP extends BasePacket {
     protected byte[] targetHardwareAddress;
     protected byte[] targetProtocolAddress;
 
+    /**
+     * array that holds the addresses read by deserialize(). The address arrays 
+     * are copied out of it on the first access (see {@link #decodeAddresses()}).
+     */
+    private byte[] addressBytes;
+    private int addressOffset;
+
     /**
      * @return the hardwareType
      */
@@ -85,6 +93,7 @@ public class ARP extends BasePacket {
      * @param hardwareAddressLength the hardwareAddressLength to set
      */
     public ARP setHardwareAddressLength(byte hardwareAddressLength) {
+        decodeAddresses();
         this.hardwareAddressLength = hardwareAddressLength;
         return this;
     }
@@ -100,6 +109,7 @@ public class ARP extends BasePacket {
      * @param protocolAddressLength the protocolAddressLength to set
      */
     public ARP setProtocolAddressLength(byte protocolAddressLength) {
+        decodeAddresses();
         this.protocolAddressLength = protocolAddressLength;
         return this;
     }
@@ -123,6 +133,7 @@ public class ARP extends BasePacket {
      * @return the senderHardwareAddress
      */
     public byte[] getSenderHardwareAddress() {
+        decodeAddresses();
         return senderHardwareAddress;
     }
 
@@ -130,6 +141,7 @@ public class ARP extends BasePacket {
      * @param senderHardwareAddress the senderHardwareAddress to set
      */
     public ARP setSenderHardwareAddress(byte[] senderHardwareAddress) {
+        decodeAddresses();
         this.senderHardwareAddress = senderHardwareAddress;
         return this;
     }
@@ -138,6 +150,7 @@ public class ARP extends BasePacket {
      * @return the senderProtocolAddress
      */
     public byte[] getSenderProtocolAddress() {
+        decodeAddresses();
         return senderProtocolAddress;
     }
 
@@ -145,11 +158,13 @@ public class ARP extends BasePacket {
      * @param senderProtocolAddress the senderProtocolAddress to set
      */
     public ARP setSenderProtocolAddress(byte[] senderProtocolAddress) {
+        decodeAddresses();
         this.senderProtocolAddress = senderProtocolAddress;
         return this;
     }
     
     public ARP setSenderProtocolAddress(int address) {
+        decodeAddresses();
         this.senderProtocolAddress = ByteBuffer.allocate(4).putInt(address).array();
         return this;
     }
@@ -158,6 +173,7 @@ public class ARP extends BasePacket {
      * @return the targetHardwareAddress
      */
     public byte[] getTargetHardwareAddress() {
+        decodeAddresses();
         return targetHardwareAddress;
     }
 
@@ -165,6 +181,7 @@ public class ARP extends BasePacket {
      * @param targetHardwareAddress the targetHardwareAddress to set
      */
     public ARP setTargetHardwareAddress(byte[] targetHardwareAddress) {
+        decodeAddresses();
         this.targetHardwareAddress = targetHardwareAddress;
         return this;
     }
@@ -173,6 +190,7 @@ public class ARP extends BasePacket {
      * @return the targetProtocolAddress
      */
     public byte[] getTargetProtocolAddress() {
+        decodeAddresses();
         return targetProtocolAddress;
     }
 
@@ -180,6 +198,7 @@ public class ARP extends BasePacket {
      * @return True if gratuitous ARP (SPA = TPA), false otherwise
      */
     public boolean isGratuitous() {        
+        decodeAddresses();
         assert(senderProtocolAddress.length == targetProtocolAddress.length);
         
         int indx = 0;
@@ -197,17 +216,20 @@ public class ARP extends BasePacket {
      * @param targetProtocolAddress the targetProtocolAddress to set
      */
     public ARP setTargetProtocolAddress(byte[] targetProtocolAddress) {
+        decodeAddresses();
         this.targetProtocolAddress = targetProtocolAddress;
         return this;
     }
     
     public ARP setTargetProtocolAddress(int address) {
+        decodeAddresses();
         this.targetProtocolAddress = ByteBuffer.allocate(4).putInt(address).array();
         return this;
     }
 
     @Override
     public byte[] serialize() {
+        decodeAddresses();
         int length = 8 + (2 * (0xff & this.hardwareAddressLength))
                 + (2 * (0xff & this.protocolAddressLength));
         byte[] data = new byte[length];
@@ -232,22 +254,42 @@ public class ARP extends BasePacket {
         this.hardwareAddressLength = bb.get();
         this.protocolAddressLength = bb.get();
         this.opCode = bb.getShort();
-        this.senderHardwareAddress = new byte[0xff & this.hardwareAddressLength];
-        bb.get(this.senderHardwareAddress, 0, this.senderHardwareAddress.length);
-        this.senderProtocolAddress = new byte[0xff & this.protocolAddressLength];
-        bb.get(this.senderProtocolAddress, 0, this.senderProtocolAddress.length);
-        this.targetHardwareAddress = new byte[0xff & this.hardwareAddressLength];
-        bb.get(this.targetHardwareAddress, 0, this.targetHardwareAddress.length);
-        this.targetProtocolAddress = new byte[0xff & this.protocolAddressLength];
-        bb.get(this.targetProtocolAddress, 0, this.targetProtocolAddress.length);
+        if (bb.remaining() < 2 * ((0xff & this.hardwareAddressLength) + (0xff & this.protocolAddressLength))) {
+            throw new BufferUnderflowException();
+        }
+        // the addresses are copied when they are accessed.
+        this.senderHardwareAddress = null;
+        this.senderProtocolAddress = null;
+        this.targetHardwareAddress = null;
+        this.targetProtocolAddress = null;
+        this.addressBytes = data;
+        this.addressOffset = bb.position();
         return this;
     }
 
+    private void decodeAddresses() {
+        if (this.addressBytes == null) {
+            return;
+        }
+        int hlen = 0xff & this.hardwareAddressLength;
+        int plen = 0xff & this.protocolAddressLength;
+        int i = this.addressOffset;
+        this.senderHardwareAddress = Arrays.copyOfRange(this.addressBytes, i, i + hlen);
+        i += hlen;
+        this.senderProtocolAddress = Arrays.copyOfRange(this.addressBytes, i, i + plen);
+        i += plen;
+        this.targetHardwareAddress = Arrays.copyOfRange(this.addressBytes, i, i + hlen);
+        i += hlen;
+        this.targetProtocolAddress = Arrays.copyOfRange(this.addressBytes, i, i + plen);
+        this.addressBytes = null;
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#hashCode()
      */
     @Override
     public int hashCode() {
+        decodeAddresses();
         final int prime = 13121;
         int result = super.hashCode();
         result = prime * result + hardwareAddressLength;
@@ -274,6 +316,8 @@ public class ARP extends BasePacket {
         if (!(obj instanceof ARP))
             return false;
         ARP other = (ARP) obj;
+        decodeAddresses();
+        other.decodeAddresses();
         if (hardwareAddressLength != other.hardwareAddressLength)
             return false;
         if (hardwareType != other.hardwareType)
@@ -300,6 +344,7 @@ public class ARP extends BasePacket {
      */
     @Override
     public String toString() {
+        decodeAddresses();
         return "ARP [hardwareType=" + hardwareType + ", protocolType="
                 + protocolType + ", hardwareAddressLength="
                 + hardwareAddressLength + ", protocolAddressLength="
@@ -20,8 +20,6 @@
 package etri.sdn.controller.protocol.packet;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * @author Shudong Zhou (shudong.zhou@bigswitch.com)
@@ -32,13 +30,6 @@ public class BSN extends BasePacket {
 	public static final short BSN_VERSION_CURRENT = 0x0;
 	public static final short BSN_TYPE_PROBE = 0x1;
 	public static final short BSN_TYPE_BDDP  = 0x2;
-	public static Map<Short, Class<? extends IPacket>> typeClassMap;
-	
-    static {
-        typeClassMap = new HashMap<Short, Class<? extends IPacket>>();
-        typeClassMap.put(BSN_TYPE_PROBE, BSNPROBE.class);
-        typeClassMap.put(BSN_TYPE_BDDP, LLDP.class);
-    }
 
 	protected short type;
 	protected short version;
@@ -75,7 +66,8 @@ public class BSN extends BasePacket {
     	short length = 4 /* magic */ + 2 /* type */ + 2 /* version */;
     	
     	byte[] payloadData = null;
-    	if (this.payload != null) {
+    	IPacket payload = getPayload();
+    	if (payload != null) {
             payload.setParent(this);
             payloadData = payload.serialize();
             length += payloadData.length;
@@ -112,25 +104,23 @@ public class BSN extends BasePacket {
         	        + BSN_VERSION_CURRENT);
         }
         
-        IPacket payload;
-        if (typeClassMap.containsKey(this.type)) {
-            Class<? extends IPacket> clazz = typeClassMap.get(this.type);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for BSN packet" + e);
-            }
-        } else {
-            payload = new Data();
-        }
-        
-        this.payload = new Data();
-        this.payload = payload.deserialize(data, bb.position(), bb.limit() - bb.position());
-        this.payload.setParent(this);
-        
+        // the payload is decoded when it is accessed.
+        deferPayload(data, bb.position(), bb.limit() - bb.position());
         return this;
     }
 
+    @Override
+    protected IPacket createPayload(IPacket reuse) {
+        switch (this.type) {
+        case BSN_TYPE_PROBE:
+            return new BSNPROBE();
+        case BSN_TYPE_BDDP:
+            return new LLDP();
+        default:
+            return super.createPayload(reuse);
+        }
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#hashCode()
      */
@@ -162,8 +152,10 @@ public class BSN extends BasePacket {
     public String toString() {
     	StringBuffer sb = new StringBuffer("\n");
     	sb.append("BSN packet");
-        if (typeClassMap.containsKey(this.type))
-        	sb.append(" type: " + typeClassMap.get(this.type).getCanonicalName());
+        if (this.type == BSN_TYPE_PROBE)
+        	sb.append(" type: " + BSNPROBE.class.getCanonicalName());
+        else if (this.type == BSN_TYPE_BDDP)
+        	sb.append(" type: " + LLDP.class.getCanonicalName());
         else
         	sb.append(" type: " + this.type);
         
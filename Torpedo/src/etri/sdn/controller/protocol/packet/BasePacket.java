@@ -26,6 +26,19 @@ public abstract class BasePacket implements IPacket {
     protected IPacket parent;
     protected IPacket payload;
 
+    /**
+     * bytes of the payload that is not decoded yet (see {@link #deferPayload}).
+     */
+    private byte[] payloadBytes;
+    private int payloadOffset;
+    private int payloadLength;
+
+    /**
+     * if true, the payload object of the previous packet is reused 
+     * when this object is deserialized again (see {@link #setReusePayload}).
+     */
+    private boolean reusePayload = false;
+
     /**
      * @return the parent
      */
@@ -48,6 +61,9 @@ public abstract class BasePacket implements IPacket {
      */
     @Override
     public IPacket getPayload() {
+        if (payloadBytes != null) {
+            decodePayload();
+        }
         return payload;
     }
 
@@ -56,9 +72,70 @@ public abstract class BasePacket implements IPacket {
      */
     @Override
     public IPacket setPayload(IPacket payload) {
+        this.payloadBytes = null;
         this.payload = payload;
         return this;
     }
+
+    /**
+     * Keep the bytes of the payload to decode them on the first call 
+     * to {@link #getPayload()}, instead of decoding all the layers at once.
+     * This is called by deserialize() of the subclasses.
+     * The bytes are not copied, thus the array should not be modified 
+     * until the payload is decoded.
+     * 
+     * @param data array that holds the payload
+     * @param offset offset of the payload
+     * @param length length of the payload
+     */
+    protected void deferPayload(byte[] data, int offset, int length) {
+        this.payloadBytes = data;
+        this.payloadOffset = offset;
+        this.payloadLength = length;
+        if (!reusePayload) {
+            this.payload = null;
+        }
+    }
+
+    /**
+     * Create an empty payload object for the deferred payload bytes.
+     * 
+     * @param reuse the payload object of the previous packet, or null.
+     *        Subclasses return it if it is of the type to create, 
+     *        and its deserialize() resets all the fields.
+     * @return the payload object to deserialize the bytes into
+     */
+    protected IPacket createPayload(IPacket reuse) {
+        return (reuse instanceof Data) ? reuse : new Data();
+    }
+
+    private void decodePayload() {
+        byte[] data = payloadBytes;
+        payloadBytes = null;
+        IPacket p = createPayload(reusePayload ? payload : null);
+        if (reusePayload && p instanceof BasePacket) {
+            ((BasePacket) p).setReusePayload(true);
+        }
+        payload = p.deserialize(data, payloadOffset, payloadLength);
+        if (payload != null) {
+            payload.setParent(this);
+        }
+    }
+
+    /**
+     * Reuse the payload objects when this object is deserialized again 
+     * for another packet, instead of creating new ones. This applies to 
+     * all the layers of the payload. This is for the packet objects that 
+     * are reused by a thread (e.g., one per QP thread), and the payloads 
+     * obtained for a packet should not be kept after the next packet is deserialized.
+     * 
+     * @param reuse true to reuse the payload objects
+     * @return this
+     */
+    public BasePacket setReusePayload(boolean reuse) {
+        this.reusePayload = reuse;
+        return this;
+    }
     
     @Override
     public void resetChecksum() {
@@ -73,6 +150,7 @@ public abstract class BasePacket implements IPacket {
     public int hashCode() {
         final int prime = 6733;
         int result = 1;
+        IPacket payload = getPayload();
         result = prime * result + ((payload == null) ? 0 : payload.hashCode());
         return result;
     }
@@ -89,10 +167,11 @@ public abstract class BasePacket implements IPacket {
         if (!(obj instanceof BasePacket))
             return false;
         BasePacket other = (BasePacket) obj;
+        IPacket payload = getPayload();
         if (payload == null) {
-            if (other.payload != null)
+            if (other.getPayload() != null)
                 return false;
-        } else if (!payload.equals(other.payload))
+        } else if (!payload.equals(other.getPayload()))
             return false;
         return true;
     }
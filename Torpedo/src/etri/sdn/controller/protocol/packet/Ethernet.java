@@ -19,8 +19,6 @@ package etri.sdn.controller.protocol.packet;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.projectfloodlight.openflow.util.HexString;
 
@@ -39,19 +37,17 @@ public class Ethernet extends BasePacket {
     public static final short TYPE_BSN = (short) 0x8942;
     public static final short VLAN_UNTAGGED = (short)0xffff;
     public static final short DATALAYER_ADDRESS_LENGTH = 6; // bytes
-    public static Map<Short, Class<? extends IPacket>> etherTypeClassMap;
-
-    static {
-        etherTypeClassMap = new HashMap<Short, Class<? extends IPacket>>();
-        etherTypeClassMap.put(TYPE_ARP, ARP.class);
-        etherTypeClassMap.put(TYPE_RARP, ARP.class);
-        etherTypeClassMap.put(TYPE_IPv4, IPv4.class);
-        etherTypeClassMap.put(TYPE_LLDP, LLDP.class);
-        etherTypeClassMap.put(TYPE_BSN, BSN.class);
-    }
 
     protected MACAddress destinationMACAddress;
     protected MACAddress sourceMACAddress;
+
+    /**
+     * addresses read by deserialize(). The MACAddress objects are 
+     * created from them on the first access (see {@link #decodeMACAddresses()}).
+     */
+    private long destinationMACValue;
+    private long sourceMACValue;
+    private boolean macDeferred = false;
     protected byte priorityCode;
     protected short vlanID;
     protected short etherType;
@@ -65,17 +61,26 @@ public class Ethernet extends BasePacket {
         this.vlanID = VLAN_UNTAGGED;
     }
     
+    private void decodeMACAddresses() {
+        if (macDeferred) {
+            macDeferred = false;
+            destinationMACAddress = MACAddress.valueOf(destinationMACValue);
+            sourceMACAddress = MACAddress.valueOf(sourceMACValue);
+        }
+    }
+
     /**
      * @return the destination MAC as a byte array
      */
     public byte[] getDestinationMACAddress() {
-        return destinationMACAddress.toBytes();
+        return getDestinationMAC().toBytes();
     }
     
     /**
      * @return the destination MAC
      */
     public MACAddress getDestinationMAC() {
+        decodeMACAddresses();
         return destinationMACAddress;
     }
 
@@ -83,6 +88,7 @@ public class Ethernet extends BasePacket {
      * @param destinationMACAddress the destination MAC to set
      */
     public Ethernet setDestinationMACAddress(byte[] destinationMACAddress) {
+        decodeMACAddresses();
         this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
         return this;
     }
@@ -91,6 +97,7 @@ public class Ethernet extends BasePacket {
      * @param destinationMACAddress the destination MAC to set
      */
     public Ethernet setDestinationMACAddress(String destinationMACAddress) {
+        decodeMACAddresses();
         this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
         return this;
     }
@@ -99,13 +106,14 @@ public class Ethernet extends BasePacket {
      * @return the source MACAddress as a byte array
      */
     public byte[] getSourceMACAddress() {
-        return sourceMACAddress.toBytes();
+        return getSourceMAC().toBytes();
     }
     
     /**
      * @return the source MACAddress
      */
     public MACAddress getSourceMAC() {
+        decodeMACAddresses();
         return sourceMACAddress;
     }
 
@@ -113,6 +121,7 @@ public class Ethernet extends BasePacket {
      * @param sourceMACAddress the source MAC to set
      */
     public Ethernet setSourceMACAddress(byte[] sourceMACAddress) {
+        decodeMACAddresses();
         this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
         return this;
     }
@@ -121,6 +130,7 @@ public class Ethernet extends BasePacket {
      * @param sourceMACAddress the source MAC to set
      */
     public Ethernet setSourceMACAddress(String sourceMACAddress) {
+        decodeMACAddresses();
         this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
         return this;
     }
@@ -174,6 +184,8 @@ public class Ethernet extends BasePacket {
      * @return True if the Ethernet frame is broadcast, false otherwise
      */
     public boolean isBroadcast() {
+        if (macDeferred)
+            return destinationMACValue == 0xffffffffffffL;
         assert(destinationMACAddress.length() == 6);
         return destinationMACAddress.isBroadcast();
     }
@@ -182,6 +194,8 @@ public class Ethernet extends BasePacket {
      * @return True is the Ethernet frame is multicast, False otherwise
      */
     public boolean isMulticast() {
+        if (macDeferred)
+            return (destinationMACValue & 0x010000000000L) != 0 && destinationMACValue != 0xffffffffffffL;
         return destinationMACAddress.isMulticast();
     }
     /**
@@ -203,6 +217,7 @@ public class Ethernet extends BasePacket {
 
     public byte[] serialize() {
         byte[] payloadData = null;
+        IPacket payload = getPayload();
         if (payload != null) {
             payload.setParent(this);
             payloadData = payload.serialize();
@@ -214,8 +229,8 @@ public class Ethernet extends BasePacket {
         }
         byte[] data = new byte[length];
         ByteBuffer bb = ByteBuffer.wrap(data);
-        bb.put(destinationMACAddress.toBytes());
-        bb.put(sourceMACAddress.toBytes());
+        bb.put(getDestinationMAC().toBytes());
+        bb.put(getSourceMAC().toBytes());
         if (vlanID != VLAN_UNTAGGED) {
             bb.putShort((short) 0x8100);
             bb.putShort((short) ((priorityCode << 13) | (vlanID & 0x0fff)));
@@ -234,17 +249,9 @@ public class Ethernet extends BasePacket {
         if (length <= 0)
             return null;
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
-        if (this.destinationMACAddress == null)
-            this.destinationMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] dstAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(dstAddr);
-        this.destinationMACAddress = MACAddress.valueOf(dstAddr);
-
-        if (this.sourceMACAddress == null)
-            this.sourceMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] srcAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(srcAddr);
-        this.sourceMACAddress = MACAddress.valueOf(srcAddr);
+        this.destinationMACValue = ((long) bb.getShort() & 0xffffL) << 32 | (bb.getInt() & 0xffffffffL);
+        this.sourceMACValue = ((long) bb.getShort() & 0xffffL) << 32 | (bb.getInt() & 0xffffffffL);
+        this.macDeferred = true;
 
         short etherType = bb.getShort();
         if (etherType == (short) 0x8100) {
@@ -253,26 +260,33 @@ public class Ethernet extends BasePacket {
             this.vlanID = (short) (tci & 0x0fff);
             etherType = bb.getShort();
         } else {
+            this.priorityCode = 0;
             this.vlanID = VLAN_UNTAGGED;
         }
         this.etherType = etherType;
-        
-        IPacket payload;
-        if (Ethernet.etherTypeClassMap.containsKey(this.etherType)) {
-            Class<? extends IPacket> clazz = Ethernet.etherTypeClassMap.get(this.etherType);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for Ethernet packet", e);
-            }
-        } else {
-            payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+
+        // the payload is decoded when it is accessed.
+        deferPayload(data, bb.position(), bb.limit()-bb.position());
         return this;
     }
 
+    @Override
+    protected IPacket createPayload(IPacket reuse) {
+        switch (this.etherType) {
+        case TYPE_ARP:
+        case TYPE_RARP:
+            return (reuse instanceof ARP) ? reuse : new ARP();
+        case TYPE_IPv4:
+            return (reuse instanceof IPv4) ? reuse : new IPv4();
+        case TYPE_LLDP:
+            return new LLDP();
+        case TYPE_BSN:
+            return new BSN();
+        default:
+            return super.createPayload(reuse);
+        }
+    }
+
     /**
      * Checks to see if a string is a valid MAC address.
      * @param macAddress
@@ -328,12 +342,12 @@ public class Ethernet extends BasePacket {
     public int hashCode() {
         final int prime = 7867;
         int result = super.hashCode();
-        result = prime * result + destinationMACAddress.hashCode();
+        result = prime * result + getDestinationMAC().hashCode();
         result = prime * result + etherType;
         result = prime * result + vlanID;
         result = prime * result + priorityCode;
         result = prime * result + (pad ? 1231 : 1237);
-        result = prime * result + sourceMACAddress.hashCode();
+        result = prime * result + getSourceMAC().hashCode();
         return result;
     }
 
@@ -349,7 +363,7 @@ public class Ethernet extends BasePacket {
         if (!(obj instanceof Ethernet))
             return false;
         Ethernet other = (Ethernet) obj;
-        if (!destinationMACAddress.equals(other.destinationMACAddress))
+        if (!getDestinationMAC().equals(other.getDestinationMAC()))
             return false;
         if (priorityCode != other.priorityCode)
             return false;
@@ -359,7 +373,7 @@ public class Ethernet extends BasePacket {
             return false;
         if (pad != other.pad)
             return false;
-        if (!sourceMACAddress.equals(other.sourceMACAddress))
+        if (!getSourceMAC().equals(other.getSourceMAC()))
             return false;
         return true;
     }
@@ -427,20 +441,20 @@ public class Ethernet extends BasePacket {
             sb.append("\nnw_proto: ");
             sb.append(p.getProtocol());
 
-            if (p.payload instanceof TCP) {
+            if (p.getPayload() instanceof TCP) {
                 sb.append("\ntp_src: ");
-                sb.append(((TCP) p.payload).getSourcePort());
+                sb.append(((TCP) p.getPayload()).getSourcePort());
                 sb.append("\ntp_dst: ");
-                sb.append(((TCP) p.payload).getDestinationPort());
+                sb.append(((TCP) p.getPayload()).getDestinationPort());
 
-            } else if (p.payload instanceof UDP) {
+            } else if (p.getPayload() instanceof UDP) {
                 sb.append("\ntp_src: ");
-                sb.append(((UDP) p.payload).getSourcePort());
+                sb.append(((UDP) p.getPayload()).getSourcePort());
                 sb.append("\ntp_dst: ");
-                sb.append(((UDP) p.payload).getDestinationPort());
+                sb.append(((UDP) p.getPayload()).getDestinationPort());
                 
-            } else if (p.payload instanceof ICMP) {
-                ICMP icmp = (ICMP) p.payload;
+            } else if (p.getPayload() instanceof ICMP) {
+                ICMP icmp = (ICMP) p.getPayload();
                 sb.append("\nicmp_type: ");
                 sb.append(icmp.getIcmpType());
                 sb.append("\nicmp_code: ");
@@ -82,6 +82,7 @@ public class ICMP extends BasePacket {
     public byte[] serialize() {
         int length = 4;
         byte[] payloadData = null;
+        IPacket payload = getPayload();
         if (payload != null) {
             payload.setParent(this);
             payloadData = payload.serialize();
@@ -162,9 +163,8 @@ public class ICMP extends BasePacket {
         this.icmpCode = bb.get();
         this.checksum = bb.getShort();
         
-        this.payload = new Data();
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        // the payload is decoded when it is accessed.
+        deferPayload(data, bb.position(), bb.limit()-bb.position());
         return this;
     }
 }
@@ -23,8 +23,6 @@ package etri.sdn.controller.protocol.packet;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -34,14 +32,6 @@ public class IPv4 extends BasePacket {
     public static final byte PROTOCOL_ICMP = 0x1;
     public static final byte PROTOCOL_TCP = 0x6;
     public static final byte PROTOCOL_UDP = 0x11;
-    public static Map<Byte, Class<? extends IPacket>> protocolClassMap;
-
-    static {
-        protocolClassMap = new HashMap<Byte, Class<? extends IPacket>>();
-        protocolClassMap.put(PROTOCOL_ICMP, ICMP.class);
-        protocolClassMap.put(PROTOCOL_TCP, TCP.class);
-        protocolClassMap.put(PROTOCOL_UDP, UDP.class);
-    }
 
     protected byte version;
     protected byte headerLength;
@@ -288,6 +278,7 @@ public class IPv4 extends BasePacket {
      */
     public byte[] serialize() {
         byte[] payloadData = null;
+        IPacket payload = getPayload();
         if (payload != null) {
             payload.setParent(this);
             payloadData = payload.serialize();
@@ -358,21 +349,12 @@ public class IPv4 extends BasePacket {
             int optionsLength = (this.headerLength - 5) * 4;
             this.options = new byte[optionsLength];
             bb.get(this.options);
-        }
-
-        IPacket payload;
-        if (IPv4.protocolClassMap.containsKey(this.protocol)) {
-            Class<? extends IPacket> clazz = IPv4.protocolClassMap.get(this.protocol);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for IPv4 packet", e);
-            }
         } else {
-            payload = new Data();
+            this.options = null;
         }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+
+        // the payload is decoded when it is accessed.
+        deferPayload(data, bb.position(), bb.limit()-bb.position());
 
         if (this.totalLength != length)
             this.isTruncated = true;
@@ -382,6 +364,20 @@ public class IPv4 extends BasePacket {
         return this;
     }
 
+    @Override
+    protected IPacket createPayload(IPacket reuse) {
+        switch (this.protocol) {
+        case PROTOCOL_ICMP:
+            return new ICMP();
+        case PROTOCOL_TCP:
+            return (reuse instanceof TCP) ? reuse : new TCP();
+        case PROTOCOL_UDP:
+            return (reuse instanceof UDP) ? reuse : new UDP();
+        default:
+            return super.createPayload(reuse);
+        }
+    }
+
     /**
      * Accepts an IPv4 address of the form xxx.xxx.xxx.xxx, ie 192.168.0.1 and
      * returns the corresponding 32 bit integer.
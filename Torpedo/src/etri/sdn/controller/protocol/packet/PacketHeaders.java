@@ -0,0 +1,472 @@
+package etri.sdn.controller.protocol.packet;
+
+/**
+ * Flyweight view of the headers of a packet: Ethernet (with 802.1Q tag),
+ * IPv4, ARP, and the ports of TCP and UDP.
+ *
+ * The view does not copy the packet, nor create an object for each header
+ * as {@link Ethernet#deserialize(byte[], int, int)} does. The header fields are
+ * decoded from the packet array into primitive fields of this object, layer by layer,
+ * when a field of the layer is first read. Thus the fields of the upper layers are
+ * never decoded for the packets whose lower layer headers are enough for the modules.
+ *
+ * A view can be reused for another packet by {@link #wrap(byte[], int, int)}.
+ * The message context keeps one view per QP thread, which is wrapped once for
+ * each PACKET_IN message (see {@link etri.sdn.controller.MessageContext#getPacketHeaders}).
+ * Therefore, a view obtained from the context should not be kept after the message
+ * is processed.
+ *
+ * If the packet is too short for a header, the fields of the header and
+ * the upper layers are left zero, and the has* methods return false.
+ *
+ * This class is not thread-safe.
+ */
+public final class PacketHeaders {
+
+	public static final short VLAN_UNTAGGED = Ethernet.VLAN_UNTAGGED;
+
+	private static final short TYPE_VLAN = (short) 0x8100;
+
+	private static final int ETHERNET_HEADER_LENGTH = 14;
+	private static final int IPV4_HEADER_LENGTH = 20;
+	private static final int ARP_HEADER_LENGTH = 8;
+
+	/* layers that are decoded */
+	private static final int L2 = 0x1;
+	private static final int L3 = 0x2;
+	private static final int L4 = 0x4;
+
+	private byte[] data;
+	private int offset;
+	private int end;
+	private int decoded;
+
+	/* L2 */
+	private boolean has_ethernet;
+	private long dl_dst;
+	private long dl_src;
+	private short dl_type;
+	private short vlan;
+	private byte vlan_pcp;
+	private int nw_offset;
+
+	/* L3 */
+	private boolean has_ipv4;
+	private boolean has_arp;
+	private byte nw_tos;
+	private byte nw_proto;
+	private int nw_src;
+	private int nw_dst;
+	private int tp_offset;
+	private short arp_op;
+	private short arp_proto_type;
+	private long arp_sha;
+	private int arp_spa;
+	private int arp_tpa;
+	private boolean arp_ipv4;
+
+	/* L4 */
+	private boolean has_ports;
+	private short tp_src;
+	private short tp_dst;
+
+	/**
+	 * Create an empty view. {@link #wrap(byte[], int, int)} should be called before reading fields.
+	 */
+	public PacketHeaders() {
+		this.data = new byte[0];
+	}
+
+	/**
+	 * Create a view of the packet.
+	 *
+	 * @param data	packet
+	 */
+	public PacketHeaders(byte[] data) {
+		wrap(data, 0, data.length);
+	}
+
+	/**
+	 * Point this view to the packet. Nothing is decoded until a field is read.
+	 *
+	 * @param data		array that holds the packet
+	 * @param offset	start of the packet in the array
+	 * @param length	length of the packet
+	 * @return			this object
+	 */
+	public PacketHeaders wrap(byte[] data, int offset, int length) {
+		if ( offset < 0 || length < 0 || offset + length > data.length ) {
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array " + data.length);
+		}
+		this.data = data;
+		this.offset = offset;
+		this.end = offset + length;
+		this.decoded = 0;
+		return this;
+	}
+
+	/**
+	 * Point this view to the packet. Nothing is decoded until a field is read.
+	 *
+	 * @param data		packet
+	 * @return			this object
+	 */
+	public PacketHeaders wrap(byte[] data) {
+		return wrap(data, 0, data.length);
+	}
+
+	/**
+	 * @return	array that holds the packet
+	 */
+	public byte[] getData() {
+		return this.data;
+	}
+
+	/**
+	 * @return	length of the packet
+	 */
+	public int getLength() {
+		return this.end - this.offset;
+	}
+
+	private short getShort(int i) {
+		return (short) (((data[i] & 0xff) << 8) | (data[i + 1] & 0xff));
+	}
+
+	private int getInt(int i) {
+		return ((data[i] & 0xff) << 24) | ((data[i + 1] & 0xff) << 16) |
+				((data[i + 2] & 0xff) << 8) | (data[i + 3] & 0xff);
+	}
+
+	private long getMAC(int i) {
+		return ((long) getShort(i) & 0xffffL) << 32 | (getInt(i + 2) & 0xffffffffL);
+	}
+
+	private void decodeL2() {
+		this.decoded |= L2;
+
+		int i = this.offset;
+		this.has_ethernet = this.end - i >= ETHERNET_HEADER_LENGTH;
+		if ( !this.has_ethernet ) {
+			this.dl_dst = this.dl_src = 0;
+			this.dl_type = 0;
+			this.vlan = VLAN_UNTAGGED;
+			this.vlan_pcp = 0;
+			this.nw_offset = this.end;
+			return;
+		}
+
+		this.dl_dst = getMAC(i);
+		this.dl_src = getMAC(i + 6);
+		short type = getShort(i + 12);
+		i += ETHERNET_HEADER_LENGTH;
+		if ( type == TYPE_VLAN && this.end - i >= 4 ) {
+			short tci = getShort(i);
+			this.vlan = (short) (tci & 0x0fff);
+			this.vlan_pcp = (byte) ((tci >> 13) & 0x07);
+			type = getShort(i + 2);
+			i += 4;
+		} else {
+			this.vlan = VLAN_UNTAGGED;
+			this.vlan_pcp = 0;
+		}
+		this.dl_type = type;
+		this.nw_offset = i;
+	}
+
+	private void decodeL3() {
+		l2();
+		this.decoded |= L3;
+
+		this.has_ipv4 = this.has_arp = this.arp_ipv4 = false;
+		this.nw_tos = this.nw_proto = 0;
+		this.nw_src = this.nw_dst = 0;
+		this.arp_op = this.arp_proto_type = 0;
+		this.arp_sha = 0;
+		this.arp_spa = this.arp_tpa = 0;
+		this.tp_offset = this.end;
+
+		int i = this.nw_offset;
+		int remaining = this.end - i;
+		switch ( this.dl_type ) {
+		case Ethernet.TYPE_IPv4:
+			if ( remaining < IPV4_HEADER_LENGTH ) {
+				return;
+			}
+			this.has_ipv4 = true;
+			this.nw_tos = data[i + 1];
+			this.nw_proto = data[i + 9];
+			this.nw_src = getInt(i + 12);
+			this.nw_dst = getInt(i + 16);
+			this.tp_offset = Math.min( this.end, i + (data[i] & 0x0f) * 4 );
+			break;
+
+		case Ethernet.TYPE_ARP:
+		case Ethernet.TYPE_RARP:
+			if ( remaining < ARP_HEADER_LENGTH ) {
+				return;
+			}
+			this.has_arp = true;
+			this.arp_proto_type = getShort(i + 2);
+			this.arp_op = getShort(i + 6);
+			int hlen = data[i + 4] & 0xff;
+			int plen = data[i + 5] & 0xff;
+			// sender hw, sender proto, target hw, target proto
+			if ( hlen == 6 && plen == 4 && remaining >= ARP_HEADER_LENGTH + 20 ) {
+				this.arp_ipv4 = this.arp_proto_type == ARP.PROTO_TYPE_IP;
+				this.arp_sha = getMAC(i + 8);
+				this.arp_spa = getInt(i + 14);
+				this.arp_tpa = getInt(i + 24);
+			}
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	private void decodeL4() {
+		l3();
+		this.decoded |= L4;
+
+		this.has_ports = false;
+		this.tp_src = this.tp_dst = 0;
+		if ( this.has_ipv4 &&
+				(this.nw_proto == IPv4.PROTOCOL_TCP || this.nw_proto == IPv4.PROTOCOL_UDP) &&
+				this.end - this.tp_offset >= 4 ) {
+			this.has_ports = true;
+			this.tp_src = getShort(this.tp_offset);
+			this.tp_dst = getShort(this.tp_offset + 2);
+		}
+	}
+
+	private void l2() {
+		if ( (this.decoded & L2) == 0 ) {
+			decodeL2();
+		}
+	}
+
+	private void l3() {
+		if ( (this.decoded & L3) == 0 ) {
+			decodeL3();
+		}
+	}
+
+	private void l4() {
+		if ( (this.decoded & L4) == 0 ) {
+			decodeL4();
+		}
+	}
+
+	/*
+	 * L2
+	 */
+
+	/**
+	 * @return	true if the packet is long enough for an Ethernet header
+	 */
+	public boolean hasEthernet() {
+		l2();
+		return this.has_ethernet;
+	}
+
+	/**
+	 * @return	destination MAC address (lower 48 bits)
+	 */
+	public long getDestinationMAC() {
+		l2();
+		return this.dl_dst;
+	}
+
+	/**
+	 * @return	source MAC address (lower 48 bits)
+	 */
+	public long getSourceMAC() {
+		l2();
+		return this.dl_src;
+	}
+
+	/**
+	 * @return	true if the destination MAC address is broadcast address
+	 */
+	public boolean isBroadcast() {
+		l2();
+		return this.has_ethernet && this.dl_dst == 0xffffffffffffL;
+	}
+
+	/**
+	 * @return	true if the destination MAC address is a group address
+	 */
+	public boolean isMulticast() {
+		l2();
+		return this.has_ethernet && (this.dl_dst & 0x010000000000L) != 0;
+	}
+
+	/**
+	 * @return	ether type. If the packet is VLAN tagged, ether type of the encapsulated packet.
+	 */
+	public short getEtherType() {
+		l2();
+		return this.dl_type;
+	}
+
+	/**
+	 * @return	VLAN id, or {@link #VLAN_UNTAGGED} if the packet is not tagged.
+	 */
+	public short getVlanID() {
+		l2();
+		return this.vlan;
+	}
+
+	/**
+	 * @return	VLAN priority code
+	 */
+	public byte getPriorityCode() {
+		l2();
+		return this.vlan_pcp;
+	}
+
+	/**
+	 * @return	offset of the network layer header in the array
+	 */
+	public int getNetworkOffset() {
+		l2();
+		return this.nw_offset;
+	}
+
+	/*
+	 * L3
+	 */
+
+	/**
+	 * @return	true if the packet is an IPv4 packet with a complete header
+	 */
+	public boolean isIPv4() {
+		l3();
+		return this.has_ipv4;
+	}
+
+	/**
+	 * @return	true if the packet is an ARP (or RARP) packet
+	 */
+	public boolean isARP() {
+		l3();
+		return this.has_arp;
+	}
+
+	/**
+	 * @return	type of service (DSCP and ECN) of IPv4 header
+	 */
+	public byte getNetworkTypeOfService() {
+		l3();
+		return this.nw_tos;
+	}
+
+	/**
+	 * @return	protocol of IPv4 header
+	 */
+	public byte getNetworkProtocol() {
+		l3();
+		return this.nw_proto;
+	}
+
+	/**
+	 * @return	source address of IPv4 header
+	 */
+	public int getNetworkSource() {
+		l3();
+		return this.nw_src;
+	}
+
+	/**
+	 * @return	destination address of IPv4 header
+	 */
+	public int getNetworkDestination() {
+		l3();
+		return this.nw_dst;
+	}
+
+	/**
+	 * @return	opcode of ARP
+	 */
+	public short getArpOpcode() {
+		l3();
+		return this.arp_op;
+	}
+
+	/**
+	 * @return	protocol type of ARP
+	 */
+	public short getArpProtocolType() {
+		l3();
+		return this.arp_proto_type;
+	}
+
+	/**
+	 * @return	true if the ARP packet carries Ethernet and IPv4 addresses
+	 */
+	public boolean hasArpIPv4Addresses() {
+		l3();
+		return this.arp_ipv4;
+	}
+
+	/**
+	 * @return	sender hardware address of ARP
+	 */
+	public long getArpSenderHardwareAddress() {
+		l3();
+		return this.arp_sha;
+	}
+
+	/**
+	 * @return	sender protocol address of ARP
+	 */
+	public int getArpSenderProtocolAddress() {
+		l3();
+		return this.arp_spa;
+	}
+
+	/**
+	 * @return	target protocol address of ARP
+	 */
+	public int getArpTargetProtocolAddress() {
+		l3();
+		return this.arp_tpa;
+	}
+
+	/**
+	 * @return	offset of the transport layer header in the array
+	 */
+	public int getTransportOffset() {
+		l3();
+		return this.tp_offset;
+	}
+
+	/*
+	 * L4
+	 */
+
+	/**
+	 * @return	true if the packet is a TCP or UDP packet that has the ports
+	 */
+	public boolean hasTransportPorts() {
+		l4();
+		return this.has_ports;
+	}
+
+	/**
+	 * @return	source port of TCP or UDP
+	 */
+	public short getTransportSource() {
+		l4();
+		return this.tp_src;
+	}
+
+	/**
+	 * @return	destination port of TCP or UDP
+	 */
+	public short getTransportDestination() {
+		l4();
+		return this.tp_dst;
+	}
+}
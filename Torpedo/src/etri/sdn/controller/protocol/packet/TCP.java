@@ -157,6 +157,7 @@ public class TCP extends BasePacket {
             dataOffset = 5;  // default header length
         length = dataOffset << 2;
         byte[] payloadData = null;
+        IPacket payload = getPayload();
         if (payload != null) {
             payload.setParent(this);
             payloadData = payload.serialize();
@@ -283,11 +284,12 @@ public class TCP extends BasePacket {
             } catch (IndexOutOfBoundsException e) {
                 this.options = null;
             }
+        } else {
+            this.options = null;
         }
         
-        this.payload = new Data();
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        // the payload is decoded when it is accessed.
+        deferPayload(data, bb.position(), bb.limit()-bb.position());
         return this;
     }
 }
@@ -18,28 +18,15 @@
 package etri.sdn.controller.protocol.packet;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  *
  * @author David Erickson (daviderickson@cs.stanford.edu)
  */
 public class UDP extends BasePacket {
-    public static Map<Short, Class<? extends IPacket>> decodeMap;
     public static short DHCP_SERVER_PORT = (short)67;
     public static short DHCP_CLIENT_PORT = (short)68;
 
-    static {
-        decodeMap = new HashMap<Short, Class<? extends IPacket>>();
-        /*
-         * Disable DHCP until the deserialize code is hardened to deal with garbage input
-         */
-        UDP.decodeMap.put(DHCP_SERVER_PORT, DHCP.class);
-        UDP.decodeMap.put(DHCP_CLIENT_PORT, DHCP.class);
-        
-    }
-
     protected short sourcePort;
     protected short destinationPort;
     protected short length;
@@ -111,6 +98,7 @@ public class UDP extends BasePacket {
      */
     public byte[] serialize() {
         byte[] payloadData = null;
+        IPacket payload = getPayload();
         if (payload != null) {
             payload.setParent(this);
             payloadData = payload.serialize();
@@ -209,23 +197,20 @@ public class UDP extends BasePacket {
         this.length = bb.getShort();
         this.checksum = bb.getShort();
 
-        if (UDP.decodeMap.containsKey(this.destinationPort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.destinationPort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else if (UDP.decodeMap.containsKey(this.sourcePort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.sourcePort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else {
-            this.payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        // the payload is decoded when it is accessed.
+        deferPayload(data, bb.position(), bb.limit()-bb.position());
         return this;
     }
+
+    private static boolean isDhcpPort(short port) {
+        return port == DHCP_SERVER_PORT || port == DHCP_CLIENT_PORT;
+    }
+
+    @Override
+    protected IPacket createPayload(IPacket reuse) {
+        if (isDhcpPort(this.destinationPort) || isDhcpPort(this.sourcePort)) {
+            return new DHCP();
+        }
+        return super.createPayload(reuse);
+    }
 }
@@ -0,0 +1,132 @@
+package etri.sdn.controller.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free ring buffer for exactly one producer thread
+ * and exactly one consumer thread.
+ *
+ * {@link #offer(Object)} is only called by the producer, and
+ * {@link #poll()} and {@link #drainTo(Collection, int)} are only called by the consumer.
+ * {@link #size()} can be called by any thread to monitor the occupancy.
+ *
+ * @param <E> type of the elements in this ring
+ */
+public final class SpscRingBuffer<E> {
+
+	private final Object[] buffer;
+	private final int mask;
+
+	/**
+	 * index of the next element to poll. only written by the consumer.
+	 */
+	private final AtomicLong head = new AtomicLong(0);
+
+	/**
+	 * index of the next slot to fill. only written by the producer.
+	 */
+	private final AtomicLong tail = new AtomicLong(0);
+
+	/**
+	 * Create a ring buffer.
+	 *
+	 * @param capacity	maximum number of elements. rounded up to the power of two.
+	 */
+	public SpscRingBuffer(int capacity) {
+		if ( capacity <= 0 ) {
+			throw new IllegalArgumentException("capacity should be positive: " + capacity);
+		}
+		int size = 1;
+		while ( size < capacity ) {
+			size <<= 1;
+		}
+		this.buffer = new Object[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Put an element into the ring. (producer only)
+	 *
+	 * @param e		element to put. should not be null.
+	 * @return		true if successful, false if the ring is full.
+	 */
+	public boolean offer(E e) {
+		if ( e == null ) {
+			throw new NullPointerException();
+		}
+		long t = tail.get();
+		if ( t - head.get() >= buffer.length ) {
+			return false;
+		}
+		buffer[ (int) t & mask ] = e;
+		// volatile write, so that a consumer which is about to sleep
+		// always sees this element or is woken up by the producer.
+		tail.set( t + 1 );
+		return true;
+	}
+
+	/**
+	 * Take an element out of the ring. (consumer only)
+	 *
+	 * @return		the oldest element, or null if the ring is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long h = head.get();
+		if ( h >= tail.get() ) {
+			return null;
+		}
+		int idx = (int) h & mask;
+		E e = (E) buffer[ idx ];
+		buffer[ idx ] = null;
+		head.lazySet( h + 1 );
+		return e;
+	}
+
+	/**
+	 * Move elements from the ring into the given collection. (consumer only)
+	 *
+	 * @param c		collection to add the elements
+	 * @param max	maximum number of elements to move
+	 * @return		number of moved elements
+	 */
+	@SuppressWarnings("unchecked")
+	public int drainTo(Collection<? super E> c, int max) {
+		long h = head.get();
+		long available = tail.get() - h;
+		int n = (int) Math.min( available, max );
+		for ( int i = 0; i < n; ++i ) {
+			int idx = (int) (h + i) & mask;
+			c.add( (E) buffer[ idx ] );
+			buffer[ idx ] = null;
+		}
+		if ( n > 0 ) {
+			head.lazySet( h + n );
+		}
+		return n;
+	}
+
+	/**
+	 * @return	number of elements in the ring
+	 */
+	public int size() {
+		long h = head.get();
+		long t = tail.get();
+		return (int) Math.max( 0, t - h );
+	}
+
+	/**
+	 * @return	true if the ring has no element
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return	maximum number of elements
+	 */
+	public int capacity() {
+		return buffer.length;
+	}
+}
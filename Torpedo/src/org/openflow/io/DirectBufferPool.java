@@ -0,0 +1,228 @@
+package org.openflow.io;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct ByteBuffers that are shared by all the connections.
+ *
+ * Buffers are grouped into size classes of power of two,
+ * from the minimum class size to the maximum class size.
+ * A request is rounded up to its size class, and served from the free list
+ * of the class if possible. Requests bigger than the maximum class size
+ * are served by a fresh direct buffer which is not returned to the pool.
+ *
+ * The pool keeps at most 'retain limit' bytes of idle buffers.
+ * Buffers released beyond the limit are left to the garbage collector.
+ *
+ * This class is thread-safe.
+ */
+public final class DirectBufferPool {
+
+	public static final int DEFAULT_MIN_CLASS_SIZE = 4096;
+	public static final int DEFAULT_MAX_CLASS_SIZE = 1024 * 1024;
+	public static final long DEFAULT_RETAIN_LIMIT = 64L * 1024 * 1024;
+
+	private static volatile DirectBufferPool DEFAULT = null;
+
+	private final int min_class_size;
+	private final int max_class_size;
+	private final long retain_limit;
+	private final Queue<ByteBuffer>[] free_lists;
+
+	/*
+	 * statistics
+	 */
+	private final AtomicLong retained_bytes = new AtomicLong(0);
+	private final AtomicLong borrowed_bytes = new AtomicLong(0);
+	private final AtomicLong allocated_bytes = new AtomicLong(0);
+	private final AtomicLong borrows = new AtomicLong(0);
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong oversized = new AtomicLong(0);
+	private final AtomicLong discarded = new AtomicLong(0);
+
+	/**
+	 * Create a pool.
+	 *
+	 * @param min_class_size	size of the smallest size class. rounded up to the power of two.
+	 * @param max_class_size	size of the biggest size class. rounded up to the power of two.
+	 * @param retain_limit		maximum bytes of idle buffers that this pool keeps.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public DirectBufferPool(int min_class_size, int max_class_size, long retain_limit) {
+		if ( min_class_size <= 0 || max_class_size < min_class_size ) {
+			throw new IllegalArgumentException("invalid size classes: " + min_class_size + "-" + max_class_size);
+		}
+		this.min_class_size = roundUp(min_class_size);
+		this.max_class_size = roundUp(max_class_size);
+		this.retain_limit = retain_limit;
+
+		int classes = Integer.numberOfTrailingZeros(this.max_class_size) - Integer.numberOfTrailingZeros(this.min_class_size) + 1;
+		this.free_lists = new Queue[classes];
+		for ( int i = 0; i < classes; ++i ) {
+			this.free_lists[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+		}
+	}
+
+	/**
+	 * Get the pool which is shared by all the connections by default.
+	 *
+	 * @return	DirectBufferPool object
+	 */
+	public static DirectBufferPool getDefault() {
+		if ( DEFAULT == null ) {
+			synchronized ( DirectBufferPool.class ) {
+				if ( DEFAULT == null ) {
+					DEFAULT = new DirectBufferPool(DEFAULT_MIN_CLASS_SIZE, DEFAULT_MAX_CLASS_SIZE, DEFAULT_RETAIN_LIMIT);
+				}
+			}
+		}
+		return DEFAULT;
+	}
+
+	/**
+	 * Replace the default pool. This should be called before any connection is made.
+	 *
+	 * @param pool	DirectBufferPool object
+	 */
+	public static void setDefault(DirectBufferPool pool) {
+		DEFAULT = pool;
+	}
+
+	private static int roundUp(int size) {
+		int highest = Integer.highestOneBit(size);
+		return (highest == size) ? size : highest << 1;
+	}
+
+	/**
+	 * @param size	requested size
+	 * @return		index of the size class, or -1 if the size is bigger than the maximum class size.
+	 */
+	private int classOf(int size) {
+		if ( size > max_class_size ) {
+			return -1;
+		}
+		int c = roundUp( Math.max(size, min_class_size) );
+		return Integer.numberOfTrailingZeros(c) - Integer.numberOfTrailingZeros(min_class_size);
+	}
+
+	/**
+	 * Borrow a buffer that can hold at least the given bytes.
+	 * The returned buffer is cleared (position = 0, limit = capacity).
+	 *
+	 * @param size	minimum capacity of the buffer
+	 * @return		ByteBuffer object
+	 */
+	public ByteBuffer allocate(int size) {
+		borrows.incrementAndGet();
+
+		int c = classOf(size);
+		if ( c < 0 ) {
+			oversized.incrementAndGet();
+			borrowed_bytes.addAndGet(size);
+			allocated_bytes.addAndGet(size);
+			return ByteBuffer.allocateDirect(size);
+		}
+
+		ByteBuffer ret = free_lists[c].poll();
+		if ( ret != null ) {
+			hits.incrementAndGet();
+			retained_bytes.addAndGet(-ret.capacity());
+			ret.clear();
+		} else {
+			ret = ByteBuffer.allocateDirect( min_class_size << c );
+			allocated_bytes.addAndGet(ret.capacity());
+		}
+		borrowed_bytes.addAndGet(ret.capacity());
+		return ret;
+	}
+
+	/**
+	 * Return a buffer borrowed by {@link #allocate(int)}.
+	 * The caller should not touch the buffer after calling this method.
+	 *
+	 * @param buf	buffer to return. null is ignored.
+	 */
+	public void release(ByteBuffer buf) {
+		if ( buf == null ) {
+			return;
+		}
+		int cap = buf.capacity();
+		borrowed_bytes.addAndGet(-cap);
+
+		int c = classOf(cap);
+		if ( c < 0 || (min_class_size << c) != cap ) {
+			// oversized or foreign buffer.
+			allocated_bytes.addAndGet(-cap);
+			return;
+		}
+
+		if ( retained_bytes.addAndGet(cap) > retain_limit ) {
+			retained_bytes.addAndGet(-cap);
+			allocated_bytes.addAndGet(-cap);
+			discarded.incrementAndGet();
+			return;
+		}
+		free_lists[c].add(buf);
+	}
+
+	/**
+	 * @return	size of the biggest size class
+	 */
+	public int getMaxClassSize() {
+		return max_class_size;
+	}
+
+	/**
+	 * Get the snapshot of the pool utilization.
+	 *
+	 * @return	Statistics object
+	 */
+	public Statistics getStatistics() {
+		return new Statistics(this);
+	}
+
+	/**
+	 * Snapshot of the pool utilization.
+	 */
+	public static final class Statistics {
+		private long allocated_bytes;
+		private long borrowed_bytes;
+		private long retained_bytes;
+		private long retain_limit;
+		private long borrows;
+		private long hits;
+		private long oversized;
+		private long discarded;
+
+		private Statistics(DirectBufferPool pool) {
+			this.allocated_bytes = pool.allocated_bytes.get();
+			this.borrowed_bytes = pool.borrowed_bytes.get();
+			this.retained_bytes = pool.retained_bytes.get();
+			this.retain_limit = pool.retain_limit;
+			this.borrows = pool.borrows.get();
+			this.hits = pool.hits.get();
+			this.oversized = pool.oversized.get();
+			this.discarded = pool.discarded.get();
+		}
+
+		/** @return bytes of direct memory allocated by the pool and still reachable */
+		public long getAllocatedBytes() { return allocated_bytes; }
+		/** @return bytes of buffers that are borrowed by connections */
+		public long getBorrowedBytes() { return borrowed_bytes; }
+		/** @return bytes of idle buffers kept in the pool */
+		public long getRetainedBytes() { return retained_bytes; }
+		/** @return maximum bytes of idle buffers kept in the pool */
+		public long getRetainLimit() { return retain_limit; }
+		/** @return number of allocate() calls */
+		public long getBorrows() { return borrows; }
+		/** @return number of allocate() calls served from the free lists */
+		public long getHits() { return hits; }
+		/** @return number of allocate() calls bigger than the maximum class size */
+		public long getOversized() { return oversized; }
+		/** @return number of released buffers dropped because of the retain limit */
+		public long getDiscarded() { return discarded; }
+	}
+}
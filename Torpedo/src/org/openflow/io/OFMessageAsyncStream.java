@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.openflow.protocol.OFPacketInView;
 import org.openflow.protocol.factory.OFHeader;
 import org.openflow.protocol.factory.OFMessageParser;
 import org.projectfloodlight.openflow.exceptions.OFParseError;
@@ -32,14 +33,47 @@ public class OFMessageAsyncStream implements OFMessageInStream, OFMessageOutStre
 	
 	static public int DEFAULT_BUFFER_SIZE = 65536;
 
+	/**
+	 * size of each segment of the output buffer.
+	 */
+	static public int OUTPUT_SEGMENT_SIZE = 16384;
+
+	/**
+	 * maximum bytes that the owner of the stream should encode 
+	 * before the socket accepts the bytes already encoded.
+	 */
+	static public int MAX_OUTPUT_BUFFER_SIZE = 1024 * 1024;
+
 	protected SocketReadByteChannelBuffer inBuf;
 	protected SocketWriteByteChannelBuffer outBuf;
 	protected SocketChannel sock;
 	protected int partialReadCount = 0;
 
+	/**
+	 * if true, PACKET_IN messages are read as {@link OFPacketInView} objects.
+	 */
+	static public boolean LAZY_PACKET_IN = true;
+
+	/**
+	 * header decoder, which is reused for every message of this stream.
+	 */
+	private final OFHeader demux = new OFHeader();
+
 	public OFMessageAsyncStream(SocketChannel sock) throws IOException {
-		this.inBuf = new SocketReadByteChannelBuffer(DEFAULT_BUFFER_SIZE);
-		this.outBuf = new SocketWriteByteChannelBuffer(DEFAULT_BUFFER_SIZE);
+		this(sock, DirectBufferPool.getDefault());
+	}
+
+	/**
+	 * Create a stream whose buffers are borrowed from the given pool 
+	 * only while they hold some bytes.
+	 * 
+	 * @param sock			socket channel
+	 * @param pool			direct buffer pool shared by the connections
+	 * @throws IOException
+	 */
+	public OFMessageAsyncStream(SocketChannel sock, DirectBufferPool pool) throws IOException {
+		this.inBuf = new SocketReadByteChannelBuffer(pool, DEFAULT_BUFFER_SIZE);
+		this.outBuf = new SocketWriteByteChannelBuffer(pool, OUTPUT_SEGMENT_SIZE);
 		this.sock = sock;
 	}
 
@@ -50,35 +84,77 @@ public class OFMessageAsyncStream implements OFMessageInStream, OFMessageOutStre
 
 	@Override
 	public List<OFMessage> read(int limit) throws IOException {
-		List<OFMessage> l;
-		// int read = sock.read(inBuf);
+		List<OFMessage> l = new ArrayList<OFMessage>();
+		if ( this.read(l, limit) < 0 ) {
+			return null;
+		}
+		return l;
+	}
+
+	/**
+	 * Read from the socket, and parse at most 'limit' messages into the given list. 
+	 * Bytes of the messages beyond the limit remain in the input buffer, and 
+	 * can be parsed by the subsequent calls (see {@link #hasBufferedMessage()}).
+	 * This method does not allocate anything but the parsed messages.
+	 * 
+	 * @param out		list to add the messages
+	 * @param limit		maximum number of messages to parse: 0 means all that are buffered
+	 * @return			number of messages parsed, or -1 if the connection is pending.
+	 * @throws IOException	if the connection is closed or a malformed message is read.
+	 */
+	public int read(List<OFMessage> out, int limit) throws IOException {
 		int read = this.inBuf.read(sock);
 		if (read == -1) {
 			if ( sock.isConnectionPending() ) {
-				return null;
+				return -1;
 			}
 			throw new IOException("connection closed");
 		}
 		
-		l = this.parseMessages(inBuf, limit);
-		if (inBuf.readable())
+		int n = this.parseMessages(inBuf, out, limit);
+		if (inBuf.readable()) {
+			// a partial message (or messages beyond the limit) remains. 
+			// keep the buffer, and make sure that it can hold the whole message.
+			int length = (inBuf.readableBytes() >= OFHeader.MINIMUM_LENGTH) ? 
+					inBuf.getUnsignedShort(inBuf.readerIndex() + 2) : 0;
 			inBuf.discardReadBytes();
-		else
-			inBuf.clear();
-		return l;
+			inBuf.ensureCapacity(length);
+		} else {
+			// nothing remains. give the buffer back to the pool.
+			inBuf.release();
+		}
+		return n;
+	}
+
+	/**
+	 * Check if the input buffer holds a complete message which is not parsed yet, 
+	 * because of the limit given to {@link #read(List, int)}.
+	 * 
+	 * @return	true if a complete message is buffered, false otherwise.
+	 */
+	public boolean hasBufferedMessage() {
+		if ( !inBuf.isAllocated() ) {
+			return false;
+		}
+		// the buffer is in the 'write' mode between reads.
+		int buffered = inBuf.bufferedBytes();
+		if ( buffered < OFHeader.MINIMUM_LENGTH ) {
+			return false;
+		}
+		return inBuf.getUnsignedShort(2) <= buffered;
 	}
 
+	/**
+	 * Encode a message to the output buffer. The output buffer grows by 
+	 * segments on demand, so the encoding never fails for the lack of room.
+	 * The caller is responsible for bounding the buffer 
+	 * (see {@link #pendingBytes()} and {@link #MAX_OUTPUT_BUFFER_SIZE}).
+	 * 
+	 * @param m		message to encode
+	 * @throws IOException
+	 */
 	protected void appendMessageToOutBuf(OFMessage m) throws IOException {
-		int writerIndex = outBuf.writerIndex();
-		do { 
-			try { 
-				m.writeTo(outBuf);
-				break;
-			} catch ( IndexOutOfBoundsException e ) {
-				outBuf.writerIndex( writerIndex );
-				flush();
-			}
-		} while ( true );
+		m.writeTo(outBuf);
 	}
 
 	/**
@@ -96,26 +172,46 @@ public class OFMessageAsyncStream implements OFMessageInStream, OFMessageOutStre
 
 	@Override
 	public List<OFMessage> parseMessages(ChannelBuffer data, int limit) throws IOException {
-		
 		List<OFMessage> results = new ArrayList<OFMessage>();
-		OFHeader demux = new OFHeader();
+		parseMessages(data, results, limit);
+		return results;
+	}
 
-		while (limit == 0 || results.size() <= limit) {
+	/**
+	 * Parse at most 'limit' messages from the buffer into the given list.
+	 * The header of each message is decoded in place by the header decoder of this stream.
+	 * 
+	 * @param data		buffer to parse
+	 * @param out		list to add the messages
+	 * @param limit		maximum number of messages to parse: 0 means all that are buffered
+	 * @return			number of messages parsed
+	 * @throws IOException	if a malformed message is read.
+	 */
+	public int parseMessages(ChannelBuffer data, List<OFMessage> out, int limit) throws IOException {
+		
+		int count = 0;
+
+		while (limit == 0 || count < limit) {
 			if (data.readableBytes() < OFHeader.MINIMUM_LENGTH)
 				break;
 
-			data.markReaderIndex();
-			demux.readFrom(data);
-			data.resetReaderIndex();
+			int start = data.readerIndex();
+			demux.peekFrom(data, start);
 			
+			if (demux.getLengthU() < OFHeader.MINIMUM_LENGTH) {
+				logger.error("switch is sending a message of wrong length={}", demux.getLengthU());
+				throw new IOException("wrong message length: " + demux.getLengthU());
+			}
 			if (demux.getLengthU() > data.readableBytes())
 				break;
 			
-			int start = data.readerIndex();
 			try {
-				OFMessage msg = OFFactories.getGenericReader().readFrom( data );
+				OFMessage msg = ( LAZY_PACKET_IN && OFPacketInView.isViewable(data, start) ) ?
+						OFPacketInView.readFrom( data ) :
+						OFFactories.getGenericReader().readFrom( data );
 				if ( msg != null ) {
-					results.add( msg );
+					out.add( msg );
+					++count;
 				} else {
 					logger.error("malformed msg. cannot parse. v={}:t={}:l={}", demux.getVersion(), demux.getType(), demux.getLengthU());
 					throw new IOException("cannot parse malformed msg. we manually disconnect from this switch.");
@@ -126,6 +222,8 @@ public class OFMessageAsyncStream implements OFMessageInStream, OFMessageOutStre
 			} catch (IllegalArgumentException e) {
 				logger.error("switch is sending wrong version of OF messages={}, e={}", demux.getVersion(), e);
 				throw new IOException(e);
+			} catch ( IOException e ) {
+				throw e;
 			} catch ( Exception e ) {
 				logger.error("exception during parsing: e={}", e);
 				throw new IOException(e);
@@ -133,21 +231,42 @@ public class OFMessageAsyncStream implements OFMessageInStream, OFMessageOutStre
 				data.readerIndex( start + demux.getLengthU() );
 			}
 		}
-		return results;
+		return count;
 	}
 
 	/**
-	 * Flush buffered outgoing data. Keep flushing until needsFlush() returns
-	 * false. Each flush() corresponds to a SocketChannel.write(), so this is
-	 * designed for one flush() per select() event
+	 * Flush buffered outgoing data. Each flush() writes as much as the socket 
+	 * accepts, using a gathering write over the output segments, and the rest 
+	 * remains buffered until needsFlush() returns false.
+	 * This is designed for one flush() per select() event.
 	 */
+	@Override
 	public void flush() throws IOException {
-		try { 
-			this.outBuf.write(sock);
-		} catch ( IOException e ) {
-			throw e;
-		} finally {
-			this.outBuf.clear();
-		}
+		this.outBuf.write(sock);
+	}
+
+	/**
+	 * Check if there is some buffered outgoing data. 
+	 * 
+	 * @return true if flush() is needed, false otherwise.
+	 */
+	public boolean needsFlush() {
+		return this.outBuf.hasPendingBytes();
+	}
+
+	/**
+	 * @return number of encoded bytes which are not written to the socket yet.
+	 */
+	public int pendingBytes() {
+		return this.outBuf.pendingBytes();
+	}
+
+	/**
+	 * Give the buffers back to the pool. 
+	 * This stream should not be used after this call.
+	 */
+	public void close() {
+		this.inBuf.release();
+		this.outBuf.release();
 	}
 }
@@ -21,6 +21,10 @@ import org.jboss.netty.buffer.ChannelBufferIndexFinder;
  * 1. feed socket data to buffer
  * 2. do some read on the buffer. 
  * 
+ * The underlying ByteBuffer is borrowed from a {@link DirectBufferPool} 
+ * when data arrives, and is kept only while a partial message remains 
+ * (see {@link #release()}), so an idle connection holds no buffer.
+ * 
  * @author Byungjoon Lee (bjlee@etri.re.kr)
  *
  */
@@ -28,10 +32,18 @@ public final class SocketReadByteChannelBuffer implements ChannelBuffer {
 	
 	private int capacity;
 	private ByteBuffer inBuf;
+	private DirectBufferPool pool;
 	
-	public SocketReadByteChannelBuffer(int bufferSize) {
+	/**
+	 * Constructor.
+	 * 
+	 * @param pool			pool to borrow the buffer from
+	 * @param bufferSize	size of the buffer to borrow for each read
+	 */
+	public SocketReadByteChannelBuffer(DirectBufferPool pool, int bufferSize) {
+		this.pool = pool;
 		this.capacity = bufferSize;
-		this.inBuf = ByteBuffer.allocateDirect(this.capacity);
+		this.inBuf = null;
 	}
 	
 	/**
@@ -42,6 +54,9 @@ public final class SocketReadByteChannelBuffer implements ChannelBuffer {
 	 * @throws IOException	is thrown if read is impossible
 	 */
 	public int read(SocketChannel socket) throws IOException {
+		if ( this.inBuf == null ) {
+			this.inBuf = this.pool.allocate(this.capacity);
+		}
 		int ret = socket.read(this.inBuf);
 		if ( ret >= 0 ) {
 			// ready for the subsequent read operations from this buffer.
@@ -50,6 +65,56 @@ public final class SocketReadByteChannelBuffer implements ChannelBuffer {
 		return ret;
 	}
 	
+	/**
+	 * Make room for a message of the given length. 
+	 * This should be called after {@link #discardReadBytes()}, with the bytes 
+	 * of the partial message at the front of the buffer. 
+	 * If the buffer is smaller than the length, it is replaced with a bigger one.
+	 * 
+	 * @param length		length of the message to be read
+	 */
+	public void ensureCapacity(int length) {
+		if ( this.inBuf == null || this.inBuf.capacity() >= length ) {
+			return;
+		}
+		ByteBuffer bigger = this.pool.allocate(length);
+		this.inBuf.flip();
+		bigger.put(this.inBuf);
+		this.pool.release(this.inBuf);
+		this.inBuf = bigger;
+	}
+	
+	/**
+	 * Return the underlying buffer to the pool. 
+	 * This is called when all the bytes in the buffer are consumed, 
+	 * or when the connection is closed.
+	 */
+	public void release() {
+		if ( this.inBuf != null ) {
+			this.pool.release(this.inBuf);
+			this.inBuf = null;
+		}
+	}
+	
+	/**
+	 * get the number of bytes kept between reads. 
+	 * This is only valid between {@link #discardReadBytes()} and the next {@link #read(SocketChannel)}.
+	 * 
+	 * @return				number of bytes kept
+	 */
+	public int bufferedBytes() {
+		return (this.inBuf == null) ? 0 : this.inBuf.position();
+	}
+	
+	/**
+	 * check if this buffer holds an underlying buffer borrowed from the pool.
+	 * 
+	 * @return				true if a buffer is held, false otherwise.
+	 */
+	public boolean isAllocated() {
+		return this.inBuf != null;
+	}
+	
 	@Override
 	public byte[] array() {
 		return this.inBuf.array();
@@ -92,7 +157,7 @@ public final class SocketReadByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public int capacity() {
-		return this.inBuf.capacity();
+		return (this.inBuf == null) ? 0 : this.inBuf.capacity();
 	}
 
 	@Override
@@ -468,12 +533,12 @@ public final class SocketReadByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public boolean readable() {
-		return this.inBuf.hasRemaining();
+		return this.inBuf != null && this.inBuf.hasRemaining();
 	}
 
 	@Override
 	public int readableBytes() {
-		return this.inBuf.remaining();
+		return (this.inBuf == null) ? 0 : this.inBuf.remaining();
 	}
 
 	@Override
@@ -9,38 +9,251 @@ import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferFactory;
 import org.jboss.netty.buffer.ChannelBufferIndexFinder;
 
+/**
+ * This is a ChannelBuffer to which outgoing OpenFlow messages are encoded.
+ * 
+ * The buffer is a chain of fixed-size segments borrowed from a {@link DirectBufferPool}.
+ * When the last segment is full, a new segment is appended to the chain, 
+ * so encoding a message never fails for the lack of room, and a message
+ * can span two or more segments. Indexes used by set methods (such as 
+ * the length field of an OpenFlow header) are logical ones, which are 
+ * translated into a segment and an offset in that segment.
+ * 
+ * All the segments are written to the socket by a single gathering write
+ * (see {@link #write(SocketChannel)}), and each segment is returned to 
+ * the pool as soon as its bytes are all written.
+ * 
+ * @author Byungjoon Lee (bjlee@etri.re.kr)
+ *
+ */
 public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 	
-	private int capacity;
-	private ByteBuffer outBuf;
+	private int segment_size;
+	private DirectBufferPool pool;
 	
-	public SocketWriteByteChannelBuffer(int capacity) {
-		this.capacity = capacity;
-		this.outBuf = ByteBuffer.allocateDirect(this.capacity);
+	/**
+	 * chain of segments. Every segment but the last one is full.
+	 * Each segment is in the 'write' mode (position = number of bytes filled).
+	 */
+	private List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+	
+	/**
+	 * the last segment of the chain, or null if the chain is empty.
+	 */
+	private ByteBuffer tail = null;
+	
+	/**
+	 * logical index of the first byte of the first segment.
+	 */
+	private int base = 0;
+	
+	/**
+	 * logical index of the next byte to be written to the socket.
+	 */
+	private int read_index = 0;
+	
+	/**
+	 * logical index of the next byte to be encoded.
+	 */
+	private int writer_index = 0;
+	
+	private int marked_writer_index = 0;
+	
+	/**
+	 * reusable array for the gathering write.
+	 */
+	private ByteBuffer[] gather = new ByteBuffer[4];
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param pool			pool to borrow the segments from
+	 * @param segment_size	size of each segment
+	 */
+	public SocketWriteByteChannelBuffer(DirectBufferPool pool, int segment_size) {
+		this.pool = pool;
+		this.segment_size = segment_size;
+	}
+	
+	/**
+	 * append a new segment to the chain.
+	 */
+	private void addSegment() {
+		ByteBuffer seg = this.pool.allocate(this.segment_size);
+		seg.limit(this.segment_size);
+		this.segments.add(seg);
+		this.tail = seg;
+	}
+	
+	/**
+	 * make sure that the chain has room for the given bytes after the writer index.
+	 * 
+	 * @param length		number of bytes to write
+	 */
+	private void reserve(int length) {
+		while ( this.base + this.segments.size() * this.segment_size - this.writer_index < length ) {
+			addSegment();
+		}
+	}
+	
+	/**
+	 * move to the next segment if the tail segment is full.
+	 */
+	private void nextSegmentIfFull() {
+		if ( this.tail == null || !this.tail.hasRemaining() ) {
+			addSegment();
+		}
+	}
+	
+	/**
+	 * find the segment that holds the byte at the given logical index.
+	 * 
+	 * @param index			logical index
+	 * @return				ByteBuffer object
+	 */
+	private ByteBuffer segmentOf(int index) {
+		if ( index < this.read_index || index >= this.writer_index ) {
+			throw new IndexOutOfBoundsException("index=" + index + ", readable=[" + read_index + "," + writer_index + ")");
+		}
+		return this.segments.get( (index - this.base) / this.segment_size );
 	}
 	
+	/**
+	 * @param index			logical index
+	 * @return				offset of the index in its segment
+	 */
+	private int offsetOf(int index) {
+		return (index - this.base) % this.segment_size;
+	}
+	
+	/**
+	 * check if the given bytes from the given logical index are in a single segment.
+	 */
+	private boolean isContiguous(int index, int length) {
+		return offsetOf(index) + length <= this.segment_size;
+	}
+	
+	/**
+	 * return all the segments to the pool, and reset the indexes.
+	 */
+	private void releaseAll() {
+		for ( ByteBuffer seg : this.segments ) {
+			this.pool.release(seg);
+		}
+		this.segments.clear();
+		this.tail = null;
+		this.base = 0;
+		this.read_index = 0;
+		this.writer_index = 0;
+		this.marked_writer_index = 0;
+	}
+	
+	/**
+	 * return the segments to the pool, discarding the bytes not written.
+	 * This is called when the connection is closed.
+	 */
+	public void release() {
+		releaseAll();
+	}
+	
+	/**
+	 * write the buffered bytes to the socket as much as the socket accepts, 
+	 * using gathering writes over the segments.
+	 * The bytes which are not written remain in this buffer.
+	 * Segments whose bytes are all written are returned to the pool.
+	 * 
+	 * @param sock			socket to write
+	 * @return				how many bytes are written?
+	 * @throws IOException	is thrown if write is impossible
+	 */
 	public int write(SocketChannel sock) throws IOException {
-		this.outBuf.flip();					// swap pointers; lim = pos; pos = 0;
-		int ret = this.outBuf.remaining();
-		do {
-			sock.write(this.outBuf);
-		} while ( this.outBuf.remaining() > 0 );
-		return ret;
+		int n = this.segments.size();
+		if ( n == 0 || this.read_index == this.writer_index ) {
+			return 0;
+		}
+		
+		if ( this.gather.length < n ) {
+			this.gather = new ByteBuffer[ Integer.highestOneBit(n) << 1 ];
+		}
+		
+		// prepare the segments for reading: [offset of read_index or 0, filled)
+		for ( int i = 0; i < n; ++i ) {
+			ByteBuffer seg = this.segments.get(i);
+			seg.flip();
+			if ( i == 0 ) {
+				seg.position( this.read_index - this.base );
+			}
+			this.gather[i] = seg;
+		}
+		
+		long ret = 0;
+		try {
+			long remaining = this.writer_index - this.read_index;
+			while ( ret < remaining ) {
+				long written = sock.write(this.gather, 0, n);
+				if ( written <= 0 ) {
+					// socket send buffer is full. 
+					break;
+				}
+				ret += written;
+			}
+		} finally {
+			for ( int i = 0; i < n; ++i ) {
+				this.gather[i] = null;
+			}
+			this.read_index += (int) ret;
+			
+			if ( this.read_index == this.writer_index ) {
+				releaseAll();
+			} else {
+				// back to the 'write' mode.
+				for ( ByteBuffer seg : this.segments ) {
+					int filled = seg.limit();
+					seg.limit(this.segment_size);
+					seg.position(filled);
+				}
+				// return the segments which are completely written.
+				while ( this.read_index - this.base >= this.segment_size ) {
+					this.pool.release( this.segments.remove(0) );
+					this.base += this.segment_size;
+				}
+				this.marked_writer_index = Math.max(this.marked_writer_index, this.read_index);
+			}
+		}
+		return (int) ret;
+	}
+	
+	/**
+	 * check if there are some bytes that are not written to the socket yet.
+	 * 
+	 * @return				true if there are some bytes to write, false otherwise.
+	 */
+	public boolean hasPendingBytes() {
+		return this.writer_index > this.read_index;
+	}
+	
+	/**
+	 * @return				number of bytes that are not written to the socket yet.
+	 */
+	public int pendingBytes() {
+		return this.writer_index - this.read_index;
 	}
 
 	@Override
 	public byte[] array() {
-		return this.outBuf.array();
+		throw new UnsupportedOperationException();
 	}
 
 	@Override
 	public int arrayOffset() {
-		return this.outBuf.arrayOffset();
+		throw new UnsupportedOperationException();
 	}
 
 	@Override
@@ -75,12 +288,12 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public int capacity() {
-		return this.outBuf.capacity();
+		return this.segments.size() * this.segment_size;
 	}
 
 	@Override
 	public void clear() {
-		this.outBuf.clear();
+		releaseAll();
 	}
 
 	@Override
@@ -110,9 +323,7 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public void ensureWritableBytes(int writableBytes) {
-		if (this.outBuf.remaining() < writableBytes) {
-			throw new IndexOutOfBoundsException();
-		}
+		reserve(writableBytes);
 	}
 
 	@Override
@@ -223,7 +434,7 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public boolean hasArray() {
-		return true;
+		return false;
 	}
 
 	@Override
@@ -231,8 +442,8 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 		int inc = toIndex >= fromIndex ? 1 : -1;
 		
 		for ( int i = fromIndex ; i != toIndex; i = i + inc) {
-			if ( i >= this.outBuf.position() && i < this.outBuf.limit() ) {
-				if ( this.outBuf.get(i) == value ) {
+			if ( i >= this.read_index && i < this.writer_index ) {
+				if ( getByteAt(i) == value ) {
 					return i;
 				}
 			}
@@ -240,6 +451,10 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 		
 		return -1;
 	}
+	
+	private byte getByteAt(int index) {
+		return segmentOf(index).get( offsetOf(index) );
+	}
 
 	@Override
 	public int indexOf(int arg0, int arg1, ChannelBufferIndexFinder arg2) {
@@ -258,7 +473,7 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public void markWriterIndex() {
-		this.outBuf.mark();
+		this.marked_writer_index = this.writer_index;
 	}
 
 	@Override
@@ -416,16 +631,12 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public void resetWriterIndex() {
-		this.outBuf.reset();
+		writerIndex( this.marked_writer_index );
 	}
 
 	@Override
 	public void setByte(int index, int value) {
-		if ( index < 0 || index + 1 > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
-		}
-
-		this.outBuf.put(index, (byte)value);
+		segmentOf(index).put( offsetOf(index), (byte) value );
 	}
 
 	@Override
@@ -435,49 +646,31 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public void setBytes(int index, byte[] src) {
-		if ( index < 0 || index + src.length > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
-		}
-
-		for ( int i = index; i < src.length; ++i ) {
-			this.outBuf.put(index, src[i-index]);
-		}
+		setBytes(index, src, 0, src.length);
 	}
 
 	@Override
 	public void setBytes(int index, ByteBuffer src) {
-		if ( index < 0 || index + src.remaining() > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
-		}
-
-		while ( src.remaining() > 0 ) {
-			this.outBuf.put(index++, src.get());
+		while ( src.hasRemaining() ) {
+			setByte(index++, src.get());
 		}
 	}
 
 	@Override
 	public void setBytes(int index, ChannelBuffer src, int length) {
-		if ( index < 0 || index + src.readableBytes() > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
-		}
-
 		for ( int i = 0; i < length; ++i ) {
-			this.outBuf.put(index+i, src.readByte());
+			setByte(index + i, src.readByte());
 		}
 	}
 
 	@Override
 	public int setBytes(int index, InputStream src, int length) throws IOException {
-		if ( index < 0 || index + src.available() > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
-		}
-
 		for ( int i = 0; i < length; ++i ) {
 			int r = src.read();
 			if ( r < 0 ) {
 				return i;
 			}
-			this.outBuf.put(index+i, (byte)r);
+			setByte(index + i, r);
 		}
 		
 		return length;
@@ -491,51 +684,31 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public void setBytes(int index, ChannelBuffer src, int srcIndex, int length) {
-		if ( index < 0 || index + length > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
-		}
-
 		for ( int i = 0; i < length; ++i ) {
-			this.outBuf.put(index+i, (byte)src.getByte(srcIndex+i));
+			setByte(index + i, src.getByte(srcIndex + i));
 		}
 	}
 
 	@Override
 	public void setBytes(int index, byte[] src, int srcIndex, int length) {
-		if ( index < 0 || index + length > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
-		}
-
 		for ( int i = 0; i < length; ++i ) {
-			this.outBuf.put(index+i, src[srcIndex+i]);
+			setByte(index + i, src[srcIndex + i]);
 		}
 	}
 
 	@Override
 	public void setChar(int index, int value) {
-		if ( index < 0 || index + 2 > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
-		}
-
-		this.outBuf.putChar(index, (char) (0x0000ffff & value));
+		setShort(index, value);
 	}
 
 	@Override
 	public void setDouble(int index, double value) {
-		if ( index < 0 || index + 8 > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
-		}
-
-		this.outBuf.putDouble(index, value);
+		setLong(index, Double.doubleToRawLongBits(value));
 	}
 
 	@Override
 	public void setFloat(int index, float value) {
-		if ( index < 0 || index + 4 > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
-		}
-
-		this.outBuf.putFloat(index, value);
+		setInt(index, Float.floatToRawIntBits(value));
 	}
 
 	@Override
@@ -545,20 +718,22 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public void setInt(int index, int value) {
-		if ( index < 0 || index + 4 > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
+		if ( isContiguous(index, 4) && index + 4 <= this.writer_index ) {
+			segmentOf(index).putInt( offsetOf(index), value );
+			return;
 		}
-
-		this.outBuf.putInt(index, value);
+		setShort(index, value >>> 16);
+		setShort(index + 2, value);
 	}
 
 	@Override
 	public void setLong(int index, long value) {
-		if ( index < 0 || index + 8 > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
+		if ( isContiguous(index, 8) && index + 8 <= this.writer_index ) {
+			segmentOf(index).putLong( offsetOf(index), value );
+			return;
 		}
-
-		this.outBuf.putLong(index, value);
+		setInt(index, (int) (value >>> 32));
+		setInt(index + 4, (int) value);
 	}
 
 	@Override
@@ -568,21 +743,18 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public void setShort(int index, int value) {
-		if ( index < 0 || index + 2 > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
+		if ( isContiguous(index, 2) && index + 2 <= this.writer_index ) {
+			segmentOf(index).putShort( offsetOf(index), (short) value );
+			return;
 		}
-
-		this.outBuf.putShort(index, (short) value);
+		setByte(index, value >>> 8);
+		setByte(index + 1, value);
 	}
 
 	@Override
 	public void setZero(int index, int length) {
-		if ( index < 0 || index + length > this.outBuf.limit() ) {
-			throw new IndexOutOfBoundsException();
-		}
-		
 		for ( int i = 0; i < length; ++i ) {
-			this.outBuf.put(index + i, (byte)0x00);
+			setByte(index + i, 0);
 		}
 	}
 
@@ -609,7 +781,7 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public ByteBuffer toByteBuffer() {
-		return this.outBuf;
+		throw new UnsupportedOperationException();
 	}
 
 	@Override
@@ -629,7 +801,8 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public String toString(Charset arg0) {
-		return this.outBuf.toString();
+		return "SocketWriteByteChannelBuffer(ridx=" + read_index + ", widx=" + writer_index + 
+				", segments=" + segments.size() + ")";
 	}
 
 	@Override
@@ -669,70 +842,57 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public int writableBytes() {
-		return this.outBuf.remaining();
+		// the chain grows on demand.
+		return Integer.MAX_VALUE - this.writer_index;
 	}
 
 	@Override
 	public void writeByte(int value) {
-		if ( this.writableBytes() < 1 ) {
-			throw new IndexOutOfBoundsException();
-		}
-		
-		this.outBuf.put((byte)value);
+		nextSegmentIfFull();
+		this.tail.put((byte)value);
+		++this.writer_index;
 	}
 
 	@Override
 	public void writeBytes(ChannelBuffer src) {
-		if ( this.writableBytes() < src.readableBytes() ) {
-			throw new IndexOutOfBoundsException();
-		}
-
 		while ( src.readableBytes() > 0 ) {
-			this.outBuf.put( src.readByte() );
+			writeByte( src.readByte() );
 		}
 	}
 
 	@Override
 	public void writeBytes(byte[] src) {
-		if ( this.writableBytes() < src.length ) {
-			throw new IndexOutOfBoundsException();
-		}
-		
-		this.outBuf.put( src );
+		writeBytes(src, 0, src.length);
 	}
 
 	@Override
 	public void writeBytes(ByteBuffer src) {
-		if ( this.writableBytes() < src.remaining() ) {
-			throw new IndexOutOfBoundsException();
+		while ( src.hasRemaining() ) {
+			nextSegmentIfFull();
+			int n = Math.min( src.remaining(), this.tail.remaining() );
+			ByteBuffer chunk = src.duplicate();
+			chunk.limit( chunk.position() + n );
+			this.tail.put( chunk );
+			src.position( src.position() + n );
+			this.writer_index += n;
 		}
-		
-		this.outBuf.put( src );
 	}
 
 	@Override
 	public void writeBytes(ChannelBuffer src, int length) {
-		if ( this.writableBytes() < length || this.writableBytes() < src.readableBytes() ) {
-			throw new IndexOutOfBoundsException();
-		}
-		
 		for ( int i = 0; i < length; ++i ) {
-			this.outBuf.put( src.readByte() );
+			writeByte( src.readByte() );
 		}
 	}
 
 	@Override
 	public int writeBytes(InputStream src, int length) throws IOException {
-		if ( this.writableBytes() < length ) {
-			throw new IndexOutOfBoundsException();
-		}
-		
 		for ( int i = 0; i < length; ++i ) {
 			int r = src.read();
 			if ( r < 0 ) {
 				return i;
 			}
-			this.outBuf.put( (byte) r );
+			writeByte( r );
 		}
 		return length;
 	}
@@ -744,71 +904,66 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public void writeBytes(ChannelBuffer src, int srcIndex, int length) {
-		if ( srcIndex < 0 || length > this.writableBytes() ) {
+		if ( srcIndex < 0 ) {
 			throw new IndexOutOfBoundsException();
 		}
 
 		for ( int i = 0; i < length; ++i ) {
-			this.outBuf.put( src.getByte(srcIndex + i) );
+			writeByte( src.getByte(srcIndex + i) );
 		}
 	}
 
 	@Override
 	public void writeBytes(byte[] src, int srcIndex, int length) {
-		if ( srcIndex < 0 || length > this.writableBytes() ) {
+		if ( srcIndex < 0 || srcIndex + length > src.length ) {
 			throw new IndexOutOfBoundsException();
 		}
 
-		for ( int i = 0; i < length; ++i ) {
-			this.outBuf.put( src[srcIndex + i] );
+		while ( length > 0 ) {
+			nextSegmentIfFull();
+			int n = Math.min( length, this.tail.remaining() );
+			this.tail.put( src, srcIndex, n );
+			srcIndex += n;
+			length -= n;
+			this.writer_index += n;
 		}
 	}
 
 	@Override
 	public void writeChar(int value) {
-		if ( this.writableBytes() < 2 ) {
-			throw new IndexOutOfBoundsException();
-		}
-
-		this.outBuf.putChar( (char) value );
+		writeShort(value);
 	}
 
 	@Override
 	public void writeDouble(double value) {
-		if ( this.writableBytes() < 8 ) {
-			throw new IndexOutOfBoundsException();
-		}
-
-		this.outBuf.putDouble( value );
-
+		writeLong( Double.doubleToRawLongBits(value) );
 	}
 
 	@Override
 	public void writeFloat(float value) {
-		if ( this.writableBytes() < 4 ) {
-			throw new IndexOutOfBoundsException();
-		}
-
-		this.outBuf.putFloat( value );
-
+		writeInt( Float.floatToRawIntBits(value) );
 	}
 
 	@Override
 	public void writeInt(int value) {
-		if ( this.writableBytes() < 4 ) {
-			throw new IndexOutOfBoundsException();
+		if ( this.tail != null && this.tail.remaining() >= 4 ) {
+			this.tail.putInt( value );
+			this.writer_index += 4;
+			return;
 		}
-
-		this.outBuf.putInt( value );
+		writeShort( value >>> 16 );
+		writeShort( value );
 	}
 
 	@Override
 	public void writeLong(long value) {
-		if ( this.writableBytes() < 8 ) {
-			throw new IndexOutOfBoundsException();
+		if ( this.tail != null && this.tail.remaining() >= 8 ) {
+			this.tail.putLong( value );
+			this.writer_index += 8;
+			return;
 		}
-
-		this.outBuf.putLong( value );
+		writeInt( (int) (value >>> 32) );
+		writeInt( (int) value );
 	}
 
 	@Override
@@ -818,32 +973,46 @@ public class SocketWriteByteChannelBuffer implements ChannelBuffer {
 
 	@Override
 	public void writeShort(int value) {
-		if ( this.writableBytes() < 2 ) {
-			throw new IndexOutOfBoundsException();
+		if ( this.tail != null && this.tail.remaining() >= 2 ) {
+			this.tail.putShort( (short) value );
+			this.writer_index += 2;
+			return;
 		}
-
-		this.outBuf.putShort( (short) value );
+		writeByte( value >>> 8 );
+		writeByte( value );
 	}
 
 	@Override
 	public void writeZero(int length) {
-		if ( this.writableBytes() < length ) {
-			throw new IndexOutOfBoundsException();
-		}
-		
 		for ( int i = 0; i < length; ++i ) {
-			this.writeByte((byte)0x00);
+			writeByte(0);
 		}
 	}
 
 	@Override
 	public int writerIndex() {
-		return this.outBuf.position();
+		return this.writer_index;
 	}
 
 	@Override
 	public void writerIndex(int writerIndex) {
-		this.outBuf.position(writerIndex);
+		if ( writerIndex < this.read_index || writerIndex > this.writer_index ) {
+			// the chain can only be truncated. 
+			throw new IndexOutOfBoundsException();
+		}
+		this.writer_index = writerIndex;
+		
+		// drop the segments after the new writer index.
+		int keep = (writerIndex - this.base + this.segment_size - 1) / this.segment_size;
+		while ( this.segments.size() > Math.max(keep, 1) ) {
+			this.pool.release( this.segments.remove(this.segments.size() - 1) );
+		}
+		if ( writerIndex == this.read_index ) {
+			releaseAll();
+			return;
+		}
+		this.tail = this.segments.get(this.segments.size() - 1);
+		this.tail.position( writerIndex - this.base - (this.segments.size() - 1) * this.segment_size );
 	}
 
 }
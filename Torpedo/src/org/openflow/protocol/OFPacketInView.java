@@ -0,0 +1,291 @@
+package org.openflow.protocol;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.projectfloodlight.openflow.exceptions.OFParseError;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.ver10.OFPacketInReasonSerializerVer10;
+import org.projectfloodlight.openflow.protocol.ver13.ChannelUtilsVer13;
+import org.projectfloodlight.openflow.protocol.ver13.OFPacketInReasonSerializerVer13;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TableId;
+import org.projectfloodlight.openflow.types.U64;
+
+import com.google.common.hash.PrimitiveSink;
+
+/**
+ * Lightweight PACKET_IN message for OpenFlow 1.0 and 1.3.
+ *
+ * Reading a view copies the bytes of the message out of the receive buffer
+ * only once: the fixed fields (and the match of 1.3) are kept as raw bytes,
+ * and the payload is kept in its own array that {@link #getData()} returns
+ * without copying. Fields are decoded on demand. The match is parsed
+ * only when {@link #getMatch()} is called, and the full Loxi OFPacketIn object
+ * is materialized only for the rarely used operations (builder, hashing, equality).
+ *
+ * The view cannot refer to the receive buffer itself, because the buffer
+ * is compacted and returned to the pool as soon as the messages are parsed,
+ * while the view is processed later by a QP thread.
+ */
+public final class OFPacketInView implements OFPacketIn {
+
+	private static final byte TYPE_PACKET_IN = 10;
+
+	private static final int OFFSET_BUFFER_ID = 8;
+	private static final int OFFSET_TOTAL_LEN = 12;
+
+	/* OF 1.0 */
+	private static final int OF10_OFFSET_IN_PORT = 14;
+	private static final int OF10_OFFSET_REASON = 16;
+	private static final int OF10_DATA_OFFSET = 18;
+
+	/* OF 1.3 */
+	private static final int OF13_OFFSET_REASON = 14;
+	private static final int OF13_OFFSET_TABLE_ID = 15;
+	private static final int OF13_OFFSET_COOKIE = 16;
+	private static final int OF13_OFFSET_MATCH = 24;
+
+	private final OFVersion version;
+
+	/**
+	 * bytes of the message before the payload.
+	 */
+	private final byte[] head;
+
+	/**
+	 * payload (the packet).
+	 */
+	private final byte[] data;
+
+	private final OFPacketInReason reason;
+
+	private Match match = null;
+	private OFPacketIn materialized = null;
+
+	private OFPacketInView(OFVersion version, byte[] head, byte[] data, OFPacketInReason reason) {
+		this.version = version;
+		this.head = head;
+		this.data = data;
+		this.reason = reason;
+	}
+
+	/**
+	 * Check if the message at the given index can be read as a view.
+	 *
+	 * @param bb		buffer that holds the header of the message at index
+	 * @param index		index of the message
+	 * @return			true if the message is a PACKET_IN of OpenFlow 1.0 or 1.3
+	 */
+	public static boolean isViewable(ChannelBuffer bb, int index) {
+		byte version = bb.getByte(index);
+		return bb.getByte(index + 1) == TYPE_PACKET_IN &&
+				(version == (byte) 0x1 || version == (byte) 0x4);
+	}
+
+	/**
+	 * Read a PACKET_IN message from the buffer. The whole message should be in the buffer.
+	 *
+	 * @param bb		buffer to read
+	 * @return			OFPacketInView object
+	 * @throws OFParseError	if the message is malformed
+	 */
+	public static OFPacketInView readFrom(ChannelBuffer bb) throws OFParseError {
+		int start = bb.readerIndex();
+		byte v = bb.getByte(start);
+		int length = bb.getUnsignedShort(start + 2);
+
+		OFVersion version;
+		int dataOffset;
+		OFPacketInReason reason;
+		if ( v == (byte) 0x1 ) {
+			version = OFVersion.OF_10;
+			dataOffset = OF10_DATA_OFFSET;
+			reason = OFPacketInReasonSerializerVer10.ofWireValue( bb.getByte(start + OF10_OFFSET_REASON) );
+		} else if ( v == (byte) 0x4 ) {
+			version = OFVersion.OF_13;
+			if ( length < OF13_OFFSET_MATCH + 4 ) {
+				throw new OFParseError("Wrong length: " + length);
+			}
+			int matchLength = bb.getUnsignedShort(start + OF13_OFFSET_MATCH + 2);
+			// match is padded to the multiple of 8, and followed by 2 bytes of pad.
+			dataOffset = OF13_OFFSET_MATCH + ((matchLength + 7) / 8 * 8) + 2;
+			reason = OFPacketInReasonSerializerVer13.ofWireValue( bb.getByte(start + OF13_OFFSET_REASON) );
+		} else {
+			throw new OFParseError("Wrong version: " + v);
+		}
+		if ( length < dataOffset ) {
+			throw new OFParseError("Wrong length: " + length);
+		}
+
+		byte[] head = new byte[dataOffset];
+		byte[] data = new byte[length - dataOffset];
+		bb.readBytes(head);
+		bb.readBytes(data);
+		return new OFPacketInView(version, head, data, reason);
+	}
+
+	private int getInt(int offset) {
+		return ((head[offset] & 0xff) << 24) | ((head[offset + 1] & 0xff) << 16) |
+				((head[offset + 2] & 0xff) << 8) | (head[offset + 3] & 0xff);
+	}
+
+	private int getUnsignedShort(int offset) {
+		return ((head[offset] & 0xff) << 8) | (head[offset + 1] & 0xff);
+	}
+
+	private boolean isOF10() {
+		return this.version == OFVersion.OF_10;
+	}
+
+	/**
+	 * Get the payload as a read-only buffer which shares the bytes of this message.
+	 * @return	ChannelBuffer object
+	 */
+	public ChannelBuffer getPayload() {
+		return ChannelBuffers.unmodifiableBuffer( ChannelBuffers.wrappedBuffer(this.data) );
+	}
+
+	/**
+	 * Get the Loxi object of this message. It is created on the first call.
+	 * @return	OFPacketIn object
+	 */
+	public synchronized OFPacketIn materialize() {
+		if ( this.materialized == null ) {
+			try {
+				this.materialized = (OFPacketIn) OFFactories.getGenericReader().readFrom(
+						ChannelBuffers.wrappedBuffer(this.head, this.data) );
+			} catch (OFParseError e) {
+				// readFrom() has already validated the message.
+				throw new IllegalStateException(e);
+			}
+		}
+		return this.materialized;
+	}
+
+	@Override
+	public OFVersion getVersion() {
+		return this.version;
+	}
+
+	@Override
+	public OFType getType() {
+		return OFType.PACKET_IN;
+	}
+
+	@Override
+	public long getXid() {
+		return getInt(4) & 0xffffffffL;
+	}
+
+	@Override
+	public OFBufferId getBufferId() {
+		return OFBufferId.of( getInt(OFFSET_BUFFER_ID) );
+	}
+
+	@Override
+	public int getTotalLen() {
+		return getUnsignedShort(OFFSET_TOTAL_LEN);
+	}
+
+	@Override
+	public OFPacketInReason getReason() {
+		return this.reason;
+	}
+
+	@Override
+	public TableId getTableId() throws UnsupportedOperationException {
+		if ( isOF10() ) {
+			throw new UnsupportedOperationException("Property tableId not supported in version 1.0");
+		}
+		return TableId.of( head[OF13_OFFSET_TABLE_ID] & 0xff );
+	}
+
+	@Override
+	public synchronized Match getMatch() throws UnsupportedOperationException {
+		if ( isOF10() ) {
+			throw new UnsupportedOperationException("Property match not supported in version 1.0");
+		}
+		if ( this.match == null ) {
+			ChannelBuffer bb = ChannelBuffers.wrappedBuffer(this.head);
+			bb.readerIndex(OF13_OFFSET_MATCH);
+			try {
+				this.match = ChannelUtilsVer13.readOFMatch(bb);
+			} catch (OFParseError e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return this.match;
+	}
+
+	@Override
+	public byte[] getData() {
+		return this.data;
+	}
+
+	@Override
+	public OFPort getInPort() throws UnsupportedOperationException {
+		if ( !isOF10() ) {
+			throw new UnsupportedOperationException("Property inPort not supported in version 1.3");
+		}
+		return OFPort.ofShort( (short) getUnsignedShort(OF10_OFFSET_IN_PORT) );
+	}
+
+	@Override
+	public OFPort getInPhyPort() throws UnsupportedOperationException {
+		return materialize().getInPhyPort();
+	}
+
+	@Override
+	public U64 getCookie() throws UnsupportedOperationException {
+		if ( isOF10() ) {
+			throw new UnsupportedOperationException("Property cookie not supported in version 1.0");
+		}
+		return U64.ofRaw( ((long) getInt(OF13_OFFSET_COOKIE) << 32) | (getInt(OF13_OFFSET_COOKIE + 4) & 0xffffffffL) );
+	}
+
+	@Override
+	public void writeTo(ChannelBuffer bb) {
+		bb.writeBytes(this.head);
+		bb.writeBytes(this.data);
+	}
+
+	@Override
+	public void putTo(PrimitiveSink sink) {
+		materialize().putTo(sink);
+	}
+
+	@Override
+	public OFPacketIn.Builder createBuilder() {
+		return materialize().createBuilder();
+	}
+
+	/**
+	 * A view is equal only to another view of the same message.
+	 * It is not equal to the decoded message, which does not know the view,
+	 * so that equals() is symmetric. Compare with {@link #materialize()} for that.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if ( this == obj ) return true;
+		if ( obj instanceof OFPacketInView ) {
+			return materialize().equals( ((OFPacketInView) obj).materialize() );
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return materialize().hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return materialize().toString();
+	}
+}
@@ -52,6 +52,20 @@ public class OFHeader {
 		this.xid = data.readInt();
 	}
 
+	/**
+	 * Decode the header at the given index without moving the reader index of the buffer.
+	 * 
+	 * @param data		buffer that holds at least MINIMUM_LENGTH bytes from index
+	 * @param index		index of the header
+	 */
+	public void peekFrom(ChannelBuffer data, int index) {
+
+		this.version = data.getByte(index);
+		this.type = data.getByte(index + 1);
+		this.length = data.getShort(index + 2);
+		this.xid = data.getInt(index + 4);
+	}
+
 	public String toString() {
 		return "OFHeader-"+":version=" + U8.f(version) + 
 				":type=" + U8.f(type) + 
@@ -23,7 +23,27 @@ import org.junit.runners.Suite.SuiteClasses;
 	etri.sdn.controller.util.BasenameTest.class,
 	etri.sdn.controller.util.StackTraceTest.class,
 	etri.sdn.controller.util.TimedCacheTest.class,
-	etri.sdn.controller.util.MACAddressTest.class
+	etri.sdn.controller.util.MACAddressTest.class,
+	etri.sdn.controller.util.SpscRingBufferTest.class,
+	etri.sdn.controller.TaskSchedulerTest.class,
+	etri.sdn.controller.MessageContextTest.class,
+	etri.sdn.controller.OFPipelineTest.class,
+	etri.sdn.controller.OFControllerTest.class,
+	etri.sdn.controller.protocol.XidCorrelatorTest.class,
+	etri.sdn.controller.protocol.io.ClientChannelWatcherTest.class,
+	etri.sdn.controller.protocol.io.ConnectionTest.class,
+	etri.sdn.controller.protocol.packet.EthernetTest.class,
+	etri.sdn.controller.module.linkdiscovery.DiscoveryProbeTest.class,
+	etri.sdn.controller.module.linkdiscovery.DiscoveryPacerTest.class,
+	etri.sdn.controller.module.linkdiscovery.DiscoveryPacketTest.class,
+	etri.sdn.controller.module.linkdiscovery.LinksTest.class,
+	etri.sdn.controller.module.topologymanager.TopologyInstanceTest.class,
+	etri.sdn.controller.module.topologymanager.UpdateCoalescerTest.class,
+	etri.sdn.controller.protocol.packet.PacketHeadersTest.class,
+	org.openflow.io.DirectBufferPoolTest.class,
+	org.openflow.io.SocketWriteByteChannelBufferTest.class,
+	org.openflow.io.OFMessageAsyncStreamTest.class,
+	org.openflow.protocol.OFPacketInViewTest.class
 })
 public final class IRISTestSuite {
 	
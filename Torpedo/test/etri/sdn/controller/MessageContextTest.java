@@ -0,0 +1,101 @@
+package etri.sdn.controller;
+
+import static org.junit.Assert.*;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+import etri.sdn.controller.protocol.packet.Ethernet;
+
+public class MessageContextTest {
+
+	private static final MessageContext.Key<String> NAME =
+			MessageContext.registerKey("etri.sdn.controller.MessageContextTest.name", String.class);
+
+	@Test
+	public void testPutAndGet() {
+		MessageContext context = new MessageContext();
+		assertNull(context.get(NAME));
+
+		context.put(NAME, "hello");
+		assertEquals("hello", context.get(NAME));
+		assertEquals("hello", context.get(NAME.getName()));
+
+		Ethernet eth = new Ethernet();
+		context.put(MessageContext.ETHER_PAYLOAD, eth);
+		assertSame(eth, context.get(MessageContext.ETHER_PAYLOAD));
+
+		context.remove(NAME);
+		assertNull(context.get(NAME));
+		assertSame(eth, context.get(MessageContext.ETHER_PAYLOAD));
+	}
+
+	@Test
+	public void testReset() {
+		MessageContext context = new MessageContext();
+		context.put(NAME, "hello");
+		context.reset();
+		assertNull(context.get(NAME));
+		assertNull(context.get(MessageContext.ETHER_PAYLOAD));
+
+		context.put(NAME, "world");
+		assertEquals("world", context.get(NAME));
+	}
+
+	@Test
+	public void testResetReleasesItems() throws InterruptedException {
+		MessageContext context = new MessageContext();
+		Ethernet eth = new Ethernet();
+		WeakReference<Ethernet> ref = new WeakReference<Ethernet>(eth);
+		context.put(MessageContext.ETHER_PAYLOAD, eth);
+		// written twice and removed in a generation.
+		context.put(NAME, "a");
+		context.remove(NAME);
+		context.put(NAME, "b");
+		eth = null;
+
+		context.reset();
+		for ( int i = 0; i < 50 && ref.get() != null; ++i ) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull("reset() keeps the item reachable", ref.get());
+		assertNull(context.get(NAME));
+	}
+
+	@Test
+	public void testRegistration() {
+		assertSame(NAME, MessageContext.registerKey(NAME.getName(), String.class));
+		try {
+			MessageContext.registerKey(NAME.getName(), Integer.class);
+			fail("type mismatch is not detected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testKeysRegisteredLater() {
+		MessageContext context = new MessageContext();
+		MessageContext.Key<Integer> last = null;
+		for ( int i = 0; i < 64; ++i ) {
+			last = MessageContext.registerKey("etri.sdn.controller.MessageContextTest.later" + i, Integer.class);
+		}
+		context.put(last, 7);
+		assertEquals(Integer.valueOf(7), context.get(last));
+	}
+
+	@Test
+	public void testStringKeys() {
+		MessageContext context = new MessageContext();
+		context.put("etri.sdn.controller.MessageContextTest.legacy", 3);
+		assertEquals(3, context.get("etri.sdn.controller.MessageContextTest.legacy"));
+		try {
+			context.put(NAME.getName(), 3);
+			fail("type mismatch is not detected");
+		} catch (ClassCastException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package etri.sdn.controller;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+import etri.sdn.controller.protocol.OFProtocol;
+import etri.sdn.controller.protocol.io.Connection;
+import etri.sdn.controller.protocol.io.Connections;
+
+public class OFControllerTest {
+
+	private static final int PROCESSORS = 4;
+	private static final int CONNECTIONS = 4;
+	private static final int BATCHES = 200;
+	private static final int MESSAGES = 4;
+
+	/**
+	 * controller whose protocol records the xids of the processed messages per connection.
+	 */
+	private static class TestController extends OFController {
+		final ConcurrentMap<Connection, List<Long>> received = new ConcurrentHashMap<Connection, List<Long>>();
+		final ConcurrentMap<Connection, AtomicBoolean> busy = new ConcurrentHashMap<Connection, AtomicBoolean>();
+		final AtomicInteger overlaps = new AtomicInteger(0);
+		final AtomicReference<Connection> first = new AtomicReference<Connection>();
+		final CountDownLatch others = new CountDownLatch(1);
+		final CountDownLatch done;
+
+		private final OFProtocol recorder = new OFProtocol(this) {
+			@Override
+			public boolean process(Connection conn, MessageContext context, OFMessage m) {
+				AtomicBoolean b = busy.get(conn);
+				if ( !b.compareAndSet(false, true) ) {
+					overlaps.incrementAndGet();
+				}
+				if ( first.compareAndSet(null, conn) ) {
+					// hold the QP until another QP processes the other connections.
+					try {
+						others.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				} else if ( conn != first.get() ) {
+					others.countDown();
+				}
+				received.get(conn).add(m.getXid());
+				b.set(false);
+				done.countDown();
+				return true;
+			}
+		};
+
+		TestController(int processors, int messages) {
+			super(processors, "EQUAL");
+			this.done = new CountDownLatch(messages);
+		}
+
+		void add(Connection conn) {
+			received.put(conn, Collections.synchronizedList(new ArrayList<Long>()));
+			busy.put(conn, new AtomicBoolean(false));
+		}
+
+		@Override
+		public OFProtocol getProtocol() {
+			return recorder;
+		}
+
+		@Override
+		public void init() {
+		}
+
+		@Override
+		public boolean handlePacketIn(Connection conn, MessageContext context, OFMessage m) {
+			return true;
+		}
+
+		@Override
+		public boolean handleGeneric(Connection conn, MessageContext context, OFMessage m) {
+			return true;
+		}
+	}
+
+	private ServerSocketChannel server;
+	private List<SocketChannel> sockets = new ArrayList<SocketChannel>();
+	private String dispatch;
+	private String ringSize;
+	private TestController controller;
+
+	@Before
+	public void setUp() throws IOException {
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+
+		TorpedoProperties conf = TorpedoProperties.loadConfiguration();
+		dispatch = conf.getString("qp-dispatch");
+		ringSize = conf.getString("qp-ring-size");
+		conf.setProperty("qp-dispatch", "stealing");
+		conf.setProperty("qp-ring-size", "1024");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if ( controller != null ) {
+			controller.shutdown();
+		}
+		TorpedoProperties conf = TorpedoProperties.loadConfiguration();
+		conf.setProperty("qp-dispatch", dispatch);
+		conf.setProperty("qp-ring-size", ringSize);
+		for ( SocketChannel s : sockets ) {
+			s.close();
+		}
+		server.close();
+	}
+
+	private Connection connect() throws IOException {
+		SocketChannel client = SocketChannel.open(server.socket().getLocalSocketAddress());
+		sockets.add(client);
+		sockets.add(server.accept());
+		return Connections.open(client);
+	}
+
+	@Test
+	public void testStealingKeepsOrderOfConnection() throws Exception {
+		controller = new TestController(PROCESSORS, CONNECTIONS * BATCHES * MESSAGES);
+		assertEquals(OFController.Dispatch.STEALING, controller.getDispatch());
+
+		// all the connections have the same home QP, which is held by the first message.
+		// so the other QPs have to steal the other connections.
+		List<Connection> conns = new ArrayList<Connection>();
+		while ( conns.size() < CONNECTIONS ) {
+			Connection conn = connect();
+			if ( conn.getSeq() % PROCESSORS == 0 ) {
+				conns.add(conn);
+				controller.add(conn);
+			}
+		}
+		controller.start();
+
+		OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+		long xid = 0;
+		for ( int b = 0; b < BATCHES; ++b ) {
+			for ( Connection conn : conns ) {
+				List<OFMessage> msgs = new ArrayList<OFMessage>();
+				for ( int i = 0; i < MESSAGES; ++i ) {
+					msgs.add(factory.buildEchoRequest().setXid(xid++).build());
+				}
+				assertTrue(controller.handleReadEvent(conn, msgs));
+			}
+		}
+		assertTrue("messages are not processed", controller.done.await(10, TimeUnit.SECONDS));
+
+		assertEquals(0, controller.overlaps.get());
+		for ( Connection conn : conns ) {
+			List<Long> xids = controller.received.get(conn);
+			assertEquals(BATCHES * MESSAGES, xids.size());
+			for ( int i = 1; i < xids.size(); ++i ) {
+				assertTrue("out of order at " + i, xids.get(i - 1) < xids.get(i));
+			}
+		}
+
+		long stolen = 0;
+		for ( OFController.ProcessorStatistics p : controller.getProcessorStatistics() ) {
+			stolen += p.getStolen();
+		}
+		assertTrue("no mailbox is stolen", stolen > 0);
+	}
+}
@@ -0,0 +1,141 @@
+package etri.sdn.controller;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Constructor;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+import etri.sdn.controller.protocol.io.Connection;
+
+public class OFPipelineTest {
+
+	private OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+	private SocketChannel channel;
+	private Connection conn;
+	private List<String> calls = new ArrayList<String>();
+
+	private class TestModule extends OFModule {
+		private final String name;
+		private final boolean cont;
+		List<OFMessage> outgoing = null;
+
+		TestModule(String name, boolean cont, OFType... types) {
+			this.name = name;
+			this.cont = cont;
+			for ( OFType t : types ) {
+				registerFilter(t, new OFMFilter() {
+					@Override
+					public boolean filter(OFMessage m) {
+						return true;
+					}
+				});
+			}
+		}
+
+		@Override
+		protected Collection<Class<? extends IService>> services() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		protected void initialize() {
+		}
+
+		@Override
+		protected boolean handleHandshakedEvent(Connection conn, MessageContext context) {
+			return true;
+		}
+
+		@Override
+		protected boolean handleMessage(Connection conn, MessageContext context, OFMessage msg, List<OFMessage> outgoing) {
+			calls.add(name);
+			this.outgoing = outgoing;
+			outgoing.add( factory.echoRequest(new byte[0]) );
+			return cont;
+		}
+
+		@Override
+		protected boolean handleDisconnect(Connection conn) {
+			return true;
+		}
+
+		@Override
+		public OFModel[] getModels() {
+			return null;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		channel = SocketChannel.open();
+		// connections are made only by the watcher.
+		Constructor<Connection> c = Connection.class.getDeclaredConstructor(SocketChannel.class);
+		c.setAccessible(true);
+		conn = c.newInstance(channel);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		channel.close();
+	}
+
+	@Test
+	public void testDispatchByType() {
+		TestModule a = new TestModule("a", true, OFType.PACKET_IN);
+		TestModule b = new TestModule("b", true, OFType.ECHO_REPLY);
+		TestModule c = new TestModule("c", true, OFType.PACKET_IN, OFType.ECHO_REPLY);
+		OFPipeline p = new OFPipeline(a, b, c);
+		p.compile();
+
+		MessageContext context = new MessageContext();
+		assertTrue(p.process(conn, context, factory.buildPacketIn()
+				.setReason(OFPacketInReason.NO_MATCH).setData(new byte[0]).build()));
+		assertEquals(Arrays.asList("a", "c"), calls);
+
+		calls.clear();
+		assertTrue(p.process(conn, context, factory.echoReply(new byte[0])));
+		assertEquals(Arrays.asList("b", "c"), calls);
+
+		calls.clear();
+		assertTrue(p.process(conn, context, factory.echoRequest(new byte[0])));
+		assertTrue(calls.isEmpty());
+	}
+
+	@Test
+	public void testStopAndReuseBuffer() {
+		TestModule a = new TestModule("a", false, OFType.ECHO_REPLY);
+		TestModule b = new TestModule("b", true, OFType.ECHO_REPLY);
+		OFPipeline p = new OFPipeline(a, b);
+		p.compile();
+
+		MessageContext context = new MessageContext();
+		p.process(conn, context, factory.echoReply(new byte[0]));
+		assertEquals(Collections.singletonList("a"), calls);
+
+		// the buffer is cleared after the output is written, and reused for the next message.
+		List<OFMessage> first = a.outgoing;
+		assertTrue(first.isEmpty());
+		p.process(conn, context, factory.echoReply(new byte[0]));
+		assertSame(first, a.outgoing);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNotCompiled() {
+		new OFPipeline(new TestModule("a", true)).process(conn, new MessageContext(), factory.echoReply(new byte[0]));
+	}
+}
@@ -0,0 +1,149 @@
+package etri.sdn.controller;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TaskSchedulerTest {
+
+	private TaskScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		scheduler = new TaskScheduler(1, 64, 2);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdown();
+	}
+
+	private static class CountingTask implements IOFTask {
+		final AtomicInteger count = new AtomicInteger(0);
+		final CountDownLatch latch;
+		final int limit;
+
+		CountingTask(int limit) {
+			this.limit = limit;
+			this.latch = new CountDownLatch(limit);
+		}
+
+		@Override
+		public boolean execute() {
+			latch.countDown();
+			return count.incrementAndGet() < limit;
+		}
+	}
+
+	private TaskScheduler.TaskStatistics statisticsOf(Class<?> c) {
+		for ( TaskScheduler.TaskStatistics s : scheduler.getTaskStatistics() ) {
+			if ( c.getName().endsWith(s.getName()) ) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	private void waitUntilDone(TaskScheduler.ScheduledTask t) throws InterruptedException {
+		for ( int i = 0; i < 200 && !t.isDone(); ++i ) {
+			Thread.sleep(5);
+		}
+		assertTrue(t.isDone());
+	}
+
+	@Test
+	public void testOneShot() throws InterruptedException {
+		CountingTask task = new CountingTask(100);
+		long start = System.nanoTime();
+		TaskScheduler.ScheduledTask t = scheduler.schedule(task, 50, 0);
+		assertTrue(task.latch.getCount() > 0);
+		waitUntilDone(t);
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+		assertEquals(1, task.count.get());
+		assertEquals(0, scheduler.getScheduledCount());
+	}
+
+	@Test
+	public void testPeriodicUntilFalse() throws InterruptedException {
+		CountingTask task = new CountingTask(5);
+		TaskScheduler.ScheduledTask t = scheduler.schedule(task, 0, 5);
+		assertTrue(task.latch.await(2, TimeUnit.SECONDS));
+		waitUntilDone(t);
+		Thread.sleep(30);
+		assertEquals(5, task.count.get());
+
+		TaskScheduler.TaskStatistics s = statisticsOf(CountingTask.class);
+		assertNotNull(s);
+		assertEquals(5, s.getExecutions());
+		assertEquals(0, s.getActive());
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		CountingTask task = new CountingTask(Integer.MAX_VALUE);
+		TaskScheduler.ScheduledTask t = scheduler.schedule(task, 1000, 1000);
+		t.cancel();
+		waitUntilDone(t);
+		assertEquals(0, task.count.get());
+	}
+
+	@Test
+	public void testFailureKeepsTask() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger(0);
+		TaskScheduler.ScheduledTask t = scheduler.schedule(new IOFTask() {
+			@Override
+			public boolean execute() {
+				if ( count.incrementAndGet() < 3 ) {
+					throw new RuntimeException("intended failure");
+				}
+				return false;
+			}
+		}, 0, 5);
+		waitUntilDone(t);
+		assertEquals(3, count.get());
+	}
+
+	@Test
+	public void testSlowTaskIsolation() throws InterruptedException {
+		final AtomicInteger running = new AtomicInteger(0);
+		final AtomicInteger overlap = new AtomicInteger(0);
+		final CountDownLatch slow_runs = new CountDownLatch(3);
+		TaskScheduler.ScheduledTask slow = scheduler.schedule(new IOFTask() {
+			@Override
+			public boolean execute() {
+				if ( running.incrementAndGet() > 1 ) {
+					overlap.incrementAndGet();
+				}
+				try {
+					Thread.sleep(40);
+				} catch (InterruptedException e) {
+					// does nothing
+				}
+				running.decrementAndGet();
+				slow_runs.countDown();
+				return true;
+			}
+		}, 0, 5);
+
+		// the fast task should keep its pace while the slow one occupies a worker.
+		CountingTask fast = new CountingTask(10);
+		scheduler.schedule(fast, 0, 5);
+		assertTrue(fast.latch.await(90, TimeUnit.MILLISECONDS));
+
+		assertTrue(slow_runs.await(2, TimeUnit.SECONDS));
+		slow.cancel();
+		assertEquals(0, overlap.get());
+
+		long skipped = 0;
+		for ( TaskScheduler.TaskStatistics s : scheduler.getTaskStatistics() ) {
+			skipped += s.getSkipped();
+		}
+		assertTrue(skipped > 0);
+	}
+}
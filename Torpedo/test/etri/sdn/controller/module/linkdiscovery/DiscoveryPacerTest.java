@@ -0,0 +1,119 @@
+package etri.sdn.controller.module.linkdiscovery;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.OFPort;
+
+public class DiscoveryPacerTest {
+
+	private static List<NodePortTuple> ports(int switches, int portsPerSwitch) {
+		List<NodePortTuple> ret = new ArrayList<NodePortTuple>();
+		for ( int s = 1; s <= switches; ++s ) {
+			for ( int p = 1; p <= portsPerSwitch; ++p ) {
+				ret.add(new NodePortTuple(s, OFPort.of(p)));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * run the pacer for a cycle, and return the number of probes per port.
+	 */
+	private static Map<NodePortTuple, Integer> runCycle(DiscoveryPacer pacer, List<NodePortTuple> ports,
+			long start, long interval, long tick, int maxPerTick) {
+		Map<NodePortTuple, Integer> sent = new HashMap<NodePortTuple, Integer>();
+		assertTrue(pacer.needsCycle(start));
+		for ( long now = start; now < start + interval; now += tick ) {
+			if ( pacer.needsCycle(now) ) {
+				pacer.startCycle(ports, now);
+			}
+			int budget = pacer.refill(now);
+			List<NodePortTuple> due = pacer.next(now, budget);
+			assertTrue(due.size() <= maxPerTick);
+			pacer.consume(due.size());
+			for ( NodePortTuple npt : due ) {
+				Integer c = sent.get(npt);
+				sent.put(npt, (c == null) ? 1 : c + 1);
+			}
+		}
+		assertEquals(0, pacer.getRemaining());
+		return sent;
+	}
+
+	@Test
+	public void testSpreadOverInterval() {
+		List<NodePortTuple> ports = ports(10, 48);
+		DiscoveryPacer pacer = new DiscoveryPacer(7000, 100, 0, 3, 1);
+
+		// 480 ports in 70 ticks: at most 7 probes on a tick.
+		Map<NodePortTuple, Integer> sent = runCycle(pacer, ports, 0, 7000, 100, 7);
+		assertEquals(ports.size(), sent.size());
+		for ( int c : sent.values() ) {
+			assertEquals(1, c);
+		}
+
+		// the next cycle starts after the interval.
+		assertFalse(pacer.needsCycle(6999));
+		sent = runCycle(pacer, ports, 7000, 7000, 100, 7);
+		assertEquals(ports.size(), sent.size());
+	}
+
+	@Test
+	public void testBudget() {
+		List<NodePortTuple> ports = ports(10, 48);
+		// 20 probes per second: 2 on a tick
+		DiscoveryPacer pacer = new DiscoveryPacer(7000, 100, 20, 3, 1);
+
+		pacer.startCycle(ports, 0);
+		int total = 0;
+		for ( long now = 0; now < 7000; now += 100 ) {
+			int budget = pacer.refill(now);
+			assertTrue(budget <= 4);
+			List<NodePortTuple> due = pacer.next(now, budget);
+			pacer.consume(due.size());
+			total += due.size();
+		}
+		// the cycle is not over, and a new cycle does not start.
+		assertTrue(total <= 140);
+		assertTrue(pacer.getRemaining() > 0);
+		assertFalse(pacer.needsCycle(7000));
+
+		// the budget is not accumulated while idle.
+		assertTrue(pacer.refill(60000) <= 4);
+	}
+
+	@Test
+	public void testStablePorts() {
+		List<NodePortTuple> ports = ports(4, 24);
+		NodePortTuple changed = ports.get(5);
+		DiscoveryPacer pacer = new DiscoveryPacer(1000, 100, 0, 3, 2);
+
+		Map<NodePortTuple, Integer> total = new HashMap<NodePortTuple, Integer>();
+		for ( int cycle = 0; cycle < 2; ++cycle ) {
+			long start = cycle * 1000;
+			pacer.markChanged(changed, start);
+			assertFalse(pacer.isStable(changed, start));
+			Map<NodePortTuple, Integer> sent = runCycle(pacer, ports, start, 1000, 100, ports.size());
+			assertEquals(Integer.valueOf(1), sent.get(changed));
+			for ( Map.Entry<NodePortTuple, Integer> e : sent.entrySet() ) {
+				Integer c = total.get(e.getKey());
+				total.put(e.getKey(), (c == null) ? e.getValue() : c + e.getValue());
+			}
+		}
+
+		// every stable port is probed once in two cycles, and the changed port on every cycle.
+		assertEquals(ports.size(), total.size());
+		for ( Map.Entry<NodePortTuple, Integer> e : total.entrySet() ) {
+			assertEquals(e.getKey().equals(changed) ? 2 : 1, (int) e.getValue());
+		}
+
+		// the changed port becomes stable after 3 cycles.
+		assertTrue(pacer.isStable(changed, 1000 + 3000));
+	}
+}
@@ -0,0 +1,123 @@
+package etri.sdn.controller.module.linkdiscovery;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+import etri.sdn.controller.protocol.packet.BSN;
+import etri.sdn.controller.protocol.packet.Data;
+import etri.sdn.controller.protocol.packet.Ethernet;
+import etri.sdn.controller.protocol.packet.LLDPTLV;
+
+public class DiscoveryPacketTest {
+
+	private static final long DPID = 0x00000a0b0c0d0e0fL;
+	private static final long CONTROLLER_ID = 0x0123456789abcdefL;
+	private static final LLDPTLV CONTROLLER_TLV = new LLDPTLV()
+		.setType((byte) 0x0c)
+		.setLength((short) 8)
+		.setValue(new byte[] { 0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd, (byte) 0xef });
+
+	static DiscoveryProbe probe(boolean isStandard, int port) {
+		return new DiscoveryProbe(OFVersion.OF_10, DPID, OFPort.of(port),
+				MacAddress.of("02:00:00:00:00:01"), isStandard, CONTROLLER_TLV);
+	}
+
+	/**
+	 * insert a VLAN tag into the frame.
+	 */
+	private static byte[] tag(byte[] frame, short vlan) {
+		byte[] ret = new byte[frame.length + 4];
+		System.arraycopy(frame, 0, ret, 0, 12);
+		ret[12] = (byte) 0x81;
+		ret[13] = 0x00;
+		ret[14] = (byte) (vlan >> 8);
+		ret[15] = (byte) vlan;
+		System.arraycopy(frame, 12, ret, 16, frame.length - 12);
+		return ret;
+	}
+
+	@Test
+	public void testLldp() {
+		byte[] data = probe(true, 1000).getFrame();
+		assertTrue(DiscoveryPacket.isCandidate(data));
+
+		DiscoveryPacket dp = new DiscoveryPacket();
+		assertEquals(DiscoveryPacket.LLDP, dp.parse(data));
+		assertTrue(dp.hasPort());
+		assertEquals(1000, dp.getPort());
+		assertTrue(dp.hasDpid());
+		assertEquals(DPID, dp.getDpid());
+		assertTrue(dp.hasController());
+		assertEquals(CONTROLLER_ID, dp.getController());
+		assertEquals(DiscoveryProbe.TLV_DIRECTION_VALUE_FORWARD, dp.getDirection());
+
+		assertEquals(DiscoveryPacket.LLDP, dp.parse(tag(data, (short) 10)));
+		assertEquals(DPID, dp.getDpid());
+	}
+
+	@Test
+	public void testReverseBddp() {
+		byte[] data = probe(false, 5).getPacketOut(true, -2L).getData();
+		assertTrue(DiscoveryPacket.isCandidate(data));
+
+		DiscoveryPacket dp = new DiscoveryPacket();
+		assertEquals(DiscoveryPacket.BDDP, dp.parse(data));
+		assertEquals(5, dp.getPort());
+		assertEquals(DPID, dp.getDpid());
+		assertEquals(CONTROLLER_ID, dp.getController());
+		assertEquals(DiscoveryProbe.TLV_DIRECTION_VALUE_REVERSE, dp.getDirection());
+		assertTrue(dp.hasTimestamp());
+		assertEquals(-2L, dp.getTimestamp());
+	}
+
+	@Test
+	public void testNotDiscovery() {
+		DiscoveryPacket dp = new DiscoveryPacket();
+		assertFalse(DiscoveryPacket.isCandidate(null));
+		assertFalse(DiscoveryPacket.isCandidate(new byte[10]));
+		assertEquals(DiscoveryPacket.NONE, dp.parse(new byte[10]));
+
+		// IPv4
+		byte[] ip = new byte[60];
+		ip[12] = 0x08;
+		assertFalse(DiscoveryPacket.isCandidate(ip));
+		assertEquals(DiscoveryPacket.NONE, dp.parse(ip));
+
+		// BSN, but not BDDP
+		Ethernet eth = new Ethernet()
+			.setSourceMACAddress("00:00:00:00:00:01")
+			.setDestinationMACAddress("ff:ff:ff:ff:ff:ff")
+			.setEtherType(Ethernet.TYPE_BSN);
+		eth.setPayload(new BSN(BSN.BSN_TYPE_PROBE).setPayload(new Data(new byte[8])));
+		byte[] probe = eth.serialize();
+		assertTrue(DiscoveryPacket.isCandidate(probe));
+		assertEquals(DiscoveryPacket.NONE, dp.parse(probe));
+	}
+
+	@Test
+	public void testTruncated() {
+		byte[] data = probe(true, 3).getFrame();
+		DiscoveryPacket dp = new DiscoveryPacket();
+
+		// Ethernet header, chassis id and port id TLVs only
+		byte[] part = new byte[14 + 9 + 5];
+		System.arraycopy(data, 0, part, 0, part.length);
+		assertEquals(DiscoveryPacket.LLDP, dp.parse(part));
+		assertTrue(dp.hasPort());
+		assertEquals(3, dp.getPort());
+		assertFalse(dp.hasDpid());
+		assertFalse(dp.hasController());
+		assertFalse(dp.hasTimestamp());
+		assertEquals(0, dp.getDirection());
+
+		// a part of the port id TLV
+		part = new byte[14 + 9 + 3];
+		System.arraycopy(data, 0, part, 0, part.length);
+		assertEquals(DiscoveryPacket.LLDP, dp.parse(part));
+		assertFalse(dp.hasPort());
+	}
+}
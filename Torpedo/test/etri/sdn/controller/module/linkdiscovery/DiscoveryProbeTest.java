@@ -0,0 +1,95 @@
+package etri.sdn.controller.module.linkdiscovery;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+import etri.sdn.controller.protocol.packet.BSN;
+import etri.sdn.controller.protocol.packet.Ethernet;
+import etri.sdn.controller.protocol.packet.LLDP;
+import etri.sdn.controller.protocol.packet.LLDPTLV;
+
+public class DiscoveryProbeTest {
+
+	private static final long DPID = 0x0000010203040506L;
+	private static final MacAddress HW_ADDR = MacAddress.of("02:00:00:00:00:07");
+	private static final LLDPTLV CONTROLLER_TLV = new LLDPTLV()
+		.setType((byte) 0x0c)
+		.setLength((short) 8)
+		.setValue(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 });
+
+	private static LLDP decode(OFPacketOut po, boolean isStandard) {
+		byte[] data = po.getData();
+		Ethernet eth = (Ethernet) new Ethernet().deserialize(data, 0, data.length);
+		assertEquals(HW_ADDR.getLong(), eth.getSourceMAC().toLong());
+		if ( isStandard ) {
+			assertEquals(Ethernet.TYPE_LLDP, eth.getEtherType());
+			return (LLDP) eth.getPayload();
+		}
+		assertEquals(Ethernet.TYPE_BSN, eth.getEtherType());
+		return (LLDP) ((BSN) eth.getPayload()).getPayload();
+	}
+
+	private static byte getDirection(LLDP lldp) {
+		for ( LLDPTLV tlv : lldp.getOptionalTLVList() ) {
+			if ( tlv.getType() == DiscoveryProbe.TLV_DIRECTION_TYPE ) {
+				return tlv.getValue()[0];
+			}
+		}
+		fail("no direction TLV");
+		return 0;
+	}
+
+	@Test
+	public void testStandardProbe() {
+		DiscoveryProbe probe = new DiscoveryProbe(OFVersion.OF_13, DPID, OFPort.of(7), HW_ADDR, true, CONTROLLER_TLV);
+
+		OFPacketOut po = probe.getPacketOut(false, 0x0102030405060708L);
+		assertEquals(OFVersion.OF_13, po.getVersion());
+		assertEquals(OFPort.CONTROLLER, po.getInPort());
+		assertEquals(OFPort.of(7), ((OFActionOutput) po.getActions().get(0)).getPort());
+
+		LLDP lldp = decode(po, true);
+		assertEquals(7, ByteBuffer.wrap(lldp.getPortId().getValue()).getShort(1));
+		assertEquals(4, lldp.getOptionalTLVList().size());
+		assertEquals(DPID, ByteBuffer.wrap(lldp.getOptionalTLVList().get(0).getValue()).getLong(4));
+		assertArrayEquals(CONTROLLER_TLV.getValue(), lldp.getOptionalTLVList().get(1).getValue());
+		LLDPTLV timestamp = lldp.getOptionalTLVList().get(2);
+		assertEquals(DiscoveryProbe.TLV_TIMESTAMP_TYPE, timestamp.getType());
+		assertEquals(0x0102030405060708L, ByteBuffer.wrap(timestamp.getValue()).getLong());
+		assertEquals(DiscoveryProbe.TLV_DIRECTION_VALUE_FORWARD, getDirection(lldp));
+	}
+
+	@Test
+	public void testReverseBddpProbe() {
+		DiscoveryProbe probe = new DiscoveryProbe(OFVersion.OF_10, DPID, OFPort.of(3), HW_ADDR, false, CONTROLLER_TLV);
+
+		OFPacketOut forward = probe.getPacketOut(false, 0);
+		OFPacketOut reverse = probe.getPacketOut(true, 0);
+		assertEquals(OFPort.ANY, reverse.getInPort());
+		assertEquals(forward.getData().length, reverse.getData().length);
+
+		assertEquals(DiscoveryProbe.TLV_DIRECTION_VALUE_FORWARD, getDirection(decode(forward, false)));
+		LLDP lldp = decode(reverse, false);
+		assertEquals(DiscoveryProbe.TLV_DIRECTION_VALUE_REVERSE, getDirection(lldp));
+		assertEquals(3, ByteBuffer.wrap(lldp.getPortId().getValue()).getShort(1));
+
+		// the cached frame is not modified by the reverse probe.
+		assertArrayEquals(probe.getFrame(), forward.getData());
+	}
+
+	@Test
+	public void testValidity() {
+		DiscoveryProbe probe = new DiscoveryProbe(OFVersion.OF_10, DPID, OFPort.of(1), HW_ADDR, true, CONTROLLER_TLV);
+		assertTrue(probe.isValidFor(OFVersion.OF_10, MacAddress.of("02:00:00:00:00:07")));
+		assertFalse(probe.isValidFor(OFVersion.OF_13, HW_ADDR));
+		assertFalse(probe.isValidFor(OFVersion.OF_10, MacAddress.of("02:00:00:00:00:08")));
+	}
+}
@@ -0,0 +1,191 @@
+package etri.sdn.controller.module.linkdiscovery;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.OFPort;
+
+import etri.sdn.controller.module.linkdiscovery.ILinkDiscoveryListener.UpdateOperation;
+
+public class LinksTest {
+
+	/**
+	 * link discovery module that only records the link updates.
+	 */
+	private static class Manager extends OFMLinkDiscovery {
+		List<UpdateOperation> updates = new ArrayList<UpdateOperation>();
+
+		@Override
+		public synchronized void addLinkUpdate(Link lt, LinkInfo info) {
+			updates.add(UpdateOperation.LINK_UPDATED);
+		}
+
+		@Override
+		public synchronized void addLinkUpdate(Link lt, LinkInfo info, UpdateOperation operation) {
+			updates.add(operation);
+		}
+
+		@Override
+		public synchronized void addLinkUpdate(long switchId, OFPort portNum, UpdateOperation op) {
+			updates.add(op);
+		}
+
+		@Override
+		public void sendDiscoveryMessage(long switchId, OFPort destinationPort, boolean isStandard, boolean isReverse) {
+		}
+	}
+
+	private Manager manager;
+	private Links links;
+
+	@Before
+	public void setUp() {
+		manager = new Manager();
+		links = new Links(manager);
+	}
+
+	private Link lldp(long src, int srcPort, long dst, int dstPort) {
+		return links.addOrUpdateLink(src, OFPort.of(srcPort), null, dst, OFPort.of(dstPort), null, true, false);
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		Link a = lldp(1, 1, 2, 1);
+		Link b = lldp(2, 2, 3, 1);
+		assertEquals(2, links.getLinks().size());
+		assertEquals(2, manager.updates.size());
+		long first = links.getLinks().get(a).getFirstSeenTime();
+		long tb = links.getLinks().get(b).getUnicastValidTime();
+		long timeout = links.LINK_TIMEOUT * 1000;
+
+		// nothing expires before the timeout.
+		links.timeoutLinks(tb + timeout - 1000);
+		assertEquals(2, links.getLinks().size());
+
+		// a is refreshed later, and b is not.
+		Thread.sleep(20);
+		Map<Link, LinkInfo> before = links.getLinks();
+		assertTrue(System.currentTimeMillis() >= tb + 20);
+		lldp(1, 1, 2, 1);
+		long ta = System.currentTimeMillis();
+		assertEquals(2, manager.updates.size());
+		// the refresh only changes the valid time, so the snapshot is not rebuilt.
+		assertSame(before, links.getLinks());
+
+		links.timeoutLinks(tb + timeout + 1);
+		Map<Link, LinkInfo> after = links.getLinks();
+		assertEquals(1, after.size());
+		assertTrue(after.containsKey(a));
+		assertEquals(first, (long) after.get(a).getFirstSeenTime());
+		assertEquals(UpdateOperation.LINK_REMOVED, manager.updates.get(manager.updates.size() - 1));
+
+		// the refreshed link expires later.
+		links.timeoutLinks(ta + timeout + 1);
+		assertTrue(links.getLinks().isEmpty());
+		assertTrue(links.getSwitchLinks().isEmpty());
+	}
+
+	@Test
+	public void testSnapshot() {
+		Link a = lldp(1, 1, 2, 1);
+		Map<Link, LinkInfo> s1 = links.getLinks();
+		assertSame(s1, links.getLinks());
+		assertEquals(1, links.getSwitchLinks().get(1L).size());
+		assertTrue(links.getSwitchLinks().get(2L).contains(a));
+
+		try {
+			s1.clear();
+			fail();
+		} catch ( UnsupportedOperationException e ) {
+			// read-only
+		}
+
+		Link b = lldp(1, 2, 3, 1);
+		Map<Link, LinkInfo> s2 = links.getLinks();
+		assertNotSame(s1, s2);
+		assertEquals(1, s1.size());
+		assertEquals(2, s2.size());
+		assertTrue(s2.containsKey(b));
+		assertEquals(2, links.getSwitchLinks().get(1L).size());
+	}
+
+	@Test
+	public void testDeleteLinksOnPort() {
+		lldp(1, 1, 2, 1);
+		lldp(2, 1, 1, 1);
+		lldp(1, 2, 3, 1);
+		assertEquals(3, links.getLinks().size());
+
+		links.deleteLinksOnPort(new NodePortTuple(1, OFPort.of(1)));
+		assertEquals(1, links.getLinks().size());
+		assertNull(links.getSwitchLinks().get(2L));
+		assertEquals(UpdateOperation.PORT_DOWN, manager.updates.get(manager.updates.size() - 1));
+
+		// the expiry entries of the deleted links are dropped without effect.
+		links.timeoutLinks(System.currentTimeMillis() + links.LINK_TIMEOUT * 1000 + 1000);
+		assertTrue(links.getLinks().isEmpty());
+	}
+
+	@Test
+	public void testLatency() {
+		Link a = lldp(1, 1, 2, 1);
+		int n = manager.updates.size();
+
+		// not a known link
+		links.updateLatency(new Link(2, OFPort.of(1), 1, OFPort.of(1)), 1000000);
+		assertTrue(links.getLatencies().isEmpty());
+
+		links.updateLatency(a, 1000000);
+		assertEquals(Long.valueOf(1000), links.getLatencies().get(a));
+		links.updateLatency(a, -5);
+		assertEquals(Long.valueOf(750), links.getLatencies().get(a));
+		assertEquals(n, manager.updates.size());
+
+		// a large change is reported.
+		links.updateLatency(a, 10000000);
+		assertEquals(Long.valueOf(3062), links.getLatencies().get(a));
+		assertEquals(n + 1, manager.updates.size());
+
+		links.deleteLinksOnPort(new NodePortTuple(1, OFPort.of(1)));
+		assertTrue(links.getLatencies().isEmpty());
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		final int switches = 32;
+		Thread[] threads = new Thread[4];
+		for ( int t = 0; t < threads.length; ++t ) {
+			final int base = t;
+			threads[t] = new Thread() {
+				public void run() {
+					for ( int round = 0; round < 50; ++round ) {
+						for ( int s = 1; s <= switches; ++s ) {
+							long dst = (s + base) % switches + 1;
+							lldp(s, 1 + base, dst, 10 + base);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for ( Thread t : threads ) {
+			t.join();
+		}
+
+		assertEquals(switches * threads.length, links.getLinks().size());
+		int total = 0;
+		for ( Map.Entry<Long, Set<Link>> e : links.getSwitchLinks().entrySet() ) {
+			total += e.getValue().size();
+		}
+		assertEquals(2 * switches * threads.length, total);
+
+		links.timeoutLinks(System.currentTimeMillis() + links.LINK_TIMEOUT * 1000 + 1000);
+		assertTrue(links.getLinks().isEmpty());
+	}
+}
@@ -0,0 +1,422 @@
+package etri.sdn.controller.module.topologymanager;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.OFPort;
+
+import etri.sdn.controller.module.linkdiscovery.Link;
+import etri.sdn.controller.module.linkdiscovery.NodePortTuple;
+import etri.sdn.controller.module.routing.Route;
+
+public class TopologyInstanceTest {
+
+	private Map<Long, Set<OFPort>> switchPorts = new HashMap<Long, Set<OFPort>>();
+	private Map<NodePortTuple, Set<Link>> switchPortLinks = new HashMap<NodePortTuple, Set<Link>>();
+
+	private void addPort(long sw, int port, Link lt) {
+		Set<OFPort> ports = switchPorts.get(sw);
+		if ( ports == null ) {
+			ports = new HashSet<OFPort>();
+			switchPorts.put(sw, ports);
+		}
+		ports.add(OFPort.of(port));
+
+		NodePortTuple npt = new NodePortTuple(sw, OFPort.of(port));
+		Set<Link> links = switchPortLinks.get(npt);
+		if ( links == null ) {
+			links = new HashSet<Link>();
+			switchPortLinks.put(npt, links);
+		}
+		links.add(lt);
+	}
+
+	/**
+	 * add links of both directions between (s1, p1) and (s2, p2).
+	 */
+	private Link[] connect(long s1, int p1, long s2, int p2) {
+		Link forward = new Link(s1, OFPort.of(p1), s2, OFPort.of(p2));
+		Link backward = new Link(s2, OFPort.of(p2), s1, OFPort.of(p1));
+		for ( Link lt : new Link[] { forward, backward } ) {
+			addPort(lt.getSrc(), lt.getSrcPort().getPortNumber(), lt);
+			addPort(lt.getDst(), lt.getDstPort().getPortNumber(), lt);
+		}
+		return new Link[] { forward, backward };
+	}
+
+	/**
+	 * remove links of both directions between (s1, p1) and (s2, p2).
+	 */
+	private void disconnect(long s1, int p1, long s2, int p2) {
+		switchPortLinks.remove(new NodePortTuple(s1, OFPort.of(p1)));
+		switchPortLinks.remove(new NodePortTuple(s2, OFPort.of(p2)));
+		switchPorts.get(s1).remove(OFPort.of(p1));
+		switchPorts.get(s2).remove(OFPort.of(p2));
+	}
+
+	private TopologyInstance compute(Map<Link, Long> latencies) {
+		return compute(latencies, null);
+	}
+
+	private TopologyInstance compute(Map<Link, Long> latencies, TopologyInstance previous) {
+		return compute(latencies, previous, null);
+	}
+
+	private TopologyInstance compute(Map<Link, Long> latencies, TopologyInstance previous, ForkJoinPool pool) {
+		Set<NodePortTuple> none = new HashSet<NodePortTuple>();
+		TopologyInstance ti = new TopologyInstance(switchPorts, none, switchPortLinks, none, none, latencies);
+		ti.setComputePool(pool, 0);
+		ti.compute(previous);
+		return ti;
+	}
+
+	/**
+	 * check that the trees of two instances have the same costs.
+	 */
+	private static void assertSameCosts(TopologyInstance expected, TopologyInstance actual) {
+		assertEquals(expected.destinationRootedTrees.keySet(), actual.destinationRootedTrees.keySet());
+		for ( long dst : expected.destinationRootedTrees.keySet() ) {
+			for ( long src : expected.destinationRootedTrees.keySet() ) {
+				assertEquals(expected.getCost(src, dst), actual.getCost(src, dst));
+				Route r = actual.getRoute(src, dst);
+				int cost = expected.getCost(src, dst);
+				if ( src != dst && cost >= 0 && cost < TopologyInstance.MAX_PATH_WEIGHT ) {
+					// the route is a connected path from src to dst.
+					assertNotNull(r);
+					List<NodePortTuple> path = r.getPath();
+					assertEquals(src, path.get(0).getNodeId());
+					assertEquals(dst, path.get(path.size() - 1).getNodeId());
+					for ( int i = 1; i + 1 < path.size(); i += 2 ) {
+						assertEquals(path.get(i).getNodeId(), path.get(i + 1).getNodeId());
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLatencyWeightedRoute() {
+		// 1 - 2 - 4, 1 - 3 - 4, and a direct link 1 - 4.
+		connect(1, 1, 2, 1);
+		connect(2, 2, 4, 1);
+		connect(1, 2, 3, 1);
+		connect(3, 2, 4, 2);
+		Link[] direct = connect(1, 3, 4, 3);
+
+		// hop count only: the direct link.
+		Route r = compute(new HashMap<Link, Long>()).getRoute(1L, 4L);
+		assertEquals(2, r.getPath().size());
+		assertEquals(OFPort.of(3), r.getPath().get(0).getPortId());
+
+		// the direct link is slow (10ms), and 1 - 3 is slower than 1 - 2.
+		Map<Link, Long> latencies = new HashMap<Link, Long>();
+		latencies.put(direct[0], 10000L);
+		latencies.put(direct[1], 10000L);
+		latencies.put(new Link(1, OFPort.of(2), 3, OFPort.of(1)), 500L);
+		TopologyInstance ti = compute(latencies);
+		r = ti.getRoute(1L, 4L);
+		assertEquals(4, r.getPath().size());
+		assertEquals(new NodePortTuple(1, OFPort.of(1)), r.getPath().get(0));
+		assertEquals(new NodePortTuple(4, OFPort.of(1)), r.getPath().get(3));
+		assertEquals(2, ti.getCost(1L, 4L));
+
+		// the reverse route avoids the direct link as well.
+		r = ti.getRoute(4L, 1L);
+		assertEquals(4, r.getPath().size());
+	}
+
+	@Test
+	public void testIncrementalTrees() {
+		// a ring of 24 switches with chords.
+		final int n = 24;
+		Random random = new Random(7);
+		for ( int i = 1; i <= n; ++i ) {
+			connect(i, 1, i % n + 1, 2);
+			if ( i % 3 == 0 ) {
+				connect(i, 3, (i + n / 2 - 1) % n + 1, 4);
+			}
+		}
+		Map<Link, Long> latencies = new HashMap<Link, Long>();
+		TopologyInstance ti = compute(latencies);
+		assertEquals(n, ti.getComputedTrees());
+
+		int repaired = 0;
+		for ( int round = 0; round < 30; ++round ) {
+			int i = 1 + random.nextInt(n);
+			switch ( round % 3 ) {
+			case 0:
+				// a link flap: remove a ring link.
+				disconnect(i, 1, i % n + 1, 2);
+				break;
+			case 1:
+				// and it comes back.
+				connect(i, 1, i % n + 1, 2);
+				break;
+			default:
+				// a latency change
+				latencies.put(new Link(i, OFPort.of(1), i % n + 1, OFPort.of(2)), (long) random.nextInt(1000));
+				break;
+			}
+
+			TopologyInstance next = compute(latencies, ti);
+			assertSameCosts(compute(latencies), next);
+			assertEquals(n, next.getComputedTrees() + next.getRepairedTrees());
+			repaired += next.getRepairedTrees();
+			ti = next;
+		}
+		assertTrue(repaired > 0);
+	}
+
+	@Test
+	public void testIncrementalFallback() {
+		connect(1, 1, 2, 1);
+		connect(2, 2, 3, 1);
+		connect(3, 2, 1, 2);
+		TopologyInstance ti = compute(new HashMap<Link, Long>());
+
+		// nothing changed: the trees are shared.
+		TopologyInstance next = compute(new HashMap<Link, Long>(), ti);
+		assertEquals(3, next.getRepairedTrees());
+		assertSame(ti.destinationRootedTrees.get(1L), next.destinationRootedTrees.get(1L));
+
+		// a new switch changes the cluster.
+		connect(3, 3, 4, 1);
+		connect(4, 2, 1, 3);
+		next = compute(new HashMap<Link, Long>(), next);
+		assertEquals(4, next.getComputedTrees());
+		assertEquals(0, next.getRepairedTrees());
+		assertSameCosts(compute(new HashMap<Link, Long>()), next);
+	}
+
+	@Test
+	public void testParallelCompute() {
+		// two rings of 40 switches with random latencies, and chords between them.
+		final int n = 40;
+		Random random = new Random(3);
+		Map<Link, Long> latencies = new HashMap<Link, Long>();
+		for ( int i = 1; i <= 2 * n; ++i ) {
+			int next = (i % n == 0) ? i - n + 1 : i + 1;
+			for ( Link lt : connect(i, 1, next, 2) ) {
+				latencies.put(lt, (long) random.nextInt(1000));
+			}
+			if ( i % 10 == 0 ) {
+				connect(i, 3, (i + n) % (2 * n) + 1, 4);
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			TopologyInstance ti = compute(latencies, null, pool);
+			TopologyInstance expected = compute(latencies);
+			assertEquals(expected.getComputedTrees(), ti.getComputedTrees());
+			assertSameCosts(expected, ti);
+			assertEquals(expected.clusterBroadcastNodePorts, ti.clusterBroadcastNodePorts);
+
+			// repaired in parallel as well.
+			disconnect(5, 1, 6, 2);
+			TopologyInstance next = compute(latencies, ti, pool);
+			expected = compute(latencies);
+			assertTrue(next.getRepairedTrees() > 0);
+			assertSameCosts(expected, next);
+			assertEquals(expected.clusterBroadcastNodePorts.keySet(), next.clusterBroadcastNodePorts.keySet());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testClusterGraph() {
+		// 30 - 10 - 20, and 10 - 40 - 20.
+		connect(30, 1, 10, 1);
+		Link[] l1020 = connect(10, 2, 20, 1);
+		connect(10, 3, 40, 1);
+		connect(40, 2, 20, 2);
+		TopologyInstance ti = compute(new HashMap<Link, Long>());
+		assertEquals(1, ti.getClusters().size());
+
+		ClusterGraph g = ti.getClusters().iterator().next().graph;
+		assertArrayEquals(new long[] { 10, 20, 30, 40 }, g.nodes);
+		assertEquals(8, g.links.length);
+		assertEquals(1, g.indexOf(20));
+		assertEquals(-1, g.indexOf(50));
+		assertEquals(-1, g.indexOf(new Link(20, OFPort.of(9), 10, OFPort.of(2))));
+		for ( int x = 0; x < g.size(); ++x ) {
+			for ( int k = g.outStart[x]; k < g.outStart[x + 1]; ++k ) {
+				assertEquals(x, g.src[g.outLinks[k]]);
+				assertEquals(g.nodes[x], g.links[g.outLinks[k]].getSrc());
+			}
+			for ( int k = g.inStart[x]; k < g.inStart[x + 1]; ++k ) {
+				assertEquals(x, g.dst[g.inLinks[k]]);
+			}
+		}
+		assertEquals(3, g.outStart[1] - g.outStart[0]);
+		assertEquals(3, g.inStart[1] - g.inStart[0]);
+
+		// the tree to 20.
+		BroadcastTree tree = ti.destinationRootedTrees.get(20L);
+		assertEquals(l1020[0], tree.getTreeLink(10));
+		assertEquals(l1020[0], g.links[g.indexOf(l1020[0])]);
+		assertNull(tree.getTreeLink(20));
+		assertEquals(2, tree.getCost(30));
+		assertEquals(-1, tree.getCost(50));
+		assertEquals(4, tree.getLinks().size());
+		assertNull(tree.getLinks().get(20L));
+		assertEquals(Integer.valueOf(1), tree.getCosts().get(40L));
+	}
+
+	@Test
+	public void testConcurrentRoutes() throws Exception {
+		final int n = 16;
+		for ( int i = 1; i <= n; ++i ) {
+			connect(i, 1, i % n + 1, 2);
+		}
+		final TopologyInstance ti = compute(new HashMap<Link, Long>());
+
+		// all threads get the same routes.
+		final Route[][][] routes = new Route[4][n + 1][n + 1];
+		Thread[] threads = new Thread[routes.length];
+		for ( int t = 0; t < threads.length; ++t ) {
+			final Route[][] mine = routes[t];
+			threads[t] = new Thread() {
+				public void run() {
+					for ( long src = 1; src <= n; ++src ) {
+						for ( long dst = 1; dst <= n; ++dst ) {
+							mine[(int) src][(int) dst] = ti.getRoute(src, dst);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for ( Thread t : threads ) {
+			t.join();
+		}
+
+		for ( int src = 1; src <= n; ++src ) {
+			for ( int dst = 1; dst <= n; ++dst ) {
+				Route r = routes[0][src][dst];
+				if ( src == dst ) {
+					assertNull(r);
+					continue;
+				}
+				assertEquals(2 * ti.getCost(src, dst), r.getPath().size());
+				for ( int t = 1; t < routes.length; ++t ) {
+					assertSame(r, routes[t][src][dst]);
+				}
+				assertSame(r, ti.getRoute(src, dst));
+			}
+		}
+
+		try {
+			routes[0][1][2].getPath().clear();
+			fail();
+		} catch ( UnsupportedOperationException e ) {
+			// read-only
+		}
+
+		// the routes of a tree that is not changed are kept in the next instance.
+		TopologyInstance next = compute(new HashMap<Link, Long>(), ti);
+		assertSame(routes[0][3][1], next.getRoute(3L, 1L));
+		assertNull(next.getRoute(3L, 99L));
+		assertNull(next.getRoute(99L, 3L));
+	}
+
+	@Test
+	public void testMultipathRoutes() {
+		// leaves 1, 2, 3 and spines 11, 12, 13, 14.
+		for ( int leaf = 1; leaf <= 3; ++leaf ) {
+			for ( int spine = 11; spine <= 14; ++spine ) {
+				connect(leaf, spine, spine, leaf);
+			}
+		}
+		TopologyInstance ti = compute(new HashMap<Link, Long>());
+
+		List<Route> ecmp = ti.getEqualCostRoutes(1L, 2L, 8);
+		assertEquals(4, ecmp.size());
+		assertEquals(ti.getRoute(1L, 2L).getPath(), ecmp.get(0).getPath());
+		Set<Long> spines = new HashSet<Long>();
+		for ( Route r : ecmp ) {
+			assertEquals(4, r.getPath().size());
+			assertEquals(1L, r.getPath().get(0).getNodeId());
+			assertEquals(2L, r.getPath().get(3).getNodeId());
+			spines.add(r.getPath().get(1).getNodeId());
+		}
+		assertEquals(4, spines.size());
+		assertEquals(ecmp.subList(0, 2), ti.getEqualCostRoutes(1L, 2L, 2));
+		assertTrue(ti.getEqualCostRoutes(1L, 1L, 8).isEmpty());
+		assertTrue(ti.getEqualCostRoutes(1L, 99L, 8).isEmpty());
+
+		// the four routes through a spine, and then the routes through another leaf.
+		List<Route> ks = ti.getKShortestRoutes(1L, 2L, 6);
+		assertEquals(6, ks.size());
+		int prev = 0;
+		for ( int i = 0; i < ks.size(); ++i ) {
+			List<NodePortTuple> path = ks.get(i).getPath();
+			assertEquals((i < 4) ? 4 : 8, path.size());
+			assertTrue(path.size() >= prev);
+			prev = path.size();
+			Set<Long> visited = new HashSet<Long>();
+			for ( int j = 0; j < path.size(); j += 2 ) {
+				assertTrue(visited.add(path.get(j).getNodeId()));
+			}
+		}
+		assertEquals(ks.subList(0, 3), ti.getKShortestRoutes(1L, 2L, 3));
+
+		// the routes with the ports attached keep the order.
+		Route r = ti.addPorts(ecmp.get(1), 1L, OFPort.of(100), 2L, OFPort.of(200));
+		assertEquals(6, r.getPath().size());
+		assertEquals(ecmp.get(1).getPath(), r.getPath().subList(1, 5));
+	}
+
+	@Test
+	public void testEqualCostRoutesWithLatencies() {
+		// leaves 1 and 2 through spines 11, 12 and 13.
+		Map<Link, Long> latencies = new HashMap<Link, Long>();
+		long[][] spines = { { 11, 450, 450 }, { 12, 499, 501 }, { 13, 520, 540 } };
+		for ( long[] s : spines ) {
+			Link[] up = connect(1, (int) s[0], s[0], 1);
+			Link[] down = connect(s[0], 2, 2, (int) s[0]);
+			for ( int i = 0; i < 2; ++i ) {
+				latencies.put(up[i], s[1]);
+				latencies.put(down[i], s[2]);
+			}
+		}
+		TopologyInstance ti = compute(latencies);
+
+		// the latencies of the spines straddle the boundaries of the costs.
+		List<Route> ecmp = ti.getEqualCostRoutes(1L, 2L, 8);
+		assertEquals(3, ecmp.size());
+		assertEquals(ti.getRoute(1L, 2L).getPath(), ecmp.get(0).getPath());
+		Set<Long> used = new HashSet<Long>();
+		for ( Route r : ecmp ) {
+			assertEquals(4, r.getPath().size());
+			used.add(r.getPath().get(1).getNodeId());
+		}
+		assertEquals(new HashSet<Long>(Arrays.asList(11L, 12L, 13L)), used);
+
+		// without the latencies, the routes cost the same exactly.
+		assertEquals(3, compute(new HashMap<Link, Long>()).getEqualCostRoutes(1L, 2L, 8).size());
+
+		// a spine that is slower by more than the error is not taken.
+		for ( Link l : connect(1, 16, 16, 1) ) latencies.put(l, 450L);
+		for ( Link l : connect(16, 2, 2, 16) ) latencies.put(l, 900L);
+		assertEquals(3, compute(latencies).getEqualCostRoutes(1L, 2L, 8).size());
+	}
+
+	@Test
+	public void testLatencyCost() {
+		assertEquals(1, TopologyInstance.getLatencyCost(0));
+		assertEquals(1, TopologyInstance.getLatencyCost(TopologyInstance.LATENCY_COST_UNIT - 1));
+		assertEquals(2, TopologyInstance.getLatencyCost(TopologyInstance.LATENCY_COST_UNIT));
+		assertEquals(TopologyInstance.MAX_LINK_WEIGHT, TopologyInstance.getLatencyCost(Long.MAX_VALUE));
+	}
+}
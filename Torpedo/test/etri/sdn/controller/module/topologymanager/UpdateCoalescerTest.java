@@ -0,0 +1,159 @@
+package etri.sdn.controller.module.topologymanager;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+public class UpdateCoalescerTest {
+
+	/**
+	 * coalescer with a manual clock, which records the timer requests and
+	 * takes all the queued updates on a computation.
+	 */
+	private static class TestCoalescer extends UpdateCoalescer {
+		long time = 0;
+		int queued = 0;
+		List<Long> timers = new ArrayList<Long>();
+		List<Integer> batches = new ArrayList<Integer>();
+		Runnable during = null;
+
+		TestCoalescer(long minWindow, long maxWindow) {
+			super(minWindow, maxWindow);
+		}
+
+		void update() {
+			++queued;
+			updateReceived();
+		}
+
+		@Override
+		protected int compute() {
+			if ( during != null ) {
+				Runnable r = during;
+				during = null;
+				r.run();
+			}
+			int batch = queued;
+			queued = 0;
+			batches.add(batch);
+			return batch;
+		}
+
+		@Override
+		protected void schedule(long delay) {
+			timers.add(delay);
+		}
+
+		@Override
+		protected long now() {
+			return time;
+		}
+	}
+
+	@Test
+	public void testSingleUpdate() {
+		TestCoalescer c = new TestCoalescer(50, 1000);
+		c.update();
+		assertEquals(1, c.timers.size());
+		assertEquals(50, (long) c.timers.get(0));
+
+		// too early: wait for the rest of the window.
+		c.time = 30;
+		c.fire();
+		assertTrue(c.batches.isEmpty());
+		assertEquals(20, (long) c.timers.get(1));
+
+		c.time = 50;
+		c.fire();
+		assertEquals(1, c.batches.size());
+		assertEquals(1, (int) c.batches.get(0));
+		assertEquals(2, c.timers.size());
+	}
+
+	@Test
+	public void testBurstIsBoundedByMaxWindow() {
+		TestCoalescer c = new TestCoalescer(50, 200);
+		c.update();
+		// an update every 30 ms keeps the batch open until the maximum window.
+		for ( c.time = 30; c.time <= 180; c.time += 30 ) {
+			c.update();
+			c.fire();
+			assertTrue(c.batches.isEmpty());
+		}
+		assertEquals(20, (long) c.timers.get(c.timers.size() - 1));
+		c.time = 200;
+		c.fire();
+		assertEquals(1, c.batches.size());
+		assertEquals(7, (int) c.batches.get(0));
+	}
+
+	@Test
+	public void testFollowUpMergesUpdates() {
+		final TestCoalescer c = new TestCoalescer(50, 1000);
+		c.update();
+		c.time = 50;
+		c.during = new Runnable() {
+			@Override
+			public void run() {
+				// no timer for the updates during the computation.
+				c.time = 60;
+				c.update();
+				c.update();
+				c.update();
+				assertEquals(1, c.timers.size());
+				// taken by the running computation, which does nothing.
+				c.fire();
+				assertEquals(1, c.timers.size());
+			}
+		};
+		c.fire();
+		assertEquals(1, c.batches.size());
+		// the updates are taken by the next computation only.
+		c.queued = 3;
+		c.batches.clear();
+
+		// a single follow-up.
+		assertEquals(2, c.timers.size());
+		c.time += c.timers.get(1);
+		c.fire();
+		assertEquals(1, c.batches.size());
+		assertEquals(3, (int) c.batches.get(0));
+		assertEquals(2, c.timers.size());
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+		TestCoalescer c = new TestCoalescer(0, 100);
+		c.update();
+		c.update();
+		c.fire();
+		c.update();
+		c.fire();
+		// nothing to compute.
+		c.update();
+		c.queued = 0;
+		c.fire();
+
+		UpdateCoalescer.Statistics s = c.getStatistics();
+		assertEquals(2, s.getComputations());
+		assertEquals(3, s.getUpdates());
+		assertEquals(1, s.getLastBatchSize());
+		assertEquals(2, s.getMaxBatchSize());
+		assertEquals(1.5, s.getAverageBatchSize(), 1e-9);
+		assertEquals(0, s.getPending());
+		assertFalse(s.isRunning());
+
+		String json = new ObjectMapper().writeValueAsString(s);
+		assertTrue(json.contains("\"computations\":2"));
+		assertTrue(json.contains("\"maxBatchSize\":2"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidWindows() {
+		new TestCoalescer(100, 50);
+	}
+}
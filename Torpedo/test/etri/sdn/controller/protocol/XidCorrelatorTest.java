@@ -0,0 +1,190 @@
+package etri.sdn.controller.protocol;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFBadRequestCode;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFStatsReply;
+import org.projectfloodlight.openflow.protocol.OFStatsReplyFlags;
+import org.projectfloodlight.openflow.protocol.OFStatsRequest;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.DatapathId;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import etri.sdn.controller.protocol.io.Connection;
+import etri.sdn.controller.protocol.io.IOFSwitch;
+import etri.sdn.controller.protocol.io.OFSwitchImpl;
+
+public class XidCorrelatorTest {
+
+	private OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+	private XidCorrelator correlator;
+	private SocketChannel channel;
+
+	@Before
+	public void setUp() throws IOException {
+		correlator = new XidCorrelator(100);
+		channel = SocketChannel.open();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		channel.close();
+	}
+
+	private IOFSwitch newSwitch(long id) throws Exception {
+		// connections are made only by the watcher.
+		Constructor<Connection> c = Connection.class.getDeclaredConstructor(SocketChannel.class);
+		c.setAccessible(true);
+		OFSwitchImpl sw = new OFSwitchImpl();
+		sw.setConnection( c.newInstance(channel) );
+		sw.setId(id);
+		return sw;
+	}
+
+	private OFStatsRequest<?> flowStatsRequest(long xid) {
+		return factory.buildFlowStatsRequest().setXid(xid).build();
+	}
+
+	private OFStatsReply flowStatsReply(long xid, boolean more) {
+		return factory.buildFlowStatsReply()
+				.setXid(xid)
+				.setEntries(Collections.<OFFlowStatsEntry>emptyList())
+				.setFlags(more ? EnumSet.of(OFStatsReplyFlags.REPLY_MORE) : EnumSet.noneOf(OFStatsReplyFlags.class))
+				.build();
+	}
+
+	private Throwable causeOf(ListenableFuture<?> future) throws InterruptedException {
+		try {
+			future.get(1, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			return e.getCause();
+		} catch (TimeoutException e) {
+			fail("future is not completed");
+		}
+		fail("future is not failed");
+		return null;
+	}
+
+	@Test
+	public void testSingleReply() throws Exception {
+		IOFSwitch sw = newSwitch(1);
+		ListenableFuture<OFFeaturesReply> f = correlator.request(sw,
+				factory.buildFeaturesRequest().setXid(5).build(), OFFeaturesReply.class);
+		assertFalse(f.isDone());
+
+		OFFeaturesReply reply = factory.buildFeaturesReply().setXid(5).setDatapathId(DatapathId.of(1)).build();
+		assertFalse(correlator.deliver(sw, factory.buildFeaturesReply().setXid(6).build()));
+		assertTrue(correlator.deliver(sw, reply));
+		assertSame(reply, f.get());
+		assertFalse(correlator.deliver(sw, reply));
+		assertEquals(0, correlator.getPendingCount());
+		assertEquals(0, correlator.getSwitchCount());
+	}
+
+	@Test
+	public void testMultipartReply() throws Exception {
+		IOFSwitch sw = newSwitch(1);
+		ListenableFuture<List<OFStatsReply>> f = correlator.requestStatistics(sw, flowStatsRequest(7));
+
+		assertTrue(correlator.deliver(sw, flowStatsReply(7, true)));
+		assertFalse(f.isDone());
+		assertTrue(correlator.deliver(sw, flowStatsReply(7, false)));
+		assertEquals(2, f.get().size());
+	}
+
+	@Test
+	public void testErrorReply() throws Exception {
+		IOFSwitch sw = newSwitch(1);
+		ListenableFuture<List<OFStatsReply>> f = correlator.requestStatistics(sw, flowStatsRequest(8));
+		assertTrue(correlator.deliver(sw, factory.errorMsgs().buildBadRequestErrorMsg()
+				.setXid(8).setCode(OFBadRequestCode.BAD_STAT).build()));
+		assertTrue(causeOf(f) instanceof XidCorrelator.ErrorReplyException);
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		IOFSwitch sw = newSwitch(1);
+		ListenableFuture<List<OFStatsReply>> f = correlator.requestStatistics(sw, flowStatsRequest(9));
+		assertTrue(causeOf(f) instanceof TimeoutException);
+		assertEquals(0, correlator.getPendingCount());
+		assertFalse(correlator.deliver(sw, flowStatsReply(9, false)));
+	}
+
+	@Test
+	public void testDisconnect() throws Exception {
+		IOFSwitch sw = newSwitch(1);
+		ListenableFuture<List<OFStatsReply>> f = correlator.requestStatistics(sw, flowStatsRequest(10));
+		correlator.cancelAll(sw);
+		assertTrue(causeOf(f) instanceof IOException);
+	}
+
+	@Test
+	public void testRequestAfterDisconnect() throws Exception {
+		// a request that is sent while the switch is being dropped
+		// does not keep the switch after its timeout.
+		IOFSwitch sw = newSwitch(1);
+		correlator.cancelAll(sw);
+		ListenableFuture<List<OFStatsReply>> f = correlator.requestStatistics(sw, flowStatsRequest(11));
+		assertEquals(1, correlator.getSwitchCount());
+		assertTrue(causeOf(f) instanceof TimeoutException);
+		assertEquals(0, correlator.getSwitchCount());
+		assertEquals(0, correlator.getPendingCount());
+	}
+
+	@Test
+	public void testXidAssignment() throws Exception {
+		IOFSwitch sw = newSwitch(1);
+		correlator.requestStatistics(sw, flowStatsRequest(0));
+		correlator.requestStatistics(sw, flowStatsRequest(0));
+		assertEquals(2, correlator.getPendingCount());
+	}
+
+	@Test
+	public void testFanOut() throws Exception {
+		final IOFSwitch sw1 = newSwitch(1);
+		final IOFSwitch sw2 = newSwitch(2);
+		final IOFSwitch sw3 = newSwitch(3);
+
+		ListenableFuture<Map<IOFSwitch, List<OFStatsReply>>> f = correlator.requestStatistics(
+				Arrays.asList(sw1, sw2, sw3),
+				new Function<IOFSwitch, OFStatsRequest<?>>() {
+					@Override
+					public OFStatsRequest<?> apply(IOFSwitch sw) {
+						return flowStatsRequest(100 + sw.getId());
+					}
+				});
+
+		// the replies arrive in any order. sw3 does not reply at all.
+		correlator.deliver(sw2, flowStatsReply(102, false));
+		correlator.deliver(sw1, flowStatsReply(101, true));
+		assertFalse(f.isDone());
+		correlator.deliver(sw1, flowStatsReply(101, false));
+
+		Map<IOFSwitch, List<OFStatsReply>> result = f.get(1, TimeUnit.SECONDS);
+		assertEquals(2, result.size());
+		assertEquals(2, result.get(sw1).size());
+		assertEquals(1, result.get(sw2).size());
+		assertFalse(result.containsKey(sw3));
+	}
+}
@@ -0,0 +1,220 @@
+package etri.sdn.controller.protocol.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+import etri.sdn.controller.IOFTask;
+import etri.sdn.controller.OFModel;
+import etri.sdn.controller.OFModule;
+import etri.sdn.controller.protocol.OFProtocol;
+
+public class ClientChannelWatcherTest {
+
+	/**
+	 * handler that records the events of the watcher.
+	 */
+	private static class TestHandler implements IOFHandler, Comparable<IOFHandler> {
+		final BlockingQueue<Connection> connected = new LinkedBlockingQueue<Connection>();
+		final AtomicInteger disconnects = new AtomicInteger(0);
+		final CountDownLatch disconnected = new CountDownLatch(1);
+		volatile boolean closeOnRead = false;
+
+		@Override
+		public boolean handleConnectedEvent(Connection conn) {
+			connected.add(conn);
+			return true;
+		}
+
+		@Override
+		public boolean handleReadEvent(Connection conn, List<OFMessage> msgs) {
+			if ( closeOnRead ) {
+				// the connection is closed before the watcher closes it.
+				conn.close();
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean handleDisconnectEvent(Connection conn) {
+			disconnects.incrementAndGet();
+			disconnected.countDown();
+			return true;
+		}
+
+		@Override
+		public void handleResumeEvent(Connection conn) {
+		}
+
+		@Override
+		public int compareTo(IOFHandler o) {
+			return Integer.compare(System.identityHashCode(this), System.identityHashCode(o));
+		}
+
+		@Override
+		public Role getRole() { return Role.EQUAL; }
+		@Override
+		public Set<Long> getSwitchIdentifiers() { return null; }
+		@Override
+		public Collection<IOFSwitch> getSwitches() { return null; }
+		@Override
+		public IOFSwitch getSwitch(long id) { return null; }
+		@Override
+		public void addSwitch(long id, IOFSwitch sw) { }
+		@Override
+		public OFProtocol getProtocol() { return null; }
+		@Override
+		public IOFProtocolServer getServer() { return null; }
+		@Override
+		public void registerProtocolServer(IOFProtocolServer server) { }
+		@Override
+		public void addModule(OFModule module) { }
+		@Override
+		public Collection<OFModule> getModules() { return null; }
+		@Override
+		public OFModel[] getModels() { return null; }
+		@Override
+		public String getConcatenatedModuleNames() { return ""; }
+		@Override
+		public String[] getModuleNames() { return new String[0]; }
+		@Override
+		public void scheduleTask(IOFTask task, long after) { }
+		@Override
+		public void scheduleTask(IOFTask task, long delay, long period) { }
+	}
+
+	private ServerSocketChannel server;
+	private List<SocketChannel> peers = new ArrayList<SocketChannel>();
+	private ClientChannelWatcher watcher;
+	private TestHandler handler;
+
+	@Before
+	public void setUp() throws IOException {
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		handler = new TestHandler();
+		ClientChannelWatcher.registerController(handler);
+		watcher = new ClientChannelWatcher();
+		watcher.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		watcher.shutdown();
+		watcher.wakeup();
+		watcher.join(1000);
+		ClientChannelWatcher.deregisterController(handler);
+		for ( SocketChannel p : peers ) {
+			p.close();
+		}
+		server.close();
+	}
+
+	/**
+	 * connect a switch to the watcher.
+	 * @return	connection made by the watcher
+	 */
+	private Connection connect() throws Exception {
+		SocketChannel peer = SocketChannel.open(server.socket().getLocalSocketAddress());
+		peers.add(peer);
+		SocketChannel accepted = server.accept();
+		accepted.configureBlocking(false);
+		accepted.socket().setSendBufferSize(65536);
+		watcher.addClient(accepted);
+
+		Connection conn = handler.connected.poll(5, TimeUnit.SECONDS);
+		assertNotNull("not connected", conn);
+		return conn;
+	}
+
+	private static boolean waitForInterestOps(SelectionKey key, int ops) throws InterruptedException {
+		for ( int i = 0; i < 500; ++i ) {
+			if ( key.interestOps() == ops ) {
+				return true;
+			}
+			Thread.sleep(10);
+		}
+		return false;
+	}
+
+	@Test
+	public void testWriteInterestOnlyWhileOutputIsPending() throws Exception {
+		Connection conn = connect();
+		SelectionKey key = conn.getSelectionKey();
+		assertTrue(waitForInterestOps(key, SelectionKey.OP_READ));
+
+		// more than the socket can take while the switch does not read.
+		OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+		byte[] data = new byte[60000];
+		int count = 100;
+		long total = 0;
+		for ( int i = 0; i < count; ++i ) {
+			OFMessage m = factory.buildEchoRequest().setXid(i).setData(data).build();
+			assertTrue(conn.write(m));
+			total += 8 + data.length;
+		}
+		assertTrue("OP_WRITE is not registered",
+				waitForInterestOps(key, SelectionKey.OP_READ | SelectionKey.OP_WRITE));
+		assertTrue(conn.hasPendingOutput());
+
+		// the switch reads all. the watcher writes the rest on the writable events.
+		SocketChannel peer = peers.get(0);
+		ByteBuffer in = ByteBuffer.allocate(65536);
+		long received = 0;
+		while ( received < total ) {
+			in.clear();
+			int n = peer.read(in);
+			assertTrue(n >= 0);
+			received += n;
+		}
+		assertEquals(total, received);
+
+		assertTrue("OP_WRITE is not cleared", waitForInterestOps(key, SelectionKey.OP_READ));
+		assertFalse(conn.hasPendingOutput());
+	}
+
+	@Test
+	public void testConnectionClosedByHandler() throws Exception {
+		handler.closeOnRead = true;
+		Connection conn = connect();
+
+		ChannelBuffer bb = ChannelBuffers.dynamicBuffer();
+		OFFactories.getFactory(OFVersion.OF_13).buildHello().setXid(1).build().writeTo(bb);
+		peers.get(0).write(bb.toByteBuffer());
+
+		assertTrue("disconnect is not handled", handler.disconnected.await(5, TimeUnit.SECONDS));
+		assertFalse(conn.isConnected());
+		assertNull(conn.getClient());
+
+		// the watcher survives the connection closed twice.
+		handler.closeOnRead = false;
+		Connection next = connect();
+		assertTrue(next.isConnected());
+		assertEquals(1, handler.disconnects.get());
+	}
+}
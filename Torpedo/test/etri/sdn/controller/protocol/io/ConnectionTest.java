@@ -0,0 +1,169 @@
+package etri.sdn.controller.protocol.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFMessageReader;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+public class ConnectionTest {
+
+	private static final int WRITERS = 4;
+	private static final int MESSAGES = 2000;
+
+	private ServerSocketChannel server;
+	private SocketChannel client;
+	private SocketChannel peer;
+	private Connection conn;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws IOException {
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		peer = SocketChannel.open(server.socket().getLocalSocketAddress());
+		client = server.accept();
+		client.configureBlocking(false);
+		client.socket().setSendBufferSize(65536);
+		conn = new Connection(client);
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		executor.shutdownNow();
+		conn.close();
+		peer.close();
+		server.close();
+	}
+
+	/**
+	 * Read and decode the given number of messages from the switch side.
+	 */
+	private Future<List<OFMessage>> receive(final int count) {
+		return executor.submit(new Callable<List<OFMessage>>() {
+			@Override
+			public List<OFMessage> call() throws Exception {
+				OFMessageReader<OFMessage> reader = OFFactories.getGenericReader();
+				ChannelBuffer bb = ChannelBuffers.dynamicBuffer(65536);
+				ByteBuffer in = ByteBuffer.allocate(65536);
+				List<OFMessage> ret = new ArrayList<OFMessage>();
+				while ( ret.size() < count ) {
+					in.clear();
+					if ( peer.read(in) < 0 ) {
+						break;
+					}
+					in.flip();
+					bb.writeBytes(in);
+					OFMessage m = null;
+					while ( (m = reader.readFrom(bb)) != null ) {
+						ret.add(m);
+					}
+					bb.discardReadBytes();
+				}
+				return ret;
+			}
+		});
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> writers = new ArrayList<Future<?>>();
+		for ( int w = 0; w < WRITERS; ++w ) {
+			final int writer = w;
+			writers.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					start.await();
+					for ( int i = 0; i < MESSAGES; ++i ) {
+						// xid tells the writer and the order of the message.
+						assertTrue(conn.write(factory.buildEchoRequest().setXid(writer * MESSAGES + i).build()));
+					}
+					return null;
+				}
+			}));
+		}
+		Future<List<OFMessage>> received = receive(WRITERS * MESSAGES);
+
+		// flush while the writers are running, as the watcher does.
+		start.countDown();
+		boolean running = true;
+		while ( running ) {
+			running = false;
+			for ( Future<?> f : writers ) {
+				running |= !f.isDone();
+			}
+			assertTrue(conn.flush());
+		}
+		for ( Future<?> f : writers ) {
+			f.get();
+		}
+		while ( conn.hasPendingOutput() ) {
+			assertTrue(conn.flush());
+		}
+
+		List<OFMessage> msgs = received.get(10, TimeUnit.SECONDS);
+		assertEquals(WRITERS * MESSAGES, msgs.size());
+		long[] last = new long[WRITERS];
+		for ( int w = 0; w < WRITERS; ++w ) {
+			last[w] = w * MESSAGES - 1;
+		}
+		for ( OFMessage m : msgs ) {
+			int writer = (int) (m.getXid() / MESSAGES);
+			assertEquals("out of order for writer " + writer, last[writer] + 1, m.getXid());
+			last[writer] = m.getXid();
+		}
+	}
+
+	@Test
+	public void testPendingOutputUntilDrained() throws Exception {
+		OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+		assertFalse(conn.hasPendingOutput());
+
+		// more than the socket can take while the switch does not read.
+		byte[] data = new byte[60000];
+		int count = 100;
+		for ( int i = 0; i < count; ++i ) {
+			assertTrue(conn.write(factory.buildEchoRequest().setXid(i).setData(data).build()));
+		}
+		assertTrue(conn.hasPendingOutput());
+		assertTrue(conn.flush());
+		assertTrue("the queue is not empty", conn.hasPendingOutput());
+
+		Future<List<OFMessage>> received = receive(count);
+		while ( conn.hasPendingOutput() ) {
+			assertTrue(conn.flush());
+			Thread.sleep(1);
+		}
+
+		List<OFMessage> msgs = received.get(10, TimeUnit.SECONDS);
+		assertEquals(count, msgs.size());
+		for ( int i = 0; i < count; ++i ) {
+			assertEquals(i, msgs.get(i).getXid());
+		}
+		assertFalse(conn.hasPendingOutput());
+	}
+}
@@ -0,0 +1,22 @@
+package etri.sdn.controller.protocol.io;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * Access to the package-private members of {@link Connection} for the tests in other packages.
+ */
+public final class Connections {
+
+	private Connections() {
+	}
+
+	/**
+	 * Create a connection that is not registered to any watcher.
+	 *
+	 * @param client	connected socket channel
+	 * @return			Connection object
+	 */
+	public static Connection open(SocketChannel client) {
+		return new Connection(client);
+	}
+}
@@ -0,0 +1,147 @@
+package etri.sdn.controller.protocol.packet;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+import etri.sdn.controller.MessageContext;
+
+public class EthernetTest {
+
+	private static byte[] udpPacket(short srcPort, short dstPort) {
+		Ethernet eth = new Ethernet()
+			.setSourceMACAddress("00:11:22:33:44:55")
+			.setDestinationMACAddress("ff:ff:ff:ff:ff:ff")
+			.setEtherType(Ethernet.TYPE_IPv4);
+		eth.setPayload(new IPv4()
+			.setTtl((byte) 64)
+			.setProtocol(IPv4.PROTOCOL_UDP)
+			.setSourceAddress("0.0.0.0")
+			.setDestinationAddress("255.255.255.255")
+			.setPayload(new UDP()
+				.setSourcePort(srcPort)
+				.setDestinationPort(dstPort)
+				.setPayload(new Data(new byte[] { 1, 2, 3, 4 }))));
+		return eth.serialize();
+	}
+
+	private static OFPacketIn packetIn(byte[] data) {
+		return OFFactories.getFactory(OFVersion.OF_10).buildPacketIn()
+				.setReason(OFPacketInReason.NO_MATCH)
+				.setData(data).build();
+	}
+
+	@After
+	public void tearDown() {
+		MessageContext.setReusePackets(false);
+	}
+
+	@Test
+	public void testLayers() {
+		byte[] data = PacketHeadersTest.tcpPacket((short) 10);
+		Ethernet eth = (Ethernet) new Ethernet().deserialize(data, 0, data.length);
+
+		assertEquals("00:11:22:33:44:55", eth.getSourceMAC().toString());
+		assertEquals(10, eth.getVlanID());
+		assertFalse(eth.isBroadcast());
+		assertFalse(eth.isMulticast());
+
+		IPv4 ip = (IPv4) eth.getPayload();
+		assertSame(eth, ip.getParent());
+		assertEquals(IPv4.toIPv4Address("10.0.0.1"), ip.getSourceAddress());
+		TCP tcp = (TCP) ip.getPayload();
+		assertEquals((short) 40000, tcp.getSourcePort());
+		assertEquals(80, tcp.getDestinationPort());
+
+		// the payloads that are not decoded yet are serialized too.
+		Ethernet copy = (Ethernet) new Ethernet().deserialize(data, 0, data.length);
+		assertArrayEquals(data, copy.serialize());
+		assertEquals(eth, copy);
+		assertEquals(eth.hashCode(), copy.hashCode());
+	}
+
+	@Test
+	public void testArp() {
+		byte[] data = PacketHeadersTest.arpPacket();
+		Ethernet eth = (Ethernet) new Ethernet().deserialize(data, 0, data.length);
+		assertTrue(eth.isBroadcast());
+
+		ARP arp = (ARP) eth.getPayload();
+		assertEquals(ARP.OP_REQUEST, arp.getOpCode());
+		assertArrayEquals(eth.getSourceMACAddress(), arp.getSenderHardwareAddress());
+		assertEquals(IPv4.toIPv4Address("10.0.0.1"), IPv4.toIPv4Address(arp.getSenderProtocolAddress()));
+		assertEquals(IPv4.toIPv4Address("10.0.0.2"), IPv4.toIPv4Address(arp.getTargetProtocolAddress()));
+
+		Ethernet other = (Ethernet) new Ethernet().deserialize(data, 0, data.length);
+		assertEquals(arp, other.getPayload());
+		assertArrayEquals(data, other.serialize());
+	}
+
+	@Test
+	public void testUdpPayload() {
+		byte[] dhcp = udpPacket((short) 68, (short) 67);
+		Ethernet eth = (Ethernet) new Ethernet().deserialize(dhcp, 0, dhcp.length);
+		assertTrue(eth.getPayload().getPayload().getPayload() instanceof DHCP);
+
+		byte[] other = udpPacket((short) 5000, (short) 6000);
+		eth = (Ethernet) new Ethernet().deserialize(other, 0, other.length);
+		IPacket payload = eth.getPayload().getPayload().getPayload();
+		assertTrue(payload instanceof Data);
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, Arrays.copyOf(((Data) payload).getData(), 4));
+	}
+
+	@Test
+	public void testReusePayload() {
+		Ethernet eth = new Ethernet();
+		eth.setReusePayload(true);
+
+		byte[] first = PacketHeadersTest.tcpPacket(Ethernet.VLAN_UNTAGGED);
+		eth.deserialize(first, 0, first.length);
+		IPv4 ip = (IPv4) eth.getPayload();
+		TCP tcp = (TCP) ip.getPayload();
+
+		byte[] second = udpPacket((short) 5000, (short) 6000);
+		eth.deserialize(second, 0, second.length);
+		assertSame(ip, eth.getPayload());
+		assertEquals(IPv4.PROTOCOL_UDP, ip.getProtocol());
+		assertTrue(ip.getPayload() instanceof UDP);
+
+		eth.deserialize(first, 0, first.length);
+		assertSame(ip, eth.getPayload());
+		assertNotSame(tcp, ip.getPayload());
+		assertEquals(80, ((TCP) ip.getPayload()).getDestinationPort());
+
+		byte[] arp = PacketHeadersTest.arpPacket();
+		eth.deserialize(arp, 0, arp.length);
+		assertTrue(eth.getPayload() instanceof ARP);
+		assertTrue(eth.isBroadcast());
+	}
+
+	@Test
+	public void testContextEthernet() {
+		OFPacketIn pi1 = packetIn(PacketHeadersTest.tcpPacket(Ethernet.VLAN_UNTAGGED));
+		OFPacketIn pi2 = packetIn(PacketHeadersTest.arpPacket());
+
+		MessageContext context = new MessageContext();
+		Ethernet eth = context.getEthernet(pi1);
+		assertSame(eth, context.get(MessageContext.ETHER_PAYLOAD));
+		assertSame(eth, context.getEthernet(pi1));
+		context.reset();
+		assertNotSame(eth, context.getEthernet(pi2));
+
+		MessageContext.setReusePackets(true);
+		context.reset();
+		eth = context.getEthernet(pi1);
+		assertTrue(eth.getPayload() instanceof IPv4);
+		context.reset();
+		assertSame(eth, context.getEthernet(pi2));
+		assertTrue(eth.getPayload() instanceof ARP);
+	}
+}
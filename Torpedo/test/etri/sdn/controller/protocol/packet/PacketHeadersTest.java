@@ -0,0 +1,184 @@
+package etri.sdn.controller.protocol.packet;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.ArpOpcode;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.OFVlanVidMatch;
+import org.projectfloodlight.openflow.types.TransportPort;
+
+import etri.sdn.controller.MessageContext;
+import etri.sdn.controller.protocol.OFProtocol;
+
+public class PacketHeadersTest {
+
+	private static final String SRC_MAC = "00:11:22:33:44:55";
+	private static final String DST_MAC = "66:77:88:99:aa:bb";
+
+	static byte[] tcpPacket(short vlan) {
+		Ethernet eth = new Ethernet()
+			.setSourceMACAddress(SRC_MAC)
+			.setDestinationMACAddress(DST_MAC)
+			.setEtherType(Ethernet.TYPE_IPv4)
+			.setVlanID(vlan)
+			.setPriorityCode((byte) 5);
+		eth.setPayload(new IPv4()
+			.setDiffServ((byte) 0x2e)
+			.setTtl((byte) 64)
+			.setProtocol(IPv4.PROTOCOL_TCP)
+			.setSourceAddress("10.0.0.1")
+			.setDestinationAddress("10.0.0.2")
+			.setPayload(new TCP()
+				.setSourcePort((short) 40000)
+				.setDestinationPort((short) 80)));
+		return eth.serialize();
+	}
+
+	static byte[] arpPacket() {
+		Ethernet eth = new Ethernet()
+			.setSourceMACAddress(SRC_MAC)
+			.setDestinationMACAddress("ff:ff:ff:ff:ff:ff")
+			.setEtherType(Ethernet.TYPE_ARP);
+		eth.setPayload(new ARP()
+			.setHardwareType(ARP.HW_TYPE_ETHERNET)
+			.setProtocolType(ARP.PROTO_TYPE_IP)
+			.setHardwareAddressLength((byte) 6)
+			.setProtocolAddressLength((byte) 4)
+			.setOpCode(ARP.OP_REQUEST)
+			.setSenderHardwareAddress(Ethernet.toMACAddress(SRC_MAC))
+			.setSenderProtocolAddress(IPv4.toIPv4Address("10.0.0.1"))
+			.setTargetHardwareAddress(new byte[6])
+			.setTargetProtocolAddress(IPv4.toIPv4Address("10.0.0.2")));
+		return eth.serialize();
+	}
+
+	@Test
+	public void testTcpMatchesEthernetDeserialize() {
+		byte[] data = tcpPacket(Ethernet.VLAN_UNTAGGED);
+		Ethernet eth = (Ethernet) new Ethernet().deserialize(data, 0, data.length);
+		IPv4 ip = (IPv4) eth.getPayload();
+		TCP tcp = (TCP) ip.getPayload();
+
+		PacketHeaders h = new PacketHeaders(data);
+		assertTrue(h.hasEthernet());
+		assertEquals(eth.getSourceMAC().toLong(), h.getSourceMAC());
+		assertEquals(eth.getDestinationMAC().toLong(), h.getDestinationMAC());
+		assertEquals(eth.getEtherType(), h.getEtherType());
+		assertEquals(PacketHeaders.VLAN_UNTAGGED, h.getVlanID());
+		assertFalse(h.isBroadcast());
+		assertFalse(h.isMulticast());
+
+		assertTrue(h.isIPv4());
+		assertFalse(h.isARP());
+		assertEquals(ip.getDiffServ(), h.getNetworkTypeOfService());
+		assertEquals(ip.getProtocol(), h.getNetworkProtocol());
+		assertEquals(ip.getSourceAddress(), h.getNetworkSource());
+		assertEquals(ip.getDestinationAddress(), h.getNetworkDestination());
+
+		assertTrue(h.hasTransportPorts());
+		assertEquals(tcp.getSourcePort(), h.getTransportSource());
+		assertEquals(tcp.getDestinationPort(), h.getTransportDestination());
+	}
+
+	@Test
+	public void testVlanTaggedMatch() {
+		byte[] data = tcpPacket((short) 100);
+		PacketHeaders h = new PacketHeaders(data);
+		assertEquals(100, h.getVlanID());
+		assertEquals(5, h.getPriorityCode());
+		assertEquals(Ethernet.TYPE_IPv4, h.getEtherType());
+		assertEquals(18, h.getNetworkOffset());
+
+		Match m = new OFProtocol(null).loadOFMatchFromPacket(OFVersion.OF_13, h, OFPort.of(3), false);
+		assertEquals(OFPort.of(3), m.get(MatchField.IN_PORT));
+		assertEquals(MacAddress.of(SRC_MAC), m.get(MatchField.ETH_SRC));
+		assertEquals(MacAddress.of(DST_MAC), m.get(MatchField.ETH_DST));
+		assertEquals(EthType.IPv4, m.get(MatchField.ETH_TYPE));
+		assertEquals(OFVlanVidMatch.ofVlan(100), m.get(MatchField.VLAN_VID));
+		assertEquals(IpProtocol.TCP, m.get(MatchField.IP_PROTO));
+		assertEquals(IPv4Address.of("10.0.0.1"), m.get(MatchField.IPV4_SRC));
+		assertEquals(IPv4Address.of("10.0.0.2"), m.get(MatchField.IPV4_DST));
+		assertEquals(TransportPort.of(40000), m.get(MatchField.TCP_SRC));
+		assertEquals(TransportPort.of(80), m.get(MatchField.TCP_DST));
+
+		Match l2 = new OFProtocol(null).loadOFMatchFromPacket(OFVersion.OF_13, h, OFPort.of(3), true);
+		assertNull(l2.get(MatchField.IP_PROTO));
+	}
+
+	@Test
+	public void testArp() {
+		byte[] data = arpPacket();
+		PacketHeaders h = new PacketHeaders(data);
+		assertTrue(h.isBroadcast());
+		assertTrue(h.isMulticast());
+		assertTrue(h.isARP());
+		assertFalse(h.isIPv4());
+		assertTrue(h.hasArpIPv4Addresses());
+		assertEquals(ARP.OP_REQUEST, h.getArpOpcode());
+		assertEquals(h.getSourceMAC(), h.getArpSenderHardwareAddress());
+		assertEquals(IPv4.toIPv4Address("10.0.0.1"), h.getArpSenderProtocolAddress());
+		assertEquals(IPv4.toIPv4Address("10.0.0.2"), h.getArpTargetProtocolAddress());
+		assertFalse(h.hasTransportPorts());
+
+		Match m = new OFProtocol(null).loadOFMatchFromPacket(OFVersion.OF_10, h, OFPort.of(1), false);
+		assertEquals(EthType.ARP, m.get(MatchField.ETH_TYPE));
+		assertEquals(ArpOpcode.REQUEST, m.get(MatchField.ARP_OP));
+		assertEquals(IPv4Address.of("10.0.0.1"), m.get(MatchField.ARP_SPA));
+		assertEquals(IPv4Address.of("10.0.0.2"), m.get(MatchField.ARP_TPA));
+	}
+
+	@Test
+	public void testTruncated() {
+		byte[] data = tcpPacket(Ethernet.VLAN_UNTAGGED);
+
+		PacketHeaders h = new PacketHeaders().wrap(data, 0, 10);
+		assertFalse(h.hasEthernet());
+		assertFalse(h.isIPv4());
+		assertFalse(h.hasTransportPorts());
+
+		// Ethernet header and a part of IPv4 header
+		h.wrap(data, 0, 30);
+		assertTrue(h.hasEthernet());
+		assertEquals(Ethernet.TYPE_IPv4, h.getEtherType());
+		assertFalse(h.isIPv4());
+		assertEquals(0, h.getNetworkSource());
+
+		// IPv4 header without the ports
+		h.wrap(data, 0, 35);
+		assertTrue(h.isIPv4());
+		assertFalse(h.hasTransportPorts());
+		assertEquals(0, h.getTransportSource());
+	}
+
+	@Test
+	public void testContextReusesHeaders() {
+		OFPacketIn pi1 = OFFactories.getFactory(OFVersion.OF_10).buildPacketIn()
+				.setReason(OFPacketInReason.NO_MATCH)
+				.setData(tcpPacket(Ethernet.VLAN_UNTAGGED)).build();
+		OFPacketIn pi2 = OFFactories.getFactory(OFVersion.OF_10).buildPacketIn()
+				.setReason(OFPacketInReason.NO_MATCH)
+				.setData(arpPacket()).build();
+
+		MessageContext context = new MessageContext();
+		PacketHeaders h = context.getPacketHeaders(pi1);
+		assertTrue(h.isIPv4());
+		assertSame(h, context.getPacketHeaders(pi1));
+
+		context.reset();
+		PacketHeaders h2 = context.getPacketHeaders(pi2);
+		assertSame(h, h2);
+		assertTrue(h2.isARP());
+		assertFalse(h2.isIPv4());
+	}
+}
@@ -0,0 +1,78 @@
+package etri.sdn.controller.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SpscRingBufferTest {
+
+	@Test
+	public void testCapacity() {
+		SpscRingBuffer<Integer> ring = new SpscRingBuffer<Integer>(3);
+		assertEquals(4, ring.capacity());
+		assertTrue(ring.isEmpty());
+
+		for ( int i = 0; i < 4; ++i ) {
+			assertTrue(ring.offer(i));
+		}
+		assertFalse(ring.offer(4));
+		assertEquals(4, ring.size());
+
+		assertEquals(Integer.valueOf(0), ring.poll());
+		assertTrue(ring.offer(4));
+		assertFalse(ring.offer(5));
+	}
+
+	@Test
+	public void testOrder() {
+		SpscRingBuffer<Integer> ring = new SpscRingBuffer<Integer>(8);
+		List<Integer> out = new ArrayList<Integer>();
+
+		for ( int round = 0; round < 10; ++round ) {
+			for ( int i = 0; i < 5; ++i ) {
+				assertTrue(ring.offer(round * 5 + i));
+			}
+			assertEquals(3, ring.drainTo(out, 3));
+			assertEquals(2, ring.drainTo(out, 100));
+			assertNull(ring.poll());
+		}
+
+		assertEquals(50, out.size());
+		for ( int i = 0; i < out.size(); ++i ) {
+			assertEquals(Integer.valueOf(i), out.get(i));
+		}
+	}
+
+	@Test
+	public void testConcurrentHandOff() throws InterruptedException {
+		final int count = 1000000;
+		final SpscRingBuffer<Integer> ring = new SpscRingBuffer<Integer>(64);
+
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				for ( int i = 0; i < count; ++i ) {
+					while ( !ring.offer(i) ) {
+						Thread.yield();
+					}
+				}
+			}
+		};
+		producer.start();
+
+		int expected = 0;
+		while ( expected < count ) {
+			Integer v = ring.poll();
+			if ( v == null ) {
+				Thread.yield();
+				continue;
+			}
+			assertEquals(expected++, v.intValue());
+		}
+		producer.join();
+		assertTrue(ring.isEmpty());
+	}
+}
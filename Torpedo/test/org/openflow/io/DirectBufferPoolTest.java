@@ -0,0 +1,73 @@
+package org.openflow.io;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class DirectBufferPoolTest {
+
+	@Test
+	public void testSizeClasses() {
+		DirectBufferPool pool = new DirectBufferPool(4096, 65536, 1024 * 1024);
+
+		ByteBuffer b = pool.allocate(100);
+		assertTrue(b.isDirect());
+		assertEquals(4096, b.capacity());
+
+		ByteBuffer c = pool.allocate(5000);
+		assertEquals(8192, c.capacity());
+
+		ByteBuffer d = pool.allocate(100000);
+		assertEquals(100000, d.capacity());
+
+		DirectBufferPool.Statistics s = pool.getStatistics();
+		assertEquals(3, s.getBorrows());
+		assertEquals(0, s.getHits());
+		assertEquals(1, s.getOversized());
+		assertEquals(4096 + 8192 + 100000, s.getBorrowedBytes());
+
+		pool.release(b);
+		pool.release(c);
+		pool.release(d);
+
+		s = pool.getStatistics();
+		assertEquals(0, s.getBorrowedBytes());
+		assertEquals(4096 + 8192, s.getRetainedBytes());
+		assertEquals(4096 + 8192, s.getAllocatedBytes());
+	}
+
+	@Test
+	public void testReuse() {
+		DirectBufferPool pool = new DirectBufferPool(4096, 65536, 1024 * 1024);
+
+		ByteBuffer b = pool.allocate(4000);
+		b.putInt(1);
+		pool.release(b);
+
+		ByteBuffer c = pool.allocate(4096);
+		assertSame(b, c);
+		assertEquals(0, c.position());
+		assertEquals(c.capacity(), c.limit());
+		assertEquals(1, pool.getStatistics().getHits());
+	}
+
+	@Test
+	public void testRetainLimit() {
+		DirectBufferPool pool = new DirectBufferPool(4096, 65536, 8192);
+
+		ByteBuffer[] bufs = new ByteBuffer[3];
+		for ( int i = 0; i < bufs.length; ++i ) {
+			bufs[i] = pool.allocate(4096);
+		}
+		for ( int i = 0; i < bufs.length; ++i ) {
+			pool.release(bufs[i]);
+		}
+
+		DirectBufferPool.Statistics s = pool.getStatistics();
+		assertEquals(8192, s.getRetainedBytes());
+		assertEquals(1, s.getDiscarded());
+		assertEquals(8192, s.getAllocatedBytes());
+	}
+}
@@ -0,0 +1,62 @@
+package org.openflow.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+public class OFMessageAsyncStreamTest {
+
+	private ChannelBuffer echoes(int count) {
+		OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+		ChannelBuffer data = ChannelBuffers.dynamicBuffer();
+		for ( int i = 0; i < count; ++i ) {
+			factory.buildEchoRequest().setXid(i).setData(new byte[i]).build().writeTo(data);
+		}
+		return data;
+	}
+
+	@Test
+	public void testReadLimit() throws IOException {
+		OFMessageAsyncStream stream = new OFMessageAsyncStream(null, new DirectBufferPool(4096, 65536, 0));
+		ChannelBuffer data = echoes(5);
+		List<OFMessage> out = new ArrayList<OFMessage>();
+
+		assertEquals(3, stream.parseMessages(data, out, 3));
+		assertEquals(3, out.size());
+		assertEquals(2, out.get(2).getXid());
+
+		assertEquals(2, stream.parseMessages(data, out, 3));
+		assertEquals(5, out.size());
+		assertEquals(4, out.get(4).getXid());
+		assertFalse(data.readable());
+	}
+
+	@Test
+	public void testPartialMessage() throws IOException {
+		OFMessageAsyncStream stream = new OFMessageAsyncStream(null, new DirectBufferPool(4096, 65536, 0));
+		ChannelBuffer data = echoes(2);
+		ChannelBuffer partial = data.slice(0, data.readableBytes() - 1);
+		List<OFMessage> out = new ArrayList<OFMessage>();
+
+		assertEquals(1, stream.parseMessages(partial, out, 0));
+		assertEquals(8, partial.readerIndex());
+		assertEquals(8, partial.readableBytes());
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongLength() throws IOException {
+		OFMessageAsyncStream stream = new OFMessageAsyncStream(null, new DirectBufferPool(4096, 65536, 0));
+		ChannelBuffer data = ChannelBuffers.wrappedBuffer(new byte[] { 4, 2, 0, 0, 0, 0, 0, 1 });
+		stream.parseMessages(data, new ArrayList<OFMessage>(), 0);
+	}
+}
@@ -0,0 +1,128 @@
+package org.openflow.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.exceptions.OFParseError;
+import org.projectfloodlight.openflow.protocol.OFEchoRequest;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+public class SocketWriteByteChannelBufferTest {
+
+	private ServerSocketChannel server;
+	private SocketChannel client;
+	private SocketChannel accepted;
+	private DirectBufferPool pool;
+
+	@Before
+	public void setUp() throws IOException {
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		client = SocketChannel.open(server.socket().getLocalSocketAddress());
+		accepted = server.accept();
+		pool = new DirectBufferPool(64, 65536, 1024 * 1024);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		client.close();
+		accepted.close();
+		server.close();
+	}
+
+	private byte[] payload(int length, int seed) {
+		byte[] data = new byte[length];
+		for ( int i = 0; i < length; ++i ) {
+			data[i] = (byte) (seed + i);
+		}
+		return data;
+	}
+
+	private byte[] receive(int length) throws IOException {
+		ByteBuffer in = ByteBuffer.allocate(length);
+		while ( in.hasRemaining() ) {
+			if ( client.read(in) < 0 ) {
+				break;
+			}
+		}
+		return in.array();
+	}
+
+	@Test
+	public void testMessagesSpanningSegments() throws IOException, OFParseError {
+		OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+		SocketWriteByteChannelBuffer buf = new SocketWriteByteChannelBuffer(pool, 64);
+
+		int total = 0;
+		for ( int i = 0; i < 20; ++i ) {
+			// lengths are chosen so that headers and payloads cross segment boundaries.
+			OFEchoRequest echo = factory.buildEchoRequest().setXid(i).setData(payload(i * 13, i)).build();
+			echo.writeTo(buf);
+			total += 8 + i * 13;
+		}
+		assertEquals(total, buf.writerIndex());
+		assertEquals(total, buf.pendingBytes());
+		assertTrue(pool.getStatistics().getBorrowedBytes() >= total);
+
+		assertEquals(total, buf.write(accepted));
+		assertFalse(buf.hasPendingBytes());
+		assertEquals(0, pool.getStatistics().getBorrowedBytes());
+
+		byte[] received = receive(total);
+		ChannelBuffer in = ChannelBuffers.wrappedBuffer(received);
+		for ( int i = 0; i < 20; ++i ) {
+			OFMessage m = OFFactories.getGenericReader().readFrom(in);
+			assertTrue(m instanceof OFEchoRequest);
+			assertEquals(i, m.getXid());
+			assertArrayEquals(payload(i * 13, i), ((OFEchoRequest) m).getData());
+		}
+	}
+
+	@Test
+	public void testSetAcrossSegments() throws IOException {
+		SocketWriteByteChannelBuffer buf = new SocketWriteByteChannelBuffer(pool, 64);
+
+		buf.writeZero(62);
+		int index = buf.writerIndex();
+		buf.writeLong(0);
+		buf.setLong(index, 0x0102030405060708L);
+		buf.setShort(0, 0xabcd);
+
+		assertEquals(70, buf.write(accepted));
+		byte[] received = receive(70);
+		ByteBuffer bb = ByteBuffer.wrap(received);
+		assertEquals((short) 0xabcd, bb.getShort(0));
+		assertEquals(0x0102030405060708L, bb.getLong(62));
+	}
+
+	@Test
+	public void testTruncate() throws IOException {
+		SocketWriteByteChannelBuffer buf = new SocketWriteByteChannelBuffer(pool, 64);
+
+		buf.writeInt(0x11223344);
+		int mark = buf.writerIndex();
+		buf.writeBytes(payload(200, 0));
+		buf.writerIndex(mark);
+		assertEquals(4, buf.pendingBytes());
+		assertEquals(64, buf.capacity());
+
+		buf.writeInt(0x55667788);
+		assertEquals(8, buf.write(accepted));
+		ByteBuffer bb = ByteBuffer.wrap(receive(8));
+		assertEquals(0x11223344, bb.getInt(0));
+		assertEquals(0x55667788, bb.getInt(4));
+	}
+}
@@ -0,0 +1,131 @@
+package org.openflow.protocol;
+
+import static org.junit.Assert.*;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import org.projectfloodlight.openflow.exceptions.OFParseError;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TableId;
+import org.projectfloodlight.openflow.types.U64;
+
+public class OFPacketInViewTest {
+
+	private byte[] frame() {
+		byte[] data = new byte[60];
+		for ( int i = 0; i < data.length; ++i ) {
+			data[i] = (byte) i;
+		}
+		return data;
+	}
+
+	private OFPacketInView view(OFPacketIn pi) throws OFParseError {
+		ChannelBuffer bb = ChannelBuffers.dynamicBuffer();
+		bb.writeInt(0xdeadbeef);		// garbage before the message
+		bb.readerIndex(4);
+		pi.writeTo(bb);
+		assertTrue(OFPacketInView.isViewable(bb, 4));
+		OFPacketInView view = OFPacketInView.readFrom(bb);
+		assertFalse(bb.readable());
+		return view;
+	}
+
+	@Test
+	public void testOF10() throws OFParseError {
+		OFFactory factory = OFFactories.getFactory(OFVersion.OF_10);
+		OFPacketIn pi = factory.buildPacketIn()
+				.setXid(77)
+				.setBufferId(OFBufferId.of(1234))
+				.setTotalLen(60)
+				.setInPort(OFPort.of(3))
+				.setReason(OFPacketInReason.ACTION)
+				.setData(frame())
+				.build();
+
+		OFPacketInView view = view(pi);
+		assertEquals(OFVersion.OF_10, view.getVersion());
+		assertEquals(77, view.getXid());
+		assertEquals(OFBufferId.of(1234), view.getBufferId());
+		assertEquals(60, view.getTotalLen());
+		assertEquals(OFPort.of(3), view.getInPort());
+		assertEquals(OFPacketInReason.ACTION, view.getReason());
+		assertArrayEquals(frame(), view.getData());
+		assertEquals(60, view.getPayload().readableBytes());
+		assertEquals(pi, view.materialize());
+	}
+
+	@Test
+	public void testEquals() throws OFParseError {
+		OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+		OFPacketIn pi = factory.buildPacketIn()
+				.setXid(79)
+				.setBufferId(OFBufferId.NO_BUFFER)
+				.setTotalLen(60)
+				.setReason(OFPacketInReason.NO_MATCH)
+				.setMatch(factory.buildMatch().build())
+				.setData(frame())
+				.build();
+
+		OFPacketInView a = view(pi);
+		OFPacketInView b = view(pi);
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+
+		// a view and the decoded message are not equal in either direction.
+		assertFalse(a.equals(pi));
+		assertFalse(pi.equals(a));
+		assertEquals(pi, a.materialize());
+	}
+
+	@Test
+	public void testOF13() throws OFParseError {
+		OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+		OFPacketIn pi = factory.buildPacketIn()
+				.setXid(78)
+				.setBufferId(OFBufferId.NO_BUFFER)
+				.setTotalLen(60)
+				.setReason(OFPacketInReason.NO_MATCH)
+				.setTableId(TableId.of(2))
+				.setCookie(U64.of(0x1122334455667788L))
+				.setMatch(factory.buildMatch().setExact(MatchField.IN_PORT, OFPort.of(5)).build())
+				.setData(frame())
+				.build();
+
+		OFPacketInView view = view(pi);
+		assertEquals(OFVersion.OF_13, view.getVersion());
+		assertEquals(78, view.getXid());
+		assertEquals(OFBufferId.NO_BUFFER, view.getBufferId());
+		assertEquals(OFPacketInReason.NO_MATCH, view.getReason());
+		assertEquals(TableId.of(2), view.getTableId());
+		assertEquals(U64.of(0x1122334455667788L), view.getCookie());
+		assertEquals(OFPort.of(5), view.getMatch().get(MatchField.IN_PORT));
+		assertArrayEquals(frame(), view.getData());
+		assertEquals(pi, view.materialize());
+
+		ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+		view.writeTo(out);
+		ChannelBuffer expected = ChannelBuffers.dynamicBuffer();
+		pi.writeTo(expected);
+		assertEquals(expected, out);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testUnsupported() throws OFParseError {
+		OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+		OFPacketIn pi = factory.buildPacketIn()
+				.setBufferId(OFBufferId.NO_BUFFER)
+				.setReason(OFPacketInReason.NO_MATCH)
+				.setMatch(factory.buildMatch().build())
+				.setData(frame())
+				.build();
+		view(pi).getInPort();
+	}
+}